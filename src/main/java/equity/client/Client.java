@@ -1,6 +1,7 @@
 package equity.client;
 
 import equity.objectpooling.Order;
+import equity.objectpooling.PriceScale;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -55,7 +56,7 @@ public class Client {
 		//Stock No: Broker ID: Order Type: B/S: Price: Quantity
 		String message = order.getStockNo() + ":" + order.getBrokerID() + ":" + order.getClientOrdID() + ":"
 				+ order.getOrderType() + ":" + order.getBuyOrSell() + ":"
-				+ order.getPrice().get() + ":" + order.getQuantity();
+				+ PriceScale.of(order.getStockNo()).toDecimal(order.getPrice()) + ":" + order.getQuantity();
 		return sendMessageToServer(client, message);
 //					message = "00001:003:L:B:8.1:500";
 //					message = "00001:003:L:B:8.2:400";
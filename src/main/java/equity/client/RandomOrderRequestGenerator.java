@@ -4,6 +4,7 @@ import equity.objectpooling.OrderPoolManager;
 import equity.objectpooling.Order;
 import equity.objectpooling.Order.Side;
 import equity.objectpooling.Order.OrderType;
+import equity.objectpooling.PriceScale;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -40,7 +41,7 @@ public class RandomOrderRequestGenerator {
 			qty = randomSeed.nextInt(1,9) * 10;
 		OrderType orderType = OrderType.LIMIT;
 
-		return OrderPoolManager.requestOrderObj(stockNo, brokerID, clientOrdID, orderType, side, price, qty);
+		return OrderPoolManager.requestOrderObj(stockNo, brokerID, clientOrdID, orderType, side, PriceScale.of(stockNo).toPrice(price), qty);
 	}
 
 	public static Order getNewMarketOrder(String stockNo, String brokerID, String clientOrdID, String direction, Integer qty) {
@@ -59,7 +60,7 @@ public class RandomOrderRequestGenerator {
 			qty = randomSeed.nextInt(1000);
 		OrderType orderType = OrderType.MARKET;
 
-		return OrderPoolManager.requestOrderObj(stockNo, brokerID, clientOrdID, orderType, side, null, qty);
+		return OrderPoolManager.requestOrderObj(stockNo, brokerID, clientOrdID, orderType, side, PriceScale.NO_PRICE, qty);
 	}
 
 }
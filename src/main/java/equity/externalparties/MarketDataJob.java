@@ -1,32 +1,130 @@
 package equity.externalparties;
 
 import equity.objectpooling.MarketData;
+import equity.objectpooling.OrderPoolManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.BatchSizeHistogram;
+import util.EngineThreads;
 import util.FileChannelService;
+import util.IdleStrategy;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import static util.ReadConfig.dotenv;
 
 public class MarketDataJob implements Runnable {
     private static final Logger log = LogManager.getLogger(MarketDataJob.class);
-    private final LinkedBlockingQueue<MarketData> marketDataQueue;
+    private final BlockingQueue<MarketData> marketDataQueue;
     FileChannelService fileChannelService;
     private boolean listening = true;
+    private IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
+    private int maxBatchSize = EngineThreads.DEFAULT_BATCH_SIZE;
+    private BatchSizeHistogram batchSizeHistogram = new BatchSizeHistogram("MarketData");
+    // Reused between batches
+    private final List<MarketData> batch = new ArrayList<>();
+    private final Map<String, List<MarketData>> batchByStock = new LinkedHashMap<>();
 
-    public MarketDataJob(LinkedBlockingQueue<MarketData> marketDataQueue, FileChannelService fileChannelService) {
+    public MarketDataJob(BlockingQueue<MarketData> marketDataQueue, FileChannelService fileChannelService) {
         this.marketDataQueue = marketDataQueue;
         this.fileChannelService = fileChannelService;
     }
 
+    /**
+     * Creates a job without a queue, the updates are passed to {@link #processMarketData(MarketData)} by a pipeline stage.
+     */
+    public MarketDataJob(FileChannelService fileChannelService) {
+        this(null, fileChannelService);
+    }
+
+    /**
+     * Writes a market data update to the file of its stock if isWriteToFile is set, then returns the
+     * update to its pool.
+     *
+     * @param data the market data update
+     * @throws IOException if the file cannot be written
+     */
+    public void processMarketData(MarketData data) throws IOException {
+        try {
+            Path path = Paths.get(dotenv.get("marketData") + "_" + data.stockNo() + "_"
+                    + LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd")) + ".txt");
+            boolean writeToFile = Objects.equals(dotenv.get("isWriteToFile"), "true");
+            if (writeToFile && fileChannelService.writeMarketDataToFile(data, path) ==0)
+                log.error("Cannot write log to {}", path);
+        } finally {
+            OrderPoolManager.returnMarketDataObj(data);
+        }
+    }
+
+    /**
+     * Writes a batch of market data updates if isWriteToFile is set, appending the updates of each stock
+     * to its file with one write, then returns the updates to their pool.
+     *
+     * @param updates the market data updates in publishing order
+     * @throws IOException if a file cannot be written
+     */
+    public void processMarketDataBatch(List<MarketData> updates) throws IOException {
+        try {
+            writeMarketDataBatch(updates);
+        } finally {
+            updates.forEach(OrderPoolManager::returnMarketDataObj);
+        }
+    }
+
+    private void writeMarketDataBatch(List<MarketData> updates) throws IOException {
+        if (!Objects.equals(dotenv.get("isWriteToFile"), "true"))
+            return;
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        for (MarketData data : updates) {
+            batchByStock.computeIfAbsent(data.stockNo(), stockNo -> new ArrayList<>()).add(data);
+        }
+        for (Map.Entry<String, List<MarketData>> entry : batchByStock.entrySet()) {
+            List<MarketData> stockUpdates = entry.getValue();
+            if (stockUpdates.isEmpty()) {
+                continue;
+            }
+            Path path = Paths.get(dotenv.get("marketData") + "_" + entry.getKey() + "_" + date + ".txt");
+            try {
+                if (fileChannelService.writeMarketDataToFile(stockUpdates, path) == 0)
+                    log.error("Cannot write log to {}", path);
+            } finally {
+                stockUpdates.clear();
+            }
+        }
+    }
+
+    /**
+     * @param idleStrategy what the thread does while the market data queue is empty
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    /**
+     * @param maxBatchSize       the maximum number of updates taken from the queue per pass
+     * @param batchSizeHistogram the histogram recording the number of updates of each pass
+     */
+    public void setBatching(int maxBatchSize, BatchSizeHistogram batchSizeHistogram) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizeHistogram = batchSizeHistogram;
+    }
+
+    public BatchSizeHistogram getBatchSizeHistogram() {
+        return batchSizeHistogram;
+    }
+
     /**
      * Continuously listens for market data updates from the marketDataQueue and writes the data to a file in a specific format.
+     * The updates queued together are drained and written as one batch.
      * The file will contain information such as stock name, best bID and ask prices, last trade price, and lists of bID and ask orders.
      * The file is named based on the stock number and the current date appended with a '.txt' extension.
      * If an exception occurs while processing the data or writing to the file, the method will log the error and stop listening for updates.
@@ -35,16 +133,13 @@ public class MarketDataJob implements Runnable {
     public void run() {
         while (listening) {
             try {
-                MarketData data = marketDataQueue.take();
-
-                Path path = Paths.get(dotenv.get("marketData") + "_" + data.stockNo() + "_"
-                        + LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd")) + ".txt");
-                boolean writeToFile = Objects.equals(dotenv.get("isWriteToFile"), "true");
-                if (writeToFile && fileChannelService.writeMarketDataToFile(data, path) ==0)
-                    log.error("Cannot write log to {}", path);
+                batchSizeHistogram.record(idleStrategy.drain(marketDataQueue, batch, maxBatchSize));
+                processMarketDataBatch(batch);
             } catch (InterruptedException | IOException e) {
                 log.error(e);
                 listening = false;
+            } finally {
+                batch.clear();
             }
         }
     }
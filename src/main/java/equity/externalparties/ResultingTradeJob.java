@@ -5,33 +5,54 @@ import equity.objectpooling.OrderPoolManager;
 import equity.objectpooling.Trade;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import quickfix.SessionID;
 import quickfix.field.ExecType;
 import quickfix.field.OrdStatus;
 import quickfix.field.Side;
+import util.BatchSizeHistogram;
+import util.EngineThreads;
 import util.FileChannelService;
+import util.IdleStrategy;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 
 import static util.ReadConfig.dotenv;
 
 public class ResultingTradeJob implements Runnable {
     private static final Logger log = LogManager.getLogger(ResultingTradeJob.class);
-    private final LinkedBlockingQueue<Trade> resultingTradeQueue;
+    private final BlockingQueue<Trade> resultingTradeQueue;
     private final FIXTradeServerApp fixTradeServer;
     FileChannelService fileChannelService;
     private boolean listening = true;
+    private IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
+    private int maxBatchSize = EngineThreads.DEFAULT_BATCH_SIZE;
+    private BatchSizeHistogram batchSizeHistogram = new BatchSizeHistogram("TradeData");
+    // Reused between batches
+    private final List<Trade> batch = new ArrayList<>();
+    private final Map<String, List<Trade>> batchByStock = new LinkedHashMap<>();
 
-    public ResultingTradeJob(LinkedBlockingQueue<Trade> resultingTradeQueue, FIXTradeServerApp fixTradeServer, FileChannelService fileChannelService) {
+    public ResultingTradeJob(BlockingQueue<Trade> resultingTradeQueue, FIXTradeServerApp fixTradeServer, FileChannelService fileChannelService) {
         this.resultingTradeQueue = resultingTradeQueue;
         this.fixTradeServer = fixTradeServer;
         this.fileChannelService = fileChannelService;
     }
 
+    /**
+     * Creates a job without a queue, the trades are passed to {@link #processTradeData(Trade)} by a pipeline stage.
+     */
+    public ResultingTradeJob(FIXTradeServerApp fixTradeServer, FileChannelService fileChannelService) {
+        this(null, fixTradeServer, fileChannelService);
+    }
+
 
     public void processTradeData(Trade tradeData) throws InterruptedException,IOException{
 
@@ -60,18 +81,87 @@ public class ResultingTradeJob implements Runnable {
         OrderPoolManager.returnTradeObj(tradeData);
     }
 
+    /**
+     * Processes a batch of trades: the trades of each stock are appended to its file with one write,
+     * then the execution reports are sent and the trades returned to the pool.
+     *
+     * @param trades the trades in execution order
+     * @throws IOException if a file cannot be written
+     */
+    public void processTradeBatch(List<Trade> trades) throws IOException {
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        for (Trade trade : trades) {
+            batchByStock.computeIfAbsent(trade.getStockNo(), stockNo -> new ArrayList<>()).add(trade);
+        }
+        for (Map.Entry<String, List<Trade>> entry : batchByStock.entrySet()) {
+            List<Trade> stockTrades = entry.getValue();
+            if (stockTrades.isEmpty()) {
+                continue;
+            }
+            Path path = Paths.get(dotenv.get("tradeData") + "_" + entry.getKey() + "_" + date + ".csv");
+            try {
+                if (fileChannelService.writeTradesToFile(stockTrades, path) == 0)
+                    log.error("Cannot write log to {}", path);
+            } catch (Exception e) {
+                log.error(e);
+            }
+            stockTrades.clear();
+        }
+
+        // Send FIX messages if applicable
+        SessionID sessionID = fixTradeServer.getSessionID();
+        for (Trade tradeData : trades) {
+            if (sessionID != null) {
+                fixTradeServer.sendExecutionReport(sessionID,
+                        tradeData.getBuyBrokerID(), tradeData.getStockNo(), new Side(Side.BUY),
+                        new ExecType(ExecType.TRADE), new OrdStatus(OrdStatus.FILLED),
+                        tradeData.getExecutedQty(), tradeData.getExecutedPrice());
+                fixTradeServer.sendExecutionReport(sessionID,
+                        tradeData.getSellBrokerID(), tradeData.getStockNo(), new Side(Side.SELL),
+                        new ExecType(ExecType.TRADE), new OrdStatus(OrdStatus.FILLED),
+                        tradeData.getExecutedQty(), tradeData.getExecutedPrice());
+            }
+            // Return Trade object to the pool
+            OrderPoolManager.returnTradeObj(tradeData);
+        }
+    }
+
+    /**
+     * @param idleStrategy what the thread does while the trade queue is empty
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    /**
+     * @param maxBatchSize       the maximum number of trades taken from the queue per pass
+     * @param batchSizeHistogram the histogram recording the number of trades of each pass
+     */
+    public void setBatching(int maxBatchSize, BatchSizeHistogram batchSizeHistogram) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizeHistogram = batchSizeHistogram;
+    }
+
+    public BatchSizeHistogram getBatchSizeHistogram() {
+        return batchSizeHistogram;
+    }
+
     /**
      * This method continuously listens for trade data from a queue and processes it by writing the information to a CSV file
-     * and sending a FIX message if applicable. It runs in a loop until the listening flag is set to false.
+     * and sending a FIX message if applicable. The trades queued together are drained and processed as one batch.
+     * It runs in a loop until the listening flag is set to false.
      */
     @Override
     public void run() {
         while (listening) {
             try {
-                processTradeData(resultingTradeQueue.take());
+                batchSizeHistogram.record(idleStrategy.drain(resultingTradeQueue, batch, maxBatchSize));
+                processTradeBatch(batch);
             } catch (InterruptedException | IOException e) {
                 log.error(e);
                 listening = false;
+            } finally {
+                batch.clear();
             }
         }
     }
@@ -2,6 +2,7 @@ package equity.fix.server;
 
 import equity.objectpooling.OrderPoolManager;
 import equity.objectpooling.Order;
+import equity.objectpooling.PriceScale;
 import equity.objectpooling.Order.Side;
 import equity.objectpooling.Order.OrderType;
 import org.apache.logging.log4j.LogManager;
@@ -12,9 +13,9 @@ import quickfix.field.*;
 import quickfix.fix44.ExecutionReport;
 import quickfix.fix44.MessageCracker;
 import quickfix.fix44.NewOrderSingle;
+import util.Publisher;
 import util.SequenceGenerator;
 
-import java.math.BigDecimal;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static quickfix.field.OrdType.MARKET;
@@ -27,7 +28,7 @@ import static quickfix.field.Side.BUY;
  */
 public class FIXTradeServerApp extends MessageCracker implements Application, Runnable {
     private static final Logger log = LogManager.getLogger(FIXTradeServerApp.class);
-    private final LinkedBlockingQueue<Order> orderQueue;
+    private final Publisher<Order> orderPublisher;
     private final SequenceGenerator executionIDGenerator = new SequenceGenerator(); //thread-safe
     private SessionID sessionID;
 
@@ -71,7 +72,8 @@ public class FIXTradeServerApp extends MessageCracker implements Application, Ru
         Side side = (newOrder.getSide().getValue() == BUY)? Side.BUY : Side.SELL;
         OrderType orderType = (newOrder.getOrdType().getValue() == MARKET)? OrderType.MARKET: OrderType.LIMIT;
         double quantity = newOrder.getOrderQty().getValue();
-        BigDecimal price = BigDecimal.valueOf(newOrder.getPrice().getValue());
+        // Convert the decimal FIX price to the engine's fixed-point price at the gateway
+        long price = newOrder.isSetPrice() ? PriceScale.of(stockNo).toPrice(newOrder.getPrice().getValue()) : PriceScale.NO_PRICE;
 
         log.debug("Stock Code: {}", stockNo);
         log.debug("Buy or Sell: {}", side);
@@ -79,10 +81,11 @@ public class FIXTradeServerApp extends MessageCracker implements Application, Ru
         log.debug("Price: {}", price);
 
         try {
-            // Send an Execution Report (8) to acknowledge the order
-            sendExecutionReport(sessionID, clientOrdID, newOrder, new ExecType(ExecType.NEW), new OrdStatus(OrdStatus.NEW));
-            orderQueue.put(OrderPoolManager.requestOrderObj(stockNo, brokerID, clientOrdID, orderType, side,
-                    price, (int)quantity));
+            Order order = OrderPoolManager.requestOrderObj(stockNo, brokerID, clientOrdID, orderType, side,
+                    price, (int)quantity);
+            // Send an Execution Report (8) carrying the engine-assigned order ID to acknowledge the order
+            sendExecutionReport(sessionID, order.getOrderId(), clientOrdID, newOrder, new ExecType(ExecType.NEW), new OrdStatus(OrdStatus.NEW));
+            orderPublisher.publish(order);
             log.debug("Put the {} order of {} to the order queue", side, stockNo);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
@@ -100,10 +103,10 @@ public class FIXTradeServerApp extends MessageCracker implements Application, Ru
      * @param execType the execution type
      * @param ordStatus the order status
      * @param filledQty the quantity filled
-     * @param execPrice the execution price
+     * @param execPrice the fixed-point execution price in the units of the stock's PriceScale
      */
     public void sendExecutionReport(SessionID sessionID, String clientOrdID, String stockNo, quickfix.field.Side side,
-                                    ExecType execType, OrdStatus ordStatus, int filledQty, BigDecimal execPrice){
+                                    ExecType execType, OrdStatus ordStatus, int filledQty, long execPrice){
         ExecutionReport executionReport = new ExecutionReport(
             new OrderID(clientOrdID), // Broker-assigned order ID
             new ExecID(String.valueOf(executionIDGenerator.getNextSequence())),  // Execution ID
@@ -112,7 +115,7 @@ public class FIXTradeServerApp extends MessageCracker implements Application, Ru
             side,
             new LeavesQty(0), // No remaining quantity
             new CumQty(filledQty), // Cumulative quantity filled
-            new AvgPx(execPrice.doubleValue()) // Average price
+            new AvgPx(PriceScale.of(stockNo).toDouble(execPrice)) // Average price
         );
         executionReport.set(new Symbol(stockNo)); // replace with your symbol
         try {
@@ -123,11 +126,11 @@ public class FIXTradeServerApp extends MessageCracker implements Application, Ru
         }
     }
 
-    public void sendExecutionReport(SessionID sessionID, String clientOrdID, NewOrderSingle newOrder,
+    public void sendExecutionReport(SessionID sessionID, long orderId, String clientOrdID, NewOrderSingle newOrder,
                                     ExecType execType, OrdStatus ordStatus) throws FieldNotFound {
         // Create an Execution Report (8) message
         ExecutionReport executionReport = new ExecutionReport(
-            new OrderID(clientOrdID), // Broker-assigned order ID
+            new OrderID(String.valueOf(orderId)), // Engine-assigned order ID
             new ExecID(String.valueOf(executionIDGenerator.getNextSequence())),  // Execution ID
             execType, // Execution type
             ordStatus, // Order status
@@ -149,7 +152,14 @@ public class FIXTradeServerApp extends MessageCracker implements Application, Ru
     }
 
     public FIXTradeServerApp(LinkedBlockingQueue<Order> orderQueue) {
-        this.orderQueue = orderQueue;
+        this(orderQueue::put);
+    }
+
+    /**
+     * @param orderPublisher publisher of the new orders to the order processing stage
+     */
+    public FIXTradeServerApp(Publisher<Order> orderPublisher) {
+        this.orderPublisher = orderPublisher;
     }
 
     @Override
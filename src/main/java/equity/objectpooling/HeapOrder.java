@@ -0,0 +1,64 @@
+package equity.objectpooling;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
+
+/**
+ * An order keeping its numeric state in its own primitive fields, with {@code order_store=HEAP}
+ * (the default).
+ */
+final class HeapOrder extends Order {
+    private long price = NO_PRICE;
+    private long avgPrice;
+    private int quantity;
+    private int filledQty;
+    private int remainingQty;
+    private long createdNanos;
+    private long lastEventNanos;
+    private int orderSeqID;
+
+    HeapOrder(int symbolId) {
+        super(symbolId);
+    }
+
+    @Override
+    void initState(int orderSeqID, long price, int quantity, long nowNanos) {
+        this.orderSeqID = orderSeqID;
+        this.price = price;
+        this.quantity = quantity;
+        this.filledQty = 0;
+        this.remainingQty = quantity;
+        this.avgPrice = 0;
+        this.createdNanos = nowNanos;
+        this.lastEventNanos = nowNanos;
+    }
+
+    @Override
+    public long getPrice() { return price; }
+    @Override
+    public int getQuantity() { return quantity; }
+    @Override
+    public int getFilledQty() { return filledQty; }
+    @Override
+    public int getRemainingQty() { return remainingQty; }
+    @Override
+    public long getAvgPrice() { return avgPrice; }
+    @Override
+    public long getCreatedNanos() { return createdNanos; }
+    @Override
+    public long getLastEventNanos() { return lastEventNanos; }
+    @Override
+    public int getOrderSeqID() { return orderSeqID; }
+
+    @Override
+    void writePrice(long price) { this.price = price; }
+    @Override
+    void writeQuantity(int quantity) { this.quantity = quantity; }
+    @Override
+    void writeFilledQty(int filledQty) { this.filledQty = filledQty; }
+    @Override
+    void writeRemainingQty(int remainingQty) { this.remainingQty = remainingQty; }
+    @Override
+    void writeAvgPrice(long avgPrice) { this.avgPrice = avgPrice; }
+    @Override
+    void writeLastEventNanos(long lastEventNanos) { this.lastEventNanos = lastEventNanos; }
+}
@@ -1,9 +1,135 @@
 package equity.objectpooling;
 
-import java.math.BigDecimal;
+import equity.objectpooling.Order.Side;
+import util.EngineClock;
+
 import java.sql.Timestamp;
 
-public record MarketData(String stockNo, BigDecimal bestBid, BigDecimal bestAsk, BigDecimal lastTradePrice,
-                         Timestamp updatedTime, String bidMapOrdersStr, String askMapOrdersStr) {
+/**
+ * Snapshot of an order book after a trade. Prices are fixed-point longs in the units of the
+ * stock's {@link PriceScale}; {@link PriceScale#NO_PRICE} marks an empty side.
+ * The depth of each side is copied as primitive arrays, one price, quantity and order count per level
+ * from the best price, and only rendered as the L2 text (see {@link OrderBook#getTextFormatOfDepth})
+ * by the publishers at the edge.
+ * The stock is identified by its symbol ID, see {@link SymbolRegistry}.
+ * <p>
+ * Updates are pooled: the matching job takes one from {@link OrderPoolManager#requestMarketDataObj} and
+ * the consumer returns it through {@link OrderPoolManager#returnMarketDataObj} once published, so
+ * publishing a snapshot allocates nothing.
+ */
+public final class MarketData {
+    private int symbolId;
+    private long bestBid;
+    private long bestAsk;
+    private long lastTradePrice;
+    private long updatedNanos;
+    private final Depth bidDepth = new Depth();
+    private final Depth askDepth = new Depth();
+
+    // Set while the update is handed out by its pool
+    boolean inUse;
+
+    MarketData() {
+    }
+
+    /**
+     * Copies the state of the book into this update. The caller either holds the read locks of both
+     * sides or is the single writer of the book.
+     *
+     * @param orderBook      the order book
+     * @param bestBid        the best bid of the book
+     * @param bestAsk        the best ask of the book
+     * @param lastTradePrice the price of the last trade
+     * @param updatedNanos   the time of the update in nanoseconds since the epoch
+     * @param maxLevels      the number of levels of depth copied per side
+     */
+    public void snapshot(OrderBook orderBook, long bestBid, long bestAsk, long lastTradePrice,
+                         long updatedNanos, int maxLevels) {
+        this.symbolId = orderBook.getSymbolId();
+        this.bestBid = bestBid;
+        this.bestAsk = bestAsk;
+        this.lastTradePrice = lastTradePrice;
+        this.updatedNanos = updatedNanos;
+        bidDepth.copy(orderBook, Side.BUY, maxLevels);
+        askDepth.copy(orderBook, Side.SELL, maxLevels);
+    }
+
+    public int symbolId() { return symbolId; }
+    public long bestBid() { return bestBid; }
+    public long bestAsk() { return bestAsk; }
+    public long lastTradePrice() { return lastTradePrice; }
+    public long updatedNanos() { return updatedNanos; }
+    public Timestamp updatedTime() { return Timestamp.from(EngineClock.toDateTime(updatedNanos).toInstant()); }
+
+    /**
+     * @return the stock number of the symbol, for the publishers at the edge
+     */
+    public String stockNo() {
+        return SymbolRegistry.getStockNo(symbolId);
+    }
+
+    /**
+     * @return the number of bid levels copied
+     */
+    public int getBidLevels() {
+        return bidDepth.levels;
+    }
+
+    /**
+     * @return the number of ask levels copied
+     */
+    public int getAskLevels() {
+        return askDepth.levels;
+    }
+
+    /**
+     * @return the bid depth, one line "price quantity orders" per level from the best price
+     */
+    public String bidDepthStr() {
+        return bidDepth.toText(PriceScale.of(stockNo()));
+    }
+
+    /**
+     * @return the ask depth, one line "price quantity orders" per level from the best price
+     */
+    public String askDepthStr() {
+        return askDepth.toText(PriceScale.of(stockNo()));
+    }
+
+    /**
+     * The levels of one side, filled by visiting the book so that no visitor is allocated per snapshot.
+     */
+    private static final class Depth implements OrderBook.PriceLevelVisitor {
+        private long[] prices = new long[0];
+        private long[] quantities = new long[0];
+        private int[] orderCounts = new int[0];
+        private int levels;
+
+        void copy(OrderBook orderBook, Side side, int maxLevels) {
+            if (prices.length < maxLevels) {
+                prices = new long[maxLevels];
+                quantities = new long[maxLevels];
+                orderCounts = new int[maxLevels];
+            }
+            levels = 0;
+            orderBook.forEachPriceLevel(side, maxLevels, this);
+        }
+
+        @Override
+        public void visit(PriceLevel level) {
+            prices[levels] = level.getPrice();
+            quantities[levels] = level.getTotalQty();
+            orderCounts[levels] = level.getOrderCount();
+            levels++;
+        }
 
+        String toText(PriceScale priceScale) {
+            StringBuilder message = new StringBuilder();
+            for (int i = 0; i < levels; i++) {
+                priceScale.appendTo(message, prices[i]).append(" ").append(quantities[i])
+                        .append(" ").append(orderCounts[i]).append("\n");
+            }
+            return message.toString();
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package equity.objectpooling;
+
+import static equity.objectpooling.OffHeapOrderStore.*;
+
+/**
+ * An order keeping its numeric state in a record of an {@link OffHeapOrderStore}, with
+ * {@code order_store=OFF_HEAP}. The object itself only holds the identification, the queue links and
+ * the handle of its record, which it owns for as long as it stays in its pool.
+ */
+final class OffHeapOrder extends Order {
+    private final OffHeapOrderStore store;
+    private final int storeHandle;
+
+    OffHeapOrder(int symbolId, OffHeapOrderStore store) {
+        super(symbolId);
+        this.store = store;
+        this.storeHandle = store.allocate();
+    }
+
+    @Override
+    void initState(int orderSeqID, long price, int quantity, long nowNanos) {
+        store.setInt(storeHandle, ORDER_SEQ_ID_OFFSET, orderSeqID);
+        store.setLong(storeHandle, PRICE_OFFSET, price);
+        store.setInt(storeHandle, QUANTITY_OFFSET, quantity);
+        store.setInt(storeHandle, FILLED_QTY_OFFSET, 0);
+        store.setInt(storeHandle, REMAINING_QTY_OFFSET, quantity);
+        store.setLong(storeHandle, AVG_PRICE_OFFSET, 0);
+        store.setLong(storeHandle, CREATED_NANOS_OFFSET, nowNanos);
+        store.setLong(storeHandle, LAST_EVENT_NANOS_OFFSET, nowNanos);
+    }
+
+    @Override
+    public long getPrice() { return store.getLong(storeHandle, PRICE_OFFSET); }
+    @Override
+    public int getQuantity() { return store.getInt(storeHandle, QUANTITY_OFFSET); }
+    @Override
+    public int getFilledQty() { return store.getInt(storeHandle, FILLED_QTY_OFFSET); }
+    @Override
+    public int getRemainingQty() { return store.getInt(storeHandle, REMAINING_QTY_OFFSET); }
+    @Override
+    public long getAvgPrice() { return store.getLong(storeHandle, AVG_PRICE_OFFSET); }
+    @Override
+    public long getCreatedNanos() { return store.getLong(storeHandle, CREATED_NANOS_OFFSET); }
+    @Override
+    public long getLastEventNanos() { return store.getLong(storeHandle, LAST_EVENT_NANOS_OFFSET); }
+    @Override
+    public int getOrderSeqID() { return store.getInt(storeHandle, ORDER_SEQ_ID_OFFSET); }
+    @Override
+    public int getStoreHandle() { return storeHandle; }
+
+    @Override
+    void writePrice(long price) { store.setLong(storeHandle, PRICE_OFFSET, price); }
+    @Override
+    void writeQuantity(int quantity) { store.setInt(storeHandle, QUANTITY_OFFSET, quantity); }
+    @Override
+    void writeFilledQty(int filledQty) { store.setInt(storeHandle, FILLED_QTY_OFFSET, filledQty); }
+    @Override
+    void writeRemainingQty(int remainingQty) { store.setInt(storeHandle, REMAINING_QTY_OFFSET, remainingQty); }
+    @Override
+    void writeAvgPrice(long avgPrice) { store.setLong(storeHandle, AVG_PRICE_OFFSET, avgPrice); }
+    @Override
+    void writeLastEventNanos(long lastEventNanos) { store.setLong(storeHandle, LAST_EVENT_NANOS_OFFSET, lastEventNanos); }
+
+    @Override
+    void releaseStoreRecord() {
+        store.free(storeHandle);
+    }
+}
@@ -0,0 +1,151 @@
+package equity.objectpooling;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage of the order state of one stock, built on the Foreign Function and Memory API.
+ * <p>
+ * Each order owns a fixed-size record (price, average price, timestamps, quantities, sequence ID)
+ * in a {@link MemorySegment} slab and is referenced by an int handle: the slab index in the high
+ * bits and the record index in the low bits. Slabs are allocated from a shared {@link Arena} as the
+ * store grows and are only released by {@link #close()}, so the records never move and the GC
+ * neither copies nor marks them. Freed records are chained in a free list kept inside the records
+ * themselves, so allocating and freeing do not touch the heap either.
+ * <p>
+ * The record accessors are plain memory reads and writes; like the fields of {@link Order} they are
+ * meant to be used by the thread owning the book. Allocation and release are synchronized.
+ */
+public final class OffHeapOrderStore implements AutoCloseable {
+    public static final int NO_HANDLE = -1;
+
+    // Record layout, every field aligned to its size
+    static final long PRICE_OFFSET = 0;
+    static final long AVG_PRICE_OFFSET = 8;
+    static final long CREATED_NANOS_OFFSET = 16;
+    static final long LAST_EVENT_NANOS_OFFSET = 24;
+    static final long QUANTITY_OFFSET = 32;
+    static final long FILLED_QTY_OFFSET = 36;
+    static final long REMAINING_QTY_OFFSET = 40;
+    static final long ORDER_SEQ_ID_OFFSET = 44;
+    // Link to the next free record while the record is in the free list
+    static final long NEXT_FREE_OFFSET = 48;
+    public static final long RECORD_SIZE = 64;
+
+    private static final int SLAB_SHIFT = 12;
+    private static final int RECORDS_PER_SLAB = 1 << SLAB_SHIFT;
+    private static final int RECORD_MASK = RECORDS_PER_SLAB - 1;
+    private static final long SLAB_SIZE = RECORD_SIZE * RECORDS_PER_SLAB;
+
+    private final String stockNo;
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment[] slabs = new MemorySegment[4];
+    private int slabCount;
+    // Next record never handed out, and the head of the free list
+    private int nextUnusedHandle;
+    private int freeHead = NO_HANDLE;
+    private int allocatedCount;
+
+    public OffHeapOrderStore(String stockNo) {
+        this.stockNo = stockNo;
+    }
+
+    public String getStockNo() {
+        return stockNo;
+    }
+
+    /**
+     * Allocates a zeroed record.
+     *
+     * @return the handle of the record
+     */
+    public synchronized int allocate() {
+        int handle;
+        if (freeHead != NO_HANDLE) {
+            handle = freeHead;
+            freeHead = slab(handle).get(ValueLayout.JAVA_INT, offset(handle) + NEXT_FREE_OFFSET);
+        } else {
+            handle = nextUnusedHandle;
+            if ((handle >>> SLAB_SHIFT) == slabCount) {
+                addSlab();
+            }
+            nextUnusedHandle++;
+        }
+        slab(handle).asSlice(offset(handle), RECORD_SIZE).fill((byte) 0);
+        allocatedCount++;
+        return handle;
+    }
+
+    /**
+     * Returns a record to the store. The handle must not be used afterwards.
+     *
+     * @param handle the handle of the record
+     */
+    public synchronized void free(int handle) {
+        if (handle < 0 || handle >= nextUnusedHandle) {
+            throw new IllegalArgumentException("Invalid order store handle " + handle + " of " + stockNo);
+        }
+        slab(handle).set(ValueLayout.JAVA_INT, offset(handle) + NEXT_FREE_OFFSET, freeHead);
+        freeHead = handle;
+        allocatedCount--;
+    }
+
+    private void addSlab() {
+        if (slabCount == slabs.length) {
+            slabs = Arrays.copyOf(slabs, slabCount * 2);
+        }
+        slabs[slabCount++] = arena.allocate(SLAB_SIZE, RECORD_SIZE);
+    }
+
+    private MemorySegment slab(int handle) {
+        return slabs[handle >>> SLAB_SHIFT];
+    }
+
+    private static long offset(int handle) {
+        return (handle & RECORD_MASK) * RECORD_SIZE;
+    }
+
+    /**
+     * @return the number of records in use
+     */
+    public synchronized int getAllocatedCount() {
+        return allocatedCount;
+    }
+
+    /**
+     * @return the off-heap bytes reserved by the slabs
+     */
+    public synchronized long getReservedBytes() {
+        return slabCount * SLAB_SIZE;
+    }
+
+    // === Record accessors ===
+
+    long getLong(int handle, long fieldOffset) {
+        return slab(handle).get(ValueLayout.JAVA_LONG, offset(handle) + fieldOffset);
+    }
+
+    void setLong(int handle, long fieldOffset, long value) {
+        slab(handle).set(ValueLayout.JAVA_LONG, offset(handle) + fieldOffset, value);
+    }
+
+    int getInt(int handle, long fieldOffset) {
+        return slab(handle).get(ValueLayout.JAVA_INT, offset(handle) + fieldOffset);
+    }
+
+    void setInt(int handle, long fieldOffset, int value) {
+        slab(handle).set(ValueLayout.JAVA_INT, offset(handle) + fieldOffset, value);
+    }
+
+    /**
+     * Releases all the slabs. Every handle of the store becomes invalid.
+     */
+    @Override
+    public synchronized void close() {
+        arena.close();
+        slabs = new MemorySegment[0];
+        slabCount = 0;
+    }
+}
@@ -1,48 +1,106 @@
 package equity.objectpooling;
 
+import util.EngineClock;
+import util.LongSequenceGenerator;
 import util.SequenceGenerator;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
-public class Order {
+import static equity.objectpooling.OffHeapOrderStore.NO_HANDLE;
+import static equity.objectpooling.PriceScale.NO_PRICE;
+
+/**
+ * An order of a stock. The identification and the queue links stay on the heap, while the numeric
+ * state (price, quantities, average price, sequence ID and timestamps) is kept by the subclass created
+ * by the pool: {@link HeapOrder} in its own fields or, when the pool of the stock is backed by an
+ * {@link OffHeapOrderStore}, {@link OffHeapOrder} in the record it owns in the store, so that neither
+ * carries the fields of the other nor tests where its state lives. The accessors hide the difference.
+ * <p>
+ * The layout is kept compact for large books: primitive fields instead of atomic holders, epoch
+ * nanosecond timestamps instead of date-time objects, and the order type and side as shared enum
+ * constants. An order is not thread-safe; it is mutated only by the thread owning its book, under the
+ * lock of its side, and other threads see it through the same locks. See {@link OrderFootprint} for
+ * the resulting size of a resting order.
+ * <p>
+ * A pooled order is reused under a new order ID, so a thread still holding it after it was returned
+ * would silently act on another order. A thread keeping an order across a hand-off can record its
+ * handle, the order ID and {@link #getGeneration() generation}, and check it with
+ * {@link #isValidHandle}. With {@code pool_debug=true} every setter also checks that the order is
+ * handed out by its pool.
+ */
+public abstract class Order {
+    public static final long NO_ORDER_ID = 0;
+
     // Core order identification
+    private final int symbolId;
     private final String stockNo;
+    // Engine-assigned order ID, unique across stocks and returned in the ack
+    private long orderId = NO_ORDER_ID;
     private String brokerID;
     private String clientOrdID;
-    private String orderType;
-    private String buyOrSell;
+    private OrderType orderType;
+    private Side side;
 
-    // Order pricing and quantities with thread-safe atomic operations
-    private final AtomicReference<BigDecimal> price = new AtomicReference<>();
-    private final AtomicInteger quantity = new AtomicInteger(0);
-    private final AtomicInteger filledQty = new AtomicInteger(0);
-    private final AtomicInteger remainingQty = new AtomicInteger(0);
-    private final AtomicReference<BigDecimal> avgPrice = new AtomicReference<>();
+    private static final LongSequenceGenerator ORDER_ID_GENERATOR = new LongSequenceGenerator();
+    // Order sequence per symbol
+    private static final SequenceGenerator[] ORDER_SEQ_GENERATORS = new SequenceGenerator[SymbolRegistry.size()];
 
-    // Timestamps
-    private ZonedDateTime createdDateTime;
-    private ZonedDateTime lastEventDateTime;
+    static {
+        for (int i = 0; i < ORDER_SEQ_GENERATORS.length; i++) {
+            ORDER_SEQ_GENERATORS[i] = new SequenceGenerator();
+        }
+    }
 
-    // Internal precision handling
-    private static final int PRICE_SCALE = 4;
-    private static final RoundingMode PRICE_ROUNDING = RoundingMode.HALF_UP;
+    // Set while the order is handed out by its pool
+    boolean inUse;
+    // Bumped by the pool whenever the order is handed out or returned, see isValidHandle
+    int generation;
 
-    private static final SequenceGenerator ORDER_SEQ_GENERATOR = new SequenceGenerator();
-    private int orderSeqID;
+    // Intrusive links of the OrderQueue holding this order, null while the order is not in the book
+    OrderQueue level;
+    Order prev;
+    Order next;
 
 
-    Order(String stockNo, String brokerID, String clientOrdID, OrderType orderType,
-          Side buyOrSell, BigDecimal price, int quantity) {
-        this.stockNo = Objects.requireNonNull(stockNo, "Stock number cannot be null");
-        updateOrderData(brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
-     }
+    Order(int symbolId) {
+        if (!SymbolRegistry.isValid(symbolId)) {
+            throw new IllegalArgumentException("Invalid symbol ID: " + symbolId);
+        }
+        this.symbolId = symbolId;
+        this.stockNo = SymbolRegistry.getStockNo(symbolId);
+    }
+
+
+    /**
+     * Creates a blank order, with its store record if any, to pre-allocate a pool. The order gets its
+     * data when the pool hands it out through {@link #reset}.
+     *
+     * @param symbolId the symbol ID of the stock
+     * @param store    the off-heap store of the pool or null to keep the state on the heap
+     */
+    static Order newBlankOrder(int symbolId, OffHeapOrderStore store) {
+        return store == null ? new HeapOrder(symbolId) : new OffHeapOrder(symbolId, store);
+    }
+
+
+    /**
+     * Creates an order, with its store record if any, releasing the record if the data is rejected.
+     */
+    static Order newOrder(int symbolId, OffHeapOrderStore store, String brokerID, String clientOrdID,
+                          OrderType orderType, Side buyOrSell, long price, int quantity) {
+        Order order = newBlankOrder(symbolId, store);
+        try {
+            order.updateOrderData(brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
+        } catch (RuntimeException e) {
+            order.releaseStoreRecord();
+            throw e;
+        }
+        return order;
+    }
 
 
     // === Object Pool Methods ===
@@ -51,37 +109,32 @@ public class Order {
      * Resets all mutable fields to new values while maintaining thread safety.
      */
     public void reset(String brokerID, String clientOrdID, OrderType orderType,
-                     Side buyOrSell, BigDecimal price, int quantity) {
+                     Side buyOrSell, long price, int quantity) {
         updateOrderData(brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
+        unlink();
     }
 
     public void updateOrderData(String brokerID, String clientOrdID, OrderType orderType,
-                      Side buyOrSell, BigDecimal price, int quantity) {
+                      Side buyOrSell, long price, int quantity) {
 
         validateInputs(brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
 
-        this.orderSeqID = ORDER_SEQ_GENERATOR.getNextSequence();
+        this.orderId = ORDER_ID_GENERATOR.getNextSequence();
         this.brokerID = brokerID;
         this.clientOrdID = clientOrdID;
-        this.orderType = orderType.value;
-        this.buyOrSell = buyOrSell.value;
-        this.price.set(roundPrice(price));
-        this.quantity.set(Math.max(0, quantity));
-        this.filledQty.set(0);
-        this.remainingQty.set(quantity); // Reset remaining = total quantity
-        this.avgPrice.set(BigDecimal.ZERO);
-        ZonedDateTime now = ZonedDateTime.now();
-        this.createdDateTime = now;
-        this.lastEventDateTime = now;
-    }
-
-    public void validateInputs(String brokerID, String clientOrdID, OrderType orderType, Side buyOrSell, BigDecimal price, int quantity){
+        this.orderType = orderType;
+        this.side = buyOrSell;
+        initState(ORDER_SEQ_GENERATORS[symbolId].getNextSequence(), price, Math.max(0, quantity),
+                EngineClock.epochNanos());
+    }
+
+    public void validateInputs(String brokerID, String clientOrdID, OrderType orderType, Side buyOrSell, long price, int quantity){
         Objects.requireNonNull(brokerID, "Broker ID cannot be null");
         Objects.requireNonNull(clientOrdID, "Client order ID cannot be null");
         Objects.requireNonNull(orderType, "Order type cannot be null");
         Objects.requireNonNull(buyOrSell, "Side cannot be null");
-        if (orderType.equals(OrderType.LIMIT))
-            Objects.requireNonNull(price, "Price cannot be null");
+        if (orderType.equals(OrderType.LIMIT) && price <= NO_PRICE)
+            throw new IllegalArgumentException("Limit price must be positive: " + price);
         if (quantity <= 0) {
             throw new IllegalArgumentException("Executed quantity must be positive: " + quantity);
         }
@@ -91,104 +144,119 @@ public class Order {
     @Override
     public String toString() {
         return "Order{" +
-                "stockNo='" + stockNo + '\'' +
+                "orderId=" + orderId +
+                ", stockNo='" + stockNo + '\'' +
                 ", brokerID='" + brokerID + '\'' +
                 ", clientOrdID='" + clientOrdID + '\'' +
-                ", orderType='" + orderType + '\'' +
-                ", buyOrSell='" + buyOrSell + '\'' +
-                ", price=" + price +
-                ", quantity=" + quantity +
-                ", createdDateTime=" + createdDateTime +
-                ", lastEventDateTime=" + lastEventDateTime +
+                ", orderType='" + orderType.value + '\'' +
+                ", buyOrSell='" + side.value + '\'' +
+                ", price=" + getPrice() +
+                ", quantity=" + getQuantity() +
+                ", createdDateTime=" + getCreatedDateTime() +
+                ", lastEventDateTime=" + getLastEventDateTime() +
                 '}';
     }
 
     // === Getter Methods ===
 
+    public long getOrderId() { return orderId; }
+    public int getSymbolId() { return symbolId; }
     public String getStockNo() { return stockNo; }
     public String getBrokerID() { return brokerID; }
     public String getClientOrdID() { return clientOrdID; }
-    public String getOrderType() { return orderType; }
-    public String getBuyOrSell() { return buyOrSell; }
-    public AtomicReference<BigDecimal> getPrice() { return price; }
-    public AtomicInteger getQuantity() { return quantity; }
-    public AtomicInteger getFilledQty() { return filledQty; }
-    public AtomicInteger getRemainingQty() { return remainingQty; }
-    public AtomicReference<BigDecimal> getAvgPrice() { return avgPrice; }
-    public ZonedDateTime getCreatedDateTime() { return createdDateTime; }
-    public ZonedDateTime getLastEventDateTime() { return lastEventDateTime; }
-    public int getOrderSeqID() { return orderSeqID; }
+    public String getOrderType() { return orderType.value; }
+    public String getBuyOrSell() { return side.value; }
+    // Prices are fixed-point longs in the units of the stock's PriceScale
+    public abstract long getPrice();
+    public abstract int getQuantity();
+    public abstract int getFilledQty();
+    public abstract int getRemainingQty();
+    public abstract long getAvgPrice();
+    // Timestamps in nanoseconds since the epoch
+    public abstract long getCreatedNanos();
+    public abstract long getLastEventNanos();
+    public ZonedDateTime getCreatedDateTime() { return EngineClock.toDateTime(getCreatedNanos()); }
+    public ZonedDateTime getLastEventDateTime() { return EngineClock.toDateTime(getLastEventNanos()); }
+    public abstract int getOrderSeqID();
+    /**
+     * @return the handle of the off-heap record of this order or {@link OffHeapOrderStore#NO_HANDLE}
+     */
+    public int getStoreHandle() { return NO_HANDLE; }
+    public OrderQueue getLevel() { return level; }
+    public Order getPrev() { return prev; }
+    public Order getNext() { return next; }
 
 
 
    // === Setter Methods ===
 
-    public void setPrice(BigDecimal price) {
-        this.price.set(roundPrice(price));
+    public void setPrice(long price) {
+        checkAccess();
+        writePrice(price);
         updateTimestamp();
     }
 
     public void setQuantity(int quantity) {
-        int newQty = Math.max(0, quantity);
-        this.quantity.set(newQty);
+        checkAccess();
+        writeQuantity(Math.max(0, quantity));
         updateTimestamp();
     }
 
     public void setFilledQty(int filledQty) {
-        int newFilled = Math.max(0, filledQty);
-        this.filledQty.set(newFilled);
+        checkAccess();
+        writeFilledQty(Math.max(0, filledQty));
         updateTimestamp();
     }
 
     public void setRemainingQty(int quantity) {
+        checkAccess();
         int newQty = Math.max(0, quantity);
-        this.remainingQty.set(newQty);
+        int oldQty = getRemainingQty();
+        writeRemainingQty(newQty);
+        // Keep the aggregates of the price level in step, e.g. on a partial fill
+        if (level != null && oldQty != newQty) {
+            level.onRemainingQtyChanged(newQty - oldQty);
+        }
         updateTimestamp();
     }
 
-    public void setAvgPrice(BigDecimal avgPrice) {
-        this.avgPrice.set(roundPrice(avgPrice));
+    public void setAvgPrice(long avgPrice) {
+        checkAccess();
+        writeAvgPrice(avgPrice);
         updateTimestamp();
     }
 
     public void setLastEventDateTime(ZonedDateTime lastEventDateTime) {
-        this.lastEventDateTime = Objects.requireNonNull(lastEventDateTime, "Last event date time cannot be null");
+        Objects.requireNonNull(lastEventDateTime, "Last event date time cannot be null");
+        Instant instant = lastEventDateTime.toInstant();
+        setLastEventNanos(instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+    }
+
+    public void setLastEventNanos(long lastEventNanos) {
+        checkAccess();
+        writeLastEventNanos(lastEventNanos);
     }
 
+    // === State Storage ===
+    // Plain writes of the numeric state, implemented by the subclass holding it. The setters above add
+    // the access check, the timestamp and the level aggregates.
 
     /**
-    * Safely retrieves the current average price from an order.
-    * Returns 0.0 if the average price is not set or null.
-    *
-    * @return the current average price or 0.0 if not set
-    */
-    public BigDecimal getOrderAvgPrice() {
-        AtomicReference<BigDecimal> avgPriceRef = getAvgPrice();
-        if (avgPriceRef == null) {
-            // Initialize if not set
-            setAvgPrice(BigDecimal.ZERO);
-            return BigDecimal.ZERO;
-        }
+     * Sets the state of a new order: nothing filled, the whole quantity remaining, both timestamps now.
+     */
+    abstract void initState(int orderSeqID, long price, int quantity, long nowNanos);
 
-        BigDecimal avgPrice = avgPriceRef.get();
-        return avgPrice != null ? avgPrice : BigDecimal.ZERO;
-    }
+    abstract void writePrice(long price);
 
-    /**
-    * Safely retrieves the current-filled quantity from an order.
-    * Returns 0 if the filled quantity is not set or null.
-    *
-    * @return the current filled quantity or 0 if not set
-    */
-    public int getOrderFilledQty() {
-        AtomicInteger filledQtyRef = getFilledQty();
-        if (filledQtyRef == null) {
-            // Initialize if not set
-            setFilledQty(0);
-            return 0;
-        }
-        return filledQtyRef.get();
-    }
+    abstract void writeQuantity(int quantity);
+
+    abstract void writeFilledQty(int filledQty);
+
+    abstract void writeRemainingQty(int remainingQty);
+
+    abstract void writeAvgPrice(long avgPrice);
+
+    abstract void writeLastEventNanos(long lastEventNanos);
 
 
     /**
@@ -197,7 +265,7 @@ public class Order {
      * @return true if no remaining quantity
      */
     public boolean isCompletelyFilled() {
-        return remainingQty.get() == 0;
+        return getRemainingQty() == 0;
     }
 
     /**
@@ -206,25 +274,72 @@ public class Order {
      * @return true if some quantity filled but not complete
      */
     public boolean isPartiallyFilled() {
-        return filledQty.get() > 0 && remainingQty.get() > 0;
+        return getFilledQty() > 0 && getRemainingQty() > 0;
     }
 
+    /**
+     * Returns the off-heap record of this order to its store, if any. Only the pool may call it, once
+     * the order is dropped for good.
+     */
+    void releaseStoreRecord() {
+    }
+
+
+    /**
+     * @return the generation of this order, which changes whenever its pool hands it out or takes it back
+     */
+    public int getGeneration() {
+        return generation;
+    }
 
-    // === Private Utility Methods ===
     /**
-     * Rounds price to appropriate precision for financial calculations.
+     * Checks a handle recorded while this order was handed out.
+     *
+     * @param orderId    the order ID of the handle
+     * @param generation the generation of the handle
+     * @return true if the order is still handed out under the handle, false if it was returned to its
+     * pool since, whether or not it was handed out again
      */
-    private BigDecimal roundPrice(BigDecimal price) {
-        if (price == null) return null;
-        return price.setScale(PRICE_SCALE, PRICE_ROUNDING);
+    public boolean isValidHandle(long orderId, int generation) {
+        return inUse && this.orderId == orderId && this.generation == generation;
+    }
 
+    /**
+     * Cheap check of an order found by its order ID, e.g. in an index which may still hold it.
+     *
+     * @param orderId the order ID looked up
+     * @return true if the order is handed out under the order ID
+     */
+    public boolean isLive(long orderId) {
+        return inUse && this.orderId == orderId;
     }
 
     /**
-     * Updates the last event timestamp.
+     * In debug mode, fails a mutation of an order which is not handed out by its pool.
+     */
+    private void checkAccess() {
+        if (OrderObjectPool.DEBUG && !inUse) {
+            throw new IllegalStateException("Order " + orderId + " of stock " + stockNo
+                    + " used after its return to the pool");
+        }
+    }
+
+    /**
+     * Clears the queue links once the order has left its price level.
+     */
+    void unlink() {
+        this.level = null;
+        this.prev = null;
+        this.next = null;
+    }
+
+    // === Private Utility Methods ===
+    /**
+     * Updates the last event timestamp from the coarse clock, the setters being called several times
+     * per fill.
      */
     private void updateTimestamp() {
-        this.lastEventDateTime = ZonedDateTime.now();
+        setLastEventNanos(EngineClock.coarseEpochNanos());
     }
 
     // Add these methods to your existing Order class
@@ -238,7 +353,7 @@ public class Order {
      * @return true if this is a market order, false otherwise
      */
     public boolean isMarketOrder() {
-        return OrderType.MARKET.value.equals(this.orderType);
+        return orderType == OrderType.MARKET;
     }
 
     /**
@@ -248,13 +363,13 @@ public class Order {
      * @return true if this is a limit order, false otherwise
      */
     public boolean isLimitOrder() {
-        return OrderType.LIMIT.value.equals(this.orderType);
+        return orderType == OrderType.LIMIT;
     }
 
     // === Order Side Check Methods ===
 
     public Side getSide() {
-        return Side.getByValue(this.buyOrSell);
+        return side;
     }
     /**
      * Checks if this order is a buy order (bid).
@@ -263,7 +378,7 @@ public class Order {
      * @return true if this is a buy/bid order, false otherwise
      */
     public boolean isBuyOrder() {
-        return Side.BUY.value.equals(this.buyOrSell);
+        return side == Side.BUY;
     }
 
     /**
@@ -283,7 +398,7 @@ public class Order {
      * @return true if this is a sell/ask order, false otherwise
      */
     public boolean isSellOrder() {
-        return Side.SELL.value.equals(this.buyOrSell);
+        return side == Side.SELL;
     }
 
     /**
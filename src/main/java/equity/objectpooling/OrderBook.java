@@ -4,111 +4,306 @@ import equity.objectpooling.Order.Side;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.math.BigDecimal;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static equity.objectpooling.PriceScale.NO_PRICE;
+import static util.ReadConfig.dotenv;
+
 
 /**
  * Represents an OrderBook for a particular stock, containing bid and ask order books.
  * Each price in the order book has a list of corresponding orders from different brokers.
  * Allows retrieval of the best bid price, best ask price, lowest bid price, and highest ask price.
+ * <p>
+ * The storage of the price levels is left to the implementations: {@link TreeOrderBook} keeps them in
+ * sorted maps while {@link PriceLadderOrderBook} indexes them by tick offset in an array. Use
+ * {@link #create(String, String)} to get the implementation configured by {@code order_book_type}.
+ * <p>
+ * Every change to the best level of a side is published to the {@link TopOfBook}, so the best
+ * prices can be read without taking the side locks or walking the price levels.
+ * <p>
+ * Each book owns the {@link OrderIndex} of its live orders, so the lookups of one stock never contend
+ * with those of another and the index of a stock can be dropped or rebuilt on its own.
  */
-public class OrderBook {
+public abstract class OrderBook {
     private static final Logger log = LogManager.getLogger(OrderBook.class);
-    // Each price has its own list of the brokers
-    // Bid order book
-    private final NavigableMap<BigDecimal, LinkedList<Order>> bidMap = new TreeMap<>();
-    // Ask order book
-    private final NavigableMap<BigDecimal, LinkedList<Order>> askMap = new TreeMap<>(Comparator.reverseOrder());
 
     private final ReentrantReadWriteLock bidLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock askLock = new ReentrantReadWriteLock();
 
+    private final int symbolId;
     private final String stockNo;
     private final String desc;
+    private final PriceScale priceScale;
+    private final TopOfBook topOfBook = new TopOfBook();
+    private final OrderIndex orderIndex = new OrderIndex();
 
-    public OrderBook(String stockNo, String desc) {
+    protected OrderBook(String stockNo, String desc) {
         log.debug("Creating order book of {}", desc);
+        this.symbolId = SymbolRegistry.requireSymbolId(stockNo);
         this.stockNo = stockNo;
         this.desc = desc;
+        this.priceScale = PriceScale.of(stockNo);
     }
 
+    /**
+     * Creates an order book using the implementation configured by {@code order_book_type}
+     * (LADDER or TREE, defaults to LADDER).
+     *
+     * @param stockNo the stock number
+     * @param desc    the description of the order book
+     * @return the new order book
+     */
+    public static OrderBook create(String stockNo, String desc) {
+        String type = dotenv.get("order_book_type");
+        if (type == null || type.trim().equalsIgnoreCase("LADDER")) {
+            return new PriceLadderOrderBook(stockNo, desc);
+        }
+        if (type.trim().equalsIgnoreCase("TREE")) {
+            return new TreeOrderBook(stockNo, desc);
+        }
+        throw new IllegalArgumentException("Unknown order_book_type " + type);
+    }
 
-    public String getTextFormatOfOrderBook(Side side) {
-        NavigableMap<BigDecimal, LinkedList<Order>> orderMap;
+    /**
+     * Callback receiving the price levels of one side of the book.
+     */
+    @FunctionalInterface
+    public interface PriceLevelVisitor {
+        void visit(PriceLevel level);
+    }
+
+    // === Storage of the price levels ===
+
+    /**
+     * Returns the orders at the given price level.
+     *
+     * @param side  the side of the book
+     * @param price the price of the level
+     * @return the orders at the price level or null if there is no such level
+     */
+    public abstract PriceLevel getPriceLevel(Side side, long price);
 
-        if (side == Side.BUY) {
-            orderMap = bidMap;
+    /**
+     * Returns the orders at the given price level, creating an empty level if there is none.
+     */
+    protected abstract PriceLevel getOrCreatePriceLevel(Side side, long price);
+
+    /**
+     * Removes the given price level from the book.
+     */
+    protected abstract void removePriceLevel(Side side, long price);
+
+    /**
+     * Returns the best price of a side, i.e. the highest bid or the lowest ask.
+     *
+     * @param side the side of the book
+     * @return the best price or NO_PRICE if the side is empty
+     */
+    public abstract long getBestPrice(Side side);
+
+    /**
+     * Returns the worst price of a side, i.e. the lowest bid or the highest ask.
+     *
+     * @param side the side of the book
+     * @return the worst price or NO_PRICE if the side is empty
+     */
+    public abstract long getWorstPrice(Side side);
+
+    /**
+     * Returns the number of price levels on a side.
+     */
+    public abstract int getLevelCount(Side side);
+
+    /**
+     * Visits the price levels of a side from the best price to the worst price.
+     */
+    public void forEachPriceLevel(Side side, PriceLevelVisitor visitor) {
+        forEachPriceLevel(side, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visits at most the given number of price levels of a side, from the best price to the worst price.
+     */
+    public abstract void forEachPriceLevel(Side side, int maxLevels, PriceLevelVisitor visitor);
+
+    /**
+     * Removes all the price levels of a side without returning the orders to the object pool.
+     */
+    public void clear(Side side) {
+        forEachPriceLevel(side, PriceLevel::clear);
+        clearPriceLevels(side);
+        refreshTopOfBook(side);
+    }
+
+    /**
+     * Drops all the price levels of a side once their orders are unlinked.
+     */
+    protected abstract void clearPriceLevels(Side side);
+
+    public boolean isEmpty(Side side) {
+        return getLevelCount(side) == 0;
+    }
+
+    // === Order operations ===
+
+    /**
+     * Adds an order to the price level of its price. Limit orders join the back of the queue
+     * while market orders, which are priced at the opposite best, go to the front.
+     * The caller is expected to hold the write lock of the side.
+     *
+     * @param order the order to be added
+     */
+    public void addOrder(Order order) {
+        Side side = order.getSide();
+        long price = order.getPrice();
+        PriceLevel orderList = getOrCreatePriceLevel(side, price);
+        if (order.isMarketOrder()) {
+            orderList.addFirst(order);
         } else {
-            orderMap = askMap;
+            orderList.addLast(order);
+        }
+        if (price == getBestPrice(side)) {
+            refreshTopOfBook(side);
+        }
+    }
+
+    /**
+     * Removes an order from its price level in O(1) and drops the level if it becomes empty.
+     * The caller is expected to hold the write lock of the side.
+     *
+     * @param order the order to be removed
+     * @return true if the order was found in the book
+     */
+    public boolean removeOrder(Order order) {
+        Side side = order.getSide();
+        long price = order.getPrice();
+        // The order knows its queue, so no lookup or scan of the level is needed
+        OrderQueue orderList = order.getLevel();
+        boolean atBestPrice = price == getBestPrice(side);
+        if (orderList == null || !orderList.remove(order)) {
+            return false;
+        }
+        if (orderList.isEmpty()) {
+            removePriceLevel(side, price);
         }
+        if (atBestPrice) {
+            refreshTopOfBook(side);
+        }
+        return true;
+    }
+
+    /**
+     * Publishes the current best level of a side to the top of book. The book does this on its own
+     * when orders are added or removed; the caller has to do it after changing the quantity of an
+     * order resting at the best price, e.g. after a partial fill.
+     * The caller is expected to hold the write lock of the side.
+     *
+     * @param side the side of the book
+     */
+    public void refreshTopOfBook(Side side) {
+        long bestPrice = getBestPrice(side);
+        long qty = 0;
+        int orderCount = 0;
+        if (bestPrice != NO_PRICE) {
+            PriceLevel bestLevel = getPriceLevel(side, bestPrice);
+            qty = bestLevel.getTotalQty();
+            orderCount = bestLevel.getOrderCount();
+        }
+        topOfBook.update(side, bestPrice, qty, orderCount);
+    }
 
+    /**
+     * Returns the order with the highest priority on a side without removing it.
+     *
+     * @param side the side of the book
+     * @return the first order at the best price or null if the side is empty
+     */
+    public Order peekBestOrder(Side side) {
+        long bestPrice = getBestPrice(side);
+        if (bestPrice == NO_PRICE) {
+            return null;
+        }
+        PriceLevel orderList = getPriceLevel(side, bestPrice);
+        return orderList == null ? null : orderList.peekFirst();
+    }
+
+    public String getTextFormatOfOrderBook(Side side) {
         StringBuilder message = new StringBuilder();
-        for (Entry<BigDecimal, LinkedList<Order>> entry : orderMap.entrySet()) {
-            for (Order order : entry.getValue()) {
-                message.append(order.getBrokerID()).append("-").append(order.getClientOrdID()).append(" ").append(order.getPrice().get()).append(" ").append(order.getRemainingQty()).append("\n");
+        forEachPriceLevel(side, level -> {
+            for (Order order : level) {
+                message.append(order.getBrokerID()).append("-").append(order.getClientOrdID()).append(" ");
+                priceScale.appendTo(message, order.getPrice()).append(" ").append(order.getRemainingQty()).append("\n");
             }
-        }
+        });
+        return message.toString();
+    }
+
+    /**
+     * Returns the L2 depth of a side, one line "price quantity orders" per level from the best price,
+     * read from the level aggregates in O(levels).
+     *
+     * @param side      the side of the book
+     * @param maxLevels the maximum number of levels
+     * @return the text format of the depth
+     */
+    public String getTextFormatOfDepth(Side side, int maxLevels) {
+        StringBuilder message = new StringBuilder();
+        forEachPriceLevel(side, maxLevels, level -> {
+            priceScale.appendTo(message, level.getPrice()).append(" ").append(level.getTotalQty())
+                    .append(" ").append(level.getOrderCount()).append("\n");
+        });
         return message.toString();
     }
 
 
     /**
      * Displays the order map for the specified side (BUY or SELL) without applying any locking mechanism.
-     * This method logs relevant details about the order map, such as the first and last price levels,
+     * This method logs relevant details about the order map, such as the best and worst price levels,
      * as well as details of the orders present at each price level. It also logs errors if any inconsistencies
      * or empty order lists are found.
      *
      * @param side the side of the order book to display, either BUY or SELL
      */
     public void showMapWithoutLocking(Side side) {
-        NavigableMap<BigDecimal, LinkedList<Order>> orderMap;
-        if (side == Side.BUY) {
-            orderMap = bidMap;
-        } else {
-            orderMap = askMap;
-        }
-
-        if (orderMap.isEmpty())
+        if (isEmpty(side) || !log.isDebugEnabled())
             return;
         log.debug("{}-{} {}", this.stockNo, this.desc, side);
-        log.debug("the first price: {}", orderMap.firstKey());
-        log.debug("the last price: {}", orderMap.lastKey());
-        for (Entry<BigDecimal, LinkedList<Order>> entry : orderMap.entrySet()) {
-            log.debug("Orders of {} at price level {} ", stockNo, entry.getKey());
-            if (entry.getValue() == null) {
-                log.error("Empty list of orders at price level {} ", entry.getKey());
+        log.debug("the best price: {}", getBestPrice(side));
+        log.debug("the worst price: {}", getWorstPrice(side));
+        forEachPriceLevel(side, level -> {
+            long price = level.getPrice();
+            log.debug("Orders of {} at price level {} ({} in {} orders)", stockNo, price, level.getTotalQty(), level.getOrderCount());
+            if (level.isEmpty()) {
+                log.error("Empty list of orders at price level {} ", price);
             }
-            entry.getValue().forEach(a -> log.debug("{}-{} {}@{} ", a.getBrokerID(), a.getClientOrdID(), a.getRemainingQty(), a.getPrice().get()));
-            entry.getValue().forEach(a -> {
-                if (a.getPrice().get().compareTo(entry.getKey()) != 0)
-                    log.error("Doesn't match {}: {}-{} {}@{} ", entry.getKey(), a.getBrokerID(), a.getClientOrdID(), a.getRemainingQty(), a.getPrice().get());
+            level.forEach(a -> log.debug("{}-{} {}@{} ", a.getBrokerID(), a.getClientOrdID(), a.getRemainingQty(), a.getPrice()));
+            level.forEach(a -> {
+                if (a.getPrice() != price)
+                    log.error("Doesn't match {}: {}-{} {}@{} ", price, a.getBrokerID(), a.getClientOrdID(), a.getRemainingQty(), a.getPrice());
             });
-//            log.debug("The time of head is {}", Objects.requireNonNull(entry.getValue().peek()).getCreatedDateTime());
-        }
+        });
     }
 
-    public void checkAndCleanUpPriceLevel(BigDecimal price, Side side) {
-        if (price == null || side == null) {
+    public void checkAndCleanUpPriceLevel(long price, Side side) {
+        if (price == NO_PRICE || side == null) {
             log.error("Null price or side in checkAndCleanUpPriceLevel");
             return;
         }
 
-        NavigableMap<BigDecimal, LinkedList<Order>> orderMap = (side == Side.BUY) ? bidMap : askMap;
         // Clean up empty price levels
-        LinkedList<Order> orderList = orderMap.get(price);
+        PriceLevel orderList = getPriceLevel(side, price);
         if (orderList != null && orderList.isEmpty()) {
-            orderMap.remove(price);
+            removePriceLevel(side, price);
         }
     }
 
 
     public void showMap() {
+        if (!log.isDebugEnabled()) {
+            // Nothing to walk the book for
+            return;
+        }
         // Acquire locks in a consistent order
         bidLock.readLock().lock();
         try {
@@ -116,9 +311,7 @@ public class OrderBook {
             try {
                 // Show the maps
                 log.debug("Order Map of {} Best bid: {} Best ask: {}",
-                        stockNo,
-                        bidMap.isEmpty() ? null : bidMap.lastKey(),
-                        askMap.isEmpty() ? null : askMap.lastKey());
+                        stockNo, getBestPrice(Side.BUY), getBestPrice(Side.SELL));
                 // Show bid and ask maps
                 showMapWithoutLocking(Side.BUY);
                 showMapWithoutLocking(Side.SELL);
@@ -131,47 +324,71 @@ public class OrderBook {
         }
     }
 
+    public int getSymbolId() {
+        return symbolId;
+    }
+
     public String getStockNo() {
         return stockNo;
     }
 
+    public PriceScale getPriceScale() {
+        return priceScale;
+    }
+
+    public TopOfBook getTopOfBook() {
+        return topOfBook;
+    }
+
     /**
-     * Returns the best bid price from the bid order book.
-     *
-     * @return the best bid price or null if the bid order book is empty
+     * @return the index of the live orders of this book by order ID and by client order ID
      */
-    public BigDecimal getBestBid() {
-        bidLock.readLock().lock();
-        try {
-            return bidMap.isEmpty() ? null : bidMap.lastKey();
-        } finally {
-            bidLock.readLock().unlock();
+    public OrderIndex getOrderIndex() {
+        return orderIndex;
+    }
+
+    /**
+     * Rebuilds the order index from the orders resting in the book, e.g. after it was cleared.
+     * The caller holds the write locks of both sides.
+     */
+    public void rebuildOrderIndex() {
+        orderIndex.clear();
+        for (Side side : Side.values()) {
+            forEachPriceLevel(side, level -> {
+                for (Order order : level) {
+                    orderIndex.put(order);
+                }
+            });
         }
     }
 
     /**
-     * Returns the best ask price from the ask order book.
+     * Returns the best bid price from the cached top of book without locking.
      *
-     * @return the best ask price or null if the ask order book is empty
+     * @return the best bid price or NO_PRICE if the bid order book is empty
      */
-    public BigDecimal getBestAsk() {
-        askLock.readLock().lock();
-        try {
-            return askMap.isEmpty() ? null : askMap.lastKey();
-        } finally {
-            askLock.readLock().unlock();
-        }
+    public long getBestBid() {
+        return topOfBook.getBestBid();
+    }
+
+    /**
+     * Returns the best ask price from the cached top of book without locking.
+     *
+     * @return the best ask price or NO_PRICE if the ask order book is empty
+     */
+    public long getBestAsk() {
+        return topOfBook.getBestAsk();
     }
 
     /**
      * Returns the lowest bid price from the bid order book.
      *
-     * @return the lowest bid price or null if the bid order book is empty
+     * @return the lowest bid price or NO_PRICE if the bid order book is empty
      */
-    public BigDecimal getLowestBid() {
+    public long getLowestBid() {
         bidLock.readLock().lock();
         try {
-            return bidMap.isEmpty() ? null : bidMap.firstKey();
+            return getWorstPrice(Side.BUY);
         } finally {
             bidLock.readLock().unlock();
         }
@@ -180,12 +397,12 @@ public class OrderBook {
     /**
      * Returns the highest ask price from the ask order book.
      *
-     * @return the highest ask price or null if the ask order book is empty
+     * @return the highest ask price or NO_PRICE if the ask order book is empty
      */
-    public BigDecimal getHighestAsk() {
+    public long getHighestAsk() {
         askLock.readLock().lock();
         try {
-            return askMap.isEmpty() ? null : askMap.firstKey();
+            return getWorstPrice(Side.SELL);
         } finally {
             askLock.readLock().unlock();
         }
@@ -210,24 +427,13 @@ public class OrderBook {
     }
 
     /**
-     * Retrieves the bid order book map, which is a sorted concurrent map with bid prices as keys and a list of corresponding bid orders as values.
-     * The map allows for quick access to bid orders based on their price.
+     * Provides access to the read-write lock of the given side.
      *
-     * @return NavigableMap containing bid prices and corresponding bid orders
+     * @param side the side of the book
+     * @return the ReentrantReadWriteLock of the side
      */
-    public NavigableMap<BigDecimal, LinkedList<Order>> getBidMap() {
-        return bidMap;
+    public ReentrantReadWriteLock getLock(Side side) {
+        return side == Side.BUY ? bidLock : askLock;
     }
 
-    /**
-     * Retrieves the ask order book map, which is a sorted concurrent map with ask prices as keys and a list of corresponding ask orders as values.
-     * The map allows for quick access to ask orders based on their price.
-     *
-     * @return NavigableMap containing ask prices and corresponding ask orders
-     */
-    public NavigableMap<BigDecimal, LinkedList<Order>> getAskMap() {
-        return askMap;
-    }
-
-
 }
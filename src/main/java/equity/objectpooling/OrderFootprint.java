@@ -0,0 +1,128 @@
+package equity.objectpooling;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+
+/**
+ * Memory footprint of resting orders.
+ * <p>
+ * The heap size of an order is estimated from the HotSpot object layout: an object header, the
+ * instance fields of the class hierarchy and the padding to the object alignment, plus the String
+ * objects owned by the order (broker ID and client order ID). The stock number is shared by all the
+ * orders of a pool and the enum constants by all the orders, so they are not counted. When the pool
+ * keeps the order state in an {@link OffHeapOrderStore}, its orders are {@link OffHeapOrder}s, without
+ * the numeric fields of a {@link HeapOrder}, and the off-heap record is added instead.
+ */
+public final class OrderFootprint {
+    private static final boolean COMPRESSED_OOPS = isVmOptionEnabled("UseCompressedOops");
+    private static final boolean COMPRESSED_CLASS_POINTERS = isVmOptionEnabled("UseCompressedClassPointers");
+    private static final int REFERENCE_SIZE = COMPRESSED_OOPS ? 4 : 8;
+    private static final int OBJECT_HEADER_SIZE = COMPRESSED_CLASS_POINTERS ? 12 : 16;
+    private static final int ARRAY_HEADER_SIZE = OBJECT_HEADER_SIZE + 4;
+    private static final int OBJECT_ALIGNMENT = 8;
+
+    private OrderFootprint() {
+    }
+
+    private static boolean isVmOptionEnabled(String name) {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return bean == null || Boolean.parseBoolean(bean.getVMOption(name).getValue());
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            // Not a HotSpot VM, assume the 64-bit defaults
+            return true;
+        }
+    }
+
+    /**
+     * Estimates the shallow size of an instance of the given class: header, instance fields and padding.
+     *
+     * @param type the class
+     * @return the size in bytes
+     */
+    public static long shallowSize(Class<?> type) {
+        long size = OBJECT_HEADER_SIZE;
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += fieldSize(field.getType());
+                }
+            }
+        }
+        return align(size);
+    }
+
+    /**
+     * Estimates the heap size of a Latin-1 String including its byte array.
+     *
+     * @param value the string, may be null
+     * @return the size in bytes, 0 for null
+     */
+    public static long stringSize(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return shallowSize(String.class) + align(ARRAY_HEADER_SIZE + value.length());
+    }
+
+    /**
+     * Estimates the heap bytes owned by one order.
+     *
+     * @param order the order
+     * @return the size in bytes
+     */
+    public static long heapBytes(Order order) {
+        return shallowSize(order.getClass()) + stringSize(order.getBrokerID()) + stringSize(order.getClientOrdID());
+    }
+
+    /**
+     * Builds the footprint report of the given orders of one pool.
+     *
+     * @param stockNo the stock number of the pool
+     * @param orders  the orders to be measured, e.g. the resting orders
+     * @param store   the off-heap store of the pool or null
+     * @return the report, one line per item
+     */
+    public static String report(String stockNo, Collection<Order> orders, OffHeapOrderStore store) {
+        long heapBytes = 0;
+        for (Order order : orders) {
+            heapBytes += heapBytes(order);
+        }
+        int count = orders.size();
+        long offHeapBytesPerOrder = store == null ? 0 : OffHeapOrderStore.RECORD_SIZE;
+        long bytesPerOrder = count == 0 ? 0 : heapBytes / count + offHeapBytesPerOrder;
+        Class<? extends Order> orderClass = store == null ? HeapOrder.class : OffHeapOrder.class;
+        return "Order footprint of " + stockNo + '\n' +
+                "orders: " + count + '\n' +
+                "order object (shallow): " + shallowSize(orderClass) + " bytes\n" +
+                "heap per order: " + (count == 0 ? 0 : heapBytes / count) + " bytes\n" +
+                "off-heap per order: " + offHeapBytesPerOrder + " bytes\n" +
+                "total per order: " + bytesPerOrder + " bytes\n" +
+                "total: " + (heapBytes + offHeapBytesPerOrder * count) + " bytes\n" +
+                "off-heap reserved: " + (store == null ? 0 : store.getReservedBytes()) + " bytes\n";
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    private static long align(long size) {
+        return (size + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+}
@@ -0,0 +1,262 @@
+package equity.objectpooling;
+
+import java.util.Arrays;
+
+import static equity.objectpooling.Order.NO_ORDER_ID;
+
+/**
+ * Index of the live orders by their engine-assigned order ID, with a side index from the client's
+ * own identification (broker ID, client order ID) to the order ID for clients cancelling or amending
+ * by their own ID.
+ * <p>
+ * Both tables use open addressing with linear probing over parallel arrays, so a lookup by order ID
+ * neither boxes the key nor hashes a string, and a lookup by client ID hashes the two strings (whose
+ * hash codes are cached by String) without building a concatenated key. Removal shifts the following
+ * entries back instead of leaving tombstones. The tables double when they are more than half full.
+ * <p>
+ * The index is shared by the order processing job and the matching jobs, so every method is
+ * synchronized.
+ */
+public class OrderIndex {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // Order ID -> order
+    private long[] ids;
+    private Order[] orders;
+    // (broker ID, client order ID) -> order ID
+    private String[] brokerIDs;
+    private String[] clientOrdIDs;
+    private long[] clientOrderIds;
+    private int size;
+
+    public OrderIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedOrders the number of live orders to size the tables for
+     */
+    public OrderIndex(int expectedOrders) {
+        allocate(tableSizeFor(expectedOrders));
+    }
+
+    private static int tableSizeFor(int expectedOrders) {
+        return Integer.highestOneBit(Math.max(expectedOrders, 8) * 2 - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        orders = new Order[capacity];
+        brokerIDs = new String[capacity];
+        clientOrdIDs = new String[capacity];
+        clientOrderIds = new long[capacity];
+        size = 0;
+    }
+
+    /**
+     * Indexes an order by its order ID and by its client identification, replacing any order indexed
+     * under the same order ID.
+     *
+     * @param order the order to be indexed
+     */
+    public synchronized void put(Order order) {
+        long orderId = order.getOrderId();
+        if (orderId == NO_ORDER_ID) {
+            throw new IllegalArgumentException("Order " + order.getBrokerID() + "-" + order.getClientOrdID()
+                    + " has no order ID");
+        }
+        if ((size + 1) * 2 > ids.length) {
+            resize();
+        }
+        int idSlot = findIdSlot(orderId);
+        if (ids[idSlot] == NO_ORDER_ID) {
+            size++;
+        } else {
+            removeClientSlot(orders[idSlot].getBrokerID(), orders[idSlot].getClientOrdID(), orderId);
+        }
+        ids[idSlot] = orderId;
+        orders[idSlot] = order;
+        int clientSlot = findClientSlot(order.getBrokerID(), order.getClientOrdID());
+        brokerIDs[clientSlot] = order.getBrokerID();
+        clientOrdIDs[clientSlot] = order.getClientOrdID();
+        clientOrderIds[clientSlot] = orderId;
+    }
+
+    /**
+     * @param orderId the engine-assigned order ID
+     * @return the order or null if no live order has the ID
+     */
+    public synchronized Order get(long orderId) {
+        if (orderId == NO_ORDER_ID) {
+            return null;
+        }
+        return orders[findIdSlot(orderId)];
+    }
+
+    /**
+     * @param brokerID    the broker ID
+     * @param clientOrdID the client order ID
+     * @return the order ID of the live order or NO_ORDER_ID if there is none
+     */
+    public synchronized long getOrderId(String brokerID, String clientOrdID) {
+        return clientOrderIds[findClientSlot(brokerID, clientOrdID)];
+    }
+
+    /**
+     * @param brokerID    the broker ID
+     * @param clientOrdID the client order ID
+     * @return the live order or null if there is none
+     */
+    public synchronized Order get(String brokerID, String clientOrdID) {
+        return get(getOrderId(brokerID, clientOrdID));
+    }
+
+    /**
+     * Removes an order from both tables.
+     *
+     * @param order the order to be removed
+     * @return true if the order was indexed
+     */
+    public synchronized boolean remove(Order order) {
+        long orderId = order.getOrderId();
+        if (orderId == NO_ORDER_ID) {
+            return false;
+        }
+        int idSlot = findIdSlot(orderId);
+        if (orders[idSlot] != order) {
+            return false;
+        }
+        removeClientSlot(order.getBrokerID(), order.getClientOrdID(), orderId);
+        removeAt(idSlot);
+        size--;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(ids, NO_ORDER_ID);
+        Arrays.fill(orders, null);
+        Arrays.fill(brokerIDs, null);
+        Arrays.fill(clientOrdIDs, null);
+        Arrays.fill(clientOrderIds, NO_ORDER_ID);
+        size = 0;
+    }
+
+    // === Order ID table ===
+
+    private int findIdSlot(long orderId) {
+        int mask = ids.length - 1;
+        int slot = mix(orderId) & mask;
+        while (ids[slot] != NO_ORDER_ID && ids[slot] != orderId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot of the order ID table and moves back the following entries of the probe run
+     * which could no longer be reached otherwise.
+     */
+    private void removeAt(int slot) {
+        int mask = ids.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (ids[next] != NO_ORDER_ID) {
+            int home = mix(ids[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                ids[hole] = ids[next];
+                orders[hole] = orders[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        ids[hole] = NO_ORDER_ID;
+        orders[hole] = null;
+    }
+
+    // === Client ID table ===
+
+    private int findClientSlot(String brokerID, String clientOrdID) {
+        int mask = brokerIDs.length - 1;
+        int slot = mix(brokerID, clientOrdID) & mask;
+        while (brokerIDs[slot] != null
+                && !(brokerIDs[slot].equals(brokerID) && clientOrdIDs[slot].equals(clientOrdID))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the client ID entry if it still maps to the given order ID; a later order reusing the
+     * client order ID keeps its entry.
+     */
+    private void removeClientSlot(String brokerID, String clientOrdID, long orderId) {
+        int slot = findClientSlot(brokerID, clientOrdID);
+        if (clientOrderIds[slot] != orderId) {
+            return;
+        }
+        int mask = brokerIDs.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (brokerIDs[next] != null) {
+            int home = mix(brokerIDs[next], clientOrdIDs[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                brokerIDs[hole] = brokerIDs[next];
+                clientOrdIDs[hole] = clientOrdIDs[next];
+                clientOrderIds[hole] = clientOrderIds[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        brokerIDs[hole] = null;
+        clientOrdIDs[hole] = null;
+        clientOrderIds[hole] = NO_ORDER_ID;
+    }
+
+    /**
+     * Doubles both tables. Each table is rehashed from its own entries: replaying put in the order of
+     * the old array could hand a reused client order ID back to an older order.
+     */
+    private void resize() {
+        long[] oldIds = ids;
+        Order[] oldOrders = orders;
+        String[] oldBrokerIDs = brokerIDs;
+        String[] oldClientOrdIDs = clientOrdIDs;
+        long[] oldClientOrderIds = clientOrderIds;
+        int oldSize = size;
+        allocate(oldIds.length * 2);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != NO_ORDER_ID) {
+                int idSlot = findIdSlot(oldIds[i]);
+                ids[idSlot] = oldIds[i];
+                orders[idSlot] = oldOrders[i];
+            }
+        }
+        for (int i = 0; i < oldBrokerIDs.length; i++) {
+            if (oldBrokerIDs[i] != null) {
+                int clientSlot = findClientSlot(oldBrokerIDs[i], oldClientOrdIDs[i]);
+                brokerIDs[clientSlot] = oldBrokerIDs[i];
+                clientOrdIDs[clientSlot] = oldClientOrdIDs[i];
+                clientOrderIds[clientSlot] = oldClientOrderIds[i];
+            }
+        }
+        size = oldSize;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int mix(String brokerID, String clientOrdID) {
+        int h = brokerID.hashCode() * 31 + clientOrdID.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
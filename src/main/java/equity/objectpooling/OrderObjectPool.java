@@ -5,21 +5,123 @@ import equity.objectpooling.Order.Side;
 import equity.requesthandling.MatchingEngine;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.ArrayObjectPool;
 
-import java.math.BigDecimal;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import static util.ReadConfig.dotenv;
 
+/**
+ * Pool of the Order objects of one stock.
+ * <p>
+ * The free orders are kept in an {@link ArrayObjectPool}: a per-thread array stack in front of a
+ * lock-free ring of {@code pool_max_size} orders (default 4096), so taking and returning an order costs
+ * no lock, no hashing and no allocation, even when the gateway takes the orders which the matching
+ * threads return. Each thread caches up to {@code pool_thread_cache} orders (default 64). The pool only
+ * counts the orders in use; an order returned to a full pool is dropped.
+ * <p>
+ * {@code pool_initial_size} orders (default 0) are created when the pool is, so that the first burst of
+ * the day finds them allocated and already promoted. Both sizes can be set per stock, e.g.
+ * {@code pool_initial_size_00005}. The pool reports its high-water mark, the most orders in use at once,
+ * the orders it owns and its misses, the requests which had to create an order, to size it from real
+ * trading days.
+ * <p>
+ * With {@code order_store=OFF_HEAP} (default HEAP) the numeric state of the orders of the pool lives in
+ * an {@link OffHeapOrderStore}: the pool creates {@link OffHeapOrder}s, which keep no numeric field on
+ * the heap and each own a record of the store for as long as they stay in the pool, so recycling an
+ * order reuses its record as well.
+ * <p>
+ * Every hand-out and return bumps the {@link Order#getGeneration() generation} of the order, which
+ * invalidates the handles recorded by the previous holder. {@code pool_debug=true} (default false)
+ * additionally checks those handles where orders change hands and fails any mutation of an order
+ * which is back in its pool; it costs nothing when off.
+ */
 public class OrderObjectPool {
     private static final Logger log = LogManager.getLogger(MatchingEngine.class);
-    private final Set<Order> inUsedOrderList = ConcurrentHashMap.newKeySet();
-    private final Set<Order> freeOrderList = ConcurrentHashMap.newKeySet();
+    static final int DEFAULT_MAX_SIZE = 4096;
+    static final int DEFAULT_THREAD_CACHE_SIZE = 64;
+    /**
+     * True to check order handles and fail any use of a returned order, see {@link Order#isValidHandle}.
+     */
+    public static final boolean DEBUG = Boolean.parseBoolean(Objects.requireNonNullElse(
+            dotenv.get("pool_debug"), "false").trim());
+
+    private final ArrayObjectPool<Order> freeOrders;
+    // Every order owned by the pool, only touched when an order is created or dropped
+    private final Set<Order> orders = ConcurrentHashMap.newKeySet();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder inUseCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder dropCount = new LongAdder();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final int symbolId;
     private final String stockNo;
+    private final OffHeapOrderStore orderStore;
+    private final int initialSize;
+
+    public OrderObjectPool(int symbolId) {
+        this(symbolId, isOffHeapStoreConfigured());
+    }
 
-    public OrderObjectPool(String stockNo) {
-        this.stockNo = stockNo;
+    public OrderObjectPool(int symbolId, boolean offHeap) {
+        this(symbolId, offHeap, getConfig("pool_initial_size", SymbolRegistry.getStockNo(symbolId), 0),
+                getConfig("pool_max_size", SymbolRegistry.getStockNo(symbolId), DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * @param symbolId    the symbol ID of the stock
+     * @param offHeap     true to keep the numeric state of the orders in an {@link OffHeapOrderStore}
+     * @param initialSize the number of orders created with the pool
+     * @param maxSize     the number of free orders kept at most, raised to the initial size if smaller
+     */
+    public OrderObjectPool(int symbolId, boolean offHeap, int initialSize, int maxSize) {
+        this.symbolId = symbolId;
+        this.stockNo = SymbolRegistry.getStockNo(symbolId);
+        this.orderStore = offHeap ? new OffHeapOrderStore(stockNo) : null;
+        this.initialSize = initialSize;
+        this.freeOrders = new ArrayObjectPool<>(Math.max(initialSize, maxSize),
+                getConfig("pool_thread_cache", stockNo, DEFAULT_THREAD_CACHE_SIZE));
+        prewarm();
+    }
+
+    /**
+     * @return the value of {@code <key>_<stockNo>}, else of {@code <key>}, else the default value
+     */
+    static int getConfig(String key, String stockNo, int defaultValue) {
+        String value = dotenv.get(key + "_" + stockNo);
+        if (value == null) {
+            value = dotenv.get(key);
+        }
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Creates the initial orders, with their store records, straight into the shared ring.
+     */
+    private void prewarm() {
+        for (int i = 0; i < initialSize; i++) {
+            Order order = Order.newBlankOrder(symbolId, orderStore);
+            orders.add(order);
+            freeOrders.offerShared(order);
+        }
+        createdCount.add(initialSize);
+    }
+
+    private static boolean isOffHeapStoreConfigured() {
+        String store = dotenv.get("order_store");
+        if (store == null || store.trim().equalsIgnoreCase("HEAP")) {
+            return false;
+        }
+        if (store.trim().equalsIgnoreCase("OFF_HEAP")) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown order_store " + store);
     }
 
 
@@ -31,49 +133,143 @@ public class OrderObjectPool {
      * @param clientOrdID the client order ID
      * @param orderType the type of the order (MARKET or LIMIT)
      * @param direction the direction of the order (BUY or SELL)
-     * @param price the price of the order
+     * @param price the fixed-point price of the order, see {@link PriceScale}
      * @param quantity the quantity of the order
      * @return the Order object
      */
-    public synchronized Order makeANewOrder(String brokerID, String clientOrdID, OrderType orderType, Side direction, BigDecimal price, int quantity){
-        Order newOrder;
-        if (freeOrderList.isEmpty()){
-            newOrder = new Order(stockNo, brokerID, clientOrdID, orderType, direction, price, quantity);
+    public Order makeANewOrder(String brokerID, String clientOrdID, OrderType orderType, Side direction, long price, int quantity){
+        Order newOrder = freeOrders.poll();
+        if (newOrder == null){
+            newOrder = Order.newOrder(symbolId, orderStore, brokerID, clientOrdID, orderType, direction, price, quantity);
+            orders.add(newOrder);
+            createdCount.increment();
+            missCount.increment();
         }else{
-            Iterator<Order> iterator = freeOrderList.iterator();
-            newOrder = iterator.next();
-            newOrder.reset(brokerID, clientOrdID, orderType, direction, price, quantity);
-            freeOrderList.remove(newOrder);
+            try {
+                newOrder.reset(brokerID, clientOrdID, orderType, direction, price, quantity);
+            } catch (RuntimeException e) {
+                // Keep the free order for the next request
+                freeOrders.offer(newOrder);
+                throw e;
+            }
         }
-        inUsedOrderList.add(newOrder);
+        newOrder.generation++;
+        newOrder.inUse = true;
+        inUseCount.increment();
+        updateHighWaterMark();
         return newOrder;
     }
 
+    /**
+     * Raises the high-water mark to the orders in use, only writing it when it is exceeded.
+     */
+    private void updateHighWaterMark() {
+        long used = inUseCount.sum();
+        if (used > highWaterMark.get()) {
+            highWaterMark.accumulateAndGet(used, Math::max);
+        }
+    }
+
 
     /**
      * Free up the given Order object back to the free order list in the pool.
      *
      * @param order the Order object to be returned to the free order list
      */
-    public synchronized void returnOrderObj(Order order){
+    public void returnOrderObj(Order order){
         if (order != null){
-            if (!inUsedOrderList.remove(order))
+            if (!order.inUse) {
                 log.error("{} is not in use. Need to check ", order.toString());
-            else
-                freeOrderList.add(order);
+                return;
+            }
+            order.inUse = false;
+            order.generation++;
+            inUseCount.decrement();
+            if (!freeOrders.offer(order)) {
+                orders.remove(order);
+                order.releaseStoreRecord();
+                createdCount.decrement();
+                dropCount.increment();
+            }
         }
     }
 
     public int getFreeOrderCount() {
-        return freeOrderList.size();
+        return (int) (createdCount.sum() - inUseCount.sum());
     }
 
     public int getUsedOrderCount(){
-        return inUsedOrderList.size();
+        return (int) inUseCount.sum();
+    }
+
+    /**
+     * @return the most orders in use at once
+     */
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * @return the number of orders owned by the pool, free or in use
+     */
+    public long getOwnedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * @return the number of requests which found no free order and created one
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the number of returned orders dropped because the pool was full
+     */
+    public long getDropCount() {
+        return dropCount.sum();
     }
 
-    public void resetPool(){
-        inUsedOrderList.clear();
-        freeOrderList.clear();
+    /**
+     * @return the sizes and counters of the pool on one line
+     */
+    public String getStats() {
+        return stockNo + " orders: initial=" + initialSize + " max=" + freeOrders.capacity()
+                + " hwm=" + getHighWaterMark() + " owned=" + getOwnedCount() + " misses=" + getMissCount() + " drops=" + getDropCount()
+                + " used=" + getUsedOrderCount() + " free=" + getFreeOrderCount();
+    }
+
+    /**
+     * @return the off-heap store of the orders of this pool or null if they are kept on the heap
+     */
+    public OffHeapOrderStore getOrderStore() {
+        return orderStore;
+    }
+
+    /**
+     * @return the memory footprint report of the orders in use, see {@link OrderFootprint}
+     */
+    public synchronized String getFootprintReport() {
+        List<Order> inUseOrders = new ArrayList<>();
+        for (Order order : orders) {
+            if (order.inUse) {
+                inUseOrders.add(order);
+            }
+        }
+        return OrderFootprint.report(stockNo, inUseOrders, orderStore);
+    }
+
+    public synchronized void resetPool(){
+        freeOrders.clear();
+        if (orderStore != null) {
+            orders.forEach(Order::releaseStoreRecord);
+        }
+        orders.forEach(order -> order.inUse = false);
+        orders.clear();
+        createdCount.reset();
+        inUseCount.reset();
+        missCount.reset();
+        dropCount.reset();
+        highWaterMark.set(0);
     }
-}
\ No newline at end of file
+}
@@ -2,90 +2,136 @@ package equity.objectpooling;
 
 import equity.objectpooling.Order.OrderType;
 import equity.objectpooling.Order.Side;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import util.ArrayObjectPool;
 
-import java.math.BigDecimal;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static util.ReadConfig.getStocks;
+import static equity.objectpooling.OrderObjectPool.DEFAULT_MAX_SIZE;
+import static equity.objectpooling.OrderObjectPool.DEFAULT_THREAD_CACHE_SIZE;
 
 /**
  * A class responsible for managing orders through an object pool mechanism.
+ * The pools of the stocks are kept in arrays indexed by the symbol ID of {@link SymbolRegistry};
+ * the stock number overloads are meant for the edges of the engine. The market data updates, which
+ * are not tied to a stock until filled, share one pool.
  */
 public class OrderPoolManager {
+    private static final Logger log = LogManager.getLogger(OrderPoolManager.class);
 
-    private static final Map<String, OrderObjectPool> mainOrderObjMap = new ConcurrentHashMap<>();
-    private static final Map<String, TradeObjectPool> mainTradeObjMap = new ConcurrentHashMap<>();
+    private static final OrderObjectPool[] orderPools = new OrderObjectPool[SymbolRegistry.size()];
+    private static final TradeObjectPool[] tradePools = new TradeObjectPool[SymbolRegistry.size()];
+    private static final ArrayObjectPool<MarketData> marketDataPool =
+            new ArrayObjectPool<>(DEFAULT_MAX_SIZE, DEFAULT_THREAD_CACHE_SIZE);
 
     static {
-        for (String stockId: getStocks()) {
-            mainOrderObjMap.put(stockId, new OrderObjectPool(stockId));
-            mainTradeObjMap.put(stockId, new TradeObjectPool(stockId));
+        for (int symbolId = 0; symbolId < SymbolRegistry.size(); symbolId++) {
+            orderPools[symbolId] = new OrderObjectPool(symbolId);
+            tradePools[symbolId] = new TradeObjectPool(symbolId);
         }
     }
 
-    public static Order requestOrderObj(String stockNo, String brokerID, String clientOrdID, OrderType orderType, Side buyOrSell, BigDecimal price, int quantity){
-        OrderObjectPool pool = mainOrderObjMap.get(stockNo);
-        if (pool == null) {
-            throw new IllegalArgumentException("Invalid stock number: " + stockNo + " No order object pool exists for this stock.");
+    private static int symbolIdOf(String stockNo) {
+        int symbolId = SymbolRegistry.getSymbolId(stockNo);
+        if (symbolId == SymbolRegistry.NO_SYMBOL) {
+            throw new IllegalArgumentException("Invalid stock number: " + stockNo + " No object pool exists for this stock.");
         }
-        return pool.makeANewOrder(brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
+        return symbolId;
+    }
+
+    public static Order requestOrderObj(String stockNo, String brokerID, String clientOrdID, OrderType orderType, Side buyOrSell, long price, int quantity){
+        return requestOrderObj(symbolIdOf(stockNo), brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
+    }
+
+    public static Order requestOrderObj(int symbolId, String brokerID, String clientOrdID, OrderType orderType, Side buyOrSell, long price, int quantity){
+        return orderPools[symbolId].makeANewOrder(brokerID, clientOrdID, orderType, buyOrSell, price, quantity);
     }
 
-    public static Trade requestTradeObj(Order bidOrder, Order askOrder, String stockNo, BigDecimal executedPrice, int executedQty, String executionDateTime){
-        TradeObjectPool pool = mainTradeObjMap.get(stockNo);
-        if (pool == null) {
-            throw new IllegalArgumentException("Invalid stock number: " + stockNo + " No trade object pool exists for this stock.");
+    public static Trade requestTradeObj(Order bidOrder, Order askOrder, int symbolId, long executedPrice, int executedQty, long executionNanos){
+        return tradePools[symbolId].makeANewTrade(bidOrder, askOrder, symbolId, executedPrice, executedQty, executionNanos);
+    }
+
+    /**
+     * @return a market data update to be filled by {@link MarketData#snapshot}, free or new
+     */
+    public static MarketData requestMarketDataObj() {
+        MarketData marketData = marketDataPool.poll();
+        if (marketData == null) {
+            marketData = new MarketData();
         }
-        return pool.makeANewTrade(bidOrder, askOrder, stockNo, executedPrice, executedQty, executionDateTime);
+        marketData.inUse = true;
+        return marketData;
     }
 
     // Accept an object back to pool
     public static void returnOrderObj(@NotNull Order order) {
-        mainOrderObjMap.get(order.getStockNo()).returnOrderObj(order);
+        orderPools[order.getSymbolId()].returnOrderObj(order);
     }
 
     public static void returnTradeObj(@NotNull Trade trade) {
-        mainTradeObjMap.get(trade.getStockNo()).returnTradeObj(trade);
+        tradePools[trade.getSymbolId()].returnTradeObj(trade);
+    }
+
+    /**
+     * Returns a market data update once published. An update returned to a full pool is dropped.
+     *
+     * @param marketData the market data update
+     */
+    public static void returnMarketDataObj(@NotNull MarketData marketData) {
+        if (!marketData.inUse) {
+            log.error("Market data of {} is not in use. Need to check ", marketData.stockNo());
+            return;
+        }
+        marketData.inUse = false;
+        marketDataPool.offer(marketData);
     }
 
     public static void returnOrders(@NotNull Order... orders){
         for (Order order: orders)
-            mainOrderObjMap.get(order.getStockNo()).returnOrderObj(order);
+            orderPools[order.getSymbolId()].returnOrderObj(order);
     }
 
     public static int getFreeOrderCount(String stockNo){
-        return mainOrderObjMap.get(stockNo).getFreeOrderCount();
+        return orderPools[symbolIdOf(stockNo)].getFreeOrderCount();
     }
 
     public static int getUsedOrderCount(String stockNo){
-        return mainOrderObjMap.get(stockNo).getUsedOrderCount();
+        return orderPools[symbolIdOf(stockNo)].getUsedOrderCount();
     }
 
     public static int getFreeTradeCount(String stockNo){
-        return mainTradeObjMap.get(stockNo).getFreeTradeCount();
+        return tradePools[symbolIdOf(stockNo)].getFreeTradeCount();
     }
 
     public static int getUsedTradeCount(String stockNo){
-        return mainTradeObjMap.get(stockNo).getUsedTradeCount();
+        return tradePools[symbolIdOf(stockNo)].getUsedTradeCount();
     }
 
-    public static void clearObjects(String stockNo) {
-        OrderObjectPool orderPool = mainOrderObjMap.get(stockNo);
-        TradeObjectPool tradePool = mainTradeObjMap.get(stockNo);
+    public static String getOrderFootprintReport(String stockNo){
+        return orderPools[symbolIdOf(stockNo)].getFootprintReport();
+    }
 
-        if (orderPool != null) {
-            orderPool.resetPool();
-        }else{
-            throw new IllegalArgumentException("Invalid stock number: " + stockNo + " No order object pool exists for this stock.");
-        }
-        if (tradePool != null) {
-            tradePool.resetPool();
-        }else{
-            throw new IllegalArgumentException("Invalid stock number: " + stockNo + " No trade object pool exists for this stock.");
+    public static String getPoolStats(String stockNo){
+        int symbolId = symbolIdOf(stockNo);
+        return orderPools[symbolId].getStats() + '\n' + tradePools[symbolId].getStats();
+    }
+
+    /**
+     * @return the statistics of the order and trade pools of every stock, one line per pool
+     */
+    public static String getPoolStatsReport(){
+        StringBuilder report = new StringBuilder();
+        for (int symbolId = 0; symbolId < SymbolRegistry.size(); symbolId++) {
+            report.append(orderPools[symbolId].getStats()).append('\n')
+                    .append(tradePools[symbolId].getStats()).append('\n');
         }
+        return report.toString();
     }
 
-}
+    public static void clearObjects(String stockNo) {
+        int symbolId = symbolIdOf(stockNo);
+        orderPools[symbolId].resetPool();
+        tradePools[symbolId].resetPool();
+    }
 
+}
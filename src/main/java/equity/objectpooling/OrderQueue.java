@@ -0,0 +1,180 @@
+package equity.objectpooling;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO queue of the orders resting at one price level.
+ * The queue is intrusive: the links live in the orders themselves ({@link Order#getPrev()},
+ * {@link Order#getNext()}, {@link Order#getLevel()}), so adding an order allocates nothing and
+ * removing one in the middle of the queue, e.g. for a cancel, is O(1) instead of a scan.
+ * An order can be in at most one queue at a time. The queue is not thread-safe; the caller
+ * holds the write lock of the side of the book.
+ * <p>
+ * Subclasses can keep aggregates of the queued orders through {@link #onAdd(Order)},
+ * {@link #onRemove(Order)} and {@link #onRemainingQtyChanged(int)}.
+ */
+public class OrderQueue implements Iterable<Order> {
+    private Order head;
+    private Order tail;
+    private int size;
+
+    public Order peekFirst() {
+        return head;
+    }
+
+    public Order peekLast() {
+        return tail;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return head == null;
+    }
+
+    /**
+     * Appends an order to the back of the queue.
+     *
+     * @param order the order to be added
+     * @throws IllegalStateException if the order is already in a queue
+     */
+    public void addLast(Order order) {
+        link(order);
+        order.prev = tail;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+    }
+
+    /**
+     * Puts an order in front of the queue.
+     *
+     * @param order the order to be added
+     * @throws IllegalStateException if the order is already in a queue
+     */
+    public void addFirst(Order order) {
+        link(order);
+        order.next = head;
+        if (head == null) {
+            tail = order;
+        } else {
+            head.prev = order;
+        }
+        head = order;
+    }
+
+    private void link(Order order) {
+        if (order.level != null) {
+            throw new IllegalStateException("Order " + order.getBrokerID() + "-" + order.getClientOrdID()
+                    + " is already in a price level");
+        }
+        order.level = this;
+        size++;
+        onAdd(order);
+    }
+
+    /**
+     * Unlinks an order from the queue in O(1).
+     *
+     * @param order the order to be removed
+     * @return true if the order was in this queue
+     */
+    public boolean remove(Order order) {
+        if (order.level != this) {
+            return false;
+        }
+        Order prev = order.prev;
+        Order next = order.next;
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.prev = prev;
+        }
+        order.unlink();
+        size--;
+        onRemove(order);
+        return true;
+    }
+
+    /**
+     * Removes and returns the first order of the queue.
+     *
+     * @return the first order or null if the queue is empty
+     */
+    public Order pollFirst() {
+        Order first = head;
+        if (first != null) {
+            remove(first);
+        }
+        return first;
+    }
+
+    /**
+     * Unlinks all the orders of the queue.
+     */
+    public void clear() {
+        Order order = head;
+        while (order != null) {
+            Order next = order.next;
+            order.unlink();
+            onRemove(order);
+            order = next;
+        }
+        head = null;
+        tail = null;
+        size = 0;
+    }
+
+    /**
+     * Called after an order joined the queue.
+     */
+    protected void onAdd(Order order) {
+    }
+
+    /**
+     * Called after an order left the queue.
+     */
+    protected void onRemove(Order order) {
+    }
+
+    /**
+     * Called when the remaining quantity of a queued order changes, e.g. on a partial fill.
+     *
+     * @param delta the new remaining quantity minus the old one
+     */
+    protected void onRemainingQtyChanged(int delta) {
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        return new Iterator<>() {
+            private Order nextOrder = head;
+
+            @Override
+            public boolean hasNext() {
+                return nextOrder != null;
+            }
+
+            @Override
+            public Order next() {
+                if (nextOrder == null) {
+                    throw new NoSuchElementException();
+                }
+                Order order = nextOrder;
+                nextOrder = order.next;
+                return order;
+            }
+        };
+    }
+}
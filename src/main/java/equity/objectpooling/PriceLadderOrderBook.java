@@ -0,0 +1,416 @@
+package equity.objectpooling;
+
+import equity.objectpooling.Order.Side;
+
+import java.util.Arrays;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
+import static util.ReadConfig.dotenv;
+
+/**
+ * OrderBook keeping the price levels of each side in a contiguous array indexed by the tick offset
+ * from a reference price. Finding the level of a price, adding a level and stepping to the next best
+ * level are array accesses instead of tree lookups and rebalancing.
+ * <p>
+ * The array covers {@code price_ladder_ticks} ticks (1024 by default) centred on the best price when
+ * the band is chosen. A price better than the band re-centres it on that price; levels falling off the
+ * worse end, and prices arriving beyond it, are parked in a sorted overflow array and pulled back in
+ * once the band empties. Most of the flow lands within a few hundred ticks of the touch, so the
+ * overflow is rarely touched.
+ * <p>
+ * A level emptied in the band or in the overflow is kept for the next new price instead of being
+ * dropped, and the overflow and free levels only grow, so the levels coming and going allocate nothing
+ * once the book is warm, wherever their prices fall.
+ */
+public class PriceLadderOrderBook extends OrderBook {
+    private static final int DEFAULT_LADDER_TICKS = 1024;
+
+    private final Ladder bidLadder;
+    private final Ladder askLadder;
+
+    public PriceLadderOrderBook(String stockNo, String desc) {
+        this(stockNo, desc, ladderTicks());
+    }
+
+    public PriceLadderOrderBook(String stockNo, String desc, int ladderTicks) {
+        super(stockNo, desc);
+        if (ladderTicks < 2) {
+            throw new IllegalArgumentException("Price ladder must cover at least 2 ticks: " + ladderTicks);
+        }
+        // Not getPriceScale(), which a subclass could override before this book is constructed
+        long tickSize = PriceScale.of(stockNo).getTickSize();
+        this.bidLadder = new Ladder(ladderTicks, tickSize);
+        this.askLadder = new Ladder(ladderTicks, tickSize);
+    }
+
+    private static int ladderTicks() {
+        String ticks = dotenv.get("price_ladder_ticks");
+        return ticks == null ? DEFAULT_LADDER_TICKS : Integer.parseInt(ticks.trim());
+    }
+
+    // Both ladders rank levels by a key which is higher for a better price: the price itself for bids
+    // and the negated price for asks.
+    private Ladder getLadder(Side side) {
+        return side == Side.BUY ? bidLadder : askLadder;
+    }
+
+    private static long toKey(Side side, long price) {
+        return side == Side.BUY ? price : -price;
+    }
+
+    private static long toPrice(Side side, long key) {
+        return side == Side.BUY ? key : -key;
+    }
+
+    @Override
+    public PriceLevel getPriceLevel(Side side, long price) {
+        return getLadder(side).get(toKey(side, price));
+    }
+
+    @Override
+    protected PriceLevel getOrCreatePriceLevel(Side side, long price) {
+        if (price % getPriceScale().getTickSize() != 0) {
+            throw new IllegalArgumentException("Price " + price + " of " + getStockNo()
+                    + " is not a multiple of the tick size " + getPriceScale().getTickSize());
+        }
+        return getLadder(side).getOrCreate(toKey(side, price), price);
+    }
+
+    @Override
+    protected void removePriceLevel(Side side, long price) {
+        getLadder(side).remove(toKey(side, price));
+    }
+
+    @Override
+    public long getBestPrice(Side side) {
+        Ladder ladder = getLadder(side);
+        return ladder.isEmpty() ? NO_PRICE : toPrice(side, ladder.bestKey());
+    }
+
+    @Override
+    public long getWorstPrice(Side side) {
+        Ladder ladder = getLadder(side);
+        return ladder.isEmpty() ? NO_PRICE : toPrice(side, ladder.worstKey());
+    }
+
+    @Override
+    public int getLevelCount(Side side) {
+        return getLadder(side).size();
+    }
+
+    @Override
+    public void forEachPriceLevel(Side side, int maxLevels, PriceLevelVisitor visitor) {
+        Ladder ladder = getLadder(side);
+        PriceLevel[] levels = ladder.levels;
+        int visited = 0;
+        for (int i = ladder.bestIndex; i >= 0 && visited < maxLevels; i--) {
+            if (levels[i] != null) {
+                visitor.visit(levels[i]);
+                visited++;
+            }
+        }
+        Overflow overflow = ladder.overflow;
+        for (int i = overflow.size() - 1; i >= 0 && visited < maxLevels; i--) {
+            visitor.visit(overflow.levelAt(i));
+            visited++;
+        }
+    }
+
+    @Override
+    protected void clearPriceLevels(Side side) {
+        getLadder(side).clear();
+    }
+
+    /**
+     * Price levels of one side keyed so that a higher key is a better price.
+     * Invariants: every overflow key is below baseKey, and the overflow is empty whenever the array is.
+     */
+    private static final class Ladder {
+        private final long tickSize;
+        private final int halfWidth;
+        private final PriceLevel[] levels;
+        private final Overflow overflow = new Overflow();
+        // Empty levels removed from the band or the overflow, reused for new prices
+        private PriceLevel[] freeLevels;
+        private int freeLevelCount;
+        // Key of index 0
+        private long baseKey;
+        // Highest occupied index, -1 when the array is empty
+        private int bestIndex = -1;
+        // Number of levels held in the array
+        private int levelCount;
+
+        Ladder(int ticks, long tickSize) {
+            this.tickSize = tickSize;
+            this.halfWidth = ticks / 2;
+            this.levels = new PriceLevel[ticks];
+            this.freeLevels = new PriceLevel[ticks];
+        }
+
+        long keyAt(int index) {
+            return baseKey + index * tickSize;
+        }
+
+        private long topKey() {
+            return baseKey + levels.length * tickSize;
+        }
+
+        boolean isEmpty() {
+            return levelCount == 0;
+        }
+
+        int size() {
+            return levelCount + overflow.size();
+        }
+
+        long bestKey() {
+            return keyAt(bestIndex);
+        }
+
+        long worstKey() {
+            if (!overflow.isEmpty()) {
+                return overflow.firstKey();
+            }
+            for (int i = 0; i < bestIndex; i++) {
+                if (levels[i] != null) {
+                    return keyAt(i);
+                }
+            }
+            return bestKey();
+        }
+
+        PriceLevel get(long key) {
+            if (key < baseKey) {
+                int index = overflow.indexOf(key);
+                return index >= 0 ? overflow.levelAt(index) : null;
+            }
+            long offset = key - baseKey;
+            if (key >= topKey() || offset % tickSize != 0) {
+                return null;
+            }
+            return levels[(int) (offset / tickSize)];
+        }
+
+        PriceLevel getOrCreate(long key, long price) {
+            if (levelCount == 0 || key >= topKey()) {
+                recentre(key);
+            }
+            if (key < baseKey) {
+                int index = overflow.indexOf(key);
+                if (index >= 0) {
+                    return overflow.levelAt(index);
+                }
+                PriceLevel level = newPriceLevel(price);
+                overflow.insert(-index - 1, key, level);
+                return level;
+            }
+            int index = (int) ((key - baseKey) / tickSize);
+            PriceLevel orderList = levels[index];
+            if (orderList == null) {
+                orderList = newPriceLevel(price);
+                levels[index] = orderList;
+                levelCount++;
+                if (index > bestIndex) {
+                    bestIndex = index;
+                }
+            }
+            return orderList;
+        }
+
+        void remove(long key) {
+            if (key < baseKey) {
+                int index = overflow.indexOf(key);
+                if (index >= 0) {
+                    recycle(overflow.removeAt(index));
+                }
+                return;
+            }
+            if (key >= topKey()) {
+                return;
+            }
+            int index = (int) ((key - baseKey) / tickSize);
+            PriceLevel level = levels[index];
+            if (level == null) {
+                return;
+            }
+            levels[index] = null;
+            levelCount--;
+            recycle(level);
+            if (levelCount == 0) {
+                bestIndex = -1;
+                if (!overflow.isEmpty()) {
+                    recentre(overflow.lastKey());
+                }
+            } else if (index == bestIndex) {
+                // Step down to the next best level
+                do {
+                    bestIndex--;
+                } while (levels[bestIndex] == null);
+            }
+        }
+
+        /**
+         * Keeps a removed level for the next new price if it holds no order, growing the free levels
+         * to the most levels this side has dropped at once.
+         */
+        private void recycle(PriceLevel level) {
+            if (!level.isEmpty()) {
+                return;
+            }
+            if (freeLevelCount == freeLevels.length) {
+                freeLevels = Arrays.copyOf(freeLevels, freeLevels.length * 2);
+            }
+            freeLevels[freeLevelCount++] = level;
+        }
+
+        private PriceLevel newPriceLevel(long price) {
+            if (freeLevelCount == 0) {
+                return new PriceLevel(price);
+            }
+            PriceLevel level = freeLevels[--freeLevelCount];
+            freeLevels[freeLevelCount] = null;
+            level.reuse(price);
+            return level;
+        }
+
+        /**
+         * Moves the band so that the given key, which is at least as good as every level on this side,
+         * sits in the middle of the array. Levels below the new band go to the overflow, overflow
+         * levels inside the new band come back into the array.
+         */
+        private void recentre(long key) {
+            long newBaseKey = key - halfWidth * tickSize;
+            if (levelCount > 0) {
+                long shift = (newBaseKey - baseKey) / tickSize;
+                int moved = (int) Math.min(shift, levels.length);
+                // Every key moved is above the overflow, so the levels are appended in order
+                for (int i = 0; i < moved; i++) {
+                    if (levels[i] != null) {
+                        overflow.insert(overflow.size(), keyAt(i), levels[i]);
+                        levelCount--;
+                    }
+                }
+                System.arraycopy(levels, moved, levels, 0, levels.length - moved);
+                Arrays.fill(levels, levels.length - moved, levels.length, null);
+                bestIndex -= moved;
+            }
+            baseKey = newBaseKey;
+            // Pull back the overflow levels which now fall inside the band
+            int inBand = overflow.ceilingIndex(baseKey);
+            for (int i = inBand; i < overflow.size(); i++) {
+                int index = (int) ((overflow.keyAt(i) - baseKey) / tickSize);
+                levels[index] = overflow.levelAt(i);
+                levelCount++;
+                if (index > bestIndex) {
+                    bestIndex = index;
+                }
+            }
+            overflow.truncate(inBand);
+            if (levelCount == 0) {
+                bestIndex = -1;
+            }
+        }
+
+        /**
+         * Drops every level, keeping those already emptied of their orders for the next new prices.
+         */
+        void clear() {
+            for (int i = 0; i <= bestIndex; i++) {
+                if (levels[i] != null) {
+                    recycle(levels[i]);
+                    levels[i] = null;
+                }
+            }
+            for (int i = 0; i < overflow.size(); i++) {
+                recycle(overflow.levelAt(i));
+            }
+            overflow.truncate(0);
+            levelCount = 0;
+            bestIndex = -1;
+        }
+    }
+
+    /**
+     * Levels below the band in ascending key order, in parallel arrays of primitive keys and levels. A
+     * lookup is a binary search, and the levels leaving and re-entering the band are appended to and
+     * truncated from the top of the arrays, next to the band. The arrays only grow, so a warm overflow
+     * allocates nothing.
+     */
+    private static final class Overflow {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private PriceLevel[] levels = new PriceLevel[INITIAL_CAPACITY];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long firstKey() {
+            return keys[0];
+        }
+
+        long lastKey() {
+            return keys[size - 1];
+        }
+
+        long keyAt(int index) {
+            return keys[index];
+        }
+
+        PriceLevel levelAt(int index) {
+            return levels[index];
+        }
+
+        /**
+         * @return the index of the key or, if absent, -(insertion index) - 1, as Arrays.binarySearch
+         */
+        int indexOf(long key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        /**
+         * @return the index of the first key at least the given one, the size if none is
+         */
+        int ceilingIndex(long key) {
+            int index = indexOf(key);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        /**
+         * Inserts a level at the index which keeps the keys sorted.
+         */
+        void insert(int index, long key, PriceLevel level) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                levels = Arrays.copyOf(levels, size * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(levels, index, levels, index + 1, size - index);
+            keys[index] = key;
+            levels[index] = level;
+            size++;
+        }
+
+        PriceLevel removeAt(int index) {
+            PriceLevel level = levels[index];
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(levels, index + 1, levels, index, size - index - 1);
+            levels[--size] = null;
+            return level;
+        }
+
+        /**
+         * Drops the levels from the index to the top.
+         */
+        void truncate(int from) {
+            Arrays.fill(levels, from, size, null);
+            size = from;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package equity.objectpooling;
+
+/**
+ * A price level of one side of an order book: the FIFO of the orders resting at the price together
+ * with the running total of their remaining quantity and the number of orders.
+ * The aggregates are kept up to date on every insert, fill and cancel, so depth snapshots, L2 market
+ * data and the top of book read them in O(1) per level instead of walking the orders.
+ */
+public class PriceLevel extends OrderQueue {
+    private long price;
+    private long totalQty;
+
+    public PriceLevel(long price) {
+        this.price = price;
+    }
+
+    /**
+     * Reuses this level, once empty, for another price.
+     */
+    void reuse(long price) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Price level " + this.price + " still holds " + size() + " orders");
+        }
+        this.price = price;
+        this.totalQty = 0;
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    /**
+     * @return the total remaining quantity of the orders at this price
+     */
+    public long getTotalQty() {
+        return totalQty;
+    }
+
+    /**
+     * @return the number of orders at this price
+     */
+    public int getOrderCount() {
+        return size();
+    }
+
+    @Override
+    protected void onAdd(Order order) {
+        totalQty += order.getRemainingQty();
+    }
+
+    @Override
+    protected void onRemove(Order order) {
+        totalQty -= order.getRemainingQty();
+    }
+
+    @Override
+    protected void onRemainingQtyChanged(int delta) {
+        totalQty += delta;
+    }
+}
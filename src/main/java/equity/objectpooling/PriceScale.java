@@ -0,0 +1,137 @@
+package equity.objectpooling;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static util.ReadConfig.dotenv;
+
+/**
+ * Fixed-point price representation of a stock.
+ * Inside the engine every price is a long counted in units of 10^-scale, so comparisons and
+ * arithmetic on the matching path never allocate. Decimal prices only exist at the edges
+ * (TCP/FIX gateways, file output and market data), which convert through this class.
+ * <p>
+ * The scale and tick size are read from the config per stock ({@code price_scale_<stock>},
+ * {@code tick_size_<stock>}), falling back to {@code price_scale} / {@code tick_size} and then to
+ * 4 decimal places with a tick of one unit.
+ */
+public final class PriceScale {
+    /** Sentinel for "no price", e.g. an unpriced market order or an empty side of the book. */
+    public static final long NO_PRICE = 0L;
+
+    private static final int DEFAULT_SCALE = 4;
+    private static final RoundingMode PRICE_ROUNDING = RoundingMode.HALF_UP;
+    private static final Map<String, PriceScale> priceScales = new ConcurrentHashMap<>();
+
+    private final int scale;
+    private final long unitsPerWhole;
+    private final long tickSize;
+
+    PriceScale(int scale, long tickSize) {
+        if (scale < 0 || scale > 9) {
+            throw new IllegalArgumentException("Price scale must be between 0 and 9: " + scale);
+        }
+        if (tickSize <= 0) {
+            throw new IllegalArgumentException("Tick size must be positive: " + tickSize);
+        }
+        this.scale = scale;
+        this.unitsPerWhole = BigDecimal.ONE.scaleByPowerOfTen(scale).longValueExact();
+        this.tickSize = tickSize;
+    }
+
+    /**
+     * Returns the price scale configured for the given stock.
+     *
+     * @param stockNo the stock number
+     * @return the PriceScale of the stock
+     */
+    public static PriceScale of(String stockNo) {
+        return priceScales.computeIfAbsent(stockNo, PriceScale::load);
+    }
+
+    private static PriceScale load(String stockNo) {
+        String scaleStr = configValue("price_scale", stockNo);
+        int scale = scaleStr == null ? DEFAULT_SCALE : Integer.parseInt(scaleStr.trim());
+        String tickStr = configValue("tick_size", stockNo);
+        long tickSize = 1;
+        if (tickStr != null) {
+            try {
+                tickSize = new BigDecimal(tickStr.trim()).scaleByPowerOfTen(scale).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Tick size " + tickStr + " of " + stockNo
+                        + " cannot be represented with " + scale + " decimal places", e);
+            }
+        }
+        return new PriceScale(scale, tickSize);
+    }
+
+    private static String configValue(String key, String stockNo) {
+        String value = dotenv.get(key + "_" + stockNo);
+        return value != null ? value : dotenv.get(key);
+    }
+
+    public int getScale() { return scale; }
+    public long getTickSize() { return tickSize; }
+
+    /**
+     * Converts a decimal price to the fixed-point representation, rounding to the nearest tick.
+     *
+     * @param price the decimal price, may be null
+     * @return the price in units of 10^-scale, or {@link #NO_PRICE} if the price is null
+     */
+    public long toPrice(BigDecimal price) {
+        if (price == null) return NO_PRICE;
+        long units = price.setScale(scale, PRICE_ROUNDING).unscaledValue().longValueExact();
+        if (tickSize == 1) return units;
+        return Math.floorDiv(units + tickSize / 2, tickSize) * tickSize;
+    }
+
+    public long toPrice(double price) {
+        return toPrice(BigDecimal.valueOf(price));
+    }
+
+    /**
+     * Converts a fixed-point price back to a decimal.
+     *
+     * @param price the price in units of 10^-scale
+     * @return the decimal price, or null if the price is {@link #NO_PRICE}
+     */
+    public BigDecimal toDecimal(long price) {
+        return price == NO_PRICE ? null : BigDecimal.valueOf(price, scale);
+    }
+
+    public double toDouble(long price) {
+        return (double) price / unitsPerWhole;
+    }
+
+    /**
+     * Appends the decimal text of a fixed-point price without creating intermediate objects.
+     * Nothing is appended for {@link #NO_PRICE}.
+     *
+     * @param sb    the builder to append to
+     * @param price the price in units of 10^-scale
+     * @return the given builder
+     */
+    public StringBuilder appendTo(StringBuilder sb, long price) {
+        if (price == NO_PRICE) return sb;
+        if (price < 0) {
+            sb.append('-');
+            price = -price;
+        }
+        sb.append(price / unitsPerWhole);
+        if (scale > 0) {
+            sb.append('.');
+            long fraction = price % unitsPerWhole;
+            for (long digit = unitsPerWhole / 10; digit > 0; digit /= 10) {
+                sb.append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return sb;
+    }
+
+    public String format(long price) {
+        return appendTo(new StringBuilder(20), price).toString();
+    }
+}
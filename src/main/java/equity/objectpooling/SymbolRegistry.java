@@ -0,0 +1,76 @@
+package equity.objectpooling;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static util.ReadConfig.getStocks;
+
+/**
+ * Registry of the stocks traded by the engine.
+ * Each configured stock gets a dense int symbol ID at startup, in the order of {@code stocks} in the
+ * config, so the books, pools and sequence generators of the stocks live in arrays indexed by the
+ * symbol ID. Stock number strings only appear at the edges (TCP/FIX gateways, file output and market
+ * data), which resolve them through this class once per message.
+ */
+public final class SymbolRegistry {
+    /** Sentinel for an unknown stock number. */
+    public static final int NO_SYMBOL = -1;
+
+    private static final String[] stockNos;
+    private static final Map<String, Integer> symbolIds = new HashMap<>();
+
+    static {
+        List<String> stocks = getStocks();
+        stockNos = stocks == null ? new String[0] : stocks.toArray(new String[0]);
+        for (int symbolId = 0; symbolId < stockNos.length; symbolId++) {
+            if (symbolIds.putIfAbsent(stockNos[symbolId], symbolId) != null) {
+                throw new IllegalStateException("Stock " + stockNos[symbolId] + " is configured twice");
+            }
+        }
+    }
+
+    private SymbolRegistry() {
+    }
+
+    /**
+     * @return the number of symbols, the symbol IDs run from 0 to size() - 1
+     */
+    public static int size() {
+        return stockNos.length;
+    }
+
+    /**
+     * @param stockNo the stock number
+     * @return the symbol ID of the stock or NO_SYMBOL if the stock is not traded
+     */
+    public static int getSymbolId(String stockNo) {
+        Integer symbolId = stockNo == null ? null : symbolIds.get(stockNo);
+        return symbolId == null ? NO_SYMBOL : symbolId;
+    }
+
+    /**
+     * @param stockNo the stock number
+     * @return the symbol ID of the stock
+     * @throws IllegalArgumentException if the stock is not traded
+     */
+    public static int requireSymbolId(String stockNo) {
+        int symbolId = getSymbolId(stockNo);
+        if (symbolId == NO_SYMBOL) {
+            throw new IllegalArgumentException("Invalid stock number: " + stockNo);
+        }
+        return symbolId;
+    }
+
+    /**
+     * @param symbolId the symbol ID
+     * @return the stock number of the symbol
+     */
+    public static String getStockNo(int symbolId) {
+        return stockNos[symbolId];
+    }
+
+    public static boolean isValid(int symbolId) {
+        return symbolId >= 0 && symbolId < stockNos.length;
+    }
+}
@@ -0,0 +1,143 @@
+package equity.objectpooling;
+
+import equity.objectpooling.Order.Side;
+
+import java.util.concurrent.locks.StampedLock;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
+
+/**
+ * Cached best bid and offer (BBO) of an order book: the best price, the quantity resting at it and
+ * the number of orders at it for each side.
+ * <p>
+ * The order book writes it whenever the best level of a side changes. Readers never block and never
+ * touch the book: they read the fields under an optimistic {@link StampedLock} stamp (a seqlock) and
+ * retry if a writer got in between, only falling back to the read lock after repeated failures.
+ */
+public final class TopOfBook {
+    private static final int OPTIMISTIC_RETRIES = 8;
+
+    private final StampedLock seqLock = new StampedLock();
+
+    private long bidPrice = NO_PRICE;
+    private long bidQty;
+    private int bidOrderCount;
+    private long askPrice = NO_PRICE;
+    private long askQty;
+    private int askOrderCount;
+
+    /**
+     * Publishes the best level of a side.
+     *
+     * @param side       the side of the book
+     * @param price      the best price or NO_PRICE if the side is empty
+     * @param qty        the total remaining quantity at the best price
+     * @param orderCount the number of orders at the best price
+     */
+    void update(Side side, long price, long qty, int orderCount) {
+        long stamp = seqLock.writeLock();
+        try {
+            if (side == Side.BUY) {
+                bidPrice = price;
+                bidQty = qty;
+                bidOrderCount = orderCount;
+            } else {
+                askPrice = price;
+                askQty = qty;
+                askOrderCount = orderCount;
+            }
+        } finally {
+            seqLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the cached best price of a side.
+     *
+     * @param side the side of the book
+     * @return the best price or NO_PRICE if the side is empty
+     */
+    public long getBestPrice(Side side) {
+        for (int i = 0; i < OPTIMISTIC_RETRIES; i++) {
+            long stamp = seqLock.tryOptimisticRead();
+            long price = side == Side.BUY ? bidPrice : askPrice;
+            if (stamp != 0 && seqLock.validate(stamp)) {
+                return price;
+            }
+            Thread.onSpinWait();
+        }
+        long stamp = seqLock.readLock();
+        try {
+            return side == Side.BUY ? bidPrice : askPrice;
+        } finally {
+            seqLock.unlockRead(stamp);
+        }
+    }
+
+    public long getBestBid() {
+        return getBestPrice(Side.BUY);
+    }
+
+    public long getBestAsk() {
+        return getBestPrice(Side.SELL);
+    }
+
+    /**
+     * Copies a consistent view of both sides into the given snapshot.
+     *
+     * @param snapshot the snapshot to fill, reusable across calls
+     * @return the given snapshot
+     */
+    public Snapshot read(Snapshot snapshot) {
+        for (int i = 0; i < OPTIMISTIC_RETRIES; i++) {
+            long stamp = seqLock.tryOptimisticRead();
+            copyTo(snapshot);
+            if (stamp != 0 && seqLock.validate(stamp)) {
+                return snapshot;
+            }
+            Thread.onSpinWait();
+        }
+        long stamp = seqLock.readLock();
+        try {
+            copyTo(snapshot);
+        } finally {
+            seqLock.unlockRead(stamp);
+        }
+        return snapshot;
+    }
+
+    private void copyTo(Snapshot snapshot) {
+        snapshot.bidPrice = bidPrice;
+        snapshot.bidQty = bidQty;
+        snapshot.bidOrderCount = bidOrderCount;
+        snapshot.askPrice = askPrice;
+        snapshot.askQty = askQty;
+        snapshot.askOrderCount = askOrderCount;
+    }
+
+    /**
+     * Mutable holder of a consistent top of book, meant to be reused by its reader.
+     */
+    public static final class Snapshot {
+        private long bidPrice = NO_PRICE;
+        private long bidQty;
+        private int bidOrderCount;
+        private long askPrice = NO_PRICE;
+        private long askQty;
+        private int askOrderCount;
+
+        public long getBidPrice() { return bidPrice; }
+        public long getBidQty() { return bidQty; }
+        public int getBidOrderCount() { return bidOrderCount; }
+        public long getAskPrice() { return askPrice; }
+        public long getAskQty() { return askQty; }
+        public int getAskOrderCount() { return askOrderCount; }
+
+        /**
+         * @return true if both sides have orders and the best bid reaches the best ask
+         */
+        public boolean isCrossed() {
+            return bidPrice != NO_PRICE && askPrice != NO_PRICE && bidPrice >= askPrice;
+        }
+    }
+}
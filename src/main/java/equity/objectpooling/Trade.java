@@ -1,16 +1,16 @@
 package equity.objectpooling;
 
+import util.EngineClock;
 import util.SequenceGenerator;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Objects;
 
 /**
  * Represents a trade execution between two orders in the equity trading system.
- * Optimized for precision and performance with BigDecimal pricing.
+ * Prices are fixed-point longs in the units of the stock's {@link PriceScale} and the execution time is
+ * kept in nanoseconds since the epoch, so filling a pooled trade on the matching path allocates nothing.
  */
 public class Trade {
 
@@ -18,10 +18,16 @@ public class Trade {
     private static final SequenceGenerator TRADE_OBJ_ID_GENERATOR = new SequenceGenerator();
     private final int tradeObjId;
 
-    // Trade sequence generator and number
-    private static final SequenceGenerator TRADE_SEQ_GENERATOR = new SequenceGenerator();
+    // Trade sequence generators per symbol and number
+    private static final SequenceGenerator[] TRADE_SEQ_GENERATORS = new SequenceGenerator[SymbolRegistry.size()];
     private long tradeSeqNo;
 
+    static {
+        for (int i = 0; i < TRADE_SEQ_GENERATORS.length; i++) {
+            TRADE_SEQ_GENERATORS[i] = new SequenceGenerator();
+        }
+    }
+
 
     // Trade execution details (mutable for object pooling)
     private String buyBrokerID;
@@ -30,53 +36,62 @@ public class Trade {
     private String sellOrderID;
     private long internalBuyOrderSeqNo;
     private long internalSellOrderSeqNo;
-    private String stockNo;
-    private BigDecimal executedPrice;
+    private int symbolId;
+    private long executedPrice;
     private int executedQty;
     private int buyOrderRemainingQty;
-    private BigDecimal buyOrderAvgExecutedPrice;
+    private long buyOrderAvgExecutedPrice;
     private int sellOrderRemainingQty;
-    private BigDecimal sellOrderAvgExecutedPrice;
-    private LocalDateTime executionDateTime;
+    private long sellOrderAvgExecutedPrice;
+    private long executionNanos;
+
+    // Set while the trade is handed out by its pool
+    boolean inUse;
 
-    // Precision constants
-    private static final int PRICE_SCALE = 4;
-    private static final RoundingMode PRICE_ROUNDING = RoundingMode.HALF_UP;
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
 
     // === Constructor ===
-    Trade(Order bidOrder, Order askOrder, String stockNo, BigDecimal executedPrice, int executedQty, String executionDateTime) {
+    Trade(Order bidOrder, Order askOrder, int symbolId, long executedPrice, int executedQty, long executionNanos) {
+        this.tradeObjId = TRADE_OBJ_ID_GENERATOR.getNextSequence();
+        updateTradeData(bidOrder, askOrder, symbolId, executedPrice, executedQty, executionNanos);
+    }
+
+    /**
+     * Creates a blank trade to pre-allocate a pool. The trade gets its data when the pool hands it
+     * out through {@link #reset}.
+     */
+    Trade(int symbolId) {
         this.tradeObjId = TRADE_OBJ_ID_GENERATOR.getNextSequence();
-        updateTradeData(bidOrder, askOrder, stockNo, executedPrice, executedQty, executionDateTime);
+        this.symbolId = symbolId;
     }
 
     // === Object Pool Support ===
 
-    public void reset(Order bidOrder, Order askOrder, String stockNo,
-                      BigDecimal executedPrice, int executedQty, String executionDateTime) {
-        updateTradeData(bidOrder, askOrder, stockNo, executedPrice, executedQty, executionDateTime);
+    public void reset(Order bidOrder, Order askOrder, int symbolId,
+                      long executedPrice, int executedQty, long executionNanos) {
+        updateTradeData(bidOrder, askOrder, symbolId, executedPrice, executedQty, executionNanos);
     }
 
-    private void updateTradeData(Order bidOrder, Order askOrder, String stockNo,
-                                BigDecimal executedPrice, int executedQty, String executionDateTime) {
-        validateInputs(bidOrder, askOrder, stockNo, executedPrice, executedQty, executionDateTime);
+    private void updateTradeData(Order bidOrder, Order askOrder, int symbolId,
+                                long executedPrice, int executedQty, long executionNanos) {
+        validateInputs(bidOrder, askOrder, symbolId, executedPrice, executedQty);
 
         // Note: tradeObjId remains unchanged - preserving identity
-        this.tradeSeqNo = TRADE_SEQ_GENERATOR.getNextSequence();
+        this.tradeSeqNo = TRADE_SEQ_GENERATORS[symbolId].getNextSequence();
         this.buyBrokerID = bidOrder.getBrokerID();
         this.sellBrokerID = askOrder.getBrokerID();
         this.buyOrderID = bidOrder.getClientOrdID();
         this.sellOrderID = askOrder.getClientOrdID();
         this.internalBuyOrderSeqNo = bidOrder.getOrderSeqID();
         this.internalSellOrderSeqNo = askOrder.getOrderSeqID();
-        this.stockNo = stockNo;
-        this.executedPrice = executedPrice.setScale(PRICE_SCALE, PRICE_ROUNDING);
+        this.symbolId = symbolId;
+        this.executedPrice = executedPrice;
         this.executedQty = executedQty;
-        this.buyOrderRemainingQty = bidOrder.getRemainingQty().get();
-        this.buyOrderAvgExecutedPrice = getOrderAvgPriceAsBigDecimal(bidOrder);
-        this.sellOrderRemainingQty = askOrder.getRemainingQty().get();
-        this.sellOrderAvgExecutedPrice = getOrderAvgPriceAsBigDecimal(askOrder);
-        this.executionDateTime = parseDateTime(executionDateTime);
+        this.buyOrderRemainingQty = bidOrder.getRemainingQty();
+        this.buyOrderAvgExecutedPrice = bidOrder.getAvgPrice();
+        this.sellOrderRemainingQty = askOrder.getRemainingQty();
+        this.sellOrderAvgExecutedPrice = askOrder.getAvgPrice();
+        this.executionNanos = executionNanos;
     }
 
     // === Getters ===
@@ -87,22 +102,29 @@ public class Trade {
     public String getSellBrokerID() { return sellBrokerID; }
     public String getBuyOrderID() { return buyOrderID; }
     public String getSellOrderID() { return sellOrderID; }
-    public String getStockNo() { return stockNo; }
-    public BigDecimal getExecutedPrice() { return executedPrice; }
+    public int getSymbolId() { return symbolId; }
+    public String getStockNo() { return SymbolRegistry.getStockNo(symbolId); }
+    public long getExecutedPrice() { return executedPrice; }
     public int getExecutedQty() { return executedQty; }
-    public LocalDateTime getExecutionDateTime() { return executionDateTime; }
+    public long getExecutionNanos() { return executionNanos; }
+    public LocalDateTime getExecutionDateTime() {
+        return EngineClock.toDateTime(executionNanos).toLocalDateTime();
+    }
     public int getBuyOrderRemainingQty() { return buyOrderRemainingQty; }
-    public BigDecimal getBuyOrderAvgExecutedPrice() { return buyOrderAvgExecutedPrice; }
+    public long getBuyOrderAvgExecutedPrice() { return buyOrderAvgExecutedPrice; }
     public int getSellOrderRemainingQty() { return sellOrderRemainingQty; }
-    public BigDecimal getSellOrderAvgExecutedPrice() { return sellOrderAvgExecutedPrice; }
+    public long getSellOrderAvgExecutedPrice() { return sellOrderAvgExecutedPrice; }
     public long getInternalBuyOrderSeqNo() { return internalBuyOrderSeqNo; }
     public long getInternalSellOrderSeqNo() { return internalSellOrderSeqNo; }
 
 
     // === Business Logic ===
 
-    public BigDecimal getTradeValue() {
-        return executedPrice.multiply(BigDecimal.valueOf(executedQty));
+    /**
+     * Returns the traded value in the price units of the stock.
+     */
+    public long getTradeValue() {
+        return executedPrice * executedQty;
     }
 
     public boolean isBuyOrderCompletelyFilled() {
@@ -118,43 +140,26 @@ public class Trade {
     }
 
     public String getExecutionDateTimeAsString() {
-        return executionDateTime.format(DATETIME_FORMATTER);
+        return getExecutionDateTime().format(DATETIME_FORMATTER);
     }
 
     // === Utility Methods ===
 
-    private BigDecimal getOrderAvgPriceAsBigDecimal(Order order) {
-        // Get BigDecimal average price from order's AtomicReference<BigDecimal>
-        BigDecimal avgPrice = order.getAvgPrice().get();
-        return avgPrice != null ? avgPrice.setScale(PRICE_SCALE, PRICE_ROUNDING) : BigDecimal.ZERO;
-    }
-
-    private LocalDateTime parseDateTime(String dateTimeString) {
-        try {
-            return LocalDateTime.parse(dateTimeString, DATETIME_FORMATTER);
-        } catch (Exception e) {
-            return LocalDateTime.now();
-        }
-    }
-
-    private void validateInputs(Order bidOrder, Order askOrder, String stockNo,
-                               BigDecimal executedPrice, int executedQty, String executionDateTime) {
+    private void validateInputs(Order bidOrder, Order askOrder, int symbolId,
+                               long executedPrice, int executedQty) {
         Objects.requireNonNull(bidOrder, "Bid order cannot be null");
         Objects.requireNonNull(askOrder, "Ask order cannot be null");
-        Objects.requireNonNull(stockNo, "Stock number cannot be null");
-        Objects.requireNonNull(executedPrice, "Executed price cannot be null");
-        Objects.requireNonNull(executionDateTime, "Execution date time cannot be null");
 
-        if (stockNo.trim().isEmpty()) {
-            throw new IllegalArgumentException("Stock number cannot be empty");
+        if (!SymbolRegistry.isValid(symbolId)) {
+            throw new IllegalArgumentException("Invalid symbol ID: " + symbolId);
         }
-        if (executedPrice.compareTo(BigDecimal.ZERO) <= 0) {
+        if (executedPrice <= 0) {
             throw new IllegalArgumentException("Executed price must be positive: " + executedPrice);
         }
         if (executedQty <= 0) {
             throw new IllegalArgumentException("Executed quantity must be positive: " + executedQty);
         }
-        if (!Objects.equals(bidOrder.getStockNo(), stockNo) || !Objects.equals(askOrder.getStockNo(), stockNo)) {
+        if (bidOrder.getSymbolId() != symbolId || askOrder.getSymbolId() != symbolId) {
             throw new IllegalArgumentException("Order stock numbers must match trade stock number");
         }
     }
@@ -3,66 +3,176 @@ package equity.objectpooling;
 import equity.requesthandling.MatchingEngine;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.ArrayObjectPool;
 
-import java.math.BigDecimal;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import static equity.objectpooling.OrderObjectPool.DEFAULT_MAX_SIZE;
+import static equity.objectpooling.OrderObjectPool.DEFAULT_THREAD_CACHE_SIZE;
+import static equity.objectpooling.OrderObjectPool.getConfig;
 
+/**
+ * Pool of the Trade objects of one stock, taken by the matching threads and returned by the trade
+ * publisher. Like {@link OrderObjectPool} it keeps the free trades in an {@link ArrayObjectPool}, is
+ * pre-allocated and sized by {@code pool_initial_size}, {@code pool_max_size} and
+ * {@code pool_thread_cache}, only counts the trades in use and reports its high-water mark and misses.
+ */
 public class TradeObjectPool {
     private static final Logger log = LogManager.getLogger(MatchingEngine.class);
-    private final Set<Trade> inUsedTradeObjList = ConcurrentHashMap.newKeySet();
-    private final Set<Trade> freeTradeObjList = ConcurrentHashMap.newKeySet();
+    private final ArrayObjectPool<Trade> freeTrades;
+    // Every trade owned by the pool, only touched when a trade is created or dropped
+    private final Set<Trade> trades = ConcurrentHashMap.newKeySet();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder inUseCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder dropCount = new LongAdder();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final int symbolId;
     private final String stockNo;
+    private final int initialSize;
 
-    public TradeObjectPool(String stockNo) {
-        this.stockNo = stockNo;
+    public TradeObjectPool(int symbolId) {
+        this(symbolId, getConfig("pool_initial_size", SymbolRegistry.getStockNo(symbolId), 0),
+                getConfig("pool_max_size", SymbolRegistry.getStockNo(symbolId), DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * @param symbolId    the symbol ID of the stock
+     * @param initialSize the number of trades created with the pool
+     * @param maxSize     the number of free trades kept at most, raised to the initial size if smaller
+     */
+    public TradeObjectPool(int symbolId, int initialSize, int maxSize) {
+        this.symbolId = symbolId;
+        this.stockNo = SymbolRegistry.getStockNo(symbolId);
+        this.initialSize = initialSize;
+        this.freeTrades = new ArrayObjectPool<>(Math.max(initialSize, maxSize),
+                getConfig("pool_thread_cache", stockNo, DEFAULT_THREAD_CACHE_SIZE));
+        prewarm();
+    }
+
+    /**
+     * Creates the initial trades straight into the shared ring.
+     */
+    private void prewarm() {
+        for (int i = 0; i < initialSize; i++) {
+            Trade trade = new Trade(symbolId);
+            trades.add(trade);
+            freeTrades.offerShared(trade);
+        }
+        createdCount.add(initialSize);
     }
 
 
-    public synchronized Trade makeANewTrade(Order bidOrder, Order askOrder, String stockNo, BigDecimal executedPrice, int executedQty, String executionDateTim){
-        Trade newTrade;
-        if (freeTradeObjList.isEmpty()){
-            newTrade = new Trade(bidOrder, askOrder, stockNo, executedPrice, executedQty, executionDateTim);
+    public Trade makeANewTrade(Order bidOrder, Order askOrder, int symbolId, long executedPrice, int executedQty, long executionNanos){
+        Trade newTrade = freeTrades.poll();
+        if (newTrade == null){
+            newTrade = new Trade(bidOrder, askOrder, symbolId, executedPrice, executedQty, executionNanos);
+            trades.add(newTrade);
+            createdCount.increment();
+            missCount.increment();
         }else{
-            Iterator<Trade> iterator = freeTradeObjList.iterator();
-            newTrade = iterator.next();
-            newTrade.reset(bidOrder, askOrder, stockNo, executedPrice, executedQty, executionDateTim);
-            freeTradeObjList.remove(newTrade);
+            try {
+                newTrade.reset(bidOrder, askOrder, symbolId, executedPrice, executedQty, executionNanos);
+            } catch (RuntimeException e) {
+                // Keep the free trade for the next request
+                freeTrades.offer(newTrade);
+                throw e;
+            }
         }
-        inUsedTradeObjList.add(newTrade);
+        newTrade.inUse = true;
+        inUseCount.increment();
+        updateHighWaterMark();
         return newTrade;
     }
 
+    /**
+     * Raises the high-water mark to the trades in use, only writing it when it is exceeded.
+     */
+    private void updateHighWaterMark() {
+        long used = inUseCount.sum();
+        if (used > highWaterMark.get()) {
+            highWaterMark.accumulateAndGet(used, Math::max);
+        }
+    }
+
 
     /**
      * Free up the given Trade object back to the free trade list in the pool.
      *
      * @param trade the Trade object to be returned to the free trade list
      */
-    public synchronized void returnTradeObj(Trade trade){
+    public void returnTradeObj(Trade trade){
         if (trade != null){
-            if (!inUsedTradeObjList.remove(trade))
+            if (!trade.inUse) {
                 log.error("{} is not in use. Need to check ", trade.toString());
-            else {
-                freeTradeObjList.add(trade);
-                log.debug("{} free trade objects", freeTradeObjList.size());
-                log.debug("{} trade objects in use", inUsedTradeObjList.size());
+                return;
+            }
+            trade.inUse = false;
+            inUseCount.decrement();
+            if (!freeTrades.offer(trade)) {
+                trades.remove(trade);
+                createdCount.decrement();
+                dropCount.increment();
             }
         }
     }
 
     public int getFreeTradeCount() {
-        return freeTradeObjList.size();
+        return (int) (createdCount.sum() - inUseCount.sum());
     }
 
     public int getUsedTradeCount(){
-        return inUsedTradeObjList.size();
+        return (int) inUseCount.sum();
+    }
+
+    /**
+     * @return the most trades in use at once
+     */
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * @return the number of trades owned by the pool, free or in use
+     */
+    public long getOwnedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * @return the number of requests which found no free trade and created one
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the number of returned trades dropped because the pool was full
+     */
+    public long getDropCount() {
+        return dropCount.sum();
+    }
+
+    /**
+     * @return the sizes and counters of the pool on one line
+     */
+    public String getStats() {
+        return stockNo + " trades: initial=" + initialSize + " max=" + freeTrades.capacity()
+                + " hwm=" + getHighWaterMark() + " owned=" + getOwnedCount() + " misses=" + getMissCount() + " drops=" + getDropCount()
+                + " used=" + getUsedTradeCount() + " free=" + getFreeTradeCount();
     }
 
-    public void resetPool(){
-        inUsedTradeObjList.clear();
-        freeTradeObjList.clear();
+    public synchronized void resetPool(){
+        freeTrades.clear();
+        trades.forEach(trade -> trade.inUse = false);
+        trades.clear();
+        createdCount.reset();
+        inUseCount.reset();
+        missCount.reset();
+        dropCount.reset();
+        highWaterMark.set(0);
     }
 }
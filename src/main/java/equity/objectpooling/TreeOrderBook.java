@@ -0,0 +1,78 @@
+package equity.objectpooling;
+
+import equity.objectpooling.Order.Side;
+
+import java.util.Comparator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
+
+/**
+ * OrderBook keeping the price levels of each side in a TreeMap.
+ * Both maps are ordered so that the last key is the best price. Prices can be anywhere, but every
+ * insert of a new level and every step to the next best level costs O(log n).
+ */
+public class TreeOrderBook extends OrderBook {
+    // Each price has its own list of the brokers
+    // Bid order book
+    private final NavigableMap<Long, PriceLevel> bidMap = new TreeMap<>();
+    // Ask order book
+    private final NavigableMap<Long, PriceLevel> askMap = new TreeMap<>(Comparator.reverseOrder());
+
+    public TreeOrderBook(String stockNo, String desc) {
+        super(stockNo, desc);
+    }
+
+    private NavigableMap<Long, PriceLevel> getMap(Side side) {
+        return side == Side.BUY ? bidMap : askMap;
+    }
+
+    @Override
+    public PriceLevel getPriceLevel(Side side, long price) {
+        return getMap(side).get(price);
+    }
+
+    @Override
+    protected PriceLevel getOrCreatePriceLevel(Side side, long price) {
+        return getMap(side).computeIfAbsent(price, PriceLevel::new);
+    }
+
+    @Override
+    protected void removePriceLevel(Side side, long price) {
+        getMap(side).remove(price);
+    }
+
+    @Override
+    public long getBestPrice(Side side) {
+        NavigableMap<Long, PriceLevel> orderMap = getMap(side);
+        return orderMap.isEmpty() ? NO_PRICE : orderMap.lastKey();
+    }
+
+    @Override
+    public long getWorstPrice(Side side) {
+        NavigableMap<Long, PriceLevel> orderMap = getMap(side);
+        return orderMap.isEmpty() ? NO_PRICE : orderMap.firstKey();
+    }
+
+    @Override
+    public int getLevelCount(Side side) {
+        return getMap(side).size();
+    }
+
+    @Override
+    public void forEachPriceLevel(Side side, int maxLevels, PriceLevelVisitor visitor) {
+        int visited = 0;
+        for (PriceLevel level : getMap(side).descendingMap().values()) {
+            if (visited++ == maxLevels) {
+                return;
+            }
+            visitor.visit(level);
+        }
+    }
+
+    @Override
+    protected void clearPriceLevels(Side side) {
+        getMap(side).clear();
+    }
+}
@@ -0,0 +1,107 @@
+package equity.orderprocessing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.BatchSizeHistogram;
+import util.EngineThreads;
+import util.IdleStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * BookScheduler runs the {@link SingleWriterBookJob}s of many books on a fixed pool of worker threads,
+ * typically one per core, instead of a thread per book. The command queue of each writer is its mailbox:
+ * submitting a command to an idle book puts the book on the ready queue once, and a worker takes it from
+ * there, applies up to {@code batch_size_writer} commands and either releases the book or puts it back at
+ * the end of the ready queue if more commands arrived. A book is on the ready queue or with a worker at
+ * most once at a time, so it keeps a single writer, and a quiet book costs no thread and no wakeup.
+ */
+public class BookScheduler {
+    private static final Logger log = LogManager.getLogger(BookScheduler.class);
+
+    private final LinkedBlockingQueue<SingleWriterBookJob> readyQueue = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final int noOfWorkers;
+    private final int batchSize;
+    private volatile boolean isInterrupted = false;
+
+    /**
+     * @param noOfWorkers the number of worker threads
+     * @param batchSize   the maximum number of commands applied to a book before serving the next one
+     */
+    public BookScheduler(int noOfWorkers, int batchSize) {
+        if (noOfWorkers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + noOfWorkers);
+        }
+        this.noOfWorkers = noOfWorkers;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Lets the scheduler serve the writer. Must be called before any command is submitted to it.
+     *
+     * @param writer the writer of a book
+     */
+    public void register(SingleWriterBookJob writer) {
+        writer.setScheduler(this);
+    }
+
+    /**
+     * Starts the worker threads, each with the wait strategy, CPU affinity and batch histogram of
+     * the writer role qualified by its index.
+     */
+    public void start() {
+        for (int i = 0; i < noOfWorkers; i++) {
+            String qualifier = String.valueOf(i);
+            IdleStrategy idleStrategy = EngineThreads.idleStrategy(EngineThreads.WRITER, qualifier);
+            BatchSizeHistogram histogram = BatchSizeHistogram.register("Writer-" + i);
+            Thread worker = EngineThreads.newThread(EngineThreads.WRITER, qualifier, "Writer-" + i,
+                    () -> work(idleStrategy, histogram));
+            workers.add(worker);
+            worker.start();
+        }
+        log.info("Started {} book workers", noOfWorkers);
+    }
+
+    /**
+     * @return the number of books waiting for a worker
+     */
+    public int getReadyBooks() {
+        return readyQueue.size();
+    }
+
+    /**
+     * Puts a book with pending commands on the ready queue. Called only by the thread which marked the
+     * book as scheduled.
+     */
+    void schedule(SingleWriterBookJob writer) {
+        readyQueue.add(writer);
+    }
+
+    private void work(IdleStrategy idleStrategy, BatchSizeHistogram histogram) {
+        log.info("Book worker {} started", Thread.currentThread().getName());
+        while (!isInterrupted) {
+            SingleWriterBookJob writer;
+            try {
+                writer = idleStrategy.take(readyQueue);
+            } catch (InterruptedException e) {
+                log.info("Book worker {} interrupted", Thread.currentThread().getName());
+                Thread.currentThread().interrupt(); // Preserve interrupt status
+                isInterrupted = true;
+                continue;
+            }
+            histogram.record(writer.applyScheduled(batchSize));
+        }
+        log.info("Book worker {} stopped", Thread.currentThread().getName());
+    }
+
+    /**
+     * Stops the workers by interrupting them. Commands still queued for the books are not applied.
+     */
+    public void shutdown() {
+        isInterrupted = true;
+        workers.forEach(Thread::interrupt);
+    }
+}
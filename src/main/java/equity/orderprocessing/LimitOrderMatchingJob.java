@@ -4,67 +4,108 @@ import equity.objectpooling.*;
 import equity.objectpooling.Order.Side;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.EngineClock;
+import util.IdleStrategy;
+import util.Publisher;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.sql.Timestamp;
-import java.time.Instant;
-import java.time.ZonedDateTime;
-import java.util.LinkedList;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
+import static util.ReadConfig.dotenv;
 
 /**
  * LimitOrderMatchingJob is responsible for matching bid and ask orders for a specific stock.
  * Each instance runs in its own thread and continuously checks for matching orders that can be
  * executed as trades. When a match is found, it updates order quantities, creates trade records,
  * and publishes market data updates.
+ * <p>
+ * Matching is event driven: once registered with {@link OrderProcessingJob#setMatchingJob}, the job is
+ * called by {@link OrderProcessingJob#putOrder} as soon as a marketable order is inserted and trades it
+ * in the same processing step. Running the job on its own thread only polls the book as a backstop.
+ * <p>
+ * In single-writer mode the job is only called by the {@link SingleWriterBookJob} owning the book, so
+ * the book is read and changed without locks. Otherwise each match holds the write locks of both sides.
+ * Either way the trades and the market data update of a match are only published once the book is
+ * released, so a full downstream queue never stalls order entry on the book.
+ * <p>
+ * Once the pools are warm, matching allocates nothing: times are epoch nanoseconds, trades and market
+ * data updates come from their pools, the depth is copied as primitives, and the debug logging is
+ * skipped before its arguments are boxed.
  */
 public class LimitOrderMatchingJob implements Runnable {
     private static final boolean LOG_ENABLED = false;
     private static final Logger log = LogManager.getLogger(LimitOrderMatchingJob.class);
-    private static final int PROCESSING_DELAY_MS = 1;
+    private static final int MARKET_DATA_DEPTH = dotenv.get("market_data_depth") == null ? 10
+            : Integer.parseInt(dotenv.get("market_data_depth").trim());
+    private final int symbolId;
     private final String stockNo;
     private final OrderBook orderBook;
-    private final LinkedBlockingQueue<MarketData> marketDataQueue;
-    private final LinkedBlockingQueue<Trade> resultingTradeQueue;
+    private final Publisher<MarketData> marketDataPublisher;
+    private final Publisher<Trade> resultingTradePublisher;
     private final OrderProcessingJob orderProcessingJob;
-    private final ConcurrentHashMap<String, Order> orderObjMapper;
+    private final boolean singleWriter;
+    // Reused to read the cached top of book without allocating
+    private final TopOfBook.Snapshot topOfBookSnapshot = new TopOfBook.Snapshot();
+    // Trades executed under the locks of the book, published once they are released. Per thread, since
+    // the matching thread and the processing threads may match the same book
+    private final ThreadLocal<List<Trade>> pendingTrades = ThreadLocal.withInitial(ArrayList::new);
     private boolean isInterrupted = false;
+    private IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
 
     /**
      * Creates a new LimitOrderMatchingJob for the specified order book.
      *
      * @param orderBook           The order book containing bid and ask orders for a specific stock
-     * @param orderObjMapper      Map that keeps track of all active orders by their unique identifier
      * @param marketDataQueue     Queue for publishing market data updates
      * @param resultingTradeQueue Queue for publishing executed trades
      */
-    public LimitOrderMatchingJob(OrderBook orderBook, ConcurrentHashMap<String, Order> orderObjMapper,
+    public LimitOrderMatchingJob(OrderBook orderBook,
                                  LinkedBlockingQueue<MarketData> marketDataQueue,
                                  LinkedBlockingQueue<Trade> resultingTradeQueue,
                                  OrderProcessingJob orderProcessingJob) {
-        this(orderBook, orderObjMapper, marketDataQueue, resultingTradeQueue, orderProcessingJob, 1);
+        this(orderBook, marketDataQueue, resultingTradeQueue, orderProcessingJob, 1);
     }
 
-    public LimitOrderMatchingJob(OrderBook orderBook, ConcurrentHashMap<String, Order> orderObjMapper,
+    public LimitOrderMatchingJob(OrderBook orderBook,
                                  LinkedBlockingQueue<MarketData> marketDataQueue,
                                  LinkedBlockingQueue<Trade> resultingTradeQueue,
                                  OrderProcessingJob orderProcessingJob, int num) {
+        this(orderBook, marketDataQueue::put, resultingTradeQueue::put, orderProcessingJob, num, false);
+    }
+
+    /**
+     * Creates a new LimitOrderMatchingJob for the specified order book.
+     *
+     * @param orderBook               The order book containing bid and ask orders for a specific stock
+     * @param marketDataPublisher     Publisher of market data updates, a queue or a ring buffer stage
+     * @param resultingTradePublisher Publisher of executed trades, a queue or a ring buffer stage
+     * @param orderProcessingJob      The job applying amendments of market orders to the book
+     * @param num                     The number of the matching thread of the stock
+     * @param singleWriter            true if the calling thread is the only writer of the book, so no lock is taken
+     */
+    public LimitOrderMatchingJob(OrderBook orderBook,
+                                 Publisher<MarketData> marketDataPublisher,
+                                 Publisher<Trade> resultingTradePublisher,
+                                 OrderProcessingJob orderProcessingJob, int num, boolean singleWriter) {
+        this.singleWriter = singleWriter;
         this.orderBook = orderBook;
+        this.symbolId = orderBook.getSymbolId();
         this.stockNo = orderBook.getStockNo();
-        this.marketDataQueue = marketDataQueue;
-        this.resultingTradeQueue = resultingTradeQueue;
-        this.orderObjMapper = orderObjMapper;
+        this.marketDataPublisher = marketDataPublisher;
+        this.resultingTradePublisher = resultingTradePublisher;
         this.orderProcessingJob = orderProcessingJob;
 //        log.debug("LimitOrderMatchingJob-{} created for stock {}", num, stockNo);
     }
+
+    public int getSymbolId() {
+        return symbolId;
+    }
+
     /**
-     * Main processing loop that continuously checks for and executes matching orders.
-     * The thread pauses briefly between cycles to prevent CPU saturation.
+     * Main processing loop that continuously checks for crossed orders and sweeps them in one pass.
+     * The thread waits according to its idle strategy while the book is not crossed.
      */
     @Override
     public void run() {
@@ -72,7 +113,12 @@ public class LimitOrderMatchingJob implements Runnable {
         while (!isInterrupted) {
             try {
                 // Process any matching orders
-                matchTopOrder();
+                if (shouldSkipMatching()) {
+                    idleStrategy.idle();
+                } else {
+                    idleStrategy.reset();
+                    matchWhileCrossed();
+                }
             } catch (InterruptedException e) {
                 log.info("Order matching interrupted for stock {}", stockNo);
                 Thread.currentThread().interrupt(); // Preserve interrupt status
@@ -88,25 +134,25 @@ public class LimitOrderMatchingJob implements Runnable {
     /**
      * Determines whether order matching should be skipped based on the state of the order book.
      * This method checks if either the bid or ask map is empty or if the prices do not meet the matching criteria.
+     * It reads the cached top of book, so it neither locks nor walks the order book.
      *
      * @return true if order matching should be skipped (either the bid or ask map is empty,
      * or the best bid price is lower than the best ask price), false otherwise
      */
     private boolean shouldSkipMatching() {
-        NavigableMap<BigDecimal, LinkedList<Order>> bidMap = orderBook.getBidMap();
-        NavigableMap<BigDecimal, LinkedList<Order>> askMap = orderBook.getAskMap();
+        orderBook.getTopOfBook().read(topOfBookSnapshot);
+        long bestAsk = topOfBookSnapshot.getAskPrice();
+        long bestBid = topOfBookSnapshot.getBidPrice();
 
-        // Both bid and ask maps must have orders
-        if (askMap.isEmpty() || bidMap.isEmpty()) {
+        // Both bid and ask sides must have orders
+        if (bestAsk == NO_PRICE || bestBid == NO_PRICE) {
             if (LOG_ENABLED)
                 log.debug("Skipping matching for stock {}: bid empty={}, ask empty={}",
-                        stockNo, bidMap.isEmpty(), askMap.isEmpty());
+                        stockNo, bestBid == NO_PRICE, bestAsk == NO_PRICE);
             return true;
         }
-        BigDecimal bestAsk = askMap.lastKey();
-        BigDecimal bestBid = bidMap.lastKey();
         // For a match, best bid price must be >= best ask price
-        boolean shouldSkip = bestAsk.compareTo(bestBid) > 0;
+        boolean shouldSkip = bestAsk > bestBid;
         if (shouldSkip && LOG_ENABLED) {
             log.debug("No matching possible for stock {}: best bid {} < best ask {}",
                     stockNo, bestBid, bestAsk);
@@ -121,22 +167,22 @@ public class LimitOrderMatchingJob implements Runnable {
      * @param order      the order to update
      * @param filledQty  the quantity filled in this trade
      * @param tradePrice the execution price of the trade
-     * @param tradeTime  the time when the trade occurred
+     * @param tradeNanos the time of the trade in nanoseconds since the epoch
      */
-    private void updateOrderAfterFill(Order order, int filledQty, BigDecimal tradePrice, ZonedDateTime tradeTime) {
+    private void updateOrderAfterFill(Order order, int filledQty, long tradePrice, long tradeNanos) {
         // Get current values safely
-        BigDecimal currentAvgPrice = order.getOrderAvgPrice();
-        int currentFilledQty = order.getOrderFilledQty();
-        int currentQuantity = order.getRemainingQty().get();
+        long currentAvgPrice = order.getAvgPrice();
+        int currentFilledQty = order.getFilledQty();
+        int currentQuantity = order.getRemainingQty();
         // Calculate new values
         int newFilledQty = currentFilledQty + filledQty;
         int newRemainingQty = currentQuantity - filledQty;
-        BigDecimal newAvgPrice = calculateWeightedAveragePrice(currentAvgPrice, currentFilledQty, tradePrice, filledQty);
+        long newAvgPrice = calculateWeightedAveragePrice(currentAvgPrice, currentFilledQty, tradePrice, filledQty);
         // Update order atomically
         order.setFilledQty(newFilledQty);
         order.setRemainingQty(newRemainingQty);
         order.setAvgPrice(newAvgPrice);
-        order.setLastEventDateTime(tradeTime);
+        order.setLastEventNanos(tradeNanos);
     }
 
     /**
@@ -151,29 +197,25 @@ public class LimitOrderMatchingJob implements Runnable {
             return;
         }
         // Get the new market price based on an order direction
-        BigDecimal newMarketPrice = order.isBuyOrder() ?
+        long newMarketPrice = order.isBuyOrder() ?
                 orderBook.getBestAsk() : orderBook.getBestBid();
         // If no best price available, can't update
-        if (newMarketPrice == null) {
+        if (newMarketPrice == NO_PRICE) {
             log.warn("Cannot update market order {}-{}: no best price available",
                     order.getBrokerID(), order.getClientOrdID());
             return;
         }
         // If the price hasn't changed, no need to update
-        if (newMarketPrice.equals(order.getPrice().get())) {
+        if (newMarketPrice == order.getPrice()) {
             return;
         }
-        // Use OrderProcessingJob to update the order price
-        boolean updated = orderProcessingJob.updateOrder(
-                order.getBrokerID(),
-                order.getClientOrdID(),
-                newMarketPrice,
-                null // Don't change quantity, only price
-        );
+        // Use OrderProcessingJob to move the order, the matching loop trades it at the new price
+        long oldPrice = order.getPrice();
+        boolean updated = orderProcessingJob.repriceOrder(order, newMarketPrice);
         if (updated) {
             log.info("Updated market order {}-{} price from {} to {}",
                     order.getBrokerID(), order.getClientOrdID(),
-                    order.getPrice().get(), newMarketPrice);
+                    oldPrice, newMarketPrice);
         } else {
             log.warn("Failed to update market order {}-{} price",
                     order.getBrokerID(), order.getClientOrdID());
@@ -188,25 +230,25 @@ public class LimitOrderMatchingJob implements Runnable {
      * @return true if the order price should be updated, false otherwise
      */
     private boolean shouldUpdateMarketOrderPrice(Order order) {
-        BigDecimal currentPrice = order.getPrice().get();
-        if (currentPrice == null)
+        long currentPrice = order.getPrice();
+        if (currentPrice == NO_PRICE)
             return false;
-        if (order.getRemainingQty().get() == 0)
+        if (order.getRemainingQty() == 0)
             return false;
         if (order.isBuyOrder()) {
             // For buy market orders, check if current price matches best ask
-            BigDecimal bestAsk = orderBook.getBestAsk();
-            return bestAsk != null && !currentPrice.equals(bestAsk);
+            long bestAsk = orderBook.getBestAsk();
+            return bestAsk != NO_PRICE && currentPrice != bestAsk;
         } else {
             // For sell market orders, check if current price matches best bid
-            BigDecimal bestBid = orderBook.getBestBid();
-            return bestBid != null && !currentPrice.equals(bestBid);
+            long bestBid = orderBook.getBestBid();
+            return bestBid != NO_PRICE && currentPrice != bestBid;
         }
     }
 
     /**
      * Calculates the weighted average price after a new fill.
-     * Formula: (previousTotal + newFillValue) / newTotalQuantity
+     * Formula: (previousTotal + newFillValue) / newTotalQuantity, rounded half up to the price unit
      *
      * @param currentAvgPrice  the current average price
      * @param currentFilledQty the current filled quantity
@@ -214,228 +256,295 @@ public class LimitOrderMatchingJob implements Runnable {
      * @param filledQty        the quantity of the new fill
      * @return the new weighted average price
      */
-    private BigDecimal calculateWeightedAveragePrice(BigDecimal currentAvgPrice, int currentFilledQty,
-                                                     BigDecimal tradePrice, int filledQty) {
-        // Precision constants
-        final int PRICE_SCALE = 4;
-        final RoundingMode PRICE_ROUNDING = RoundingMode.HALF_UP;
+    private long calculateWeightedAveragePrice(long currentAvgPrice, int currentFilledQty,
+                                               long tradePrice, int filledQty) {
         if (currentFilledQty == 0) {
             // The first fill - average price is the trade price
-            return tradePrice.setScale(PRICE_SCALE, PRICE_ROUNDING);
+            return tradePrice;
         }
-        // Calculate previous total value: currentAvgPrice * currentFilledQty
-        BigDecimal previousTotal = currentAvgPrice.multiply(BigDecimal.valueOf(currentFilledQty));
-        // Calculate new fill value: tradePrice * filledQty
-        BigDecimal newFillValue = tradePrice.multiply(BigDecimal.valueOf(filledQty));
+        // Calculate previous total value and new fill value in price units
+        long previousTotal = currentAvgPrice * currentFilledQty;
+        long newFillValue = tradePrice * filledQty;
         // Calculate new total quantity
-        BigDecimal newTotalQty = BigDecimal.valueOf(currentFilledQty + filledQty);
+        long newTotalQty = (long) currentFilledQty + filledQty;
         // Calculate weighted average: (previousTotal + newFillValue) / newTotalQty
-        return previousTotal.add(newFillValue)
-                .divide(newTotalQty, PRICE_SCALE, PRICE_ROUNDING);
+        return (previousTotal + newFillValue + newTotalQty / 2) / newTotalQty;
+    }
+
+    /**
+     * @param idleStrategy what the thread does while the book is not crossed
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
     }
 
     /**
-     * Matches the top bid and ask orders to execute a trade when conditions are met.
+     * Matches the top bid and ask orders to execute a single trade when conditions are met,
+     * followed by a market data update.
      */
     public void matchTopOrder() throws InterruptedException {
         // Quick check without locks first
         if (shouldSkipMatching()) {
-            // Pause it is not enough liquidity
-            TimeUnit.MILLISECONDS.sleep(PROCESSING_DELAY_MS);
+            // Wait while the book is not crossed
+            idleStrategy.idle();
             return;
         }
+        idleStrategy.reset();
 
-        TradeExecution tradeExecution = executeTradeWithoutLocks();
-        if (tradeExecution != null) {
-            sendMarketDataUpdate(tradeExecution.tradePrice());
+        List<Trade> trades = pendingTrades.get();
+        MarketData marketData = null;
+        lockBook();
+        try {
+            long tradePrice = executeTopTrade(EngineClock.epochNanos(), trades);
+            if (tradePrice != NO_PRICE) {
+                marketData = snapshotMarketData(tradePrice);
+            }
+        } finally {
+            unlockBook();
         }
+        publish(trades, marketData);
     }
 
     /**
-     * Executes a trade while holding the necessary locks and returns the trade execution details.
+     * Sweeps the book in one pass: trades the top orders until the book is no longer crossed, so an
+     * aggressive order fills against as many resting orders and price levels as it can. The trades, all
+     * with the time of the pass, and a single market data update with the resulting book and the last
+     * trade price are published in order once the book is released. Called when a marketable order
+     * arrives, so it never sleeps.
      *
-     * @return TradeExecution details if a trade was executed, null otherwise
-     * @throws InterruptedException if interrupted while adding to queue
+     * @return the number of trades executed
+     * @throws InterruptedException if interrupted while adding to a queue
      */
-    private TradeExecution executeTradeWithoutLocks() throws InterruptedException {
-        NavigableMap<BigDecimal, LinkedList<Order>> bidMap = orderBook.getBidMap();
-        NavigableMap<BigDecimal, LinkedList<Order>> askMap = orderBook.getAskMap();
-//        PriceLevel bestBid = bids.firstEntry().getValue();
-//        PriceLevel bestAsk = asks.firstEntry().getValue();
-//        // Potential race condition here
-//        if (bestBid.getPrice() < bestAsk.getPrice()) break;
-//
-//        Order bid = bestBid.getFirstOrder();
-//        Order ask = bestAsk.getFirstOrder();
+    public int matchWhileCrossed() throws InterruptedException {
+        List<Trade> trades = pendingTrades.get();
+        MarketData marketData = null;
+        lockBook();
+        try {
+            long matchNanos = EngineClock.epochNanos();
+            long lastTradePrice = NO_PRICE;
+            long tradePrice;
+            while ((tradePrice = executeTopTrade(matchNanos, trades)) != NO_PRICE) {
+                lastTradePrice = tradePrice;
+            }
+            if (!trades.isEmpty()) {
+                // One consolidated book update for the whole sweep
+                marketData = snapshotMarketData(lastTradePrice);
+            }
+        } finally {
+            unlockBook();
+        }
+        int noOfTrades = trades.size();
+        publish(trades, marketData);
+        return noOfTrades;
+    }
+
+    /**
+     * Takes the write locks of both sides, bid first, unless the caller is the single writer of the book.
+     */
+    private void lockBook() {
+        if (!singleWriter) {
+            orderBook.getBidLock().writeLock().lock();
+            orderBook.getAskLock().writeLock().lock();
+        }
+    }
+
+    private void unlockBook() {
+        if (!singleWriter) {
+            orderBook.getAskLock().writeLock().unlock();
+            orderBook.getBidLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Executes a trade between the top orders if the book is still crossed.
+     * The caller holds the write locks of both sides or is the single writer of the book.
+     *
+     * @param matchNanos the time of the matching pass in nanoseconds since the epoch
+     * @param trades     the trades of the pass, to which the trade executed is added
+     * @return the trade price if a trade was executed, NO_PRICE otherwise
+     */
+    private long executeTopTrade(long matchNanos, List<Trade> trades) {
         // Check again with locks held
         if (shouldSkipMatching()) {
-            return null;
+            return NO_PRICE;
         }
 
-        return processMatchingOrders(bidMap, askMap);
+        return processMatchingOrders(matchNanos, trades);
     }
 
     /**
      * Processes the matching orders and executes the trade.
      *
-     * @param bidMap the bid order map
-     * @param askMap the ask order map
-     * @return TradeExecution details if successful, null otherwise
-     * @throws InterruptedException if interrupted while adding to queue
+     * @param matchNanos the time of the matching pass in nanoseconds since the epoch
+     * @param trades     the trades of the pass, to which the trade executed is added
+     * @return the trade price if successful, NO_PRICE otherwise
      */
-    private TradeExecution processMatchingOrders(NavigableMap<BigDecimal, LinkedList<Order>> bidMap,
-                                                 NavigableMap<BigDecimal, LinkedList<Order>> askMap) throws InterruptedException {
-        // Get the lists of orders at the best price levels
-        Entry<BigDecimal, LinkedList<Order>> lastBidEntry = bidMap.lastEntry();
-        Entry<BigDecimal, LinkedList<Order>> lastAskEntry = askMap.lastEntry();
-        LinkedList<Order> bestBidOrderList = lastBidEntry.getValue();
-        LinkedList<Order> bestAskOrderList = lastAskEntry.getValue();
-
-        // Add null checks
-        if (bestBidOrderList == null || bestAskOrderList == null) {
-            log.error("Null order list found at price level for stock {}", stockNo);
-            return null;
-        }
+    private long processMatchingOrders(long matchNanos, List<Trade> trades) {
+        // Get the best price levels
+        long bidPrice = orderBook.getBestPrice(Side.BUY);
+        long askPrice = orderBook.getBestPrice(Side.SELL);
 
         // Get the top orders
-        Order topBid = bestBidOrderList.peekFirst();
-        Order topAsk = bestAskOrderList.peekFirst();
-        log.debug("{} {}", lastBidEntry.getKey(), lastAskEntry.getKey());
-        log.debug("topBid {}", topBid);
-        log.debug("topAsk {}", topAsk);
+        Order topBid = orderBook.peekBestOrder(Side.BUY);
+        Order topAsk = orderBook.peekBestOrder(Side.SELL);
+        if (log.isDebugEnabled()) {
+            log.debug("{} {}", bidPrice, askPrice);
+            log.debug("topBid {}", topBid);
+            log.debug("topAsk {}", topAsk);
+        }
         if (topBid == null || topAsk == null) {
             log.error("Null order found when matching orders for stock {}", stockNo);
-            return null;
+            return NO_PRICE;
         }
 
-        return executeTrade(topBid, topAsk, bestBidOrderList, bestAskOrderList, lastBidEntry.getKey(), lastAskEntry.getKey());
+        return executeTrade(topBid, topAsk, askPrice, matchNanos, trades);
     }
 
     /**
      * Executes the actual trade between two orders.
      *
-     * @param topBid           the best bid order
-     * @param topAsk           the best ask order
-     * @param bestBidOrderList the list containing the best bid orders
-     * @param bestAskOrderList the list containing the best ask orders
-     * @param bidPrice         the bid price level
-     * @param askPrice         the ask price level
-     * @return TradeExecution details
-     * @throws InterruptedException if interrupted while adding to the queue
+     * @param topBid   the best bid order
+     * @param topAsk   the best ask order
+     * @param askPrice  the ask price level
+     * @param matchNanos the time of the matching pass in nanoseconds since the epoch
+     * @param trades     the trades of the pass, to which the trade executed is added
+     * @return the trade price
      */
-    private TradeExecution executeTrade(Order topBid, Order topAsk,
-                                        LinkedList<Order> bestBidOrderList, LinkedList<Order> bestAskOrderList,
-                                        BigDecimal bidPrice, BigDecimal askPrice) throws InterruptedException {
-        ZonedDateTime matchTime = ZonedDateTime.now();
+    private long executeTrade(Order topBid, Order topAsk, long askPrice, long matchNanos, List<Trade> trades) {
+        // Handles of the orders, checked in debug mode before they are used after the fill
+        long bidOrderId = topBid.getOrderId();
+        int bidGeneration = topBid.getGeneration();
+        long askOrderId = topAsk.getOrderId();
+        int askGeneration = topAsk.getGeneration();
 
         // Calculate filled quantity
-        int filledQty = Math.min(topBid.getRemainingQty().get(), topAsk.getRemainingQty().get());
+        int filledQty = Math.min(topBid.getRemainingQty(), topAsk.getRemainingQty());
 
         // Use ask price for the trade (price-time priority)
-        BigDecimal tradePrice = topAsk.getPrice().get();
+        long tradePrice = topAsk.getPrice();
 
-        if (tradePrice.compareTo(askPrice) != 0) {
+        if (tradePrice != askPrice) {
             log.error("Trade price {} not matching with ask price {} for stock {}", tradePrice, askPrice, stockNo);
         }
 
         // Update orders after fill
-        updateOrderAfterFill(topBid, filledQty, tradePrice, matchTime);
-        updateOrderAfterFill(topAsk, filledQty, tradePrice, matchTime);
+        updateOrderAfterFill(topBid, filledQty, tradePrice, matchNanos);
+        updateOrderAfterFill(topAsk, filledQty, tradePrice, matchNanos);
 
-        // Create and queue trade
+        // Create the trade, published once the book is released
         Trade trade = OrderPoolManager.requestTradeObj(
-                topBid, topAsk, orderBook.getStockNo(),
-                tradePrice, filledQty, matchTime.toString());
-        resultingTradeQueue.put(trade);
+                topBid, topAsk, symbolId,
+                tradePrice, filledQty, matchNanos);
+        trades.add(trade);
 
-        log.debug("Trade executed: {} shares of {} at ${} between {} and {}",
-                filledQty, stockNo, tradePrice, topBid.getBrokerID(), topAsk.getBrokerID());
-
-        // Handle completed orders and cleanup
-        processCompletedOrder(topBid, bestBidOrderList);
-        if (bestBidOrderList.isEmpty()) {
-            orderBook.getBidMap().remove(bidPrice);
+        if (log.isDebugEnabled()) {
+            log.debug("Trade executed: {} shares of {} at ${} between {} and {}",
+                    filledQty, stockNo, tradePrice, topBid.getBrokerID(), topAsk.getBrokerID());
         }
 
-        processCompletedOrder(topAsk, bestAskOrderList);
-        if (bestAskOrderList.isEmpty()) {
-            orderBook.getAskMap().remove(askPrice);
+        // Handle completed orders and cleanup. A completed order goes back to its pool, where another
+        // thread may take it at once, so only the state read here is used after that
+        boolean isBidCompleted = topBid.isCompletelyFilled();
+        boolean isAskCompleted = topAsk.isCompletelyFilled();
+        boolean isBidMarketOrder = topBid.isMarketOrder();
+        boolean isAskMarketOrder = topAsk.isMarketOrder();
+        processCompletedOrder(topBid);
+        processCompletedOrder(topAsk);
+        // A partially filled order stays at the best level with less quantity
+        if (!isBidCompleted) {
+            orderBook.refreshTopOfBook(Side.BUY);
+        }
+        if (!isAskCompleted) {
+            orderBook.refreshTopOfBook(Side.SELL);
         }
 
-        // Update market order prices if needed
-        if (topBid.isMarketOrder()) {
-            updateBestPriceOfMarketOrder(topBid);
+        // Move a partially filled market order to the new best price
+        if (isBidMarketOrder && !isBidCompleted) {
+            updateBestPriceOfMarketOrder(checkHandle(topBid, bidOrderId, bidGeneration));
         }
-        if (topAsk.isMarketOrder()) {
-            updateBestPriceOfMarketOrder(topAsk);
+        if (isAskMarketOrder && !isAskCompleted) {
+            updateBestPriceOfMarketOrder(checkHandle(topAsk, askOrderId, askGeneration));
         }
 
-        return new TradeExecution(tradePrice, filledQty, matchTime);
+        return tradePrice;
+    }
+
+    /**
+     * In debug mode, fails the matching pass if an order it still uses was returned to its pool since
+     * its fill, see {@link Order#isValidHandle}.
+     *
+     * @return the order
+     */
+    private Order checkHandle(Order order, long orderId, int generation) {
+        if (OrderObjectPool.DEBUG && !order.isValidHandle(orderId, generation)) {
+            throw new IllegalStateException("Order " + orderId + " of stock " + stockNo
+                    + " was returned to the pool while matching");
+        }
+        return order;
     }
 
     /**
      * Processes an order that may have been completely filled.
-     * If the order quantity is zero, it is removed from the order list,
-     * from the order map, and returned to the object pool.
+     * If the order quantity is zero, it is removed from the order book (dropping its price level
+     * once empty), from the order map, and returned to the object pool.
      *
-     * @param order     The order to check
-     * @param orderList The list containing the order
+     * @param order The order to check
      */
-    private void processCompletedOrder(Order order, LinkedList<Order> orderList) {
-        if (order == null || orderList == null) {  // Add null check
-            log.error("Null order or orderList in processCompletedOrder");
+    private void processCompletedOrder(Order order) {
+        if (order == null) {  // Add null check
+            log.error("Null order in processCompletedOrder");
             return;
         }
-        if (order.getRemainingQty().get() == 0) {
-            if (orderList.remove(order)) {
-                String orderKey = order.getBrokerID() + "-" + order.getClientOrdID();
-                orderObjMapper.remove(orderKey);
+        if (order.getRemainingQty() == 0) {
+            if (orderBook.removeOrder(order)) {
+                orderBook.getOrderIndex().remove(order);
+                if (log.isDebugEnabled()) {
+                    log.debug("Completed order removed: {} {}-{}", order.getOrderId(), order.getBrokerID(), order.getClientOrdID());
+                }
                 OrderPoolManager.returnOrderObj(order);
-                log.debug("Completed order removed: {}", orderKey);
             }
         }
     }
 
     /**
-     * Sends a market data update with the current state of the order book
-     * and the details of the last executed trade.
+     * Copies the best prices and the L2 depth of the book into a pooled market data update.
+     * The caller holds the write locks of both sides or is the single writer of the book.
      *
      * @param tradePrice The price at which the last trade was executed
-     * @throws InterruptedException if interrupted while adding to the queue
+     * @return the market data update, to be published once the book is released
      */
-    private void sendMarketDataUpdate(BigDecimal tradePrice) throws InterruptedException {
-        MarketData marketData;
-        // Capture market data snapshot under read locks
-        BigDecimal bestBid;
-        BigDecimal bestAsk;
-        Timestamp timestamp = Timestamp.from(Instant.now());
-        // Briefly acquire read locks to get current market state
-        orderBook.getBidLock().readLock().lock();
+    private MarketData snapshotMarketData(long tradePrice) {
+        MarketData marketData = OrderPoolManager.requestMarketDataObj();
+        // Get the current best prices from the cached top of book
+        orderBook.getTopOfBook().read(topOfBookSnapshot);
+        // L2 snapshot from the level aggregates
+        marketData.snapshot(orderBook, topOfBookSnapshot.getBidPrice(), topOfBookSnapshot.getAskPrice(),
+                tradePrice, EngineClock.coarseEpochNanos(), MARKET_DATA_DEPTH);
+        return marketData;
+    }
+
+    /**
+     * Publishes the trades of a match in their execution order, then its market data update.
+     * Called without the locks of the book, since the publishers may block on a full queue.
+     *
+     * @param trades     the trades of the match, cleared once published
+     * @param marketData the market data update, null if nothing traded
+     * @throws InterruptedException if interrupted while adding to a queue
+     */
+    private void publish(List<Trade> trades, MarketData marketData) throws InterruptedException {
         try {
-            orderBook.getAskLock().readLock().lock();
-            try {
-                // Get the current best prices
-                bestBid = orderBook.getBestBid();
-                bestAsk = orderBook.getBestAsk();
-                // Create and queue market data update without holding any locks
-                marketData = new MarketData(
-                        stockNo,
-                        bestBid,
-                        bestAsk,
-                        tradePrice,
-                        timestamp,
-                        orderBook.getTextFormatOfOrderBook(Side.BUY), // Clone part of an order book to store a snapshot
-                        orderBook.getTextFormatOfOrderBook(Side.SELL) // Clone part of an order book to store a snapshot
-                );
-            } finally {
-                orderBook.getAskLock().readLock().unlock();
+            for (int i = 0; i < trades.size(); i++) {
+                resultingTradePublisher.publish(trades.get(i));
             }
         } finally {
-            orderBook.getBidLock().readLock().unlock();
+            trades.clear();
+        }
+        if (marketData != null) {
+            marketDataPublisher.publish(marketData);
+            if (log.isDebugEnabled()) {
+                log.debug("Market data published for stock {}: best bid={}, best ask={}, last trade={}",
+                        stockNo, marketData.bestBid(), marketData.bestAsk(), marketData.lastTradePrice());
+            }
         }
-        // Add to queue (might block, but we're not holding any locks)
-        marketDataQueue.put(marketData);
-        log.debug("Market data published for stock {}: best bid={}, best ask={}, last trade={}",
-                stockNo, bestBid, bestAsk, tradePrice);
     }
-}
\ No newline at end of file
+}
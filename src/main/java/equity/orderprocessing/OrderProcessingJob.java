@@ -4,19 +4,21 @@ import equity.objectpooling.Order;
 import equity.objectpooling.Order.Side;
 import equity.objectpooling.OrderBook;
 import equity.objectpooling.OrderPoolManager;
+import equity.objectpooling.SymbolRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import util.BatchSizeHistogram;
+import util.EngineThreads;
+import util.IdleStrategy;
 
-import java.math.BigDecimal;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.NavigableMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
 
 
 /**
@@ -26,26 +28,85 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * side of the order book based on its buy/sell direction.
  * <p>
  * This class runs as a separate thread, continuously monitoring the order queue for new orders.
+ * When a {@link LimitOrderMatchingJob} is registered for a book, a marketable order is matched in
+ * the same processing step that inserts it, so it does not wait for a matching thread to poll.
+ * <p>
+ * In single-writer mode the job is driven by the {@link SingleWriterBookJob} owning the book: that
+ * thread is the only one mutating the book, so the side locks are not taken.
  */
 public class OrderProcessingJob implements Runnable {
     private static final Logger log = LogManager.getLogger(OrderProcessingJob.class);
     private static final boolean LOG_ENABLED = true;
-    private final LinkedBlockingQueue<Order> orderQueue;
-    private final Map<String, OrderBook> orderBooks;
-    private final ConcurrentHashMap<String, Order> orderObjMapper;
+    private final BlockingQueue<Order> orderQueue;
+    private final OrderBook[] orderBooks;
+    private final boolean singleWriter;
+    // Matching jobs called on the arrival of marketable orders, indexed by symbol ID
+    private final LimitOrderMatchingJob[] matchingJobs;
     private volatile boolean isInterrupted = false;
+    private IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
+    private int maxBatchSize = EngineThreads.DEFAULT_BATCH_SIZE;
+    private BatchSizeHistogram batchSizeHistogram = new BatchSizeHistogram("OrderProcessing");
 
     /**
      * Constructs an OrderProcessingJob with the given parameters.
      *
      * @param orderQueue the queue holding incoming orders to be processed
-     * @param orderBooks a map of order books for different stock numbers
-     * @param orderObjMapper a mapping of order objects identified by broker ID and client order ID
+     * @param orderBooks the order books indexed by symbol ID, each owning the index of its orders
+     */
+    public OrderProcessingJob(BlockingQueue<Order> orderQueue, OrderBook[] orderBooks) {
+        this(orderQueue, orderBooks, false);
+    }
+
+    /**
+     * Constructs an OrderProcessingJob with the given parameters.
+     *
+     * @param orderQueue   the queue holding incoming orders to be processed, null if the job is driven by a book writer
+     * @param orderBooks   the order books indexed by symbol ID, each owning the index of its orders
+     * @param singleWriter true if the calling thread is the only writer of the books, so no lock is taken
      */
-    public OrderProcessingJob(LinkedBlockingQueue<Order> orderQueue, Map<String, OrderBook> orderBooks, ConcurrentHashMap<String, Order> orderObjMapper) {
+    public OrderProcessingJob(BlockingQueue<Order> orderQueue, OrderBook[] orderBooks, boolean singleWriter) {
         this.orderQueue = orderQueue;
         this.orderBooks = orderBooks;
-        this.orderObjMapper = orderObjMapper;
+        this.singleWriter = singleWriter;
+        this.matchingJobs = new LimitOrderMatchingJob[orderBooks.length];
+    }
+
+    /**
+     * Registers the matching job of a book, which is then called whenever a marketable order
+     * is put into that book.
+     *
+     * @param matchingJob the matching job of the book
+     */
+    public void setMatchingJob(LimitOrderMatchingJob matchingJob) {
+        matchingJobs[matchingJob.getSymbolId()] = matchingJob;
+    }
+
+    /**
+     * @return the order book of the symbol or null if there is none
+     */
+    private OrderBook getOrderBook(int symbolId) {
+        return symbolId >= 0 && symbolId < orderBooks.length ? orderBooks[symbolId] : null;
+    }
+
+    private void lockSide(OrderBook orderBook, Side side) {
+        if (!singleWriter) {
+            orderBook.getLock(side).writeLock().lock();
+        }
+    }
+
+    private void unlockSide(OrderBook orderBook, Side side) {
+        if (!singleWriter) {
+            orderBook.getLock(side).writeLock().unlock();
+        }
+    }
+
+    private void showMap(OrderBook orderBook) {
+        if (singleWriter) {
+            orderBook.showMapWithoutLocking(Side.BUY);
+            orderBook.showMapWithoutLocking(Side.SELL);
+        } else {
+            orderBook.showMap();
+        }
     }
 
 
@@ -54,174 +115,234 @@ public class OrderProcessingJob implements Runnable {
      * This method:
      * 1. Determines the appropriate order book and side (bid/ask)
      * 2. Sets price for market orders based on best available prices
-     * 3. Acquires the appropriate lock to safely modify the order book
+     * 3. Acquires the appropriate lock to safely modify the order book, unless in single-writer mode
      * 4. Adds the order to the correct price level in the order book
-     * 5. Updates the order object mapper for future reference
+     * 5. Indexes the order in the order index of the book for future reference
+     * 6. Matches the book right away if the order is marketable and a matching job is registered
      *
      * @param order the order to be placed into the order book
      * @throws NullPointerException if the order is null
      */
     public void putOrder(@NotNull Order order) {
-        Objects.requireNonNull(order, "Order cannot be null");
+        if (insertOrder(order)) {
+            matchOnArrival(order.getSymbolId());
+        }
+    }
 
-        // Declare variables at the top of the method
-        NavigableMap<BigDecimal, LinkedList<Order>> orderMap;
-        ReentrantReadWriteLock readWriteLock;
+    /**
+     * Inserts the order into its book without matching it, see {@link #putOrder(Order)}.
+     *
+     * @param order the order to be placed into the order book
+     * @return true if the order was inserted and crosses the opposite side
+     */
+    private boolean insertOrder(@NotNull Order order) {
+        Objects.requireNonNull(order, "Order cannot be null");
 
         // Get the order book for this stock
-        OrderBook orderBook = orderBooks.get(order.getStockNo());
+        OrderBook orderBook = getOrderBook(order.getSymbolId());
         if (orderBook == null) {
             log.warn("Cannot process order: no order book found for stock {}", order.getStockNo());
-            return;
+            return false;
         }
 
         // Handle market orders - set price based on the best available in an opposite book BEFORE acquiring any locks
         if (order.isMarketOrder()) {
-            BigDecimal price = order.isBuyOrder() ? orderBook.getBestAsk() : orderBook.getBestBid();
+            long price = order.isBuyOrder() ? orderBook.getBestAsk() : orderBook.getBestBid();
             order.setPrice(price);
 
-            if (price == null) {
+            if (price == NO_PRICE) {
                 log.warn("Cannot process order: no price available for market order {}-{}",
                         order.getBrokerID(), order.getClientOrdID());
-                return;
+                return false;
             }
         }
-
-        // Determine which order a book to use (bid or ask)
-        if (order.isBuyOrder()) {
-            orderMap = orderBook.getBidMap();
-            readWriteLock = orderBook.getBidLock();
-        } else {
-            orderMap = orderBook.getAskMap();
-            readWriteLock = orderBook.getAskLock();
-        }
-
+        boolean marketable = isMarketable(orderBook, order);
 
         // Add order to the order book under lock protection
-        readWriteLock.writeLock().lock();
+        lockSide(orderBook, order.getSide());
         try {
-            BigDecimal orderPrice = order.getPrice().get();
-            if (orderMap.containsKey(orderPrice)) {
-                // Add to the existing price level. Create a new list if null
-                LinkedList<Order> orderList = orderMap.computeIfAbsent(orderPrice, k -> new LinkedList<>());
-
-                if (order.isMarketOrder()) {
-                    // Market orders go to the front of the queue (FIFO)
-                    orderList.addFirst(order);
-                } else {
-                    // Limit orders go to the back of the queue (FIFO)
-                    orderList.addLast(order);
-                }
-            } else {
-                // Create a new price level
-                LinkedList<Order> orderList = new LinkedList<>();
-                orderList.add(order);
-                orderMap.put(orderPrice, orderList);
+            // Market orders go to the front of the price level, limit orders to the back (FIFO)
+            orderBook.addOrder(order);
+
+            // Add to the order index of the book for lookup by order ID and by client order ID
+            orderBook.getOrderIndex().put(order);
+
+            if (log.isDebugEnabled()) {
+                log.debug("Added {} {} order {}: {}-{} {} {} @ ${} x {}",
+                        order.getStockNo(),
+                        order.getSide(),
+                        order.getOrderId(),
+                        order.getBrokerID(),
+                        order.getClientOrdID(),
+                        order.getBuyOrSell(),
+                        order.getOrderType(),
+                        order.getPrice(),
+                        order.getQuantity());
             }
-
-            // Add to the order map for lookup by ID
-            orderObjMapper.put(order.getBrokerID() + "-" + order.getClientOrdID(), order);
-
-            log.debug("Added {} {} order: {}-{} {} {} @ ${} x {}",
-                    order.getStockNo(),
-                    Side.getByValue(order.getBuyOrSell()),
-                    order.getBrokerID(),
-                    order.getClientOrdID(),
-                    order.getBuyOrSell(),
-                    order.getOrderType(),
-                    order.getPrice().get(),
-                    order.getQuantity().get());
         } finally {
-            readWriteLock.writeLock().unlock();
+            unlockSide(orderBook, order.getSide());
         }
 
         // Show the order book for debugging if enabled
         if (LOG_ENABLED) {
-            orderBook.showMap();
+            showMap(orderBook);
+        }
+        return marketable;
+    }
+
+    /**
+     * @return true if the order crosses the best price of the opposite side of the book
+     */
+    private static boolean isMarketable(OrderBook orderBook, Order order) {
+        if (order.isBuyOrder()) {
+            long bestAsk = orderBook.getBestAsk();
+            return bestAsk != NO_PRICE && order.getPrice() >= bestAsk;
+        }
+        long bestBid = orderBook.getBestBid();
+        return bestBid != NO_PRICE && order.getPrice() <= bestBid;
+    }
+
+    /**
+     * Runs the matching job of the book, if one is registered, until the book is no longer crossed.
+     */
+    private void matchOnArrival(int symbolId) {
+        LimitOrderMatchingJob matchingJob = matchingJobs[symbolId];
+        if (matchingJob == null) {
+            return;
+        }
+        try {
+            matchingJob.matchWhileCrossed();
+        } catch (InterruptedException e) {
+            log.warn("Matching on arrival interrupted for stock {}", SymbolRegistry.getStockNo(symbolId));
+            Thread.currentThread().interrupt(); // Preserve interrupt status
         }
     }
 
+    /**
+     * Moves a resting order to a new price without matching it. Used by the matching job while it
+     * is matching the book, which then trades the order at its new price itself.
+     *
+     * @param order the resting order
+     * @param price the new fixed-point price
+     * @return true if the order was moved
+     */
+    boolean repriceOrder(Order order, long price) {
+        if (!removeOrder(order, true)) {
+            return false;
+        }
+        order.setPrice(price);
+        insertOrder(order);
+        return true;
+    }
+
 
     /**
-     * Removes the order identified by the broker ID and client order ID from the corresponding order book.
-     * If the order is found and successfully removed, it is also removed from the order object mapper
+     * Removes the order identified by the broker ID and client order ID from the order book of the stock.
+     * If the order is found and successfully removed, it is also removed from the order index of the book
      * and returned to the order pool.
      *
+     * @param stockNo the stock number of the order
      * @param brokerID the broker ID of the order to be removed
      * @param clientOrdId the client order ID of the order to be removed
      * @param isRetain don't return to object pool
      * @return true if the order was successfully removed, false otherwise
      */
-    public boolean removeOrder(String brokerID, String clientOrdId, boolean isRetain) {
-        // Declare variables at the top of the method
-        NavigableMap<BigDecimal, LinkedList<Order>> orderMap;
-        ReentrantReadWriteLock readWriteLock;
-
-        Order order = orderObjMapper.get(brokerID + "-" + clientOrdId);
+    public boolean removeOrder(String stockNo, String brokerID, String clientOrdId, boolean isRetain) {
+        OrderBook orderBook = getOrderBook(SymbolRegistry.getSymbolId(stockNo));
+        Order order = orderBook == null ? null : getLiveOrder(orderBook, orderBook.getOrderIndex().getOrderId(brokerID, clientOrdId));
 
         if (order == null) {
             log.warn("Cannot remove order: Order {}-{} not found in the system", brokerID, clientOrdId);
             return false;
         }
+        return removeOrder(order, isRetain);
+    }
 
-        OrderBook orderBook = orderBooks.get(order.getStockNo());
+    /**
+     * Removes the order with the given engine-assigned order ID from the order book of the stock.
+     *
+     * @param symbolId the symbol ID of the order
+     * @param orderId the order ID returned in the ack
+     * @param isRetain don't return to object pool
+     * @return true if the order was successfully removed, false otherwise
+     */
+    public boolean removeOrder(int symbolId, long orderId, boolean isRetain) {
+        OrderBook orderBook = getOrderBook(symbolId);
+        Order order = orderBook == null ? null : getLiveOrder(orderBook, orderId);
+
+        if (order == null) {
+            log.warn("Cannot remove order: Order {} not found in the system", orderId);
+            return false;
+        }
+        return removeOrder(order, isRetain);
+    }
+
+    /**
+     * Looks up the order of a cancel or amend, checking that the indexed order was not returned to its
+     * pool, and possibly handed out again under another order ID, since it was indexed.
+     *
+     * @param orderBook the order book of the stock
+     * @param orderId the order ID, NO_ORDER_ID if unknown
+     * @return the live order or null if there is none
+     */
+    private Order getLiveOrder(OrderBook orderBook, long orderId) {
+        Order order = orderBook.getOrderIndex().get(orderId);
+        if (order != null && !order.isLive(orderId)) {
+            log.error("Order {} of stock {} is indexed but was returned to the pool", orderId, orderBook.getStockNo());
+            return null;
+        }
+        return order;
+    }
+
+    private boolean removeOrder(Order order, boolean isRetain) {
+        String brokerID = order.getBrokerID();
+        String clientOrdId = order.getClientOrdID();
+
+        OrderBook orderBook = getOrderBook(order.getSymbolId());
         if (orderBook == null) {
             log.warn("Cannot remove order: Order book for stock {} not found", order.getStockNo());
             return false;
         }
 
-        BigDecimal orderPrice = order.getPrice().get();
-        if (orderPrice == null) {
-            log.warn("Cannot remove order: Order {}-{} has null price", brokerID, clientOrdId);
+        long orderPrice = order.getPrice();
+        if (orderPrice == NO_PRICE) {
+            log.warn("Cannot remove order: Order {}-{} has no price", brokerID, clientOrdId);
             return false;
         }
 
         // Determine if this is a bid or ask order
-        if (order.isBidOrder()) {
-            orderMap = orderBook.getBidMap();
-            readWriteLock = orderBook.getBidLock();
-        } else {
-            orderMap = orderBook.getAskMap();
-            readWriteLock = orderBook.getAskLock();
-        }
+        Side side = order.getSide();
 
         boolean removed;
-        readWriteLock.writeLock().lock();
+        lockSide(orderBook, side);
         try {
-            LinkedList<Order> orderList = orderMap.get(orderPrice);
-
-            if (orderList == null) {
-                log.error("Cannot remove order: No orders at price level {} for {}-{}",
-                        orderPrice, brokerID, clientOrdId);
+            if (order.getLevel() == null) {
+                log.error("Cannot remove order: {}-{} is not resting at price level {}",
+                        brokerID, clientOrdId, orderPrice);
                 return false;
             }
 
-            // Remove the order from the list
-            removed = orderList.remove(order);
+            // Unlink the order from its price level in O(1), dropping the level if it is now empty
+            removed = orderBook.removeOrder(order);
 
             if (!removed) {
                 log.error("System cannot find the order {}-{} in the order list", brokerID, clientOrdId);
             } else {
-                // If the price level is now empty, remove it from the map
-                if (orderList.isEmpty()) {
-                    orderMap.remove(orderPrice);
-                }
-
                 log.info("Removed order: {}-{} {} @ ${}",
                         order.getBrokerID(), order.getClientOrdID(),
                         order.getBuyOrSell(), orderPrice);
             }
         } finally {
-            readWriteLock.writeLock().unlock();
+            unlockSide(orderBook, side);
         }
 
-        // If order was removed from the book, also remove from the mapper and return to the object pool
+        // If order was removed from the book, also remove from the index and return to the object pool
         if (removed && !isRetain) {
-            orderObjMapper.remove(brokerID + "-" + clientOrdId);
+            orderBook.getOrderIndex().remove(order);
             OrderPoolManager.returnOrderObj(order);
 
             if (LOG_ENABLED) {
-                orderBook.showMap();
+                showMap(orderBook);
             }
         }
 
@@ -233,58 +354,85 @@ public class OrderProcessingJob implements Runnable {
      * Price changes require removing and re-adding the order, while quantity
      * changes can be made in-place if no price change is required.
      *
+     * @param stockNo the stock number of the order
      * @param brokerID the broker ID of the order to update
      * @param clientOrdId the client order ID of the order to update
-     * @param price the new price for the order can be null if not updating price
+     * @param price the new fixed-point price for the order can be null if not updating price
      * @param quantity the new quantity for the order can be null if not updating quantity
      * @return true if the order was successfully updated, false otherwise
      */
-    public boolean updateOrder(String brokerID, String clientOrdId, BigDecimal price, Integer quantity) {
-        // Declare variables at the top of the method
-        ReentrantReadWriteLock readWriteLock;
-
-        Order order = orderObjMapper.get(brokerID + "-" + clientOrdId);
+    public boolean updateOrder(String stockNo, String brokerID, String clientOrdId, Long price, Integer quantity) {
+        OrderBook orderBook = getOrderBook(SymbolRegistry.getSymbolId(stockNo));
+        Order order = orderBook == null ? null : getLiveOrder(orderBook, orderBook.getOrderIndex().getOrderId(brokerID, clientOrdId));
 
         if (order == null) {
             log.warn("Cannot update order: Order {}-{} not found in the system", brokerID, clientOrdId);
             return false;
         }
+        return updateOrder(order, price, quantity);
+    }
+
+    /**
+     * Updates the order with the given engine-assigned order ID, see
+     * {@link #updateOrder(String, String, String, Long, Integer)}.
+     *
+     * @param symbolId the symbol ID of the order
+     * @param orderId the order ID returned in the ack
+     * @param price the new fixed-point price for the order can be null if not updating price
+     * @param quantity the new quantity for the order can be null if not updating quantity
+     * @return true if the order was successfully updated, false otherwise
+     */
+    public boolean updateOrder(int symbolId, long orderId, Long price, Integer quantity) {
+        OrderBook orderBook = getOrderBook(symbolId);
+        Order order = orderBook == null ? null : getLiveOrder(orderBook, orderId);
+
+        if (order == null) {
+            log.warn("Cannot update order: Order {} not found in the system", orderId);
+            return false;
+        }
+        return updateOrder(order, price, quantity);
+    }
+
+    private boolean updateOrder(Order order, Long price, Integer quantity) {
+        String brokerID = order.getBrokerID();
+        String clientOrdId = order.getClientOrdID();
 
         if (price == null && quantity == null) {
             log.warn("Update order: No changes requested for order {}-{}", brokerID, clientOrdId);
             return true; // Nothing to update
         }
 
-        // If only updating quantity, we can do it directly without removing/re-adding
-        if (quantity != null) {
-            if (quantity.equals(order.getRemainingQty().get())){
-                log.warn("Cannot update order: Order {}-{} is partially filled", brokerID, clientOrdId);
-                return false;
-            }
-
-            OrderBook orderBook = orderBooks.get(order.getStockNo());
+        // If only updating quantity, we can do it directly without removing/re-adding.
+        // An unchanged quantity leaves the order as it is
+        if (quantity != null && quantity != order.getQuantity()) {
+            OrderBook orderBook = getOrderBook(order.getSymbolId());
 
             if (orderBook == null) {
                 log.warn("Cannot update order: Order book for stock {} not found", order.getStockNo());
                 return false;
             }
 
-            if (order.isBidOrder()) {
-                readWriteLock = orderBook.getBidLock();
-            } else {
-                readWriteLock = orderBook.getAskLock();
-            }
-
-            readWriteLock.writeLock().lock();
+            lockSide(orderBook, order.getSide());
             try {
+                if (quantity <= order.getFilledQty()) {
+                    log.warn("Cannot update order: Quantity {} of order {}-{} is not above its filled quantity {}",
+                            quantity, brokerID, clientOrdId, order.getFilledQty());
+                    return false;
+                }
+                // Apply the change to the remaining quantity too, which keeps the level aggregates in step
+                int delta = quantity - order.getQuantity();
                 order.setQuantity(quantity);
+                order.setRemainingQty(order.getRemainingQty() + delta);
+                if (order.getLevel() != null) {
+                    orderBook.refreshTopOfBook(order.getSide());
+                }
                 log.info("Updated quantity for order {}-{} to {}", brokerID, clientOrdId, quantity);
 
                 if (LOG_ENABLED) {
-                    orderBook.showMap();
+                    showMap(orderBook);
                 }
             } finally {
-                readWriteLock.writeLock().unlock();
+                unlockSide(orderBook, order.getSide());
             }
         }
 
@@ -292,7 +440,7 @@ public class OrderProcessingJob implements Runnable {
             // For price changes, we need to remove and re-add the order
             try {
                 // First remove the old order
-                if (!removeOrder(brokerID, clientOrdId, true)) {
+                if (!removeOrder(order, true)) {
                     return false;
                 }
 
@@ -303,7 +451,7 @@ public class OrderProcessingJob implements Runnable {
                 log.info("Updated order {}-{} with new price=${} and quantity={}",
                         brokerID, clientOrdId,
                         price,
-                        quantity != null ? quantity : order.getQuantity().get());
+                        quantity != null ? quantity : order.getQuantity());
 
             } catch (Exception e) {
                 log.error("Error updating order {}-{}: {}", brokerID, clientOrdId, e.getMessage(), e);
@@ -316,53 +464,90 @@ public class OrderProcessingJob implements Runnable {
 
 
     /**
-     * Main processing loop that continuously takes orders from the queue and processes them.
+     * @param idleStrategy what the thread does while the order queue is empty
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    /**
+     * @param maxBatchSize       the maximum number of orders taken from the queue per pass
+     * @param batchSizeHistogram the histogram recording the number of orders of each pass
+     */
+    public void setBatching(int maxBatchSize, BatchSizeHistogram batchSizeHistogram) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizeHistogram = batchSizeHistogram;
+    }
+
+    public BatchSizeHistogram getBatchSizeHistogram() {
+        return batchSizeHistogram;
+    }
+
+    /**
+     * Main processing loop that continuously drains the orders queued together and processes them in arrival order.
      * Handles interruption gracefully and reports errors without stopping the processing thread.
      */
     @Override
     public void run() {
         log.info("Order processing job started");
+        List<Order> batch = new ArrayList<>(maxBatchSize);
         int processedOrders = 0;
 
         while (!isInterrupted) {
             try {
-                // Wait for the next order (blocking operation)
-                log.debug("Waiting for orders from queue ({})", orderQueue.size());
-                Order order = orderQueue.take();
-                processedOrders++;
-
-                // Validate stock exists
-                if (!orderBooks.containsKey(order.getStockNo())) {
-                    log.warn("Received order for unknown stock {}. Available stocks: {}",
-                        order.getStockNo(), orderBooks.keySet());
-                    continue;
+                // Wait for the next orders
+                if (log.isDebugEnabled()) {
+                    log.debug("Waiting for orders from queue ({})", orderQueue.size());
+                }
+                int batchSize = idleStrategy.drain(orderQueue, batch, maxBatchSize);
+                batchSizeHistogram.record(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    processQueuedOrder(batch.get(i), ++processedOrders);
                 }
-
-                // Process the order
-                log.debug("Order {}-{} for stock {} will be processed",
-                        order.getBrokerID(), order.getClientOrdID(), order.getStockNo());
-                putOrder(order);
-                log.debug("Successfully processed order #{}", processedOrders);
             } catch (InterruptedException e) {
                 log.info("Order processing job interrupted, shutting down");
                 Thread.currentThread().interrupt(); // Preserve interrupt status
                 isInterrupted = true;
-            } catch (Exception e) {
-                // Log error but continue processing other orders
-                log.error("Error processing order: {}", e.getMessage(), e);
-                try {
-                    // Brief pause to prevent tight loop in case of persistent error
-                    TimeUnit.MILLISECONDS.sleep(100);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    isInterrupted = true;
-                }
+            } finally {
+                batch.clear();
             }
         }
 
         log.info("Order processing job stopped");
     }
 
+    /**
+     * Processes an order taken from the queue, reporting errors without stopping the processing thread.
+     *
+     * @param order           the order
+     * @param processedOrders the number of orders taken so far, for the debug log
+     * @throws InterruptedException if interrupted while pausing after an error
+     */
+    void processQueuedOrder(Order order, int processedOrders) throws InterruptedException {
+        try {
+            // Validate stock exists
+            if (getOrderBook(order.getSymbolId()) == null) {
+                log.warn("Received order for stock {} without an order book", order.getStockNo());
+                return;
+            }
+
+            // Process the order
+            if (log.isDebugEnabled()) {
+                log.debug("Order {}-{} for stock {} will be processed",
+                        order.getBrokerID(), order.getClientOrdID(), order.getStockNo());
+            }
+            putOrder(order);
+            if (log.isDebugEnabled()) {
+                log.debug("Successfully processed order #{}", processedOrders);
+            }
+        } catch (Exception e) {
+            // Log error but continue processing other orders
+            log.error("Error processing order: {}", e.getMessage(), e);
+            // Brief pause to prevent tight loop in case of persistent error
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
     /**
      * Safely gracefully stops the order processing job.
      * This method can be called from another thread to request termination.
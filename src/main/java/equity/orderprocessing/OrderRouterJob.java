@@ -0,0 +1,72 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.Order;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.IdleStrategy;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * OrderRouterJob takes the orders received by the gateways from the order queue and hands each of
+ * them to the {@link SingleWriterBookJob} of its stock, selected by symbol ID. The router never
+ * touches a book, so the writers stay the only threads mutating them.
+ */
+public class OrderRouterJob implements Runnable {
+    private static final Logger log = LogManager.getLogger(OrderRouterJob.class);
+    private final BlockingQueue<Order> orderQueue;
+    private final SingleWriterBookJob[] writers;
+    private volatile boolean isInterrupted = false;
+    private IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
+
+    /**
+     * @param orderQueue the queue holding incoming orders, null if the orders are passed to {@link #route(Order)}
+     * @param writers    the writers of the order books indexed by symbol ID
+     */
+    public OrderRouterJob(BlockingQueue<Order> orderQueue, SingleWriterBookJob[] writers) {
+        this.orderQueue = orderQueue;
+        this.writers = writers;
+    }
+
+    /**
+     * @param idleStrategy what the thread does while the order queue is empty
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    @Override
+    public void run() {
+        log.info("Order router started");
+        while (!isInterrupted) {
+            try {
+                route(idleStrategy.take(orderQueue));
+            } catch (InterruptedException e) {
+                log.info("Order router interrupted, shutting down");
+                Thread.currentThread().interrupt(); // Preserve interrupt status
+                isInterrupted = true;
+            }
+        }
+        log.info("Order router stopped");
+    }
+
+    /**
+     * Hands the order to the writer of its stock.
+     *
+     * @param order the order
+     * @throws InterruptedException if interrupted while adding to the command queue of the writer
+     */
+    public void route(Order order) throws InterruptedException {
+        int symbolId = order.getSymbolId();
+        SingleWriterBookJob writer = symbolId >= 0 && symbolId < writers.length ? writers[symbolId] : null;
+        if (writer == null) {
+            log.warn("Received order for stock {} without an order book", order.getStockNo());
+            return;
+        }
+        writer.submit(order);
+    }
+
+    public void shutdown() {
+        isInterrupted = true;
+    }
+}
@@ -0,0 +1,229 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.MarketData;
+import equity.objectpooling.Order;
+import equity.objectpooling.OrderBook;
+import equity.objectpooling.OrderObjectPool;
+import equity.objectpooling.SymbolRegistry;
+import equity.objectpooling.Trade;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import util.IdleStrategy;
+import util.Publisher;
+
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SingleWriterBookJob is the only thread mutating one order book. New orders, cancels and amends
+ * are submitted to its command queue from any thread; the job applies them one at a time through a
+ * lock-free {@link OrderProcessingJob}, which matches a marketable order as soon as it is inserted.
+ * No lock of the book is taken and the matching never polls, so throughput scales by
+ * spreading the symbols over the cores, one writer per book, instead of adding threads to a book.
+ * <p>
+ * The job either runs on a thread of its own or is registered with a {@link BookScheduler}, whose
+ * workers apply its commands only while it has some.
+ */
+public class SingleWriterBookJob implements Runnable {
+    private static final Logger log = LogManager.getLogger(SingleWriterBookJob.class);
+
+    private final OrderBook orderBook;
+    private final LinkedBlockingQueue<Command> commandQueue = new LinkedBlockingQueue<>();
+    private final OrderProcessingJob orderProcessingJob;
+    private volatile boolean isInterrupted = false;
+    private IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
+    // Set while the book is on the ready queue of the scheduler or with one of its workers
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private BookScheduler scheduler;
+
+    /**
+     * Creates the writer of the given order book.
+     *
+     * @param orderBook               the order book owned by the job
+     * @param marketDataPublisher     publisher of market data updates
+     * @param resultingTradePublisher publisher of executed trades
+     */
+    public SingleWriterBookJob(OrderBook orderBook,
+                               Publisher<MarketData> marketDataPublisher,
+                               Publisher<Trade> resultingTradePublisher) {
+        this.orderBook = orderBook;
+        // The lock-free processing job only sees the book of this writer, so a command of another
+        // stock cannot reach a book owned by another writer
+        OrderBook[] ownBook = new OrderBook[SymbolRegistry.size()];
+        ownBook[orderBook.getSymbolId()] = orderBook;
+        this.orderProcessingJob = new OrderProcessingJob(null, ownBook, true);
+        LimitOrderMatchingJob matchingJob = new LimitOrderMatchingJob(orderBook, marketDataPublisher, resultingTradePublisher,
+                orderProcessingJob, 1, true);
+        orderProcessingJob.setMatchingJob(matchingJob);
+    }
+
+    public OrderBook getOrderBook() {
+        return orderBook;
+    }
+
+    /**
+     * @return the number of commands waiting to be applied
+     */
+    public int getBacklog() {
+        return commandQueue.size();
+    }
+
+    /**
+     * Submits a new order to the book.
+     *
+     * @param order the order of the stock of the book
+     * @throws InterruptedException if interrupted while adding to the queue
+     */
+    public void submit(@NotNull Order order) throws InterruptedException {
+        Objects.requireNonNull(order, "Order cannot be null");
+        enqueue(Command.newOrder(order));
+    }
+
+    /**
+     * Submits the cancel of a resting order.
+     *
+     * @param orderId the order ID returned in the ack
+     * @throws InterruptedException if interrupted while adding to the queue
+     */
+    public void submitCancel(long orderId) throws InterruptedException {
+        enqueue(Command.cancel(orderId));
+    }
+
+    /**
+     * Submits the amendment of a resting order.
+     *
+     * @param orderId  the order ID returned in the ack
+     * @param price    the new fixed-point price, null if not updating price
+     * @param quantity the new quantity, null if not updating quantity
+     * @throws InterruptedException if interrupted while adding to the queue
+     */
+    public void submitAmend(long orderId, Long price, Integer quantity) throws InterruptedException {
+        enqueue(Command.amend(orderId, price, quantity));
+    }
+
+    /**
+     * Adds the command to the mailbox of the book and, if the book is served by a scheduler and idle,
+     * hands it to the scheduler.
+     */
+    private void enqueue(Command command) throws InterruptedException {
+        commandQueue.put(command);
+        if (scheduler != null && scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this);
+        }
+    }
+
+    void setScheduler(BookScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Applies up to the given number of queued commands on a worker of the scheduler, then releases the
+     * book, handing it back to the scheduler if commands arrived meanwhile.
+     *
+     * @param maxCommands the maximum number of commands to apply
+     * @return the number of commands applied
+     */
+    int applyScheduled(int maxCommands) {
+        int applied = 0;
+        Command command;
+        while (applied < maxCommands && (command = commandQueue.poll()) != null) {
+            applyCommand(command);
+            applied++;
+        }
+        scheduled.set(false);
+        // A command queued after the last poll may have found the book still scheduled
+        if (!commandQueue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this);
+        }
+        return applied;
+    }
+
+    /**
+     * Applies one command to the book, matching the orders it makes marketable.
+     * Must only be called by the writer of the book.
+     *
+     * @param command the command
+     * @throws IllegalStateException in debug mode, if the order of a new order command was returned to its
+     *                               pool after being submitted
+     */
+    void apply(Command command) {
+        if (OrderObjectPool.DEBUG && command.order() != null
+                && !command.order().isValidHandle(command.orderId(), command.generation())) {
+            throw new IllegalStateException("Order " + command.orderId() + " of stock " + orderBook.getStockNo()
+                    + " was returned to the pool after being submitted");
+        }
+        switch (command.type()) {
+            case NEW -> orderProcessingJob.putOrder(command.order());
+            case CANCEL -> orderProcessingJob.removeOrder(orderBook.getSymbolId(), command.orderId(), false);
+            case AMEND -> orderProcessingJob.updateOrder(orderBook.getSymbolId(), command.orderId(),
+                    command.price(), command.quantity());
+        }
+    }
+
+    /**
+     * @param idleStrategy what the thread does while the command queue is empty
+     */
+    public void setIdleStrategy(IdleStrategy idleStrategy) {
+        this.idleStrategy = idleStrategy;
+    }
+
+    /**
+     * Main loop applying the commands of the book in arrival order.
+     */
+    @Override
+    public void run() {
+        log.info("Single writer of stock {} started", orderBook.getStockNo());
+        while (!isInterrupted) {
+            try {
+                applyCommand(idleStrategy.take(commandQueue));
+            } catch (InterruptedException e) {
+                log.info("Single writer of stock {} interrupted", orderBook.getStockNo());
+                Thread.currentThread().interrupt(); // Preserve interrupt status
+                isInterrupted = true;
+            }
+        }
+        log.info("Single writer of stock {} stopped", orderBook.getStockNo());
+    }
+
+    /**
+     * Applies one command, logging its failure so that the writer continues with the next command.
+     */
+    private void applyCommand(Command command) {
+        try {
+            apply(command);
+        } catch (Exception e) {
+            log.error("Error applying command to stock {}: {}", orderBook.getStockNo(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Requests the job to stop after the current command.
+     */
+    public void shutdown() {
+        isInterrupted = true;
+    }
+
+    enum CommandType {
+        NEW, CANCEL, AMEND
+    }
+
+    /**
+     * A mutation of the book waiting for its writer. A new order carries the handle of the order, its
+     * order ID and generation when submitted.
+     */
+    record Command(CommandType type, Order order, long orderId, int generation, Long price, Integer quantity) {
+        static Command newOrder(Order order) {
+            return new Command(CommandType.NEW, order, order.getOrderId(), order.getGeneration(), null, null);
+        }
+
+        static Command cancel(long orderId) {
+            return new Command(CommandType.CANCEL, null, orderId, 0, null, null);
+        }
+
+        static Command amend(long orderId, Long price, Integer quantity) {
+            return new Command(CommandType.AMEND, null, orderId, 0, price, quantity);
+        }
+    }
+}
@@ -1,56 +1,121 @@
 package equity.requesthandling;
 
+import com.lmax.disruptor.dsl.ProducerType;
 import equity.externalparties.MarketDataJob;
 import equity.externalparties.ResultingTradeJob;
 import equity.fix.server.FIXTradeServerApp;
 import equity.objectpooling.*;
-import equity.objectpooling.Order.OrderType;
-import equity.objectpooling.Order.Side;
+import equity.orderprocessing.BookScheduler;
 import equity.orderprocessing.LimitOrderMatchingJob;
 import equity.orderprocessing.OrderProcessingJob;
+import equity.orderprocessing.OrderRouterJob;
+import equity.orderprocessing.SingleWriterBookJob;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.FileChannelService;
+import util.ArrayQueue;
+import util.BatchSizeHistogram;
+import util.EngineThreads;
 import util.FileResourcesUtils;
 import util.HealthCheck;
+import util.Publisher;
+import util.RingBufferStage;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.math.BigDecimal;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static util.HealthCheck.*;
 import static util.ReadConfig.dotenv;
-import static util.ReadConfig.getStocks;
 
 
 public class MatchingEngine extends Thread {
     private static final int noOfAvailableThreads = Runtime.getRuntime().availableProcessors();
     private static final Logger log = LogManager.getLogger(MatchingEngine.class);
-    private static final String SUCCESS_MSG_TEMPLATE = " is processing your order: ";
 
-    private static final LinkedBlockingQueue<Order> orderQueue = new LinkedBlockingQueue<>();
-    private static final LinkedBlockingQueue<MarketData> marketDataQueue = new LinkedBlockingQueue<>();
-    private static final LinkedBlockingQueue<Trade> resultingTradeQueue = new LinkedBlockingQueue<>();
     private final FIXTradeServerApp fixTradeServerApp;
-    private static final HashMap<String, OrderBook> orderBooks = new HashMap<>();
-    private static final ConcurrentHashMap<String, Order> orderObjMapper = new ConcurrentHashMap<>();
+    private static final OrderBook[] orderBooks = new OrderBook[SymbolRegistry.size()];
     private static final FileChannelService fileChannelService = new FileChannelService();
-    private static final int noOfThreadsPerStock = Integer.parseInt(Objects.requireNonNull(dotenv.get("noOfThreadPerStock")));
+    // Polling matching threads per book on top of the matching on arrival, 0 for none
+    private static final int noOfThreadsPerStock = Integer.parseInt(Objects.requireNonNullElse(dotenv.get("noOfThreadPerStock"), "0").trim());
+    // SHARED: one processing thread matching on arrival under the side locks
+    // SINGLE_WRITER: one lock-free thread per book owning inserts, cancels, amends and matching
+    private static final boolean singleWriter = "SINGLE_WRITER".equalsIgnoreCase(
+            Objects.requireNonNullElse(dotenv.get("matching_mode"), "SHARED").trim());
+    // QUEUE: blocking queues between the stages (see ArrayQueue.create), DISRUPTOR: ring buffers with preallocated slots
+    private static final boolean disruptorPipeline = "DISRUPTOR".equalsIgnoreCase(
+            Objects.requireNonNullElse(dotenv.get("pipeline"), "QUEUE").trim());
+    // Processing shards of the SHARED mode, shard i owning the books of the symbol IDs congruent to i,
+    // at most one per symbol. The SINGLE_WRITER mode has a single router instead.
+    private static final int noOfProcessingShards = singleWriter ? 1 : Math.max(1, Math.min(SymbolRegistry.size(),
+            Integer.parseInt(Objects.requireNonNullElse(dotenv.get("noOfProcessingShards"), "1").trim())));
+    // Worker threads of the SINGLE_WRITER mode serving the books with pending commands, one per core by default
+    private static final int noOfWriterThreads = Math.max(1, Integer.parseInt(Objects.requireNonNullElse(
+            dotenv.get("writer_threads"), String.valueOf(noOfAvailableThreads)).trim()));
+    // Seconds between the batch-size and object pool reports, 0 for none
+    private static final int batchStatsIntervalSeconds = Integer.parseInt(
+            Objects.requireNonNullElse(dotenv.get("batch_stats_interval_s"), "60").trim());
+
+    // Inbound order queue (QUEUE) or ring buffer stage (DISRUPTOR) of each shard
+    private final List<BlockingQueue<Order>> orderQueues = new ArrayList<>();
+    // Outbound queues of the QUEUE pipeline, null for DISRUPTOR
+    private final BlockingQueue<MarketData> marketDataQueue;
+    private final BlockingQueue<Trade> resultingTradeQueue;
+    private final List<RingBufferStage<Order>> orderStages = new ArrayList<>();
+    // Ring buffer stages of the DISRUPTOR pipeline, null for QUEUE
+    private final RingBufferStage<MarketData> marketDataStage;
+    private final RingBufferStage<Trade> resultingTradeStage;
+    private final Publisher<Order> orderPublisher;
+    private final Publisher<MarketData> marketDataPublisher;
+    private final Publisher<Trade> resultingTradePublisher;
 
-    private boolean listening = true;
 
 
     public MatchingEngine() {
         System.out.println(System.getProperty("java.class.path"));
-        fixTradeServerApp = new FIXTradeServerApp(orderQueue);
+        List<Publisher<Order>> shardPublishers = new ArrayList<>();
+        for (int shard = 0; shard < noOfProcessingShards; shard++) {
+            if (disruptorPipeline) {
+                // The gateways publish orders from several threads
+                RingBufferStage<Order> orderStage = new RingBufferStage<>("order",
+                        singleWriter ? EngineThreads.ROUTER : EngineThreads.PROCESSING, String.valueOf(shard),
+                        "Order-" + shard, ProducerType.MULTI);
+                orderStages.add(orderStage);
+                shardPublishers.add(orderStage);
+            } else {
+                // The gateways put orders from several threads
+                BlockingQueue<Order> orderQueue = ArrayQueue.create("order", true);
+                orderQueues.add(orderQueue);
+                shardPublishers.add(orderQueue::put);
+            }
+        }
+        // The gateways route each order to the shard owning its book
+        orderPublisher = noOfProcessingShards == 1 ? shardPublishers.get(0)
+                : order -> shardPublishers.get(shardOf(order.getSymbolId())).publish(order);
+        // Trades and market data come from the processing thread alone unless there are several
+        // shards, writers per book or polling matching threads
+        boolean multiProducerOutbound = singleWriter || noOfThreadsPerStock > 0 || noOfProcessingShards > 1;
+        if (disruptorPipeline) {
+            ProducerType outboundProducerType = multiProducerOutbound ? ProducerType.MULTI : ProducerType.SINGLE;
+            marketDataStage = new RingBufferStage<>("market_data", outboundProducerType);
+            resultingTradeStage = new RingBufferStage<>("trade", outboundProducerType);
+            marketDataPublisher = marketDataStage;
+            resultingTradePublisher = resultingTradeStage;
+            marketDataQueue = null;
+            resultingTradeQueue = null;
+        } else {
+            marketDataStage = null;
+            resultingTradeStage = null;
+            marketDataQueue = ArrayQueue.create("market_data", multiProducerOutbound);
+            resultingTradeQueue = ArrayQueue.create("trade", multiProducerOutbound);
+            marketDataPublisher = marketDataQueue::put;
+            resultingTradePublisher = resultingTradeQueue::put;
+        }
+        fixTradeServerApp = new FIXTradeServerApp(orderPublisher);
         new Thread(fixTradeServerApp).start();
         log.debug("Number of available threads in this machine: {}", noOfAvailableThreads);
     }
@@ -61,31 +126,69 @@ public class MatchingEngine extends Thread {
         printJVMFlags();
         printGCStats();
         printAsyncLoggingHealthCheck();
+        printPoolStats();
         server.startProcessingJobs();
+        startStatsReporter();
         server.start();
     }
 
     /**
-     * This method initializes and starts multiple order matching jobs for the stocks based on the configured number of stocks.
-     * Each stock is associated with an OrderBook that contains bID and ask order maps. A new thread is created for each OrderBook
-     * and a LimitOrderMatchingJob is executed on that thread to match bID and ask orders.
+     * Logs the batch-size histograms of the consumers and the object pool statistics periodically on a
+     * daemon thread.
      */
-    private void startOrderMatchingJobs(OrderProcessingJob orderProcessingJob){
-        for (String stockId: getStocks()) {
-            OrderBook orderBook = new OrderBook(stockId, "Stock " + stockId);
-            orderBooks.put(stockId, orderBook);
+    private static void startStatsReporter() {
+        if (batchStatsIntervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BatchStats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            HealthCheck.printBatchSizeHistograms();
+            HealthCheck.printPoolStats();
+        }, batchStatsIntervalSeconds, batchStatsIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the processing shard owning the book of the symbol
+     */
+    private static int shardOf(int symbolId) {
+        return symbolId % noOfProcessingShards;
+    }
+
+    /**
+     * This method initializes the order matching jobs for the stocks of a processing shard.
+     * Each stock is associated with an OrderBook that contains bID and ask order maps. The LimitOrderMatchingJob of
+     * each OrderBook is registered with the OrderProcessingJob of the shard, which matches marketable orders on arrival.
+     * If noOfThreadPerStock is set, that many threads additionally poll each OrderBook for crossed orders.
+     */
+    private void startOrderMatchingJobs(OrderProcessingJob orderProcessingJob, int shard){
+        for (int symbolId = shard; symbolId < SymbolRegistry.size(); symbolId += noOfProcessingShards) {
+            String stockId = SymbolRegistry.getStockNo(symbolId);
+            OrderBook orderBook = orderBooks[symbolId];
+            orderProcessingJob.setMatchingJob(new LimitOrderMatchingJob(
+                    orderBook,
+                    marketDataPublisher,
+                    resultingTradePublisher,
+                    orderProcessingJob,
+                    0,
+                    false
+            ));
 
             for (int i = 1; i < noOfThreadsPerStock + 1; i++) {
                 LimitOrderMatchingJob matchingJob = new LimitOrderMatchingJob(
                         orderBook,
-                        orderObjMapper,
-                        marketDataQueue,
-                        resultingTradeQueue,
+                        marketDataPublisher,
+                        resultingTradePublisher,
                         orderProcessingJob,
-                        i
+                        i,
+                        false
                 );
-                Thread matchingThread = new Thread(matchingJob);
-                matchingThread.setName("Matching-" + stockId + "-Thread-" + i);
+                matchingJob.setIdleStrategy(EngineThreads.idleStrategy(EngineThreads.MATCHING, stockId));
+                Thread matchingThread = EngineThreads.newThread(EngineThreads.MATCHING, stockId,
+                        "Matching-" + stockId + "-Thread-" + i, matchingJob);
                 matchingThread.start();
                 log.info("Started matching thread {}", matchingThread.getName());
             }
@@ -94,72 +197,97 @@ public class MatchingEngine extends Thread {
     }
 
 
-    public void startProcessingJobs() {
-        OrderProcessingJob orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks, orderObjMapper);
-        startOrderMatchingJobs(orderProcessingJob);
-        new Thread(orderProcessingJob).start();
-        new Thread(new MarketDataJob(marketDataQueue,fileChannelService), "MarketData").start();
-        new Thread(new ResultingTradeJob(resultingTradeQueue, this.fixTradeServerApp, fileChannelService), "TradeData").start();
+    /**
+     * Starts the processing job of a shard, which owns a disjoint set of the order books and takes their
+     * orders from the inbound queue or ring buffer stage of the shard.
+     */
+    private void startProcessingShard(int shard) {
+        OrderBook[] shardOrderBooks = new OrderBook[SymbolRegistry.size()];
+        for (int symbolId = shard; symbolId < SymbolRegistry.size(); symbolId += noOfProcessingShards) {
+            shardOrderBooks[symbolId] = orderBooks[symbolId];
+        }
+        OrderProcessingJob orderProcessingJob = new OrderProcessingJob(disruptorPipeline ? null : orderQueues.get(shard),
+                shardOrderBooks);
+        startOrderMatchingJobs(orderProcessingJob, shard);
+        if (disruptorPipeline) {
+            orderStages.get(shard).start(orderProcessingJob::putOrder);
+        } else {
+            orderProcessingJob.setIdleStrategy(EngineThreads.idleStrategy(EngineThreads.PROCESSING, String.valueOf(shard)));
+            orderProcessingJob.setBatching(EngineThreads.batchSize(EngineThreads.PROCESSING, String.valueOf(shard)),
+                    BatchSizeHistogram.register("OrderProcessing-" + shard));
+            EngineThreads.newThread(EngineThreads.PROCESSING, String.valueOf(shard), "OrderProcessing-" + shard,
+                    orderProcessingJob).start();
+        }
+        log.info("Started processing shard {}", shard);
     }
 
-
     /**
-     * This method is responsible for setting up a ServerSocket at a specified port and continuously
-     * listening for incoming client connections. Upon accepting a connection, it reads the order data
-     * from the client, creates an Order object, puts the order in a queue, and sends a success message
-     * back to the client. If any exceptions occur during the process, the method logs the error and
-     * stops listening for further connections.
-     *
-     * @throws IOException if an I/O error occurs when creating the server socket or working with the streams
+     * Starts one SingleWriterBookJob per book, served by a BookScheduler with writer_threads workers, plus
+     * the router handing each incoming order to the writer of its stock: on its own thread or as the
+     * handler of the order stage.
      */
-    private void gettingOnline() throws IOException {
-        // Create a ServerSocket at a certain port
-        try (ServerSocket serverSocket = new ServerSocket(Integer.parseInt(Objects.requireNonNull(dotenv.get("port_number"))))) {
-            while (listening) {
-                // Await client connection
-                log.debug("Waiting for client on port {}...", serverSocket.getLocalPort());
-                Socket server = serverSocket.accept();
-                log.debug("Just connected to {}", server.getRemoteSocketAddress());
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream()));
-                     DataOutputStream out = new DataOutputStream(server.getOutputStream())) {
-                    Order order = createOrder(in.readLine());
-                    orderQueue.put(order);
-                    log.debug("Order Queue size: {}", orderQueue.size());
-                    HealthCheck.checkQueueHealth(orderQueue);
-                    out.writeUTF(server.getLocalSocketAddress() + SUCCESS_MSG_TEMPLATE + order.getBrokerID() + "-" + order.getClientOrdID());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    log.error(e);
-                    listening = false;
-                }
-                server.close();
+    private void startSingleWriterJobs() {
+        SingleWriterBookJob[] writers = new SingleWriterBookJob[SymbolRegistry.size()];
+        BookScheduler bookScheduler = new BookScheduler(noOfWriterThreads,
+                EngineThreads.batchSize(EngineThreads.WRITER, null));
+        for (int symbolId = 0; symbolId < SymbolRegistry.size(); symbolId++) {
+            writers[symbolId] = new SingleWriterBookJob(orderBooks[symbolId], marketDataPublisher, resultingTradePublisher);
+            bookScheduler.register(writers[symbolId]);
+        }
+        bookScheduler.start();
+        if (disruptorPipeline) {
+            orderStages.get(0).start(new OrderRouterJob(null, writers)::route);
+        } else {
+            OrderRouterJob orderRouterJob = new OrderRouterJob(orderQueues.get(0), writers);
+            orderRouterJob.setIdleStrategy(EngineThreads.idleStrategy(EngineThreads.ROUTER, null));
+            EngineThreads.newThread(EngineThreads.ROUTER, null, "OrderRouter", orderRouterJob).start();
+        }
+    }
+
+    public void startProcessingJobs() {
+        for (int symbolId = 0; symbolId < SymbolRegistry.size(); symbolId++) {
+            String stockId = SymbolRegistry.getStockNo(symbolId);
+            orderBooks[symbolId] = OrderBook.create(stockId, "Stock " + stockId);
+        }
+        if (singleWriter) {
+            startSingleWriterJobs();
+        } else {
+            for (int shard = 0; shard < noOfProcessingShards; shard++) {
+                startProcessingShard(shard);
             }
         }
+        if (disruptorPipeline) {
+            marketDataStage.startBatched(new MarketDataJob(fileChannelService)::processMarketDataBatch,
+                    EngineThreads.batchSize(EngineThreads.MARKET_DATA, null));
+            resultingTradeStage.startBatched(new ResultingTradeJob(this.fixTradeServerApp, fileChannelService)::processTradeBatch,
+                    EngineThreads.batchSize(EngineThreads.TRADE, null));
+        } else {
+            MarketDataJob marketDataJob = new MarketDataJob(marketDataQueue, fileChannelService);
+            marketDataJob.setIdleStrategy(EngineThreads.idleStrategy(EngineThreads.MARKET_DATA, null));
+            marketDataJob.setBatching(EngineThreads.batchSize(EngineThreads.MARKET_DATA, null),
+                    BatchSizeHistogram.register("MarketData"));
+            EngineThreads.newThread(EngineThreads.MARKET_DATA, null, "MarketData", marketDataJob).start();
+            ResultingTradeJob resultingTradeJob = new ResultingTradeJob(resultingTradeQueue, this.fixTradeServerApp, fileChannelService);
+            resultingTradeJob.setIdleStrategy(EngineThreads.idleStrategy(EngineThreads.TRADE, null));
+            resultingTradeJob.setBatching(EngineThreads.batchSize(EngineThreads.TRADE, null),
+                    BatchSizeHistogram.register("TradeData"));
+            EngineThreads.newThread(EngineThreads.TRADE, null, "TradeData", resultingTradeJob).start();
+        }
     }
 
 
     /**
-     * Creates an Order object based on the provIDed input value.
-     *
-     * @param value the string value containing order information separated by ":" in the format:
-     *              "stockNo : brokerID : orderType : buyOrSell : price : quantity"
-     * @return the created Order object with the parsed order details
+     * Runs the plain TCP order gateway, which serves each client connection on a virtual thread.
      */
-    private Order createOrder(String value) {
-//        		String message = order.getStockNo() + ":" + order.getBrokerID() + ":" + order.getClientOrdID() + ":"
-//				+ order.getOrderType() + ":" + order.getBuyOrSell() + ":"
-//				+ order.getPrice() + ":" + order.getQuantity();
-        String[] tokens = value.split(":");
-        return OrderPoolManager.requestOrderObj(tokens[0], tokens[1], tokens[2], OrderType.getByValue(tokens[3]), Side.getByValue(tokens[4]), new BigDecimal(tokens[5]),
-                Integer.parseInt(tokens[6]));
-    }
-
     @Override
     public void run() {
-        try {
-            this.gettingOnline();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        Publisher<Order> gatewayPublisher = disruptorPipeline ? orderPublisher : order -> {
+            // Look up the queue first, the order may be processed as soon as it is published
+            BlockingQueue<Order> orderQueue = orderQueues.get(shardOf(order.getSymbolId()));
+            orderPublisher.publish(order);
+            log.debug("Order Queue size: {}", orderQueue.size());
+            HealthCheck.checkQueueHealth(orderQueue);
+        };
+        new TcpOrderGateway(Integer.parseInt(Objects.requireNonNull(dotenv.get("port_number"))), gatewayPublisher).run();
     }
 }
@@ -0,0 +1,255 @@
+package equity.requesthandling;
+
+import equity.objectpooling.Order;
+import equity.objectpooling.Order.OrderType;
+import equity.objectpooling.Order.Side;
+import equity.objectpooling.OrderPoolManager;
+import equity.objectpooling.PriceScale;
+import equity.objectpooling.SymbolRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.Publisher;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import static equity.objectpooling.PriceScale.NO_PRICE;
+import static util.ReadConfig.dotenv;
+
+/**
+ * TcpOrderGateway accepts the plain TCP connections of the clients and serves each of them on its own
+ * virtual thread, so a slow client only blocks its own connection. A connection may send any number of
+ * orders, one per line in the format {@code stockNo:brokerID:clientOrdID:orderType:buyOrSell:price:quantity},
+ * and gets one reply per line. The order is parsed and validated on the connection thread; only valid
+ * orders take an Order object from the pool and are handed to the engine, invalid ones are rejected in the
+ * reply without closing the connection.
+ * <p>
+ * At most {@code gateway_max_connections} connections (default 10000) are served at once; further clients
+ * wait in the accept backlog.
+ */
+public class TcpOrderGateway implements Runnable {
+    private static final Logger log = LogManager.getLogger(TcpOrderGateway.class);
+    private static final String SUCCESS_MSG_TEMPLATE = " is processing your order: ";
+    private static final String ORDER_ID_MSG_TEMPLATE = " with order ID ";
+    private static final String REJECT_MSG_TEMPLATE = "Order rejected: ";
+    private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+
+    private final int port;
+    private final Publisher<Order> orderPublisher;
+    private final Semaphore connectionPermits;
+    private volatile boolean listening = true;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Validated fields of an order line.
+     */
+    record OrderRequest(String stockNo, String brokerID, String clientOrdID, OrderType orderType, Side side,
+                        long price, int quantity) {
+    }
+
+    /**
+     * @param port           the port to listen on, 0 for any free port
+     * @param orderPublisher the publisher handing the orders to the engine
+     */
+    public TcpOrderGateway(int port, Publisher<Order> orderPublisher) {
+        this.port = port;
+        this.orderPublisher = orderPublisher;
+        this.connectionPermits = new Semaphore(Integer.parseInt(Objects.requireNonNullElse(
+                dotenv.get("gateway_max_connections"), String.valueOf(DEFAULT_MAX_CONNECTIONS)).trim()));
+    }
+
+    /**
+     * Accepts connections until {@link #shutdown()}, serving each on a new virtual thread.
+     */
+    @Override
+    public void run() {
+        try (ServerSocket socket = new ServerSocket(port);
+             ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            serverSocket = socket;
+            log.info("Order gateway listening on port {}", socket.getLocalPort());
+            while (listening) {
+                connectionPermits.acquire();
+                Socket client;
+                try {
+                    client = socket.accept();
+                } catch (IOException e) {
+                    connectionPermits.release();
+                    if (listening) {
+                        log.error("Cannot accept connection: {}", e.getMessage());
+                    }
+                    continue;
+                }
+                connections.execute(() -> {
+                    try {
+                        serve(client);
+                    } finally {
+                        connectionPermits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Cannot listen on port {}", port, e);
+        }
+        log.info("Order gateway stopped");
+    }
+
+    /**
+     * @return the port the gateway listens on, or -1 if it is not listening yet
+     */
+    public int getLocalPort() {
+        ServerSocket socket = serverSocket;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections. The connections being served are completed.
+     */
+    public void shutdown() {
+        listening = false;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the order lines of a connection and replies to each until the client closes it.
+     */
+    private void serve(Socket client) {
+        log.debug("Just connected to {}", client.getRemoteSocketAddress());
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+             DataOutputStream out = new DataOutputStream(client.getOutputStream())) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                out.writeUTF(handleLine(line, String.valueOf(client.getLocalSocketAddress())));
+                out.flush();
+            }
+        } catch (IOException e) {
+            log.debug("Connection {} closed: {}", client.getRemoteSocketAddress(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parses, validates and publishes one order line.
+     *
+     * @param line         the order line
+     * @param localAddress the address of the gateway quoted in the reply
+     * @return the reply to the client
+     * @throws InterruptedException if interrupted while handing the order to the engine
+     */
+    String handleLine(String line, String localAddress) throws InterruptedException {
+        OrderRequest request;
+        try {
+            request = parse(line);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            log.debug("Rejected order {}: {}", line, e.getMessage());
+            return REJECT_MSG_TEMPLATE + e.getMessage();
+        }
+        Order order = OrderPoolManager.requestOrderObj(request.stockNo(), request.brokerID(), request.clientOrdID(),
+                request.orderType(), request.side(), request.price(), request.quantity());
+        long orderId = order.getOrderId();
+        try {
+            orderPublisher.publish(order);
+        } catch (InterruptedException e) {
+            OrderPoolManager.returnOrderObj(order);
+            throw e;
+        }
+        return localAddress + SUCCESS_MSG_TEMPLATE + request.brokerID() + "-" + request.clientOrdID()
+                + ORDER_ID_MSG_TEMPLATE + orderId;
+    }
+
+    /**
+     * Parses and validates an order line.
+     *
+     * @param line the order line {@code stockNo:brokerID:clientOrdID:orderType:buyOrSell:price:quantity},
+     *             the price of a market order may be empty or {@code null}
+     * @return the order request
+     * @throws IllegalArgumentException if the line is not a valid order
+     */
+    static OrderRequest parse(String line) {
+        String[] tokens = line.trim().split(":", -1);
+        if (tokens.length != 7) {
+            throw new IllegalArgumentException("expected 7 fields but got " + tokens.length);
+        }
+        String stockNo = tokens[0].trim();
+        if (SymbolRegistry.getSymbolId(stockNo) == SymbolRegistry.NO_SYMBOL) {
+            throw new IllegalArgumentException("unknown stock " + stockNo);
+        }
+        String brokerID = requireField(tokens[1], "broker ID");
+        String clientOrdID = requireField(tokens[2], "client order ID");
+        OrderType orderType = parseOrderType(tokens[3].trim());
+        Side side = parseSide(tokens[4].trim());
+        String priceToken = tokens[5].trim();
+        long price;
+        if (priceToken.isEmpty() || priceToken.equalsIgnoreCase("null")) {
+            if (orderType == OrderType.LIMIT) {
+                throw new IllegalArgumentException("limit order without price");
+            }
+            price = NO_PRICE;
+        } else {
+            try {
+                price = PriceScale.of(stockNo).toPrice(new BigDecimal(priceToken));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid price " + priceToken);
+            }
+            if (price <= 0) {
+                throw new IllegalArgumentException("price must be positive: " + priceToken);
+            }
+        }
+        int quantity;
+        try {
+            quantity = Integer.parseInt(tokens[6].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid quantity " + tokens[6].trim());
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("quantity must be positive: " + quantity);
+        }
+        return new OrderRequest(stockNo, brokerID, clientOrdID, orderType, side, price, quantity);
+    }
+
+    private static String requireField(String token, String name) {
+        String value = token.trim();
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return value;
+    }
+
+    private static OrderType parseOrderType(String token) {
+        OrderType orderType = OrderType.getByValue(token);
+        if (orderType == null) {
+            throw new IllegalArgumentException("unknown order type " + token);
+        }
+        return orderType;
+    }
+
+    private static Side parseSide(String token) {
+        Side side = Side.getByValue(token);
+        if (side == null) {
+            throw new IllegalArgumentException("unknown side " + token);
+        }
+        return side;
+    }
+}
@@ -0,0 +1,205 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free store of free objects for the object pools: a small array stack cached per platform
+ * thread in front of a bounded multi-producer multi-consumer ring shared by all threads. A thread
+ * takes and returns objects on its own cache without any atomic operation; when the cache runs empty
+ * it refills half of it from the ring, and when it runs full it spills half of it to the ring. That
+ * hands the objects over from the threads returning them, e.g. the matching threads, to the threads
+ * taking them, e.g. the gateway, at the cost of one CAS per object whatever the contention.
+ * <p>
+ * Virtual threads, being many and short-lived, use the ring directly. Nothing is allocated once the
+ * caches of the threads are created.
+ *
+ * @param <T> the type of the pooled objects
+ */
+public final class ArrayObjectPool<T> {
+    // Counters 128 bytes apart in one array so that the producers and consumers do not share a line
+    private static final int HEAD = 15;
+    private static final int TAIL = 31;
+
+    private final AtomicReferenceArray<T> slots;
+    // Sequence of each slot: its position when free to offer, its position + 1 when holding an object
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray counters = new AtomicLongArray(TAIL + 16);
+    private final int mask;
+    private final int threadCacheSize;
+    private final ThreadLocal<ThreadCache> threadCaches;
+    // Incremented by clear() so that the caches drop the objects they hold
+    private volatile int generation;
+
+    /**
+     * @param capacity        the capacity of the shared ring, rounded up to a power of two
+     * @param threadCacheSize the number of objects cached per platform thread, 0 for none
+     */
+    public ArrayObjectPool(int capacity, int threadCacheSize) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        int ringSize = 1 << (32 - Integer.numberOfLeadingZeros(capacity - 1));
+        this.slots = new AtomicReferenceArray<>(ringSize);
+        this.sequences = new AtomicLongArray(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            sequences.setPlain(i, i);
+        }
+        this.mask = ringSize - 1;
+        this.threadCacheSize = Math.max(0, threadCacheSize);
+        this.threadCaches = ThreadLocal.withInitial(() -> new ThreadCache(this.threadCacheSize));
+    }
+
+    /**
+     * Takes a free object.
+     *
+     * @return the object, or null if the pool is empty
+     */
+    public T poll() {
+        ThreadCache cache = threadCache();
+        if (cache == null) {
+            return pollShared();
+        }
+        if (cache.size == 0) {
+            // Refill half of the cache from the ring
+            T object;
+            while (cache.size < Math.max(1, threadCacheSize / 2) && (object = pollShared()) != null) {
+                cache.objects[cache.size++] = object;
+            }
+            if (cache.size == 0) {
+                return null;
+            }
+        }
+        return pop(cache);
+    }
+
+    /**
+     * Returns a free object to the pool.
+     *
+     * @param object the object, no longer used by the caller
+     * @return false if the pool is full, in which case the object is not kept
+     */
+    public boolean offer(T object) {
+        ThreadCache cache = threadCache();
+        if (cache == null) {
+            return offerShared(object);
+        }
+        if (cache.size == threadCacheSize) {
+            // Spill half of the cache to the ring
+            int keep = threadCacheSize / 2;
+            while (cache.size > keep && offerShared(peek(cache))) {
+                pop(cache);
+            }
+            if (cache.size == threadCacheSize) {
+                return offerShared(object);
+            }
+        }
+        cache.objects[cache.size++] = object;
+        return true;
+    }
+
+    /**
+     * Drops every free object, including those cached by the threads, which drop theirs on their next
+     * call. Not to be called by several threads at once.
+     */
+    public void clear() {
+        generation++;
+        while (pollShared() != null) {
+            // Drained
+        }
+    }
+
+    /**
+     * @return the capacity of the shared ring
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the cache of the calling thread, emptied if the pool was cleared since, or null if the
+     * thread uses the ring directly
+     */
+    private ThreadCache threadCache() {
+        if (threadCacheSize == 0 || Thread.currentThread().isVirtual()) {
+            return null;
+        }
+        ThreadCache cache = threadCaches.get();
+        int currentGeneration = generation;
+        if (cache.generation != currentGeneration) {
+            while (cache.size > 0) {
+                pop(cache);
+            }
+            cache.generation = currentGeneration;
+        }
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T peek(ThreadCache cache) {
+        return (T) cache.objects[cache.size - 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private T pop(ThreadCache cache) {
+        T object = (T) cache.objects[--cache.size];
+        cache.objects[cache.size] = null;
+        return object;
+    }
+
+    /**
+     * Returns a free object straight to the shared ring, bypassing the cache of the calling thread,
+     * e.g. when pre-allocating the pool.
+     *
+     * @param object the object
+     * @return false if the ring is full, in which case the object is not kept
+     */
+    public boolean offerShared(T object) {
+        while (true) {
+            long tail = counters.get(TAIL);
+            int offset = (int) tail & mask;
+            long difference = sequences.getAcquire(offset) - tail;
+            if (difference == 0) {
+                if (counters.compareAndSet(TAIL, tail, tail + 1)) {
+                    slots.setPlain(offset, object);
+                    sequences.setRelease(offset, tail + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // The slot still holds the object of the previous lap
+                return false;
+            }
+            // Otherwise another producer has claimed the slot, retry with the new tail
+        }
+    }
+
+    private T pollShared() {
+        while (true) {
+            long head = counters.get(HEAD);
+            int offset = (int) head & mask;
+            long difference = sequences.getAcquire(offset) - (head + 1);
+            if (difference == 0) {
+                if (counters.compareAndSet(HEAD, head, head + 1)) {
+                    T object = slots.getPlain(offset);
+                    slots.setPlain(offset, null);
+                    sequences.setRelease(offset, head + mask + 1);
+                    return object;
+                }
+            } else if (difference < 0) {
+                // Empty
+                return null;
+            }
+            // Otherwise another consumer has taken the slot, retry with the new head
+        }
+    }
+
+    private static final class ThreadCache {
+        final Object[] objects;
+        int size;
+        int generation;
+
+        ThreadCache(int size) {
+            this.objects = new Object[size];
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static util.ReadConfig.dotenv;
+
+/**
+ * Bounded lock-free queue over a preallocated array for a single consumer, the base of
+ * {@link SpscArrayQueue} and {@link MpscArrayQueue}. The producer and consumer counters grow without
+ * wrapping and index the array through a mask, so offering and polling allocate nothing. Each counter
+ * sits on its own cache lines, padded by the superclasses, so that the producers and the consumer do
+ * not invalidate each other's line on every element.
+ * <p>
+ * The blocking methods wait by spinning, then yielding, then parking briefly, as no thread is ever
+ * signalled. The iterator is weakly consistent: it walks the elements between the consumer and the
+ * producer counters read when it is created, skipping those consumed meanwhile except the one it has
+ * already read ahead, and never fails on concurrent changes, so {@code contains}, {@code toArray} and
+ * {@code toString} work. Elements can only be removed at the head, so {@code remove(Object)},
+ * {@code removeAll}, {@code retainAll}, {@code removeIf} and {@link Iterator#remove} throw
+ * UnsupportedOperationException.
+ * <p>
+ * {@link #create(String, boolean)} picks the queue of a pipeline stage from {@code queue_type_<stage>}
+ * or {@code queue_type} (LINKED, SPSC or MPSC, default LINKED) and {@code queue_capacity_<stage>} or
+ * {@code queue_capacity} (default 65536, rounded up to a power of two).
+ *
+ * @param <T> the type of the elements
+ */
+public abstract class ArrayQueue<T> extends ArrayQueueConsumerFields<T> implements BlockingQueue<T> {
+    private static final Logger log = LogManager.getLogger(ArrayQueue.class);
+    private static final int DEFAULT_CAPACITY = 65536;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // Padding after the consumer counter
+    long p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p2a, p2b, p2c, p2d, p2e, p2f;
+
+    protected ArrayQueue(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Creates the queue of a pipeline stage as configured for it.
+     *
+     * @param stage         the name of the stage in the configuration keys
+     * @param multiProducer true if several threads put to the queue
+     * @return a LinkedBlockingQueue, an SpscArrayQueue or an MpscArrayQueue
+     */
+    public static <T> BlockingQueue<T> create(String stage, boolean multiProducer) {
+        String queueType = getConfig("queue_type", stage);
+        queueType = queueType == null ? "LINKED" : queueType.trim().toUpperCase(Locale.ROOT);
+        String capacityValue = getConfig("queue_capacity", stage);
+        int capacity = capacityValue == null ? DEFAULT_CAPACITY : Integer.parseInt(capacityValue.trim());
+        BlockingQueue<T> queue = switch (queueType) {
+            case "LINKED" -> new LinkedBlockingQueue<>();
+            case "SPSC" -> {
+                if (multiProducer) {
+                    log.warn("Queue {} has several producers, using MPSC instead of SPSC", stage);
+                    yield new MpscArrayQueue<>(capacity);
+                }
+                yield new SpscArrayQueue<>(capacity);
+            }
+            case "MPSC" -> new MpscArrayQueue<>(capacity);
+            default -> throw new IllegalArgumentException("Unknown queue type " + queueType);
+        };
+        log.info("Queue {}: {}", stage, queue.getClass().getSimpleName());
+        return queue;
+    }
+
+    private static String getConfig(String key, String stage) {
+        String value = dotenv.get(key + "_" + stage);
+        return value != null ? value : dotenv.get(key);
+    }
+
+    @Override
+    public T poll() {
+        long consumerIndex = lpConsumerIndex();
+        int offset = (int) consumerIndex & mask;
+        T element = buffer.getAcquire(offset);
+        if (element == null) {
+            if (consumerIndex == lvProducerIndex()) {
+                return null;
+            }
+            // A producer has claimed the slot but not stored the element yet
+            do {
+                Thread.onSpinWait();
+                element = buffer.getAcquire(offset);
+            } while (element == null);
+        }
+        buffer.setPlain(offset, null);
+        // Publishes the emptied slot to the producers
+        soConsumerIndex(consumerIndex + 1);
+        return element;
+    }
+
+    @Override
+    public T peek() {
+        long consumerIndex = lpConsumerIndex();
+        int offset = (int) consumerIndex & mask;
+        T element = buffer.getAcquire(offset);
+        if (element == null && consumerIndex != lvProducerIndex()) {
+            do {
+                Thread.onSpinWait();
+                element = buffer.getAcquire(offset);
+            } while (element == null);
+        }
+        return element;
+    }
+
+    @Override
+    public int size() {
+        long consumerIndex = lvConsumerIndex();
+        long size = lvProducerIndex() - consumerIndex;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return lvConsumerIndex() == lvProducerIndex();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public void put(T element) throws InterruptedException {
+        int idleCount = 0;
+        while (!offer(element)) {
+            idleCount = backOff(idleCount);
+        }
+    }
+
+    @Override
+    public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int idleCount = 0;
+        while (!offer(element)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            idleCount = backOff(idleCount);
+        }
+        return true;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        int idleCount = 0;
+        T element;
+        while ((element = poll()) == null) {
+            idleCount = backOff(idleCount);
+        }
+        return element;
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int idleCount = 0;
+        T element;
+        while ((element = poll()) == null) {
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            idleCount = backOff(idleCount);
+        }
+        return element;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> collection, int maxElements) {
+        int drained = 0;
+        T element;
+        while (drained < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr(lvConsumerIndex(), lvProducerIndex());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Elements can only be removed at the head");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Elements can only be removed at the head");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Elements can only be removed at the head");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super T> filter) {
+        throw new UnsupportedOperationException("Elements can only be removed at the head");
+    }
+
+    /**
+     * Walks the slots from the consumer to the producer counter read at its creation. An element read
+     * from a slot is only returned if the consumer has not passed the slot since, as a producer may then
+     * have reused it for a later element.
+     */
+    private final class Itr implements Iterator<T> {
+        private final long end;
+        private long index;
+        private T next;
+
+        Itr(long start, long end) {
+            this.index = start;
+            this.end = end;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && index < end) {
+                T element = buffer.getAcquire((int) index & mask);
+                long consumerIndex = lvConsumerIndex();
+                if (consumerIndex > index) {
+                    // Consumed meanwhile, continue from the head
+                    index = consumerIndex;
+                    continue;
+                }
+                // Null if a producer has claimed the slot but not stored the element yet
+                next = element;
+                index++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            T element = next;
+            if (element == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return element;
+        }
+    }
+
+    private static int backOff(int idleCount) throws InterruptedException {
+        if (idleCount < SPINS) {
+            Thread.onSpinWait();
+        } else if (idleCount < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return idleCount + 1;
+    }
+}
+
+/**
+ * The array of the queue.
+ */
+abstract class ArrayQueueBufferFields<T> extends AbstractQueue<T> {
+    final AtomicReferenceArray<T> buffer;
+    final int capacity;
+    final int mask;
+
+    ArrayQueueBufferFields(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        this.capacity = 1 << (32 - Integer.numberOfLeadingZeros(capacity - 1));
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+    }
+}
+
+/**
+ * Padding between the array fields and the producer counter.
+ */
+abstract class ArrayQueueProducerPad<T> extends ArrayQueueBufferFields<T> {
+    long p00, p01, p02, p03, p04, p05, p06, p07, p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+
+    ArrayQueueProducerPad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * The producer counter, with the limit below which the producers can claim slots without reading the
+ * consumer counter.
+ */
+abstract class ArrayQueueProducerFields<T> extends ArrayQueueProducerPad<T> {
+    private static final VarHandle PRODUCER_INDEX;
+
+    static {
+        try {
+            PRODUCER_INDEX = MethodHandles.lookup().findVarHandle(ArrayQueueProducerFields.class, "producerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile long producerIndex;
+    volatile long producerLimit;
+
+    ArrayQueueProducerFields(int capacity) {
+        super(capacity);
+        this.producerLimit = this.capacity;
+    }
+
+    final long lpProducerIndex() {
+        return (long) PRODUCER_INDEX.get(this);
+    }
+
+    final long lvProducerIndex() {
+        return producerIndex;
+    }
+
+    final void soProducerIndex(long value) {
+        PRODUCER_INDEX.setRelease(this, value);
+    }
+
+    final boolean casProducerIndex(long expected, long value) {
+        return PRODUCER_INDEX.compareAndSet(this, expected, value);
+    }
+}
+
+/**
+ * Padding between the producer and consumer counters.
+ */
+abstract class ArrayQueueConsumerPad<T> extends ArrayQueueProducerFields<T> {
+    long p10, p11, p12, p13, p14, p15, p16, p17, p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+
+    ArrayQueueConsumerPad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * The consumer counter.
+ */
+abstract class ArrayQueueConsumerFields<T> extends ArrayQueueConsumerPad<T> {
+    private static final VarHandle CONSUMER_INDEX;
+
+    static {
+        try {
+            CONSUMER_INDEX = MethodHandles.lookup().findVarHandle(ArrayQueueConsumerFields.class, "consumerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile long consumerIndex;
+
+    ArrayQueueConsumerFields(int capacity) {
+        super(capacity);
+    }
+
+    final long lpConsumerIndex() {
+        return (long) CONSUMER_INDEX.get(this);
+    }
+
+    final long lvConsumerIndex() {
+        return consumerIndex;
+    }
+
+    final void soConsumerIndex(long value) {
+        CONSUMER_INDEX.setRelease(this, value);
+    }
+}
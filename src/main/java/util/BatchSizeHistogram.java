@@ -0,0 +1,126 @@
+package util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the sizes of the batches drained by a consumer, in power-of-two buckets:
+ * 1, 2-3, 4-7, 8-15 and so on. It is recorded by the consumer thread alone and can be read by any thread.
+ * Every histogram created by {@link #register(String)} is listed by {@link #all()} for reporting.
+ */
+public final class BatchSizeHistogram {
+    private static final int NO_OF_BUCKETS = 32;
+    private static final List<BatchSizeHistogram> REGISTERED = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(NO_OF_BUCKETS);
+    private volatile long batches;
+    private volatile long items;
+    private volatile int maxBatchSize;
+
+    public BatchSizeHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a histogram listed by {@link #all()}.
+     *
+     * @param name the name of the consumer
+     * @return the new histogram
+     */
+    public static BatchSizeHistogram register(String name) {
+        BatchSizeHistogram histogram = new BatchSizeHistogram(name);
+        REGISTERED.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * @return the registered histograms
+     */
+    public static List<BatchSizeHistogram> all() {
+        return List.copyOf(REGISTERED);
+    }
+
+    /**
+     * @return the bucket of the batch size, 0 for a single item
+     */
+    static int bucketOf(int batchSize) {
+        return 31 - Integer.numberOfLeadingZeros(batchSize);
+    }
+
+    /**
+     * Records a batch. Must only be called by the consumer thread.
+     *
+     * @param batchSize the number of items of the batch, at least 1
+     */
+    public void record(int batchSize) {
+        if (batchSize <= 0) {
+            return;
+        }
+        int bucket = bucketOf(batchSize);
+        counts.setRelease(bucket, counts.getPlain(bucket) + 1);
+        batches++;
+        items += batchSize;
+        if (batchSize > maxBatchSize) {
+            maxBatchSize = batchSize;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of batches with a size from 2^bucket to 2^(bucket+1) - 1
+     */
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getItems() {
+        return items;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public double getMeanBatchSize() {
+        long noOfBatches = batches;
+        return noOfBatches == 0 ? 0 : (double) items / noOfBatches;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name)
+                .append(": batches=").append(batches)
+                .append(" items=").append(items)
+                .append(String.format(" mean=%.2f", getMeanBatchSize()))
+                .append(" max=").append(maxBatchSize)
+                .append(" sizes[");
+        boolean first = true;
+        for (int bucket = 0; bucket < NO_OF_BUCKETS; bucket++) {
+            long count = counts.get(bucket);
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(' ');
+            }
+            first = false;
+            long low = 1L << bucket;
+            long high = (low << 1) - 1;
+            sb.append(low);
+            if (high > low) {
+                sb.append('-').append(high);
+            }
+            sb.append(':').append(count);
+        }
+        return sb.append(']').toString();
+    }
+}
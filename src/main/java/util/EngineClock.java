@@ -0,0 +1,239 @@
+package util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static util.ReadConfig.dotenv;
+
+/**
+ * Source of the engine timestamps, as longs in nanoseconds since the epoch, so that reading the time
+ * allocates nothing. The timestamps are stored as primitives by the orders, trades and market data and
+ * only turned into date-times by {@link #toDateTime} when written out.
+ * <p>
+ * The engine reads two clocks through the static methods:
+ * <ul>
+ *     <li>{@link #epochNanos()}, the precise clock, for the creation of orders and the execution of trades</li>
+ *     <li>{@link #coarseEpochNanos()}, a cached copy refreshed every {@code clock_coarse_resolution_us}
+ *     microseconds (default 1000) by a daemon thread of the role {@code clock}, for the fields which only
+ *     need to be roughly right, e.g. the last event time of an order or the time of a market data update</li>
+ * </ul>
+ * Both default to the system clock. A replay installs a {@link ReplayClock} with {@link #install} so that
+ * both return the times of the replayed messages and the output is the same from one run to the next: the
+ * precise clock is the replay clock and the coarse clock its {@link ReplayClock#coarse() view}, which
+ * reads the time without advancing it, so that the reads of other threads do not shift the times seen by
+ * the replaying thread.
+ */
+public abstract class EngineClock {
+    private static final long DEFAULT_COARSE_RESOLUTION_US = 1000;
+
+    private static final EngineClock SYSTEM = new SystemEpochClock();
+    private static final CachedEpochClock SYSTEM_COARSE = new CachedEpochClock(SYSTEM,
+            TimeUnit.MICROSECONDS.toNanos(coarseResolutionMicros()));
+
+    private static volatile EngineClock precise = SYSTEM;
+    private static volatile EngineClock coarse = SYSTEM_COARSE;
+
+    static {
+        SYSTEM_COARSE.start();
+    }
+
+    /**
+     * @return the time of this clock in nanoseconds since the epoch
+     */
+    public abstract long nanos();
+
+    /**
+     * @return the time of the precise engine clock in nanoseconds since the epoch
+     */
+    public static long epochNanos() {
+        return precise.nanos();
+    }
+
+    /**
+     * @return the time of the coarse engine clock in nanoseconds since the epoch, behind the precise
+     * clock by up to its resolution
+     */
+    public static long coarseEpochNanos() {
+        return coarse.nanos();
+    }
+
+    /**
+     * Makes the clock the precise engine clock and its {@link #coarseView() coarse view} the coarse engine
+     * clock, e.g. a {@link ReplayClock}. To be called before the engine starts processing orders.
+     *
+     * @param clock the clock
+     */
+    public static void install(EngineClock clock) {
+        Objects.requireNonNull(clock, "Clock cannot be null");
+        install(clock, clock.coarseView());
+    }
+
+    /**
+     * Makes the clocks the precise and the coarse engine clocks.
+     * To be called before the engine starts processing orders.
+     *
+     * @param preciseClock the precise clock
+     * @param coarseClock  the coarse clock
+     */
+    public static void install(EngineClock preciseClock, EngineClock coarseClock) {
+        precise = Objects.requireNonNull(preciseClock, "Precise clock cannot be null");
+        coarse = Objects.requireNonNull(coarseClock, "Coarse clock cannot be null");
+    }
+
+    /**
+     * @return the clock installed as the coarse engine clock with this one, by default this clock
+     */
+    protected EngineClock coarseView() {
+        return this;
+    }
+
+    /**
+     * Restores the system clock and its cached copy.
+     */
+    public static void reset() {
+        precise = SYSTEM;
+        coarse = SYSTEM_COARSE;
+    }
+
+    /**
+     * @param epochNanos a time in nanoseconds since the epoch
+     * @return the time in the system zone
+     */
+    public static ZonedDateTime toDateTime(long epochNanos) {
+        return Instant.ofEpochSecond(0, epochNanos).atZone(ZoneId.systemDefault());
+    }
+
+    private static long coarseResolutionMicros() {
+        String resolution = dotenv.get("clock_coarse_resolution_us");
+        return resolution == null ? DEFAULT_COARSE_RESOLUTION_US : Math.max(1, Long.parseLong(resolution.trim()));
+    }
+
+    /**
+     * The monotonic clock shifted once to the epoch, so that reading it allocates no Instant. It does not
+     * follow later adjustments of the wall clock.
+     */
+    public static final class SystemEpochClock extends EngineClock {
+        // Epoch time minus System.nanoTime()
+        private final long offsetNanos;
+
+        public SystemEpochClock() {
+            Instant now = Instant.now();
+            this.offsetNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano() - System.nanoTime();
+        }
+
+        @Override
+        public long nanos() {
+            return System.nanoTime() + offsetNanos;
+        }
+    }
+
+    /**
+     * A copy of another clock refreshed by a daemon thread, so that reading it is a volatile read.
+     */
+    public static final class CachedEpochClock extends EngineClock {
+        private final EngineClock source;
+        private final long resolutionNanos;
+        private volatile long nanos;
+
+        /**
+         * @param source          the clock copied
+         * @param resolutionNanos the time between two refreshes
+         */
+        public CachedEpochClock(EngineClock source, long resolutionNanos) {
+            this.source = Objects.requireNonNull(source, "Source clock cannot be null");
+            this.resolutionNanos = Math.max(1, resolutionNanos);
+            this.nanos = source.nanos();
+        }
+
+        /**
+         * Starts the daemon thread refreshing the clock, pinned to the CPUs of the role {@code clock}.
+         */
+        public void start() {
+            Thread thread = EngineThreads.newThread(EngineThreads.CLOCK, null, "EngineClock", () -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(resolutionNanos);
+                    update();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Copies the time of the source clock.
+         */
+        public void update() {
+            nanos = source.nanos();
+        }
+
+        @Override
+        public long nanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * A deterministic clock for replays: it returns the time set by the replay, e.g. the time of the
+     * message replayed, advanced by a fixed step on each read so that the events of one message keep
+     * their order. Only the replaying thread should read it; the other threads read its {@link #coarse()}
+     * view, which does not advance it.
+     */
+    public static final class ReplayClock extends EngineClock {
+        private final AtomicLong nanos;
+        private final long stepNanos;
+        private final EngineClock coarse = new EngineClock() {
+            @Override
+            public long nanos() {
+                return nanos.get();
+            }
+        };
+
+        /**
+         * @param startNanos the first time returned, in nanoseconds since the epoch
+         * @param stepNanos  the time added after each read, 0 to return the same time until the next set
+         */
+        public ReplayClock(long startNanos, long stepNanos) {
+            if (stepNanos < 0) {
+                throw new IllegalArgumentException("Step must not be negative: " + stepNanos);
+            }
+            this.nanos = new AtomicLong(startNanos);
+            this.stepNanos = stepNanos;
+        }
+
+        /**
+         * @param epochNanos the next time returned, in nanoseconds since the epoch
+         */
+        public void set(long epochNanos) {
+            nanos.set(epochNanos);
+        }
+
+        /**
+         * @param deltaNanos the time to move the clock forward by
+         */
+        public void advance(long deltaNanos) {
+            nanos.addAndGet(deltaNanos);
+        }
+
+        /**
+         * @return a view of this clock returning its next time without advancing it
+         */
+        public EngineClock coarse() {
+            return coarse;
+        }
+
+        @Override
+        protected EngineClock coarseView() {
+            return coarse;
+        }
+
+        @Override
+        public long nanos() {
+            return stepNanos == 0 ? nanos.get() : nanos.getAndAdd(stepNanos);
+        }
+    }
+}
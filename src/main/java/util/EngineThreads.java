@@ -0,0 +1,97 @@
+package util;
+
+import java.util.concurrent.ThreadFactory;
+
+import static util.ReadConfig.dotenv;
+
+/**
+ * Creates the engine threads with the wait strategy and the CPU affinity configured for their role.
+ * <p>
+ * The settings are looked up from the most specific key to the most general one, e.g. for the book
+ * worker 3: {@code wait_strategy_writer_3}, {@code wait_strategy_writer}, {@code wait_strategy}
+ * (BLOCKING, PARK, SPIN_YIELD or BUSY_SPIN, default BLOCKING) and {@code cpu_affinity_writer_3},
+ * {@code cpu_affinity_writer} (a CPU list such as {@code 2,3,8-11}, default none). This lets the
+ * book workers busy-spin on isolated cores while the market data and trade threads are
+ * kept on the housekeeping cores with {@code cpu_affinity_market_data} and {@code cpu_affinity_trade}.
+ * The consumers drain up to {@code batch_size_<role>} or {@code batch_size} values (default 256) from
+ * their queue per pass.
+ */
+public final class EngineThreads {
+    public static final String PROCESSING = "processing";
+    public static final String MATCHING = "matching";
+    public static final String WRITER = "writer";
+    public static final String ROUTER = "router";
+    public static final String MARKET_DATA = "market_data";
+    public static final String TRADE = "trade";
+    public static final String CLOCK = "clock";
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    private static final String DEFAULT_WAIT_STRATEGY = "BLOCKING";
+
+    private EngineThreads() {
+    }
+
+    /**
+     * @param role      the role of the thread
+     * @param qualifier the stock or shard of the thread, null if the role has a single thread
+     * @return a new idle strategy for the thread
+     */
+    public static IdleStrategy idleStrategy(String role, String qualifier) {
+        String waitStrategy = getConfig("wait_strategy", role, qualifier);
+        return IdleStrategy.of(waitStrategy == null ? DEFAULT_WAIT_STRATEGY : waitStrategy);
+    }
+
+    /**
+     * @param role      the role of the thread
+     * @param qualifier the stock or shard of the thread, null if the role has a single thread
+     * @return the maximum number of values the thread drains from its queue per pass
+     */
+    public static int batchSize(String role, String qualifier) {
+        String batchSize = getConfig("batch_size", role, qualifier);
+        return batchSize == null ? DEFAULT_BATCH_SIZE : Math.max(1, Integer.parseInt(batchSize.trim()));
+    }
+
+    /**
+     * @param role      the role of the thread
+     * @param qualifier the stock or shard of the thread, null if the role has a single thread
+     * @return the CPUs the thread is pinned to, empty if it may run on any CPU
+     */
+    public static int[] cpuAffinity(String role, String qualifier) {
+        return ThreadAffinity.parseCpuList(getConfig("cpu_affinity", role, qualifier));
+    }
+
+    /**
+     * Creates a thread which pins itself to the CPUs of its role before running the job.
+     *
+     * @param role      the role of the thread
+     * @param qualifier the stock or shard of the thread, null if the role has a single thread
+     * @param name      the name of the thread
+     * @param job       the job of the thread
+     * @return the new thread, not started
+     */
+    public static Thread newThread(String role, String qualifier, String name, Runnable job) {
+        int[] cpus = cpuAffinity(role, qualifier);
+        if (cpus.length == 0) {
+            return new Thread(job, name);
+        }
+        return new Thread(() -> {
+            ThreadAffinity.pinCurrentThread(cpus);
+            job.run();
+        }, name);
+    }
+
+    /**
+     * @return a thread factory creating threads with the given name pinned to the CPUs of the role
+     */
+    public static ThreadFactory threadFactory(String role, String qualifier, String name) {
+        return job -> newThread(role, qualifier, name, job);
+    }
+
+    private static String getConfig(String key, String role, String qualifier) {
+        String value = qualifier == null ? null : dotenv.get(key + "_" + role + "_" + qualifier);
+        if (value == null) {
+            value = dotenv.get(key + "_" + role);
+        }
+        return value != null ? value : dotenv.get(key);
+    }
+}
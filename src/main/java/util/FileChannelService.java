@@ -1,6 +1,7 @@
 package util;
 
 import equity.objectpooling.MarketData;
+import equity.objectpooling.PriceScale;
 import equity.objectpooling.Trade;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,14 +13,55 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.time.ZonedDateTime;
+import java.util.List;
 
 public class FileChannelService {
     private static final Logger log = LogManager.getLogger(FileChannelService.class);
 
     public int writeTradeToFile(Trade tradeData, Path path) throws IOException {
+        return append(path, formatTrade(tradeData));
+    }
+
+    /**
+     * Appends a batch of trades of one stock to its file with a single write.
+     *
+     * @param trades the trades
+     * @param path   the file of the stock
+     * @return the number of bytes written
+     * @throws IOException if the file cannot be written
+     */
+    public int writeTradesToFile(List<Trade> trades, Path path) throws IOException {
+        StringBuilder message = new StringBuilder();
+        for (Trade trade : trades) {
+            message.append(formatTrade(trade));
+        }
+        return append(path, message.toString());
+    }
+
+    public int writeMarketDataToFile(@NotNull MarketData data, Path path) throws IOException {
+        return append(path, formatMarketData(data));
+    }
+
+    /**
+     * Appends a batch of market data updates of one stock to its file with a single write.
+     *
+     * @param updates the market data updates
+     * @param path    the file of the stock
+     * @return the number of bytes written
+     * @throws IOException if the file cannot be written
+     */
+    public int writeMarketDataToFile(@NotNull List<MarketData> updates, Path path) throws IOException {
+        StringBuilder message = new StringBuilder();
+        for (MarketData data : updates) {
+            message.append(formatMarketData(data));
+        }
+        return append(path, message.toString());
+    }
+
+    private static String formatTrade(Trade tradeData) {
         // Trade seq ID, Stock No, Bid Broker ID, Bid Order ID, Sell Broker ID, Sell order IDs, Executed Price, Qty, Executed Time
-        String message = String.format("%s, %s,%s,%s,%s,%s,%s,%s,%s,%s,%s\r\n",
+        PriceScale priceScale = PriceScale.of(tradeData.getStockNo());
+        return String.format("%s, %s,%s,%s,%s,%s,%s,%s,%s,%s,%s\r\n",
                 tradeData.getTradeSeqNo(),
                 tradeData.getStockNo(),
                 tradeData.getBuyBrokerID(),
@@ -28,31 +70,26 @@ public class FileChannelService {
                 tradeData.getSellBrokerID(),
                 tradeData.getSellOrderID(),
                 tradeData.getInternalSellOrderSeqNo(),
-                tradeData.getExecutedPrice(),
+                priceScale.format(tradeData.getExecutedPrice()),
                 tradeData.getExecutedQty(),
                 tradeData.getExecutionDateTime());
-        FileLock lock;
-        int noOfBytes;
-        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-            lock = fileChannel.lock();
-            noOfBytes = fileChannel.write(ByteBuffer.wrap(message.getBytes()));
-            lock.release();
-        }
-        return noOfBytes;
     }
 
-    public int writeMarketDataToFile(@NotNull MarketData data, Path path) throws IOException {
-        String bestBidTxt = (data.bestBid() == null) ? "" : data.bestBid().toString();
-        String bestAskTxt = (data.bestAsk() == null) ? "" : data.bestAsk().toString();
-        String lastTradePrice = (data.lastTradePrice() == null) ? "" : data.lastTradePrice().toString();
-        String message = "Publish Date Time:" + ZonedDateTime.now()
+    private static String formatMarketData(@NotNull MarketData data) {
+        PriceScale priceScale = PriceScale.of(data.stockNo());
+        String bestBidTxt = priceScale.format(data.bestBid());
+        String bestAskTxt = priceScale.format(data.bestAsk());
+        String lastTradePrice = priceScale.format(data.lastTradePrice());
+        return "Publish Date Time:" + EngineClock.toDateTime(EngineClock.coarseEpochNanos())
                 + "Stock Name:" + data.stockNo() + "\n"
                 + "Best Bid Price:" + bestBidTxt + "\n"
                 + "Best Ask Price:" + bestAskTxt + "\n"
                 + "Last Trade Price:" + lastTradePrice + "\n"
-                + "Bid orders\n" + data.bidMapOrdersStr()
-                + "Ask orders\n" + data.askMapOrdersStr();
+                + "Bid depth (price qty orders)\n" + data.bidDepthStr()
+                + "Ask depth (price qty orders)\n" + data.askDepthStr();
+    }
 
+    private static int append(Path path, String message) throws IOException {
         FileLock lock;
         int noOfBytes;
         try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
@@ -63,5 +100,4 @@ public class FileChannelService {
         return noOfBytes;
     }
 
-
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package util;
 
 import equity.objectpooling.Order;
+import equity.objectpooling.OrderPoolManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -118,7 +119,22 @@ public class HealthCheck {
             log.warn("⚠ No async logging JVM arguments detected - check if system properties are set programmatically");
         }
     }
-}
-
 
+    /**
+     * Logs the batch-size histograms of the queue consumers and ring buffer stages which have drained values.
+     */
+    public static void printBatchSizeHistograms() {
+        for (BatchSizeHistogram histogram : BatchSizeHistogram.all()) {
+            if (histogram.getBatches() > 0) {
+                log.info("Batch sizes of {}", histogram);
+            }
+        }
+    }
 
+    /**
+     * Logs the high-water marks and misses of the order and trade pools of every stock.
+     */
+    public static void printPoolStats() {
+        log.info("Object pools\n{}", OrderPoolManager.getPoolStatsReport());
+    }
+}
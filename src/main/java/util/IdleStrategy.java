@@ -0,0 +1,128 @@
+package util;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What an engine thread does while it has no work: block, park, spin then yield, or busy-spin.
+ * <ul>
+ *     <li>BLOCKING: {@code take()} on queues and a 1 ms sleep in polling loops, the behaviour of the plain threads</li>
+ *     <li>PARK: polls, spinning then yielding briefly before parking for up to 1 ms, doubling the park time</li>
+ *     <li>SPIN_YIELD: polls, spinning a little before yielding the core to other threads</li>
+ *     <li>BUSY_SPIN: polls without ever giving up the core, for latency-critical threads on isolated cores</li>
+ * </ul>
+ * An instance keeps the idle count of one thread, so it must not be shared between threads.
+ */
+public final class IdleStrategy {
+    public enum Type {
+        BLOCKING, PARK, SPIN_YIELD, BUSY_SPIN
+    }
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BLOCKING_DELAY_MS = 1;
+
+    private final Type type;
+    private int idleCount;
+    private long parkNanos = MIN_PARK_NANOS;
+
+    public IdleStrategy(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @param name BLOCKING, PARK, SPIN_YIELD or BUSY_SPIN
+     * @return a new idle strategy of the given name
+     */
+    public static IdleStrategy of(String name) {
+        try {
+            return new IdleStrategy(Type.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown wait strategy " + name);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Takes the next value of the queue, waiting according to the strategy.
+     *
+     * @param queue the queue
+     * @return the next value
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        if (type == Type.BLOCKING) {
+            return queue.take();
+        }
+        T value;
+        while ((value = queue.poll()) == null) {
+            idle();
+        }
+        reset();
+        return value;
+    }
+
+    /**
+     * Waits for the next value of the queue, then moves it and the values queued behind it to the batch
+     * in one pass, so the queue lock is taken once per batch rather than once per value.
+     *
+     * @param queue        the queue
+     * @param batch        the collection receiving the values
+     * @param maxBatchSize the maximum number of values to move
+     * @return the number of values moved, at least 1
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public <T> int drain(BlockingQueue<T> queue, Collection<? super T> batch, int maxBatchSize) throws InterruptedException {
+        batch.add(take(queue));
+        return maxBatchSize > 1 ? 1 + queue.drainTo(batch, maxBatchSize - 1) : 1;
+    }
+
+    /**
+     * Waits once after a poll found no work.
+     *
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void idle() throws InterruptedException {
+        switch (type) {
+            case BLOCKING -> TimeUnit.MILLISECONDS.sleep(BLOCKING_DELAY_MS);
+            case PARK -> {
+                if (idleCount < SPINS) {
+                    Thread.onSpinWait();
+                } else if (idleCount < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(parkNanos);
+                    parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                }
+            }
+            case SPIN_YIELD -> {
+                if (idleCount < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            case BUSY_SPIN -> Thread.onSpinWait();
+        }
+        idleCount++;
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Resets the back-off after the thread found work.
+     */
+    public void reset() {
+        idleCount = 0;
+        parkNanos = MIN_PARK_NANOS;
+    }
+}
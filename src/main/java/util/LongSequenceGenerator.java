@@ -0,0 +1,11 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LongSequenceGenerator {
+    private final AtomicLong counter = new AtomicLong();
+
+    public long getNextSequence() {
+        return counter.incrementAndGet();
+    }
+}
@@ -0,0 +1,39 @@
+package util;
+
+/**
+ * Bounded lock-free queue for several producer threads and one consumer thread, e.g. the gateways
+ * putting orders to a processing shard. A producer claims a slot by a compare-and-set of the producer
+ * counter and then stores the element; the consumer waits for the store if it reaches a claimed slot
+ * before the element.
+ *
+ * @param <T> the type of the elements
+ */
+public class MpscArrayQueue<T> extends ArrayQueue<T> {
+
+    /**
+     * @param capacity the maximum number of elements, rounded up to a power of two
+     */
+    public MpscArrayQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    public boolean offer(T element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long producerIndex;
+        do {
+            producerIndex = lvProducerIndex();
+            if (producerIndex >= producerLimit) {
+                long limit = lvConsumerIndex() + capacity;
+                if (producerIndex >= limit) {
+                    return false;
+                }
+                producerLimit = limit;
+            }
+        } while (!casProducerIndex(producerIndex, producerIndex + 1));
+        buffer.setRelease((int) producerIndex & mask, element);
+        return true;
+    }
+}
@@ -0,0 +1,18 @@
+package util;
+
+/**
+ * Hands values to the next stage of a pipeline, e.g. {@code LinkedBlockingQueue::put} or a
+ * {@link RingBufferStage}.
+ *
+ * @param <T> the type of the values
+ */
+@FunctionalInterface
+public interface Publisher<T> {
+    /**
+     * Publishes a value, waiting for space if the stage is full.
+     *
+     * @param value the value
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    void publish(T value) throws InterruptedException;
+}
@@ -0,0 +1,260 @@
+package util;
+
+import com.lmax.disruptor.*;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+import static util.ReadConfig.dotenv;
+
+/**
+ * One stage of the engine pipeline backed by an LMAX Disruptor ring buffer instead of a
+ * {@code LinkedBlockingQueue}. The slots of the ring are allocated once and reused: publishing
+ * claims the next slot, stores the reference to the value and publishes the sequence, so no node
+ * is allocated and no lock is taken per value. A single consumer thread hands the values to the
+ * handler of the stage in order, one by one or, with {@link #startBatched(BatchHandler, int)}, in the
+ * batches the Disruptor makes available together. The batch sizes are recorded in a registered
+ * {@link BatchSizeHistogram} named after the stage.
+ * <p>
+ * The ring size and the wait strategy of the consumer are read per stage from
+ * {@code disruptor_ring_size_<stage>} and {@code disruptor_wait_strategy_<stage>}, falling back to
+ * {@code disruptor_ring_size} (default 1024, a power of two) and {@code disruptor_wait_strategy}
+ * (BLOCKING, SLEEPING, YIELDING or BUSY_SPIN, default BLOCKING). The consumer thread is pinned to the
+ * CPUs configured for its role in {@link EngineThreads}.
+ *
+ * @param <T> the type of the values
+ */
+public final class RingBufferStage<T> implements Publisher<T>, AutoCloseable {
+    private static final Logger log = LogManager.getLogger(RingBufferStage.class);
+    private static final int DEFAULT_RING_SIZE = 1024;
+    private static final String DEFAULT_WAIT_STRATEGY = "BLOCKING";
+
+    /**
+     * Consumer of the values of a stage.
+     */
+    @FunctionalInterface
+    public interface Handler<T> {
+        void handle(T value) throws Exception;
+    }
+
+    /**
+     * Consumer of the values of a stage in batches. The list is reused after the call returns.
+     */
+    @FunctionalInterface
+    public interface BatchHandler<T> {
+        void handle(List<T> values) throws Exception;
+    }
+
+    /**
+     * Preallocated slot of the ring, holding the value until the consumer has handled it.
+     */
+    private static final class Slot<T> {
+        private T value;
+    }
+
+    private final String name;
+    private final Disruptor<Slot<T>> disruptor;
+    private final RingBuffer<Slot<T>> ringBuffer;
+    private final BatchSizeHistogram batchSizeHistogram;
+    private volatile Handler<T> handler;
+    // Set before the consumer thread starts and only used by it
+    private BatchHandler<T> batchHandler;
+    private List<T> batch;
+    private int maxBatchSize = Integer.MAX_VALUE;
+    private int batchSize;
+
+    /**
+     * Creates the stage with the ring size and wait strategy configured for it.
+     * Values published before {@link #start(Handler)} wait in the ring.
+     *
+     * @param name         the name of the stage, used for the configuration keys, the role and the consumer thread
+     * @param producerType SINGLE if only one thread publishes to the stage, MULTI otherwise
+     */
+    public RingBufferStage(String name, ProducerType producerType) {
+        this(name, name, null, name, producerType);
+    }
+
+    /**
+     * Creates one of several stages sharing the configuration of a stage, e.g. the order stage of each processing shard.
+     *
+     * @param stage        the name of the stage in the configuration keys
+     * @param role         the role of the consumer thread, see {@link EngineThreads}
+     * @param qualifier    the stock or shard of the consumer thread, null if the role has a single thread
+     * @param threadName   the name of the consumer thread
+     * @param producerType SINGLE if only one thread publishes to the stage, MULTI otherwise
+     */
+    public RingBufferStage(String stage, String role, String qualifier, String threadName, ProducerType producerType) {
+        this(threadName, getRingSize(stage), producerType, getWaitStrategy(stage),
+                EngineThreads.threadFactory(role, qualifier, threadName));
+    }
+
+    /**
+     * Creates the stage with the given ring size and wait strategy.
+     *
+     * @param name         the name of the stage, used for the consumer thread
+     * @param ringSize     the number of slots, a power of two
+     * @param producerType SINGLE if only one thread publishes to the stage, MULTI otherwise
+     * @param waitStrategy the wait strategy of the consumer
+     */
+    public RingBufferStage(String name, int ringSize, ProducerType producerType, WaitStrategy waitStrategy) {
+        this(name, ringSize, producerType, waitStrategy, runnable -> new Thread(runnable, name));
+    }
+
+    private RingBufferStage(String name, int ringSize, ProducerType producerType, WaitStrategy waitStrategy,
+                            ThreadFactory threadFactory) {
+        this.name = name;
+        this.disruptor = new Disruptor<>(Slot::new, ringSize, threadFactory, producerType, waitStrategy);
+        // Register the consumer now, so the producers are gated by it even before it starts
+        this.disruptor.handleEventsWith(this::onEvent);
+        this.disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler());
+        this.ringBuffer = disruptor.getRingBuffer();
+        this.batchSizeHistogram = BatchSizeHistogram.register(name);
+        log.info("Stage {}: ring size {}, {} producer, {}", name, ringSize, producerType,
+                waitStrategy.getClass().getSimpleName());
+    }
+
+    /**
+     * Starts the consumer thread of the stage.
+     *
+     * @param handler the consumer of the values
+     * @return this stage
+     */
+    public RingBufferStage<T> start(Handler<T> handler) {
+        this.handler = handler;
+        disruptor.start();
+        return this;
+    }
+
+    /**
+     * Starts the consumer thread of the stage, handing the values over in batches.
+     *
+     * @param batchHandler the consumer of the batches
+     * @param maxBatchSize the maximum number of values per batch
+     * @return this stage
+     */
+    public RingBufferStage<T> startBatched(BatchHandler<T> batchHandler, int maxBatchSize) {
+        this.batchHandler = batchHandler;
+        this.maxBatchSize = maxBatchSize;
+        this.batch = new ArrayList<>(Math.min(maxBatchSize, getRingSize()));
+        disruptor.start();
+        return this;
+    }
+
+    @Override
+    public void publish(T value) {
+        long sequence = ringBuffer.next();
+        try {
+            ringBuffer.get(sequence).value = value;
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    private void onEvent(Slot<T> slot, long sequence, boolean endOfBatch) throws Exception {
+        T value = slot.value;
+        // Drop the reference so the ring does not keep handled values reachable
+        slot.value = null;
+        batchSize++;
+        boolean endOfHandlerBatch = endOfBatch || batchSize >= maxBatchSize;
+        try {
+            if (batchHandler == null) {
+                handler.handle(value);
+            } else {
+                batch.add(value);
+                if (endOfHandlerBatch) {
+                    batchHandler.handle(batch);
+                }
+            }
+        } finally {
+            if (endOfHandlerBatch) {
+                batchSizeHistogram.record(batchSize);
+                batchSize = 0;
+                if (batch != null) {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BatchSizeHistogram getBatchSizeHistogram() {
+        return batchSizeHistogram;
+    }
+
+    public int getRingSize() {
+        return ringBuffer.getBufferSize();
+    }
+
+    /**
+     * @return the number of values published but not yet handled
+     */
+    public long getBacklog() {
+        return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
+    }
+
+    /**
+     * Waits until the published values have been handled and stops the consumer thread.
+     */
+    @Override
+    public void close() {
+        disruptor.shutdown();
+    }
+
+    private static String getConfig(String key, String stage) {
+        String value = dotenv.get(key + "_" + stage);
+        return value != null ? value : dotenv.get(key);
+    }
+
+    static int getRingSize(String stage) {
+        String ringSize = getConfig("disruptor_ring_size", stage);
+        return ringSize == null ? DEFAULT_RING_SIZE : Integer.parseInt(ringSize.trim());
+    }
+
+    static WaitStrategy getWaitStrategy(String stage) {
+        String waitStrategy = getConfig("disruptor_wait_strategy", stage);
+        return createWaitStrategy(waitStrategy == null ? DEFAULT_WAIT_STRATEGY : waitStrategy);
+    }
+
+    /**
+     * @param name BLOCKING, SLEEPING, YIELDING or BUSY_SPIN
+     * @return a new wait strategy of the given name
+     */
+    public static WaitStrategy createWaitStrategy(String name) {
+        return switch (name.trim().toUpperCase(Locale.ROOT)) {
+            case "BLOCKING" -> new BlockingWaitStrategy();
+            case "SLEEPING" -> new SleepingWaitStrategy();
+            case "YIELDING" -> new YieldingWaitStrategy();
+            case "BUSY_SPIN" -> new BusySpinWaitStrategy();
+            default -> throw new IllegalArgumentException("Unknown disruptor wait strategy " + name);
+        };
+    }
+
+    /**
+     * Logs the failure of a value and keeps the consumer running, like the queue consumers do.
+     */
+    private final class LoggingExceptionHandler implements ExceptionHandler<Slot<T>> {
+        @Override
+        public void handleEventException(Throwable ex, long sequence, Slot<T> slot) {
+            log.error("Error handling value {} of stage {}: {}", sequence, name, ex.getMessage(), ex);
+        }
+
+        @Override
+        public void handleOnStartException(Throwable ex) {
+            log.error("Error starting stage {}", name, ex);
+        }
+
+        @Override
+        public void handleOnShutdownException(Throwable ex) {
+            log.error("Error stopping stage {}", name, ex);
+        }
+    }
+}
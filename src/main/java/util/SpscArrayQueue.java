@@ -0,0 +1,37 @@
+package util;
+
+/**
+ * Bounded lock-free queue for one producer thread and one consumer thread, e.g. the hop from the
+ * processing thread to the market data or trade thread. The producer stores the element with release
+ * semantics and then advances its counter; it only reads the consumer counter when it reaches the
+ * limit cached from the last read.
+ *
+ * @param <T> the type of the elements
+ */
+public class SpscArrayQueue<T> extends ArrayQueue<T> {
+
+    /**
+     * @param capacity the maximum number of elements, rounded up to a power of two
+     */
+    public SpscArrayQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    public boolean offer(T element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long producerIndex = lpProducerIndex();
+        if (producerIndex >= producerLimit) {
+            long limit = lvConsumerIndex() + capacity;
+            if (producerIndex >= limit) {
+                return false;
+            }
+            producerLimit = limit;
+        }
+        buffer.setRelease((int) producerIndex & mask, element);
+        soProducerIndex(producerIndex + 1);
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Pins threads to CPU cores on Linux by calling {@code sched_setaffinity(2)} of the C library through
+ * the Foreign Function and Memory API. On other systems, or if the call fails, the thread keeps
+ * running on any core and a warning is logged.
+ */
+public final class ThreadAffinity {
+    private static final Logger log = LogManager.getLogger(ThreadAffinity.class);
+    // Size of cpu_set_t in glibc, a mask of 1024 CPUs in 64-bit words
+    private static final int CPU_SET_SIZE = 128;
+    private static final int MAX_CPUS = CPU_SET_SIZE * 8;
+    private static final MethodHandle SCHED_SETAFFINITY = lookupSchedSetAffinity();
+
+    private ThreadAffinity() {
+    }
+
+    private static MethodHandle lookupSchedSetAffinity() {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            return null;
+        }
+        try {
+            Linker linker = Linker.nativeLinker();
+            // int sched_setaffinity(pid_t pid, size_t cpusetsize, const cpu_set_t *mask)
+            return linker.defaultLookup().find("sched_setaffinity")
+                    .map(address -> linker.downcallHandle(address, FunctionDescriptor.of(
+                            ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS)))
+                    .orElse(null);
+        } catch (RuntimeException e) {
+            log.warn("sched_setaffinity is not available: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true if threads can be pinned on this system
+     */
+    public static boolean isSupported() {
+        return SCHED_SETAFFINITY != null;
+    }
+
+    /**
+     * Restricts the calling thread to the given CPUs.
+     *
+     * @param cpus the CPU numbers
+     * @return true if the thread was pinned
+     */
+    public static boolean pinCurrentThread(int[] cpus) {
+        if (cpus.length == 0) {
+            return false;
+        }
+        if (SCHED_SETAFFINITY == null) {
+            log.warn("Cannot pin thread {} to CPUs {}: sched_setaffinity is not available",
+                    Thread.currentThread().getName(), Arrays.toString(cpus));
+            return false;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment mask = arena.allocate(CPU_SET_SIZE, 8);
+            mask.fill((byte) 0);
+            for (int cpu : cpus) {
+                if (cpu < 0 || cpu >= MAX_CPUS) {
+                    throw new IllegalArgumentException("Invalid CPU " + cpu);
+                }
+                long offset = (long) (cpu / 64) * Long.BYTES;
+                mask.set(ValueLayout.JAVA_LONG, offset, mask.get(ValueLayout.JAVA_LONG, offset) | 1L << (cpu % 64));
+            }
+            // pid 0 is the calling thread
+            int result = (int) SCHED_SETAFFINITY.invokeExact(0, (long) CPU_SET_SIZE, mask);
+            if (result != 0) {
+                log.warn("Cannot pin thread {} to CPUs {}", Thread.currentThread().getName(), Arrays.toString(cpus));
+                return false;
+            }
+            log.info("Pinned thread {} to CPUs {}", Thread.currentThread().getName(), Arrays.toString(cpus));
+            return true;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable e) {
+            log.warn("Cannot pin thread {} to CPUs {}: {}", Thread.currentThread().getName(), Arrays.toString(cpus), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Parses a CPU list such as {@code 2,3,8-11}.
+     *
+     * @param cpuList the CPU list, may be null or blank
+     * @return the CPU numbers, empty for none
+     */
+    public static int[] parseCpuList(String cpuList) {
+        if (cpuList == null || cpuList.isBlank()) {
+            return new int[0];
+        }
+        return Arrays.stream(cpuList.split(","))
+                .map(String::trim)
+                .flatMapToInt(range -> {
+                    int dash = range.indexOf('-');
+                    if (dash < 0) {
+                        return java.util.stream.IntStream.of(Integer.parseInt(range));
+                    }
+                    return java.util.stream.IntStream.rangeClosed(Integer.parseInt(range.substring(0, dash).trim()),
+                            Integer.parseInt(range.substring(dash + 1).trim()));
+                })
+                .distinct()
+                .toArray();
+    }
+}
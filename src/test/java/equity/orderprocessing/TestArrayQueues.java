@@ -0,0 +1,179 @@
+package equity.orderprocessing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import util.ArrayQueue;
+import util.MpscArrayQueue;
+import util.SpscArrayQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress tests of the lock-free array queues, checking that every value arrives once and, per producer,
+ * in order, with a capacity small enough to make the producers wait on a full queue. The throughput
+ * against a LinkedBlockingQueue is only reported.
+ */
+@DisplayName("Array Queue Tests")
+public class TestArrayQueues {
+    private static final Logger log = LogManager.getLogger(TestArrayQueues.class);
+    private static final int NO_OF_VALUES = 500_000;
+    private static final int NO_OF_PRODUCERS = 4;
+    private static final int SMALL_CAPACITY = 64;
+    private static final int CAPACITY = 1024;
+    private static final Integer[] VALUES = new Integer[NO_OF_VALUES];
+
+    static {
+        for (int i = 0; i < NO_OF_VALUES; i++) {
+            VALUES[i] = i;
+        }
+    }
+
+    /**
+     * Puts the values to the queue from the given number of producers, producer p putting the values
+     * congruent to p, and takes them on the calling thread.
+     *
+     * @return the elapsed nanoseconds
+     */
+    private static long transfer(BlockingQueue<Integer> queue, int noOfProducers) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < noOfProducers; p++) {
+            int first = p;
+            Thread producer = new Thread(() -> {
+                try {
+                    for (int i = first; i < NO_OF_VALUES; i += noOfProducers) {
+                        queue.put(VALUES[i]);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }, "Producer-" + p);
+            producers.add(producer);
+        }
+        int[] lastOfProducer = new int[noOfProducers];
+        Arrays.fill(lastOfProducer, -1);
+        boolean[] seen = new boolean[NO_OF_VALUES];
+        long start = System.nanoTime();
+        producers.forEach(Thread::start);
+        for (int taken = 0; taken < NO_OF_VALUES; taken++) {
+            Integer value = queue.poll(30, TimeUnit.SECONDS);
+            assertNotNull(value, "Only " + taken + " values arrived");
+            assertFalse(seen[value], "Value " + value + " arrived twice");
+            seen[value] = true;
+            int producer = value % noOfProducers;
+            assertTrue(value > lastOfProducer[producer], "Value " + value + " arrived out of order");
+            lastOfProducer[producer] = value;
+        }
+        long elapsed = System.nanoTime() - start;
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(failure.get());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        return elapsed;
+    }
+
+    private static String rate(String name, long elapsedNanos) {
+        return String.format("%-28s %,12d values/s", name, NO_OF_VALUES * 1_000_000_000L / Math.max(1, elapsedNanos));
+    }
+
+    @Test
+    @DisplayName("Should transfer every value once and in order through a full SPSC queue")
+    void testSpscStress() throws InterruptedException {
+        transfer(new SpscArrayQueue<>(SMALL_CAPACITY), 1);
+    }
+
+    @Test
+    @DisplayName("Should transfer every value once and in producer order through a full MPSC queue")
+    void testMpscStress() throws InterruptedException {
+        transfer(new MpscArrayQueue<>(SMALL_CAPACITY), NO_OF_PRODUCERS);
+    }
+
+    @Test
+    @DisplayName("Should reject values beyond the capacity and accept them again once polled")
+    void testCapacity() {
+        for (ArrayQueue<Integer> queue : List.of(new SpscArrayQueue<Integer>(3), new MpscArrayQueue<Integer>(4))) {
+            // Rounded up to a power of two
+            assertEquals(4, queue.capacity());
+            for (int i = 0; i < 4; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.offer(4));
+            assertEquals(4, queue.size());
+            assertEquals(0, queue.remainingCapacity());
+            assertEquals(0, queue.peek());
+            assertEquals(0, queue.poll());
+            assertTrue(queue.offer(4));
+            List<Integer> drained = new ArrayList<>();
+            assertEquals(3, queue.drainTo(drained, 3));
+            assertEquals(List.of(1, 2, 3), drained);
+            assertEquals(4, queue.poll());
+            assertNull(queue.poll());
+            assertThrows(NullPointerException.class, () -> queue.offer(null));
+        }
+    }
+
+    @Test
+    @DisplayName("Should iterate over the queued values from the head and only remove at the head")
+    void testIterator() {
+        for (ArrayQueue<Integer> queue : List.of(new SpscArrayQueue<Integer>(4), new MpscArrayQueue<Integer>(4))) {
+            assertEquals("[]", queue.toString());
+            assertFalse(queue.iterator().hasNext());
+            // Wrap around the array
+            for (int i = 0; i < 6; i++) {
+                assertTrue(queue.offer(i));
+                if (i < 3) {
+                    assertEquals(i, queue.poll());
+                }
+            }
+            assertEquals("[3, 4, 5]", queue.toString());
+            assertArrayEquals(new Object[]{3, 4, 5}, queue.toArray());
+            assertTrue(queue.contains(4));
+            assertFalse(queue.contains(2));
+            assertTrue(queue.containsAll(List.of(3, 5)));
+
+            // Values consumed while iterating are skipped, except the one already read ahead
+            var iterator = queue.iterator();
+            assertEquals(3, queue.poll());
+            assertEquals(4, queue.poll());
+            assertEquals(3, iterator.next());
+            assertEquals(5, iterator.next());
+            assertFalse(iterator.hasNext());
+            assertThrows(UnsupportedOperationException.class, iterator::remove);
+
+            assertThrows(UnsupportedOperationException.class, () -> queue.remove((Object) 5));
+            assertThrows(UnsupportedOperationException.class, () -> queue.removeAll(List.of(5)));
+            assertThrows(UnsupportedOperationException.class, () -> queue.retainAll(List.of()));
+            assertThrows(UnsupportedOperationException.class, () -> queue.removeIf(value -> true));
+            assertEquals(1, queue.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Should compare the throughput with a LinkedBlockingQueue")
+    void testThroughput() throws InterruptedException {
+        // Warm up every queue before measuring
+        transfer(new LinkedBlockingQueue<>(), 1);
+        transfer(new SpscArrayQueue<>(CAPACITY), 1);
+        transfer(new MpscArrayQueue<>(CAPACITY), 1);
+
+        String report = String.join("\n",
+                rate("LinkedBlockingQueue 1P", transfer(new LinkedBlockingQueue<>(), 1)),
+                rate("SpscArrayQueue 1P", transfer(new SpscArrayQueue<>(CAPACITY), 1)),
+                rate("MpscArrayQueue 1P", transfer(new MpscArrayQueue<>(CAPACITY), 1)),
+                rate("LinkedBlockingQueue " + NO_OF_PRODUCERS + "P", transfer(new LinkedBlockingQueue<>(), NO_OF_PRODUCERS)),
+                rate("MpscArrayQueue " + NO_OF_PRODUCERS + "P", transfer(new MpscArrayQueue<>(CAPACITY), NO_OF_PRODUCERS)));
+        log.info("Throughput of {} values, capacity {}\n{}", NO_OF_VALUES, CAPACITY, report);
+    }
+}
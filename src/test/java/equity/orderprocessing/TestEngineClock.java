@@ -0,0 +1,164 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.*;
+import equity.objectpooling.Order.OrderType;
+import equity.objectpooling.Order.Side;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import util.EngineClock;
+import util.EngineClock.CachedEpochClock;
+import util.EngineClock.ReplayClock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Engine Clock Tests")
+public class TestEngineClock {
+    // Refer to test.config
+    private static final String STOCK_1 = "00001";
+    private static final int SYMBOL_1 = SymbolRegistry.getSymbolId(STOCK_1);
+    private static final String BROKER_1 = "Broker 1";
+    private static final String BROKER_2 = "Broker 2";
+    private static final int QUANTITY_100 = 100;
+    // 2024-01-02T09:30:00Z
+    private static final long REPLAY_START_NANOS = 1_704_187_800_000_000_000L;
+    private static final long STEP_NANOS = 1_000;
+
+    private final List<Trade> trades = new ArrayList<>();
+    private OrderBook orderBook;
+    private OrderProcessingJob processingJob;
+    private long price;
+
+    @BeforeEach
+    void setUp() {
+        OrderBook[] orderBooks = new OrderBook[SymbolRegistry.size()];
+        orderBook = new PriceLadderOrderBook(STOCK_1, "Stock 1", 1024);
+        orderBooks[SYMBOL_1] = orderBook;
+        processingJob = new OrderProcessingJob(null, orderBooks, true);
+        processingJob.setMatchingJob(new LimitOrderMatchingJob(orderBook, OrderPoolManager::returnMarketDataObj,
+                trades::add, processingJob, 1, true));
+        price = PriceScale.of(STOCK_1).toPrice(BigDecimal.valueOf(8.1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        EngineClock.reset();
+        trades.forEach(OrderPoolManager::returnTradeObj);
+        OrderPoolManager.clearObjects(STOCK_1);
+    }
+
+    @Test
+    @DisplayName("Should stamp orders and trades with the times of the replay clock")
+    void testReplayClock() {
+        ReplayClock clock = new ReplayClock(REPLAY_START_NANOS, STEP_NANOS);
+        EngineClock.install(clock);
+
+        Order bid = OrderPoolManager.requestOrderObj(SYMBOL_1, BROKER_1, "001", OrderType.LIMIT, Side.BUY,
+                price, QUANTITY_100);
+        assertEquals(REPLAY_START_NANOS, bid.getCreatedNanos());
+        assertEquals(REPLAY_START_NANOS, bid.getLastEventNanos());
+        processingJob.putOrder(bid);
+
+        clock.set(REPLAY_START_NANOS + 1_000_000);
+        Order ask = OrderPoolManager.requestOrderObj(SYMBOL_1, BROKER_2, "002", OrderType.LIMIT, Side.SELL,
+                price, QUANTITY_100);
+        assertEquals(REPLAY_START_NANOS + 1_000_000, ask.getCreatedNanos());
+        processingJob.putOrder(ask);
+
+        assertEquals(1, trades.size());
+        Trade trade = trades.get(0);
+        // The matching pass reads the clock next, one step after the creation of the ask
+        assertEquals(REPLAY_START_NANOS + 1_000_000 + STEP_NANOS, trade.getExecutionNanos());
+        assertEquals(EngineClock.toDateTime(trade.getExecutionNanos()).toLocalDateTime(),
+                trade.getExecutionDateTime());
+        assertTrue(orderBook.isEmpty(Side.BUY) && orderBook.isEmpty(Side.SELL));
+    }
+
+    @Test
+    @DisplayName("Should stamp the same times while another thread reads the coarse replay clock")
+    void testReplayClockWithCoarseReader() throws InterruptedException {
+        ReplayClock clock = new ReplayClock(REPLAY_START_NANOS, STEP_NANOS);
+        EngineClock.install(clock);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong backwards = new AtomicLong();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            long last = Long.MIN_VALUE;
+            started.countDown();
+            while (!stop.get()) {
+                long now = EngineClock.coarseEpochNanos();
+                if (now < last) {
+                    backwards.incrementAndGet();
+                }
+                last = now;
+                reads.incrementAndGet();
+            }
+        }, "CoarseReader");
+        reader.start();
+        started.await();
+
+        List<Long> stamps = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            clock.set(REPLAY_START_NANOS + i * 1_000_000L);
+            Order bid = OrderPoolManager.requestOrderObj(SYMBOL_1, BROKER_1, "B" + i, OrderType.LIMIT, Side.BUY,
+                    price, QUANTITY_100);
+            processingJob.putOrder(bid);
+            Order ask = OrderPoolManager.requestOrderObj(SYMBOL_1, BROKER_2, "A" + i, OrderType.LIMIT, Side.SELL,
+                    price, QUANTITY_100);
+            stamps.add(ask.getCreatedNanos());
+            processingJob.putOrder(ask);
+        }
+        stop.set(true);
+        reader.join();
+
+        assertTrue(reads.get() > 0);
+        assertEquals(0, backwards.get(), "The coarse replay clock should not go backwards between two sets");
+        assertEquals(100, trades.size());
+        for (int i = 0; i < 100; i++) {
+            long messageNanos = REPLAY_START_NANOS + i * 1_000_000L;
+            // Only the reads of the replaying thread advance the clock
+            assertEquals(messageNanos + STEP_NANOS, stamps.get(i));
+            assertEquals(messageNanos + 2 * STEP_NANOS, trades.get(i).getExecutionNanos());
+        }
+    }
+
+    @Test
+    @DisplayName("Should not advance the replay clock when reading its coarse view")
+    void testReplayClockCoarseView() {
+        ReplayClock clock = new ReplayClock(REPLAY_START_NANOS, STEP_NANOS);
+        EngineClock.install(clock);
+
+        assertEquals(REPLAY_START_NANOS, EngineClock.coarseEpochNanos());
+        assertEquals(REPLAY_START_NANOS, EngineClock.coarseEpochNanos());
+        assertEquals(REPLAY_START_NANOS, EngineClock.epochNanos());
+        assertEquals(REPLAY_START_NANOS + STEP_NANOS, EngineClock.coarseEpochNanos());
+        assertSame(clock.coarse(), clock.coarse());
+    }
+
+    @Test
+    @DisplayName("Should keep the coarse clock at the time of its last update")
+    void testCachedClock() {
+        ReplayClock source = new ReplayClock(REPLAY_START_NANOS, 0);
+        CachedEpochClock coarse = new CachedEpochClock(source, Long.MAX_VALUE);
+
+        source.advance(STEP_NANOS);
+        assertEquals(REPLAY_START_NANOS, coarse.nanos());
+        coarse.update();
+        assertEquals(REPLAY_START_NANOS + STEP_NANOS, coarse.nanos());
+
+        long before = EngineClock.epochNanos();
+        long systemCoarse = EngineClock.coarseEpochNanos();
+        assertTrue(systemCoarse <= EngineClock.epochNanos());
+        assertTrue(before - systemCoarse < 1_000_000_000L, "The system coarse clock should be refreshed");
+    }
+}
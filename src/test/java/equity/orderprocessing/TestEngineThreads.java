@@ -0,0 +1,103 @@
+package equity.orderprocessing;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import util.BatchSizeHistogram;
+import util.IdleStrategy;
+import util.ThreadAffinity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@DisplayName("Engine Thread Tests")
+public class TestEngineThreads {
+
+    @Test
+    @DisplayName("Should take queued values with every wait strategy")
+    void testIdleStrategies() throws InterruptedException {
+        for (IdleStrategy.Type type : IdleStrategy.Type.values()) {
+            IdleStrategy idleStrategy = new IdleStrategy(type);
+            LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    queue.add(i);
+                }
+            });
+            producer.start();
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, idleStrategy.take(queue), type.name());
+            }
+            producer.join();
+        }
+    }
+
+    @Test
+    @DisplayName("Should stop polling when interrupted")
+    void testInterruptedWhilePolling() throws InterruptedException {
+        IdleStrategy idleStrategy = IdleStrategy.of("busy_spin");
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread consumer = new Thread(() -> {
+            try {
+                idleStrategy.take(new LinkedBlockingQueue<>());
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        consumer.start();
+        consumer.interrupt();
+        consumer.join(5000);
+        assertTrue(interrupted.get());
+        assertThrows(IllegalArgumentException.class, () -> IdleStrategy.of("SLEEPING"));
+    }
+
+    @Test
+    @DisplayName("Should drain the queued values in batches of at most the batch size")
+    void testDrainBatches() throws InterruptedException {
+        IdleStrategy idleStrategy = new IdleStrategy(IdleStrategy.Type.BLOCKING);
+        BatchSizeHistogram histogram = new BatchSizeHistogram("test");
+        LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 10; i++) {
+            queue.add(i);
+        }
+        List<Integer> batch = new ArrayList<>();
+        List<Integer> drained = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            histogram.record(idleStrategy.drain(queue, batch, 4));
+            drained.addAll(batch);
+            batch.clear();
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), drained);
+        // Batches of 4, 4 and 2
+        assertEquals(3, histogram.getBatches());
+        assertEquals(10, histogram.getItems());
+        assertEquals(4, histogram.getMaxBatchSize());
+        assertEquals(0, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals("test: batches=3 items=10 mean=3.33 max=4 sizes[2-3:1 4-7:2]", histogram.toString());
+    }
+
+    @Test
+    @DisplayName("Should parse CPU lists")
+    void testParseCpuList() {
+        assertArrayEquals(new int[]{2, 3, 8, 9, 10}, ThreadAffinity.parseCpuList("2, 3,8-10"));
+        assertArrayEquals(new int[0], ThreadAffinity.parseCpuList(""));
+        assertArrayEquals(new int[0], ThreadAffinity.parseCpuList(null));
+    }
+
+    @Test
+    @DisplayName("Should pin a thread to the first CPU on Linux")
+    void testPinThread() throws InterruptedException {
+        assumeTrue(ThreadAffinity.isSupported());
+        AtomicBoolean pinned = new AtomicBoolean();
+        Thread thread = new Thread(() -> pinned.set(ThreadAffinity.pinCurrentThread(new int[]{0})));
+        thread.start();
+        thread.join();
+        assertTrue(pinned.get());
+    }
+}
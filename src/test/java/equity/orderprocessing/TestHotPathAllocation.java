@@ -0,0 +1,151 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.*;
+import equity.objectpooling.Order.OrderType;
+import equity.objectpooling.Order.Side;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replays the new limit orders of the LOBSTER sample files through the step of the processing loop,
+ * {@link OrderProcessingJob#processQueuedOrder}, matching and publishing, and measures the bytes allocated
+ * by the replaying thread once warm.
+ */
+@DisplayName("Hot Path Allocation Tests")
+public class TestHotPathAllocation {
+    private static final String STOCK_1 = "00001";
+    private static final String BROKER = "LOBSTER";
+    private static final Path LOBSTER_DIR = Paths.get("data sources", "lobster");
+    private static final int NEW_LIMIT_ORDER_TYPE = 1;
+    private static final int WARMUP_REPLAYS = 10;
+    // Budget of the steady state, which allocates nothing: a byte per order leaves room for the odd
+    // allocation of the JVM on the thread, not for an object per order
+    private static final double MAX_BYTES_PER_ORDER = 1.0;
+
+    private final int symbolId = SymbolRegistry.getSymbolId(STOCK_1);
+    private final List<String> clientOrdIDs = new ArrayList<>();
+    private final List<Side> sides = new ArrayList<>();
+    private final List<Long> prices = new ArrayList<>();
+    private final List<Integer> quantities = new ArrayList<>();
+    private OrderBook orderBook;
+    private OrderProcessingJob processingJob;
+    private int trades;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // The hot path only logs at debug level, which is off in production
+        Configurator.setAllLevels(LogManager.ROOT_LOGGER_NAME, Level.INFO);
+        loadLobsterOrders();
+
+        OrderBook[] orderBooks = new OrderBook[SymbolRegistry.size()];
+        // The ladder of the configured size: the sample prices span about 5.5 dollars, 55,000 ticks of the
+        // test stock, so most levels go through the overflow of the ladder
+        orderBook = new PriceLadderOrderBook(STOCK_1, "Stock 1");
+        orderBooks[symbolId] = orderBook;
+        processingJob = new OrderProcessingJob(null, orderBooks, true);
+        processingJob.setMatchingJob(new LimitOrderMatchingJob(orderBook,
+                OrderPoolManager::returnMarketDataObj,
+                trade -> {
+                    trades++;
+                    OrderPoolManager.returnTradeObj(trade);
+                },
+                processingJob, 1, true));
+    }
+
+    @AfterEach
+    void tearDown() {
+        clearBook();
+        OrderPoolManager.clearObjects(STOCK_1);
+        Configurator.reconfigure();
+    }
+
+    /**
+     * Reads the new limit orders of every message file, converting the LOBSTER prices, in ten
+     * thousandths of a dollar, to the price scale of the stock.
+     */
+    private void loadLobsterOrders() throws IOException {
+        PriceScale priceScale = PriceScale.of(STOCK_1);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(LOBSTER_DIR, "*_message_*.csv")) {
+            for (Path file : files) {
+                for (String line : Files.readAllLines(file)) {
+                    String[] fields = line.split(",");
+                    if (fields.length != 6 || Integer.parseInt(fields[1]) != NEW_LIMIT_ORDER_TYPE) {
+                        continue;
+                    }
+                    clientOrdIDs.add(fields[2]);
+                    quantities.add(Integer.parseInt(fields[3]));
+                    prices.add(priceScale.toPrice(new BigDecimal(fields[4]).movePointLeft(4)));
+                    sides.add(Integer.parseInt(fields[5]) == 1 ? Side.BUY : Side.SELL);
+                }
+            }
+        }
+        assertFalse(clientOrdIDs.isEmpty(), "No LOBSTER orders found in " + LOBSTER_DIR.toAbsolutePath());
+    }
+
+    private void replay(String[] ids, Side[] orderSides, long[] orderPrices, int[] orderQuantities)
+            throws InterruptedException {
+        for (int i = 0; i < ids.length; i++) {
+            Order order = OrderPoolManager.requestOrderObj(symbolId, BROKER, ids[i], OrderType.LIMIT,
+                    orderSides[i], orderPrices[i], orderQuantities[i]);
+            processingJob.processQueuedOrder(order, i + 1);
+        }
+    }
+
+    /**
+     * Returns the resting orders to the pool so that the next replay starts from an empty book.
+     */
+    private void clearBook() {
+        List<Order> resting = new ArrayList<>();
+        for (Side side : Side.values()) {
+            orderBook.forEachPriceLevel(side, level -> level.forEach(resting::add));
+            orderBook.clear(side);
+        }
+        orderBook.getOrderIndex().clear();
+        resting.forEach(OrderPoolManager::returnOrderObj);
+    }
+
+    @Test
+    @DisplayName("Should put, match and publish the LOBSTER orders without allocating once warm")
+    void testSteadyStateAllocation() throws InterruptedException {
+        int noOfOrders = clientOrdIDs.size();
+        String[] ids = clientOrdIDs.toArray(new String[0]);
+        Side[] orderSides = sides.toArray(new Side[0]);
+        long[] orderPrices = prices.stream().mapToLong(Long::longValue).toArray();
+        int[] orderQuantities = quantities.stream().mapToInt(Integer::intValue).toArray();
+
+        // Warm up the JIT, the pools and the price levels
+        for (int i = 0; i < WARMUP_REPLAYS; i++) {
+            replay(ids, orderSides, orderPrices, orderQuantities);
+            clearBook();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        trades = 0;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        replay(ids, orderSides, orderPrices, orderQuantities);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(trades > 0, "The replay should trade");
+        double bytesPerOrder = (double) allocated / noOfOrders;
+        assertTrue(bytesPerOrder <= MAX_BYTES_PER_ORDER, String.format(
+                "Allocated %d bytes for %d orders and %d trades: %.1f bytes per order", allocated, noOfOrders,
+                trades, bytesPerOrder));
+    }
+}
@@ -12,13 +12,11 @@ import org.junit.jupiter.params.provider.ValueSource;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static equity.objectpooling.PriceScale.NO_PRICE;
 import static util.ReadConfig.dotenv;
 
 @DisplayName("Market Order Matching Tests")
@@ -28,6 +26,7 @@ public class TestMarketOrderMatching {
     private static final String BUY = Side.BUY.value;
     private static final String SELL = Side.SELL.value;
     private static final String STOCK_1 = "00001";
+    private static final int SYMBOL_1 = SymbolRegistry.getSymbolId(STOCK_1);
     private static final String STOCK_2 = "00002";
     private static final String BROKER_1 = "Broker 1";
     private static final String BROKER_2 = "Broker 2";
@@ -66,7 +65,6 @@ public class TestMarketOrderMatching {
     private static final int INITIAL_FREE_ORDERS = 0;
 
     // Test Infrastructure
-    private static final ConcurrentHashMap<String, Order> orderObjMapper = new ConcurrentHashMap<>();
     private final LinkedBlockingQueue<Order> orderQueue = new LinkedBlockingQueue<>();
     private final LinkedBlockingQueue<MarketData> marketDataQueue = new LinkedBlockingQueue<>();
     private final LinkedBlockingQueue<Trade> tradeDataQueue = new LinkedBlockingQueue<>();
@@ -74,7 +72,11 @@ public class TestMarketOrderMatching {
     // Test Subjects
     private OrderProcessingJob orderProcessingJob;
     private LimitOrderMatchingJob orderMatching;
-    private Map<String, OrderBook> orderBooks;
+    private OrderBook[] orderBooks;
+
+    private static long price(BigDecimal decimalPrice) {
+        return PriceScale.of(STOCK_1).toPrice(decimalPrice);
+    }
 
     @BeforeEach
     void setUp() {
@@ -96,18 +98,18 @@ public class TestMarketOrderMatching {
     }
 
     private void initializeOrderBooks() {
-        orderBooks = new HashMap<>();
+        orderBooks = new OrderBook[SymbolRegistry.size()];
         for (int i = 1; i <= NO_OF_STOCKS; i++) {
             String stockId = String.format("%05d", i);
             String stockName = "Stock " + i;
-            orderBooks.put(stockId, new OrderBook(stockId, stockName));
+            orderBooks[SymbolRegistry.getSymbolId(stockId)] = OrderBook.create(stockId, stockName);
         }
     }
 
     private void initializeTestSubjects() {
-        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks, orderObjMapper);
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        orderMatching = new LimitOrderMatchingJob(orderBook, orderObjMapper, marketDataQueue, tradeDataQueue, orderProcessingJob);
+        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks);
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        orderMatching = new LimitOrderMatchingJob(orderBook, marketDataQueue, tradeDataQueue, orderProcessingJob);
     }
 
     private void setupInitialOrderBook() {
@@ -129,7 +131,6 @@ public class TestMarketOrderMatching {
     }
 
     private void clearDataStructures() {
-        orderObjMapper.clear();
         marketDataQueue.clear();
         tradeDataQueue.clear();
     }
@@ -168,8 +169,8 @@ public class TestMarketOrderMatching {
         putMarketOrder(BROKER_4, CLIENT_SELL_MARKET_ORDER_1, SELL, QUANTITY_400);
 
         // Verify pre-match state
-        assertEquals(0, PRICE_8_2.compareTo(orderBooks.get(STOCK_1).getBestBid()), "Best bid should be 8.2");
-        assertEquals(0, PRICE_8_2.compareTo(orderBooks.get(STOCK_1).getBestAsk()), "Market order should price at best bid");
+        assertEquals(price(PRICE_8_2), orderBooks[SYMBOL_1].getBestBid(), "Best bid should be 8.2");
+        assertEquals(price(PRICE_8_2), orderBooks[SYMBOL_1].getBestAsk(), "Market order should price at best bid");
 
         // When - execute matching
         MarketOrderMatchResult result = executeMarketOrderMatch();
@@ -232,9 +233,9 @@ public class TestMarketOrderMatching {
         verifyMarketBuyExecution(result, CLIENT_BUY_INITIAL_LIMIT_ORDER_2, CLIENT_SELL_MARKET_ORDER_1, PRICE_8_2, QUANTITY_300);
         verifyMarketDataAfterBuy(result.marketData, PRICE_8_1, PRICE_8_1, PRICE_8_2);
         assertEquals(0, result.trade.getBuyOrderRemainingQty());
-        assertEquals(PRICE_8_2, result.trade.getBuyOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_2), result.trade.getBuyOrderAvgExecutedPrice());
         assertEquals(QUANTITY_200, result.trade.getSellOrderRemainingQty());
-        assertEquals(PRICE_8_2, result.trade.getSellOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_2), result.trade.getSellOrderAvgExecutedPrice());
 
         // When - execute second matching
         MarketOrderMatchResult result2 = executeMarketOrderMatch();
@@ -243,9 +244,9 @@ public class TestMarketOrderMatching {
         verifyMarketBuyExecution(result2, CLIENT_BUY_INITIAL_LIMIT_ORDER_1, CLIENT_SELL_MARKET_ORDER_1, PRICE_8_1, QUANTITY_200);
         verifyMarketDataAfterBuy(result2.marketData, PRICE_8_1, null, PRICE_8_1);
         assertEquals(QUANTITY_100, result2.trade.getBuyOrderRemainingQty());
-        assertEquals(PRICE_8_1, result2.trade.getBuyOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_1), result2.trade.getBuyOrderAvgExecutedPrice());
         assertEquals(0, result2.trade.getSellOrderRemainingQty());
-        assertEquals(BigDecimal.valueOf(8.16).setScale(4, RoundingMode.HALF_UP), result2.trade.getSellOrderAvgExecutedPrice());
+        assertEquals(price(BigDecimal.valueOf(8.16).setScale(4, RoundingMode.HALF_UP)), result2.trade.getSellOrderAvgExecutedPrice());
     }
 
 
@@ -263,21 +264,21 @@ public class TestMarketOrderMatching {
         if (orderSize <= QUANTITY_300) {
             // Should fill completely against best bid (8.2)
             MarketOrderMatchResult result = executeMarketOrderMatch();
-            assertEquals(0, PRICE_8_2.compareTo(result.trade.getExecutedPrice()), "Should execute at best bid price");
+            assertEquals(price(PRICE_8_2), result.trade.getExecutedPrice(), "Should execute at best bid price");
             assertEquals(orderSize, result.trade.getExecutedQty(),
                     "Should execute available quantity");
         } else {
             // Should require multiple fills
             MarketOrderMatchResult firstFill = executeMarketOrderMatch();
-            assertEquals(PRICE_8_2, firstFill.trade.getExecutedPrice(), "First fill at best bid");
+            assertEquals(price(PRICE_8_2), firstFill.trade.getExecutedPrice(), "First fill at best bid");
             assertEquals(QUANTITY_300, firstFill.trade.getExecutedQty(), "First fill quantity");
 
             MarketOrderMatchResult secondFill = executeMarketOrderMatch();
-            assertEquals(PRICE_8_1, secondFill.trade.getExecutedPrice(), "Second fill at next best bid");
+            assertEquals(price(PRICE_8_1), secondFill.trade.getExecutedPrice(), "Second fill at next best bid");
 
             if (orderSize >= QUANTITY_600) {
                 MarketOrderMatchResult thirdFill = executeMarketOrderMatch();
-                assertEquals(PRICE_8_0, thirdFill.trade.getExecutedPrice(), "First fill at best bid");
+                assertEquals(price(PRICE_8_0), thirdFill.trade.getExecutedPrice(), "First fill at best bid");
                 assertEquals(QUANTITY_400, thirdFill.trade.getExecutedQty(), "First fill quantity");
             }
         }
@@ -300,18 +301,18 @@ public class TestMarketOrderMatching {
         MarketOrderMatchResult result = executeMarketOrderMatch();
 
         // Then - verify market data reflects the correct state after buy execution
-        assertEquals(PRICE_8_2, result.marketData.bestBid(), "Best bid should remain unchanged at 8.2");
-        assertNull(result.marketData.bestAsk(), "Ask should be completely consumed (200 ask vs 200 market buy)");
-        assertEquals(PRICE_8_3, result.marketData.lastTradePrice(), "Last trade price should be 8.3 (ask price)");
+        assertEquals(price(PRICE_8_2), result.marketData.bestBid(), "Best bid should remain unchanged at 8.2");
+        assertEquals(NO_PRICE, result.marketData.bestAsk(), "Ask should be completely consumed (200 ask vs 200 market buy)");
+        assertEquals(price(PRICE_8_3), result.marketData.lastTradePrice(), "Last trade price should be 8.3 (ask price)");
 
         // Verify order book structure integrity
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        assertFalse(orderBook.getBidMap().isEmpty(), "Bid map should still contain all original orders");
-        assertTrue(orderBook.getAskMap().isEmpty(), "Ask map should be empty after ask order consumed");
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        assertFalse(orderBook.isEmpty(Side.BUY), "Bid map should still contain all original orders");
+        assertTrue(orderBook.isEmpty(Side.SELL), "Ask map should be empty after ask order consumed");
 
         // Verify the bid side is completely intact (market buy doesn't affect bids)
-        assertEquals(3, orderBook.getBidMap().size(), "Should have 3 bid price levels unchanged");
-        assertEquals(0, PRICE_8_2.compareTo(orderBook.getBestBid()), "Best bid should still be 8.2");
+        assertEquals(3, orderBook.getLevelCount(Side.BUY), "Should have 3 bid price levels unchanged");
+        assertEquals(price(PRICE_8_2), orderBook.getBestBid(), "Best bid should still be 8.2");
     }
 
     @Test
@@ -330,7 +331,7 @@ public class TestMarketOrderMatching {
 
         // Then - should completely fill BROKER_3's order (first in FIFO)
         assertEquals(BROKER_3, result1.trade.getBuyBrokerID(), "First fill: BROKER_3");
-        assertEquals(PRICE_8_2, result1.trade.getExecutedPrice(), "Should execute at 8.2");
+        assertEquals(price(PRICE_8_2), result1.trade.getExecutedPrice(), "Should execute at 8.2");
         assertEquals(QUANTITY_300, result1.trade.getExecutedQty(), "Should fill complete order");
 
         // When - another market sell to test next in FIFO
@@ -340,20 +341,20 @@ public class TestMarketOrderMatching {
         // Then - should fill BROKER_2's order (second in FIFO)
         assertEquals(BROKER_2, result2.trade.getBuyBrokerID(), "Second fill: BROKER_2");
         assertEquals("FIFO_TEST_1", result2.trade.getBuyOrderID(), "Correct order ID");
-        assertEquals(PRICE_8_2, result2.trade.getExecutedPrice(), "Should execute at 8.2");
+        assertEquals(price(PRICE_8_2), result2.trade.getExecutedPrice(), "Should execute at 8.2");
         assertEquals(QUANTITY_200, result2.trade.getExecutedQty(), "Should fill BROKER_2's order");
 
         // Verify BROKER_4's order is now at top of queue
-        assertNotNull( orderBooks.get(STOCK_1).getBidMap().get(PRICE_8_2).peekFirst(), "BROKER_4's order is still in the order book");
-        assertEquals(PRICE_8_2, result2.marketData.bestBid(),"Best bid still 8.2 (BROKER_4's order remaining)");
+        assertNotNull( orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_8_2)).peekFirst(), "BROKER_4's order is still in the order book");
+        assertEquals(price(PRICE_8_2), result2.marketData.bestBid(),"Best bid still 8.2 (BROKER_4's order remaining)");
     }
 
     @Test
     @DisplayName("Should maintain FIFO priority with partial fills")
     void testFIFOPriorityWithPartialFills() throws InterruptedException {
         // Given - Clean slate setup
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        orderBook.getBidMap().clear();
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        orderBook.clear(Side.BUY);
 
         // Setup: Different sized orders at same price
         addLimitBidOrder("BROKER_X", "BIG_ORDER", PRICE_8_2, QUANTITY_500);   // 1st - Large
@@ -386,6 +387,39 @@ public class TestMarketOrderMatching {
         assertEquals(QUANTITY_100, result3.trade.getExecutedQty(), "Second order quantity");
     }
 
+    @Test
+    @DisplayName("Should not use a filled market order returned to the pool in the middle of a sweep")
+    void testFilledMarketOrderReturnedMidSweep() throws InterruptedException {
+        // Given - a market sell larger than the best bid level, priced at the best bid 8.2
+        Order marketSell = RandomOrderRequestGenerator.getNewMarketOrder(STOCK_1, BROKER_4, CLIENT_SELL_MARKET_ORDER_1,
+                SELL, QUANTITY_500);
+        long marketSellId = marketSell.getOrderId();
+        int marketSellGeneration = marketSell.getGeneration();
+        orderProcessingJob.putOrder(marketSell);
+
+        // When - one sweep fills 300 at 8.2, reprices the market sell to 8.1 and fills its last 200 there,
+        // returning it to the pool before the sweep ends (pool_debug=true fails any use of it after that)
+        assertEquals(2, orderMatching.matchWhileCrossed());
+
+        // Then - both fills traded and the market order left the book and the index
+        Trade first = tradeDataQueue.poll();
+        Trade second = tradeDataQueue.poll();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(price(PRICE_8_2), first.getExecutedPrice());
+        assertEquals(QUANTITY_300, first.getExecutedQty());
+        assertEquals(price(PRICE_8_1), second.getExecutedPrice());
+        assertEquals(QUANTITY_200, second.getExecutedQty());
+        assertEquals(0, second.getSellOrderRemainingQty());
+        assertFalse(marketSell.isValidHandle(marketSellId, marketSellGeneration));
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        assertNull(orderBook.getOrderIndex().get(marketSellId));
+        assertTrue(orderBook.isEmpty(Side.SELL));
+        assertEquals(price(PRICE_8_1), orderBook.getBestBid());
+        assertEquals(QUANTITY_100, orderBook.getPriceLevel(Side.BUY, price(PRICE_8_1)).getTotalQty());
+        verifyObjectPoolState(2, 1);
+    }
+
     // === Helper Methods for Verification ===
 
     private MarketOrderMatchResult executeMarketOrderMatch() throws InterruptedException {
@@ -422,23 +456,23 @@ public class TestMarketOrderMatching {
         assertEquals(STOCK_1, trade.getStockNo(), "Trade should be for correct stock");
         assertEquals(expectedBuyOrderID, trade.getBuyOrderID(), "Buy order ID should match expected");
         assertEquals(expectedSellOrderID, trade.getSellOrderID(), "Sell order ID should match expected");
-        assertEquals(expectedPrice, trade.getExecutedPrice(), "Execution price should match expected");
+        assertEquals(price(expectedPrice), trade.getExecutedPrice(), "Execution price should match expected");
         assertEquals(expectedQuantity, trade.getExecutedQty(), "Execution quantity should match expected");
     }
 
     private void verifyMarketDataAfterSell(MarketData marketData, BigDecimal expectedBestBid,
                                            BigDecimal expectedBestAsk, BigDecimal expectedLastTradePrice) {
-        assertEquals(expectedBestBid, marketData.bestBid(), "Best bid should match expected");
-        assertEquals(expectedBestAsk, marketData.bestAsk(), "Best ask should match expected");
-        assertEquals(0, expectedLastTradePrice.compareTo(marketData.lastTradePrice()),
+        assertEquals(price(expectedBestBid), marketData.bestBid(), "Best bid should match expected");
+        assertEquals(price(expectedBestAsk), marketData.bestAsk(), "Best ask should match expected");
+        assertEquals(price(expectedLastTradePrice), marketData.lastTradePrice(),
                 "Last trade price should match expected");
     }
 
     private void verifyMarketDataAfterBuy(MarketData marketData, BigDecimal expectedBestBid,
                                           BigDecimal expectedBestAsk, BigDecimal expectedLastTradePrice) {
-        assertEquals(expectedBestBid, marketData.bestBid(), "Best bid should match expected");
-        assertEquals(expectedBestAsk, marketData.bestAsk(), "Best ask should match expected");
-        assertEquals(expectedLastTradePrice, marketData.lastTradePrice(),
+        assertEquals(price(expectedBestBid), marketData.bestBid(), "Best bid should match expected");
+        assertEquals(price(expectedBestAsk), marketData.bestAsk(), "Best ask should match expected");
+        assertEquals(price(expectedLastTradePrice), marketData.lastTradePrice(),
                 "Last trade price should match expected");
     }
 
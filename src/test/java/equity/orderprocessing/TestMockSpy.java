@@ -6,6 +6,8 @@ import equity.fix.server.FIXTradeServerApp;
 import equity.objectpooling.MarketData;
 import equity.objectpooling.Order;
 import equity.objectpooling.OrderBook;
+import equity.objectpooling.OrderPoolManager;
+import equity.objectpooling.SymbolRegistry;
 import equity.objectpooling.Trade;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -21,14 +23,16 @@ import util.FileChannelService;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 import static util.ReadConfig.dotenv;
@@ -39,6 +43,7 @@ public class TestMockSpy {
     
     // Constants
     private static final String STOCK_1 = "00001";
+    private static final int SYMBOL_1 = SymbolRegistry.getSymbolId(STOCK_1);
     private static final String BROKER_1 = "Broker 1";
     private static final String BROKER_2 = "Broker 2";
     private static final String CLIENT_ORDER_1 = "001";
@@ -51,7 +56,6 @@ public class TestMockSpy {
     private static final Logger log = LogManager.getLogger(TestMockSpy.class);
     
     // Test data structures
-    private static final ConcurrentHashMap<String, Order> orderObjMapper = new ConcurrentHashMap<>();
     private final LinkedBlockingQueue<Order> orderQueue = new LinkedBlockingQueue<>();
     private final LinkedBlockingQueue<MarketData> marketDataQueue = new LinkedBlockingQueue<>();
     private final LinkedBlockingQueue<Trade> tradeDataQueue = new LinkedBlockingQueue<>();
@@ -59,7 +63,7 @@ public class TestMockSpy {
     // Test subjects
     private OrderProcessingJob orderProcessingJob;
     private LimitOrderMatchingJob orderMatching;
-    private Map<String, OrderBook> orderBooks;
+    private OrderBook[] orderBooks;
     
     @Mock
     private FIXTradeServerApp fixTradeServerApp;
@@ -73,23 +77,24 @@ public class TestMockSpy {
 
     @AfterEach
     void tearDown() {
-        orderObjMapper.clear();
         marketDataQueue.clear();
         tradeDataQueue.clear();
+        // Leave no order or trade objects in use behind for the pool tests
+        OrderPoolManager.clearObjects(STOCK_1);
     }
 
     private void initializeOrderBooks() {
-        orderBooks = new HashMap<>();
+        orderBooks = new OrderBook[SymbolRegistry.size()];
         for (int i = 1; i <= NO_OF_STOCKS; i++) {
             String stockId = String.format("%05d", i);
-            orderBooks.put(stockId, new OrderBook(stockId, "Stock " + i));
+            orderBooks[SymbolRegistry.getSymbolId(stockId)] = OrderBook.create(stockId, "Stock " + i);
         }
     }
 
     private void initializeTestSubjects() {
-        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks, orderObjMapper);
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        orderMatching = new LimitOrderMatchingJob(orderBook, orderObjMapper, marketDataQueue, tradeDataQueue, orderProcessingJob);
+        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks);
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        orderMatching = new LimitOrderMatchingJob(orderBook, marketDataQueue, tradeDataQueue, orderProcessingJob);
     }
 
     private void setupInitialOrders() {
@@ -185,6 +190,32 @@ public class TestMockSpy {
                 .writeTradeToFile(any(Trade.class), any(Path.class));
     }
 
+    @Test
+    @DisplayName("Should append a batch of trades of a stock with one write")
+    void testTradeBatchWrite() throws IOException, InterruptedException {
+        // Given - mock that won't call real method
+        FileChannelService fileChannelService = mock(FileChannelService.class);
+        ResultingTradeJob resultingTradeJob = new ResultingTradeJob(
+                tradeDataQueue, fixTradeServerApp, fileChannelService);
+        // The job reuses the list of a stock, so keep a copy of what is written
+        List<Trade> written = new ArrayList<>();
+        when(fileChannelService.writeTradesToFile(anyList(), any(Path.class)))
+                .thenAnswer(invocation -> {
+                    written.addAll(invocation.getArgument(0));
+                    return EXPECTED_WRITE_RESULT;
+                });
+
+        // When - execute trade processing as a batch
+        Trade trade = executeTradeMatching();
+        resultingTradeJob.processTradeBatch(List.of(trade));
+
+        // Then - the batch is written at once and the single write is not used
+        verify(fileChannelService, times(1)).writeTradesToFile(anyList(), any(Path.class));
+        assertEquals(1, written.size());
+        assertSame(trade, written.get(0));
+        verify(fileChannelService, never()).writeTradeToFile(any(), any());
+    }
+
     private Trade executeTradeMatching() throws InterruptedException {
         orderMatching.matchTopOrder();
         return tradeDataQueue.take();
@@ -12,20 +12,27 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import util.ArrayObjectPool;
 import util.FileChannelService;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static equity.objectpooling.PriceScale.NO_PRICE;
 import static util.ReadConfig.dotenv;
 
 @DisplayName("Object Pool Management Tests")
@@ -34,6 +41,7 @@ public class TestObjectPool {
     // Constants
     // Refer to test.config
     private static final String STOCK_1 = "00001";
+    private static final int SYMBOL_1 = SymbolRegistry.getSymbolId(STOCK_1);
     private static final String STOCK_2 = "00002";
     private static final String BROKER_1 = "Broker 1";
     private static final String BROKER_2 = "Broker 2";
@@ -51,7 +59,6 @@ public class TestObjectPool {
     private static final String SELL = Side.SELL.value;
 
     // Test data structures
-    private static final ConcurrentHashMap<String, Order> orderObjMapper = new ConcurrentHashMap<>();
     private final LinkedBlockingQueue<Order> orderQueue = new LinkedBlockingQueue<>();
     private final LinkedBlockingQueue<MarketData> marketDataQueue = new LinkedBlockingQueue<>();
     private final LinkedBlockingQueue<Trade> tradeDataQueue = new LinkedBlockingQueue<>();
@@ -69,7 +76,11 @@ public class TestObjectPool {
     // Test subjects
     private OrderProcessingJob orderProcessingJob;
     private LimitOrderMatchingJob orderMatching;
-    private Map<String, OrderBook> orderBooks;
+    private OrderBook[] orderBooks;
+
+    private static long price(BigDecimal decimalPrice) {
+        return PriceScale.of(STOCK_1).toPrice(decimalPrice);
+    }
 
     @BeforeEach
     void setUp() {
@@ -81,17 +92,17 @@ public class TestObjectPool {
     }
 
     private void initializeOrderBooks() {
-        orderBooks = new HashMap<>();
+        orderBooks = new OrderBook[SymbolRegistry.size()];
         for (int i = 1; i <= NO_OF_STOCKS; i++) {
             String stockId = String.format("%05d", i);
-            orderBooks.put(stockId, new OrderBook(stockId, "Stock " + i));
+            orderBooks[SymbolRegistry.getSymbolId(stockId)] = OrderBook.create(stockId, "Stock " + i);
         }
     }
 
     private void initializeTestSubjects() {
-        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks, orderObjMapper);
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        orderMatching = new LimitOrderMatchingJob(orderBook, orderObjMapper, marketDataQueue, tradeDataQueue, orderProcessingJob);
+        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks);
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        orderMatching = new LimitOrderMatchingJob(orderBook, marketDataQueue, tradeDataQueue, orderProcessingJob);
     }
 
     private void setupInitialOrders() {
@@ -116,7 +127,6 @@ public class TestObjectPool {
     }
 
     private void clearDataStructures() {
-        orderObjMapper.clear();
         marketDataQueue.clear();
         tradeDataQueue.clear();
     }
@@ -235,8 +245,8 @@ public class TestObjectPool {
     }
 
     private void setupSecondTradeScenario() {
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        orderMatching = new LimitOrderMatchingJob(orderBook, orderObjMapper, marketDataQueue, tradeDataQueue, orderProcessingJob);
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        orderMatching = new LimitOrderMatchingJob(orderBook, marketDataQueue, tradeDataQueue, orderProcessingJob);
 
         Order bidOrder = RandomOrderRequestGenerator.getNewLimitOrder(
                 STOCK_1, BROKER_1, CLIENT_ORDER_1, "B", PRICE_8_3, QUANTITY_300);
@@ -251,32 +261,250 @@ public class TestObjectPool {
     @DisplayName("Should successfully remove orders from order book")
     void testRemoveOrder() {
         // Given - verify initial order book state
-        assertNotNull(orderBooks.get(STOCK_1).getBidMap());
-        assertEquals( PRICE_8_3, orderBooks.get(STOCK_1).getBestBid());
+        assertFalse(orderBooks[SYMBOL_1].isEmpty(Side.BUY));
+        assertEquals(price(PRICE_8_3), orderBooks[SYMBOL_1].getBestBid());
 
         // When - remove order
-        boolean removed = orderProcessingJob.removeOrder(BROKER_1, CLIENT_ORDER_1, false);
+        boolean removed = orderProcessingJob.removeOrder(STOCK_1, BROKER_1, CLIENT_ORDER_1, false);
 
         // Then - verify order removal
         assertTrue(removed);
-        assertTrue(orderBooks.get(STOCK_1).getBidMap().isEmpty());
-        assertNull(orderBooks.get(STOCK_1).getBestBid());
+        assertTrue(orderBooks[SYMBOL_1].isEmpty(Side.BUY));
+        assertEquals(NO_PRICE, orderBooks[SYMBOL_1].getBestBid());
     }
 
     @Test
     @DisplayName("Should successfully update order price and quantity")
     void testUpdateOrder() throws InterruptedException {
         // Given - verify initial state
-        assertEquals(PRICE_8_3, orderBooks.get(STOCK_1).getBestBid());
+        assertEquals(price(PRICE_8_3), orderBooks[SYMBOL_1].getBestBid());
 
         // When - update order
-        boolean updated = orderProcessingJob.updateOrder(BROKER_1, CLIENT_ORDER_1, PRICE_7_1, QUANTITY_200);
+        boolean updated = orderProcessingJob.updateOrder(STOCK_1, BROKER_1, CLIENT_ORDER_1, price(PRICE_7_1), QUANTITY_200);
 
         // Then - verify order update
         assertTrue(updated);
-        assertEquals(PRICE_7_1, orderBooks.get(STOCK_1).getBestBid());
-        assertEquals(1, orderBooks.get(STOCK_1).getBidMap().size());
-        assertEquals(1, orderBooks.get(STOCK_1).getBidMap().get(PRICE_7_1).size());
-        assertEquals(QUANTITY_200, orderBooks.get(STOCK_1).getBidMap().get(PRICE_7_1).getFirst().getQuantity().get());
+        assertEquals(price(PRICE_7_1), orderBooks[SYMBOL_1].getBestBid());
+        assertEquals(1, orderBooks[SYMBOL_1].getLevelCount(Side.BUY));
+        assertEquals(1, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).size());
+        assertEquals(QUANTITY_200, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).peekFirst().getQuantity());
+        assertEquals(QUANTITY_200, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).peekFirst().getRemainingQty());
+        assertEquals(QUANTITY_200, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).getTotalQty());
+        assertEquals(QUANTITY_200, orderBooks[SYMBOL_1].getTopOfBook().read(new TopOfBook.Snapshot()).getBidQty());
+
+        // When - update the quantity only, the order staying at its level
+        assertTrue(orderProcessingJob.updateOrder(STOCK_1, BROKER_1, CLIENT_ORDER_1, null, QUANTITY_100));
+
+        // Then - the level and the top of book follow the remaining quantity
+        assertEquals(QUANTITY_100, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).getTotalQty());
+        assertEquals(QUANTITY_100, orderBooks[SYMBOL_1].getTopOfBook().read(new TopOfBook.Snapshot()).getBidQty());
+
+        // When - amend to the unchanged quantity of the unfilled order
+        assertTrue(orderProcessingJob.updateOrder(STOCK_1, BROKER_1, CLIENT_ORDER_1, null, QUANTITY_100));
+
+        // Then - nothing changes
+        assertEquals(QUANTITY_100, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).getTotalQty());
+        assertEquals(QUANTITY_100, orderBooks[SYMBOL_1].getPriceLevel(Side.BUY, price(PRICE_7_1)).peekFirst().getRemainingQty());
+    }
+
+    @Test
+    @DisplayName("Should keep order state in the off-heap store and recycle its records")
+    void testOffHeapOrderStore() {
+        OrderObjectPool pool = new OrderObjectPool(SymbolRegistry.getSymbolId(STOCK_2), true);
+        OffHeapOrderStore store = pool.getOrderStore();
+        try {
+            Order order = pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_300);
+            Order other = pool.makeANewOrder(BROKER_2, CLIENT_ORDER_2, Order.OrderType.LIMIT, Side.SELL, price(PRICE_8_0), QUANTITY_100);
+            assertEquals(2, store.getAllocatedCount());
+            assertNotEquals(order.getStoreHandle(), other.getStoreHandle());
+
+            order.setFilledQty(100);
+            order.setRemainingQty(QUANTITY_200);
+            order.setAvgPrice(price(PRICE_8_1));
+            assertEquals(price(PRICE_8_1), order.getPrice());
+            assertEquals(QUANTITY_300, order.getQuantity());
+            assertEquals(100, order.getFilledQty());
+            assertEquals(QUANTITY_200, order.getRemainingQty());
+            assertEquals(price(PRICE_8_1), order.getAvgPrice());
+            assertNotNull(order.getCreatedDateTime());
+            assertEquals(Side.SELL, other.getSide());
+            assertEquals(QUANTITY_100, other.getRemainingQty());
+
+            // A recycled order reuses its record, reset to the new order
+            int handle = order.getStoreHandle();
+            pool.returnOrderObj(order);
+            Order reused = pool.makeANewOrder(BROKER_2, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.SELL, price(PRICE_7_1), QUANTITY_100);
+            assertSame(order, reused);
+            assertEquals(handle, reused.getStoreHandle());
+            assertEquals(price(PRICE_7_1), reused.getPrice());
+            assertEquals(0, reused.getFilledQty());
+            assertEquals(QUANTITY_100, reused.getRemainingQty());
+            assertEquals(2, store.getAllocatedCount());
+
+            pool.resetPool();
+            assertEquals(0, store.getAllocatedCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Should report the memory footprint of resting orders")
+    void testOrderFootprint() {
+        OrderObjectPool pool = new OrderObjectPool(SymbolRegistry.getSymbolId(STOCK_2), false);
+        Order order = pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_300);
+        pool.makeANewOrder(BROKER_2, CLIENT_ORDER_2, Order.OrderType.LIMIT, Side.SELL, price(PRICE_8_0), QUANTITY_100);
+
+        // Primitive fields and references only, no atomic holders or date-time objects
+        long shallowSize = OrderFootprint.shallowSize(order.getClass());
+        assertTrue(shallowSize <= 120, "Order shallow size " + shallowSize);
+        assertEquals(shallowSize + OrderFootprint.stringSize(BROKER_1) + OrderFootprint.stringSize(CLIENT_ORDER_1),
+                OrderFootprint.heapBytes(order));
+        assertTrue(pool.getFootprintReport().contains("orders: 2\n"));
+        pool.resetPool();
+
+        // The orders of an off-heap pool leave their numeric state, at least 32 bytes, off the heap
+        OrderObjectPool offHeapPool = new OrderObjectPool(SymbolRegistry.getSymbolId(STOCK_2), true);
+        try {
+            Order offHeapOrder = offHeapPool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_300);
+            long offHeapShallowSize = OrderFootprint.shallowSize(offHeapOrder.getClass());
+            assertTrue(offHeapShallowSize + 32 <= shallowSize,
+                    "Off-heap order shallow size " + offHeapShallowSize + ", heap order " + shallowSize);
+            long heapBytes = OrderFootprint.heapBytes(offHeapOrder);
+            assertEquals(OrderFootprint.heapBytes(order) - shallowSize + offHeapShallowSize, heapBytes);
+            String report = offHeapPool.getFootprintReport();
+            assertTrue(report.contains("order object (shallow): " + offHeapShallowSize + " bytes\n"), report);
+            assertTrue(report.contains("heap per order: " + heapBytes + " bytes\n"), report);
+            assertTrue(report.contains("off-heap per order: " + OffHeapOrderStore.RECORD_SIZE + " bytes\n"), report);
+            offHeapPool.resetPool();
+        } finally {
+            offHeapPool.getOrderStore().close();
+        }
+    }
+
+    @Test
+    @DisplayName("Should hand the pooled objects from the returning threads to the taking threads")
+    void testArrayObjectPoolHandoff() throws InterruptedException {
+        int noOfObjects = 200_000;
+        ArrayObjectPool<AtomicBoolean> pool = new ArrayObjectPool<>(64, 8);
+        BlockingQueue<AtomicBoolean> inFlight = new ArrayBlockingQueue<>(32);
+        AtomicInteger created = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // The taking thread plays the gateway, the returning threads the matching threads
+        Thread taker = Thread.ofPlatform().start(() -> {
+            try {
+                for (int i = 0; i < noOfObjects; i++) {
+                    AtomicBoolean inUse = pool.poll();
+                    if (inUse == null) {
+                        inUse = new AtomicBoolean();
+                        created.incrementAndGet();
+                    }
+                    assertTrue(inUse.compareAndSet(false, true), "Object handed out twice");
+                    inFlight.put(inUse);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        Runnable returner = () -> {
+            try {
+                AtomicBoolean inUse;
+                while ((inUse = inFlight.poll(1, TimeUnit.SECONDS)) != null) {
+                    assertTrue(inUse.compareAndSet(true, false));
+                    pool.offer(inUse);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        };
+        Thread platformReturner = Thread.ofPlatform().start(returner);
+        Thread virtualReturner = Thread.ofVirtual().start(returner);
+        taker.join();
+        platformReturner.join();
+        virtualReturner.join();
+
+        assertNull(failure.get());
+        // The objects are recycled rather than created for every request
+        assertTrue(created.get() < noOfObjects / 10, created.get() + " objects created");
+
+        pool.clear();
+        assertNull(pool.poll());
+    }
+
+    @Test
+    @DisplayName("Should pre-allocate the pools and report their high-water mark and misses")
+    void testPoolPrewarmAndStats() {
+        int symbolId = SymbolRegistry.getSymbolId(STOCK_2);
+        OrderObjectPool pool = new OrderObjectPool(symbolId, false, 2, 4);
+        assertEquals(2, pool.getFreeOrderCount());
+        assertEquals(2, pool.getOwnedCount());
+        // The pre-allocated orders are owned but not in use
+        assertEquals(0, pool.getHighWaterMark());
+
+        // The pre-allocated orders are handed out first
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            orders.add(pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_100));
+        }
+        assertEquals(0, pool.getMissCount());
+        assertEquals(2, pool.getHighWaterMark());
+        // A burst beyond them creates orders
+        for (int i = 0; i < 5; i++) {
+            orders.add(pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_100));
+        }
+        assertEquals(5, pool.getMissCount());
+        assertEquals(7, pool.getHighWaterMark());
+        assertEquals(7, pool.getUsedOrderCount());
+
+        // Every order returned is either kept free or dropped
+        orders.forEach(pool::returnOrderObj);
+        assertEquals(0, pool.getUsedOrderCount());
+        assertEquals(7, pool.getHighWaterMark());
+        assertEquals(7, pool.getFreeOrderCount() + pool.getDropCount());
+        assertEquals(7 - pool.getDropCount(), pool.getOwnedCount());
+        assertTrue(pool.getStats().startsWith(STOCK_2 + " orders: initial=2 max=4 hwm=7 owned=" + pool.getOwnedCount()
+                + " misses=5"), pool.getStats());
+
+        // Recycling fewer orders than the peak leaves the high-water mark where it was
+        for (int i = 0; i < 3; i++) {
+            pool.returnOrderObj(pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_100));
+        }
+        assertEquals(7, pool.getHighWaterMark());
+        assertEquals(5, pool.getMissCount());
+        pool.resetPool();
+
+        TradeObjectPool tradePool = new TradeObjectPool(symbolId, 3, 3);
+        assertEquals(3, tradePool.getFreeTradeCount());
+        assertEquals(0, tradePool.getMissCount());
+        assertEquals(3, tradePool.getOwnedCount());
+        assertEquals(0, tradePool.getHighWaterMark());
+    }
+
+    @Test
+    @DisplayName("Should invalidate the handles of an order returned to its pool")
+    void testGenerationHandles() {
+        OrderObjectPool pool = new OrderObjectPool(SymbolRegistry.getSymbolId(STOCK_2), false, 0, 4);
+        Order order = pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_100);
+        long orderId = order.getOrderId();
+        int generation = order.getGeneration();
+        assertTrue(order.isValidHandle(orderId, generation));
+        assertTrue(order.isLive(orderId));
+
+        pool.returnOrderObj(order);
+        assertFalse(order.isValidHandle(orderId, generation));
+        assertFalse(order.isLive(orderId));
+        // test.config turns on pool_debug
+        assertTrue(OrderObjectPool.DEBUG);
+        assertThrows(IllegalStateException.class, () -> order.setRemainingQty(0));
+
+        // Handed out again under a new order ID and generation
+        Order reissued = pool.makeANewOrder(BROKER_1, CLIENT_ORDER_1, Order.OrderType.LIMIT, Side.BUY, price(PRICE_8_1), QUANTITY_100);
+        assertSame(order, reissued);
+        assertFalse(reissued.isValidHandle(orderId, generation));
+        assertFalse(reissued.isLive(orderId));
+        assertTrue(reissued.isValidHandle(reissued.getOrderId(), reissued.getGeneration()));
+        pool.returnOrderObj(reissued);
+        pool.resetPool();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,153 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.Order;
+import equity.objectpooling.Order.OrderType;
+import equity.objectpooling.Order.Side;
+import equity.objectpooling.OrderBook;
+import equity.objectpooling.OrderIndex;
+import equity.objectpooling.OrderPoolManager;
+import equity.objectpooling.SymbolRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static equity.objectpooling.Order.NO_ORDER_ID;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Order Index Tests")
+public class TestOrderIndex {
+    private static final String STOCK_1 = "00001";
+    private static final String BROKER_1 = "Broker 1";
+    private static final String BROKER_2 = "Broker 2";
+    private static final long PRICE = 81000;
+
+    @AfterEach
+    void tearDown() {
+        OrderPoolManager.clearObjects(STOCK_1);
+    }
+
+    private Order newOrder(String brokerID, String clientOrdID) {
+        return OrderPoolManager.requestOrderObj(STOCK_1, brokerID, clientOrdID, OrderType.LIMIT, Side.BUY, PRICE, 100);
+    }
+
+    @Test
+    @DisplayName("Should look up orders by order ID and by client order ID")
+    void testLookup() {
+        OrderIndex index = new OrderIndex(4);
+        Order order1 = newOrder(BROKER_1, "001");
+        Order order2 = newOrder(BROKER_2, "001");
+        assertNotEquals(order1.getOrderId(), order2.getOrderId());
+
+        index.put(order1);
+        index.put(order2);
+
+        assertEquals(2, index.size());
+        assertSame(order1, index.get(order1.getOrderId()));
+        assertSame(order2, index.get(BROKER_2, "001"));
+        assertEquals(order1.getOrderId(), index.getOrderId(BROKER_1, "001"));
+        assertNull(index.get(BROKER_1, "002"));
+        assertNull(index.get(NO_ORDER_ID));
+
+        assertTrue(index.remove(order1));
+        assertFalse(index.remove(order1));
+        assertNull(index.get(order1.getOrderId()));
+        assertEquals(NO_ORDER_ID, index.getOrderId(BROKER_1, "001"));
+        assertSame(order2, index.get(order2.getOrderId()));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("Should keep the client order ID of a later order when an earlier one is removed")
+    void testReusedClientOrderId() {
+        OrderIndex index = new OrderIndex();
+        Order first = newOrder(BROKER_1, "001");
+        Order second = newOrder(BROKER_1, "001");
+        index.put(first);
+        index.put(second);
+
+        assertSame(second, index.get(BROKER_1, "001"));
+        assertTrue(index.remove(first));
+        assertSame(second, index.get(BROKER_1, "001"));
+    }
+
+    @Test
+    @DisplayName("Should keep the client order ID of the later order when the index grows")
+    void testReusedClientOrderIdAfterResize() {
+        OrderIndex index = new OrderIndex(8);
+        List<Order> later = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            index.put(newOrder(BROKER_1, "C" + i));
+            Order second = newOrder(BROKER_1, "C" + i);
+            index.put(second);
+            later.add(second);
+        }
+
+        assertEquals(400, index.size());
+        for (int i = 0; i < later.size(); i++) {
+            assertSame(later.get(i), index.get(BROKER_1, "C" + i), "Client order ID C" + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Should match a HashMap over random puts and removes while growing")
+    void testMatchesHashMap() {
+        OrderIndex index = new OrderIndex(8);
+        Map<Long, Order> expected = new HashMap<>();
+        List<Order> live = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            if (live.isEmpty() || random.nextInt(3) != 0) {
+                Order order = newOrder(random.nextBoolean() ? BROKER_1 : BROKER_2, "C" + i);
+                index.put(order);
+                expected.put(order.getOrderId(), order);
+                live.add(order);
+            } else {
+                Order order = live.remove(random.nextInt(live.size()));
+                assertTrue(index.remove(order));
+                expected.remove(order.getOrderId());
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (Order order : live) {
+            assertSame(order, index.get(order.getOrderId()));
+            assertSame(order, index.get(order.getBrokerID(), order.getClientOrdID()));
+        }
+    }
+
+    @Test
+    @DisplayName("Should cancel and amend by the engine-assigned order ID through the index of the book")
+    void testCancelByOrderId() {
+        OrderBook[] orderBooks = new OrderBook[SymbolRegistry.size()];
+        OrderBook orderBook = OrderBook.create(STOCK_1, "Stock 1");
+        int symbolId = orderBook.getSymbolId();
+        orderBooks[symbolId] = orderBook;
+        OrderIndex index = orderBook.getOrderIndex();
+        OrderProcessingJob job = new OrderProcessingJob(new LinkedBlockingQueue<>(), orderBooks);
+
+        Order order = newOrder(BROKER_1, "001");
+        job.putOrder(order);
+        long orderId = order.getOrderId();
+
+        assertTrue(job.updateOrder(symbolId, orderId, PRICE - orderBook.getPriceScale().getTickSize(), null));
+        assertEquals(PRICE - orderBook.getPriceScale().getTickSize(), orderBook.getBestBid());
+        assertSame(order, index.get(orderId));
+
+        // The index of a book can be dropped and rebuilt from its resting orders
+        index.clear();
+        orderBook.rebuildOrderIndex();
+        assertSame(order, index.get(BROKER_1, "001"));
+
+        assertFalse(job.removeOrder(SymbolRegistry.getSymbolId("00002"), orderId, false), "Orders are routed by symbol");
+        assertTrue(job.removeOrder(symbolId, orderId, false));
+        assertTrue(orderBook.isEmpty(Side.BUY));
+        assertTrue(index.isEmpty());
+        assertFalse(job.removeOrder(symbolId, orderId, false));
+    }
+}
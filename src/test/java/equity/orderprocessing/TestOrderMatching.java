@@ -12,14 +12,11 @@ import org.mockito.Spy;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static equity.objectpooling.PriceScale.NO_PRICE;
 import static util.ReadConfig.dotenv;
 
 @DisplayName("Limit Order Matching Tests")
@@ -27,6 +24,7 @@ public class TestOrderMatching {
     
     // Constants
     private static final String STOCK_1 = "00001";
+    private static final int SYMBOL_1 = SymbolRegistry.getSymbolId(STOCK_1);
     private static final String STOCK_2 = "00002";
     private static final String BROKER_1 = "Broker 1";
     private static final String BROKER_2 = "Broker 2";
@@ -59,8 +57,6 @@ public class TestOrderMatching {
     private static final int NO_OF_STOCKS = Integer.parseInt(Objects.requireNonNull(dotenv.get("no_of_stock")));
     
     // Test data structures
-    private static final ConcurrentHashMap<String, Order> orderObjMapper = new ConcurrentHashMap<>();
-    
     @Mock
     private final LinkedBlockingQueue<Order> orderQueue = new LinkedBlockingQueue<>();
     
@@ -73,7 +69,11 @@ public class TestOrderMatching {
     // Test subjects
     private OrderProcessingJob orderProcessingJob;
     private LimitOrderMatchingJob orderMatching;
-    private Map<String, OrderBook> orderBooks;
+    private OrderBook[] orderBooks;
+
+    private static long price(BigDecimal decimalPrice) {
+        return PriceScale.of(STOCK_1).toPrice(decimalPrice);
+    }
 
     @BeforeEach
     void setUp() {
@@ -90,17 +90,17 @@ public class TestOrderMatching {
     }
 
     private void initializeOrderBooks() {
-        orderBooks = new HashMap<>();
+        orderBooks = new OrderBook[SymbolRegistry.size()];
         for (int i = 1; i <= NO_OF_STOCKS; i++) {
             String stockId = String.format("%05d", i);
-            orderBooks.put(stockId, new OrderBook(stockId, "Stock " + i));
+            orderBooks[SymbolRegistry.getSymbolId(stockId)] = OrderBook.create(stockId, "Stock " + i);
         }
     }
 
     private void initializeTestSubjects() {
-        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks, orderObjMapper);
-        OrderBook orderBook = orderBooks.get(STOCK_1);
-        orderMatching = new LimitOrderMatchingJob(orderBook, orderObjMapper, marketDataQueue, tradeDataQueue, orderProcessingJob);
+        orderProcessingJob = new OrderProcessingJob(orderQueue, orderBooks);
+        OrderBook orderBook = orderBooks[SYMBOL_1];
+        orderMatching = new LimitOrderMatchingJob(orderBook, marketDataQueue, tradeDataQueue, orderProcessingJob);
     }
 
     private void setupInitialOrderBook() {
@@ -118,13 +118,12 @@ public class TestOrderMatching {
     }
 
     private void verifyInitialSetup() {
-        assertEquals(0, PRICE_8_1.compareTo(orderBooks.get(STOCK_1).getBestBid()));
-        assertEquals(0, PRICE_8_2.compareTo(orderBooks.get(STOCK_1).getBestAsk()));
-        assertEquals(2, orderObjMapper.size());
+        assertEquals(price(PRICE_8_1), orderBooks[SYMBOL_1].getBestBid());
+        assertEquals(price(PRICE_8_2), orderBooks[SYMBOL_1].getBestAsk());
+        assertEquals(2, orderBooks[SYMBOL_1].getOrderIndex().size());
     }
 
     private void clearTestData() {
-        orderObjMapper.clear();
         marketDataQueue.clear();
         tradeDataQueue.clear();
     }
@@ -162,30 +161,79 @@ public class TestOrderMatching {
         assertNotNull(result.trade);
         assertNotNull(result.marketData);
         
-        assertEquals(0, PRICE_8_2.compareTo(result.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_2), result.trade.getExecutedPrice());
         assertEquals(QUANTITY_200, result.trade.getExecutedQty());
         assertEquals(BROKER_3, result.trade.getBuyBrokerID());
         assertEquals(BROKER_2, result.trade.getSellBrokerID());
         
         // Verify remaining bid order
-        assertEquals(0, PRICE_8_5.compareTo(result.marketData.bestBid()));
-        assertNull(result.marketData.bestAsk());
-        assertEquals(0, PRICE_8_2.compareTo(result.marketData.lastTradePrice()));
+        assertEquals(price(PRICE_8_5), result.marketData.bestBid());
+        assertEquals(NO_PRICE, result.marketData.bestAsk());
+        assertEquals(price(PRICE_8_2), result.marketData.lastTradePrice());
     }
 
     private void verifySecondCycle(MatchingResult result) {
         assertNotNull(result.trade);
         assertNotNull(result.marketData);
         
-        assertEquals(0, PRICE_8_3.compareTo(result.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_3), result.trade.getExecutedPrice());
         assertEquals(QUANTITY_400, result.trade.getExecutedQty());
         assertEquals(BROKER_3, result.trade.getBuyBrokerID());
         assertEquals(BROKER_4, result.trade.getSellBrokerID());
         
         // Verify remaining quantities
-        assertEquals(0, PRICE_8_5.compareTo(result.marketData.bestBid()));
-        assertNull(result.marketData.bestAsk());
-        assertEquals(0, PRICE_8_3.compareTo(result.marketData.lastTradePrice()));
+        assertEquals(price(PRICE_8_5), result.marketData.bestBid());
+        assertEquals(NO_PRICE, result.marketData.bestAsk());
+        assertEquals(price(PRICE_8_3), result.marketData.lastTradePrice());
+    }
+
+    @Test
+    @DisplayName("Should match a marketable order on arrival without a matching cycle")
+    void testMatchOnArrival() {
+        orderProcessingJob.setMatchingJob(orderMatching);
+
+        // A bid below the best ask rests without trading
+        orderProcessingJob.putOrder(createLimitOrder(STOCK_1, BROKER_3, CLIENT_BUY_ORDER_2, BUY, PRICE_8_1, QUANTITY_100));
+        assertTrue(tradeDataQueue.isEmpty());
+
+        // A bid through the best ask trades within putOrder and rests with the remaining quantity
+        Order largeBidOrder = createLimitOrder(STOCK_1, BROKER_3, CLIENT_BUY_ORDER_3, BUY, PRICE_8_5, QUANTITY_1000);
+        orderProcessingJob.putOrder(largeBidOrder);
+
+        Trade trade = tradeDataQueue.poll();
+        assertNotNull(trade);
+        assertEquals(price(PRICE_8_2), trade.getExecutedPrice());
+        assertEquals(QUANTITY_200, trade.getExecutedQty());
+        assertTrue(tradeDataQueue.isEmpty());
+        assertNotNull(marketDataQueue.poll());
+        assertEquals(QUANTITY_800, largeBidOrder.getRemainingQty());
+        assertEquals(price(PRICE_8_5), orderBooks[SYMBOL_1].getBestBid());
+        assertEquals(NO_PRICE, orderBooks[SYMBOL_1].getBestAsk());
+    }
+
+    @Test
+    @DisplayName("Should sweep several price levels in one pass with a single market data update")
+    void testSweepLevels() {
+        orderProcessingJob.putOrder(createLimitOrder(STOCK_1, BROKER_4, CLIENT_SELL_ORDER_2, SELL, PRICE_8_3, QUANTITY_300));
+        orderProcessingJob.putOrder(createLimitOrder(STOCK_1, BROKER_4, CLIENT_SELL_ORDER_3, SELL, PRICE_8_5, QUANTITY_400));
+        orderProcessingJob.setMatchingJob(orderMatching);
+
+        // A bid through all three ask levels
+        Order largeBidOrder = createLimitOrder(STOCK_1, BROKER_3, CLIENT_BUY_ORDER_2, BUY, PRICE_8_6, QUANTITY_1000);
+        orderProcessingJob.putOrder(largeBidOrder);
+
+        assertEquals(3, tradeDataQueue.size());
+        assertEquals(price(PRICE_8_2), tradeDataQueue.poll().getExecutedPrice());
+        assertEquals(price(PRICE_8_3), tradeDataQueue.poll().getExecutedPrice());
+        assertEquals(price(PRICE_8_5), tradeDataQueue.poll().getExecutedPrice());
+
+        // One book update with the state after the sweep
+        assertEquals(1, marketDataQueue.size());
+        MarketData marketData = marketDataQueue.poll();
+        assertEquals(price(PRICE_8_5), marketData.lastTradePrice());
+        assertEquals(price(PRICE_8_6), marketData.bestBid());
+        assertEquals(NO_PRICE, marketData.bestAsk());
+        assertEquals(QUANTITY_100, largeBidOrder.getRemainingQty());
     }
 
     @Test
@@ -195,7 +243,6 @@ public class TestOrderMatching {
         OrderBook bidOnlyBook = createOrderBookWithBidOnly();
         LimitOrderMatchingJob bidOnlyMatching = new LimitOrderMatchingJob(
                 bidOnlyBook, 
-                orderObjMapper, 
                 marketDataQueue, 
                 tradeDataQueue,
                 orderProcessingJob
@@ -207,8 +254,8 @@ public class TestOrderMatching {
         // Then - no trades should occur
         assertTrue(marketDataQueue.isEmpty());
         assertTrue(tradeDataQueue.isEmpty());
-        assertEquals(0, PRICE_8_1.compareTo(bidOnlyBook.getBestBid()));
-        assertNull(bidOnlyBook.getBestAsk());
+        assertEquals(price(PRICE_8_1), bidOnlyBook.getBestBid());
+        assertEquals(NO_PRICE, bidOnlyBook.getBestAsk());
     }
 
     @Test
@@ -218,7 +265,6 @@ public class TestOrderMatching {
         OrderBook askOnlyBook = createOrderBookWithAskOnly();
         LimitOrderMatchingJob askOnlyMatching = new LimitOrderMatchingJob(
                 askOnlyBook, 
-                orderObjMapper, 
                 marketDataQueue, 
                 tradeDataQueue,
                 orderProcessingJob
@@ -230,8 +276,8 @@ public class TestOrderMatching {
         // Then - no trades should occur
         assertTrue(marketDataQueue.isEmpty());
         assertTrue(tradeDataQueue.isEmpty());
-        assertNull(askOnlyBook.getBestBid());
-        assertEquals(0, PRICE_8_2.compareTo(askOnlyBook.getBestAsk()));
+        assertEquals(NO_PRICE, askOnlyBook.getBestBid());
+        assertEquals(price(PRICE_8_2), askOnlyBook.getBestAsk());
     }
 
     @Test
@@ -260,36 +306,36 @@ public class TestOrderMatching {
     }
 
     private void verifyLargeBidCycle1(MatchingResult result) {
-        assertEquals(0, PRICE_8_2.compareTo(result.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_2), result.trade.getExecutedPrice());
         assertEquals(QUANTITY_200, result.trade.getExecutedQty());
         assertEquals(QUANTITY_800, result.trade.getBuyOrderRemainingQty());
-        assertEquals(PRICE_8_2, result.trade.getBuyOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_2), result.trade.getBuyOrderAvgExecutedPrice());
         assertEquals(0, result.trade.getSellOrderRemainingQty());
-        assertEquals(PRICE_8_2, result.trade.getSellOrderAvgExecutedPrice());
-        assertEquals(0, PRICE_8_6.compareTo(result.marketData.bestBid()));
-        assertEquals(0, PRICE_8_5.compareTo(result.marketData.bestAsk()));
+        assertEquals(price(PRICE_8_2), result.trade.getSellOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_6), result.marketData.bestBid());
+        assertEquals(price(PRICE_8_5), result.marketData.bestAsk());
     }
 
     private void verifyLargeBidCycle2(MatchingResult result) {
-        assertEquals(0, PRICE_8_5.compareTo(result.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_5), result.trade.getExecutedPrice());
         assertEquals(QUANTITY_300, result.trade.getExecutedQty());
         assertEquals(QUANTITY_500, result.trade.getBuyOrderRemainingQty());
-        assertEquals(BigDecimal.valueOf(8.38).setScale(4, RoundingMode.HALF_UP), result.trade.getBuyOrderAvgExecutedPrice());
+        assertEquals(price(BigDecimal.valueOf(8.38).setScale(4, RoundingMode.HALF_UP)), result.trade.getBuyOrderAvgExecutedPrice());
         assertEquals(0, result.trade.getSellOrderRemainingQty());
-        assertEquals(PRICE_8_5, result.trade.getSellOrderAvgExecutedPrice());
-        assertEquals(0, PRICE_8_6.compareTo(result.marketData.bestBid()));
-        assertEquals(0, PRICE_8_6.compareTo(result.marketData.bestAsk()));
+        assertEquals(price(PRICE_8_5), result.trade.getSellOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_6), result.marketData.bestBid());
+        assertEquals(price(PRICE_8_6), result.marketData.bestAsk());
     }
 
     private void verifyLargeBidCycle3(MatchingResult result) {
-        assertEquals(0, PRICE_8_6.compareTo(result.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_6), result.trade.getExecutedPrice());
         assertEquals(QUANTITY_400, result.trade.getExecutedQty());
         assertEquals(QUANTITY_100, result.trade.getBuyOrderRemainingQty());
-        assertEquals(BigDecimal.valueOf((double)7630/900).setScale(4, RoundingMode.HALF_UP), result.trade.getBuyOrderAvgExecutedPrice());
+        assertEquals(price(BigDecimal.valueOf((double)7630/900).setScale(4, RoundingMode.HALF_UP)), result.trade.getBuyOrderAvgExecutedPrice());
         assertEquals(0, result.trade.getSellOrderRemainingQty());
-        assertEquals(PRICE_8_6, result.trade.getSellOrderAvgExecutedPrice());
-        assertEquals(0, PRICE_8_6.compareTo(result.marketData.bestBid()));
-        assertNull(result.marketData.bestAsk());
+        assertEquals(price(PRICE_8_6), result.trade.getSellOrderAvgExecutedPrice());
+        assertEquals(price(PRICE_8_6), result.marketData.bestBid());
+        assertEquals(NO_PRICE, result.marketData.bestAsk());
     }
 
     @Test
@@ -309,18 +355,18 @@ public class TestOrderMatching {
         // Then - verify perfect match
         assertNotNull(cycle1.trade);
         assertNotNull(cycle1.marketData);
-        assertEquals(0, PRICE_8_1.compareTo(cycle1.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_1), cycle1.trade.getExecutedPrice());
         assertEquals(QUANTITY_200, cycle1.trade.getExecutedQty());
         assertEquals(CLIENT_BUY_ORDER_2, cycle1.trade.getBuyOrderID());
         assertEquals(CLIENT_SELL_ORDER_2, cycle1.trade.getSellOrderID());
 
         assertNotNull(cycle2.trade);
         assertNotNull(cycle2.marketData);
-        assertEquals(0, PRICE_8_1.compareTo(cycle2.trade.getExecutedPrice()));
+        assertEquals(price(PRICE_8_1), cycle2.trade.getExecutedPrice());
         assertEquals(QUANTITY_100, cycle2.trade.getExecutedQty());
         assertEquals(CLIENT_BUY_INITIAL_ORDER_1, cycle2.trade.getBuyOrderID());
-        assertEquals(0, PRICE_8_1.compareTo(cycle2.marketData.bestBid()));
-        assertEquals(0, PRICE_8_2.compareTo(cycle2.marketData.bestAsk()));
+        assertEquals(price(PRICE_8_1), cycle2.marketData.bestBid());
+        assertEquals(price(PRICE_8_2), cycle2.marketData.bestAsk());
 
         assertNull(cycle3.trade);
         assertNull(cycle3.marketData);
@@ -334,23 +380,17 @@ public class TestOrderMatching {
     }
 
     private OrderBook createOrderBookWithBidOnly() {
-        OrderBook orderBook = new OrderBook(STOCK_2, "Bid Only Stock");
+        OrderBook orderBook = OrderBook.create(STOCK_2, "Bid Only Stock");
         Order bidOrder = createLimitOrder(STOCK_2, BROKER_1, CLIENT_BUY_ORDER_3, BUY, PRICE_8_1, QUANTITY_300);
-        
-        LinkedList<Order> bidQueue = new LinkedList<>();
-        bidQueue.add(bidOrder);
-        orderBook.getBidMap().put(PRICE_8_1, bidQueue);
+        orderBook.addOrder(bidOrder);
         
         return orderBook;
     }
 
     private OrderBook createOrderBookWithAskOnly() {
-        OrderBook orderBook = new OrderBook(STOCK_2, "Ask Only Stock");
+        OrderBook orderBook = OrderBook.create(STOCK_2, "Ask Only Stock");
         Order askOrder = createLimitOrder(STOCK_2, BROKER_2, CLIENT_BUY_ORDER_4, SELL, PRICE_8_2, QUANTITY_200);
-        
-        LinkedList<Order> askQueue = new LinkedList<>();
-        askQueue.add(askOrder);
-        orderBook.getAskMap().put(PRICE_8_2, askQueue);
+        orderBook.addOrder(askOrder);
         
         return orderBook;
     }
@@ -0,0 +1,123 @@
+package equity.orderprocessing;
+
+import com.lmax.disruptor.dsl.ProducerType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import util.RingBufferStage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the throughput of one pipeline hop on a LinkedBlockingQueue and on ring buffer stages.
+ * The rates are only reported, the assertions check that every value arrives once and in order.
+ */
+@DisplayName("Pipeline Throughput Tests")
+public class TestPipelineThroughput {
+    private static final Logger log = LogManager.getLogger(TestPipelineThroughput.class);
+    private static final int NO_OF_VALUES = 500_000;
+    private static final int RING_SIZE = 1024;
+    private static final Integer[] VALUES = new Integer[NO_OF_VALUES];
+
+    static {
+        for (int i = 0; i < NO_OF_VALUES; i++) {
+            VALUES[i] = i;
+        }
+    }
+
+    /**
+     * Consumer checking the order of the values.
+     */
+    private static final class Sink {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int expected;
+        private int outOfOrder;
+
+        void accept(Integer value) {
+            if (value != expected) {
+                outOfOrder++;
+            }
+            if (++expected == NO_OF_VALUES) {
+                done.countDown();
+            }
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(60, TimeUnit.SECONDS), "Only " + expected + " values arrived");
+            assertEquals(NO_OF_VALUES, expected);
+            assertEquals(0, outOfOrder);
+        }
+    }
+
+    private long runQueue() throws InterruptedException {
+        LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+        Sink sink = new Sink();
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < NO_OF_VALUES; i++) {
+                    sink.accept(queue.take());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "QueueConsumer");
+        consumer.start();
+        long start = System.nanoTime();
+        for (Integer value : VALUES) {
+            queue.put(value);
+        }
+        sink.await();
+        long elapsed = System.nanoTime() - start;
+        consumer.join();
+        return elapsed;
+    }
+
+    private long runRingBuffer(String waitStrategy) throws InterruptedException {
+        Sink sink = new Sink();
+        RingBufferStage<Integer> stage = new RingBufferStage<>("throughput", RING_SIZE, ProducerType.SINGLE,
+                RingBufferStage.createWaitStrategy(waitStrategy));
+        stage.start(sink::accept);
+        try {
+            long start = System.nanoTime();
+            for (Integer value : VALUES) {
+                stage.publish(value);
+            }
+            sink.await();
+            return System.nanoTime() - start;
+        } finally {
+            stage.close();
+        }
+    }
+
+    private static String rate(String name, long elapsedNanos) {
+        return String.format("%-28s %,12d values/s", name, NO_OF_VALUES * 1_000_000_000L / Math.max(1, elapsedNanos));
+    }
+
+    @Test
+    @DisplayName("Should deliver every value once and in order through queues and ring buffers")
+    void testThroughput() throws InterruptedException {
+        // Warm up both paths before measuring
+        runQueue();
+        runRingBuffer("BLOCKING");
+
+        String report = String.join("\n",
+                rate("LinkedBlockingQueue", runQueue()),
+                rate("Disruptor BLOCKING", runRingBuffer("BLOCKING")),
+                rate("Disruptor SLEEPING", runRingBuffer("SLEEPING")),
+                rate("Disruptor YIELDING", runRingBuffer("YIELDING")));
+        log.info("Single producer, single consumer throughput of {} values, ring size {}\n{}",
+                NO_OF_VALUES, RING_SIZE, report);
+    }
+
+    @Test
+    @DisplayName("Should read the wait strategy by name")
+    void testWaitStrategyNames() {
+        assertEquals("BusySpinWaitStrategy", RingBufferStage.createWaitStrategy("busy_spin").getClass().getSimpleName());
+        assertThrows(IllegalArgumentException.class, () -> RingBufferStage.createWaitStrategy("PARKING"));
+    }
+}
@@ -0,0 +1,289 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.*;
+import equity.objectpooling.Order.OrderType;
+import equity.objectpooling.Order.Side;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static equity.objectpooling.PriceScale.NO_PRICE;
+
+@DisplayName("Price Ladder Order Book Tests")
+public class TestPriceLadderOrderBook {
+    private static final String STOCK_1 = "00001";
+    private static final String BROKER_1 = "Broker 1";
+    // A narrow ladder so that the tests cross the band in a few ticks
+    private static final int LADDER_TICKS = 8;
+    private static final long BASE_PRICE = 81000;
+
+    private final long tick = PriceScale.of(STOCK_1).getTickSize();
+    private int clientOrdSeq = 0;
+
+    @AfterEach
+    void tearDown() {
+        OrderPoolManager.clearObjects(STOCK_1);
+    }
+
+    private Order newOrder(Side side, long price) {
+        return OrderPoolManager.requestOrderObj(STOCK_1, BROKER_1, "L" + (++clientOrdSeq), OrderType.LIMIT, side, price, 100);
+    }
+
+    private List<Long> prices(OrderBook orderBook, Side side) {
+        List<Long> prices = new ArrayList<>();
+        orderBook.forEachPriceLevel(side, level -> prices.add(level.getPrice()));
+        return prices;
+    }
+
+    @Test
+    @DisplayName("Should re-centre when a better price arrives and keep the worse levels in order")
+    void testRecentreOnBetterPrice() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        Order low = newOrder(Side.BUY, BASE_PRICE);
+        Order mid = newOrder(Side.BUY, BASE_PRICE + 3 * tick);
+        // Far outside the band - forces a re-centre which pushes the lower levels to the overflow
+        Order high = newOrder(Side.BUY, BASE_PRICE + 20 * tick);
+        orderBook.addOrder(low);
+        orderBook.addOrder(mid);
+        orderBook.addOrder(high);
+
+        assertEquals(BASE_PRICE + 20 * tick, orderBook.getBestPrice(Side.BUY));
+        assertEquals(BASE_PRICE, orderBook.getWorstPrice(Side.BUY));
+        assertEquals(3, orderBook.getLevelCount(Side.BUY));
+        assertEquals(List.of(BASE_PRICE + 20 * tick, BASE_PRICE + 3 * tick, BASE_PRICE), prices(orderBook, Side.BUY));
+
+        // Removing the best level brings the overflow levels back into the ladder
+        assertTrue(orderBook.removeOrder(high));
+        assertEquals(BASE_PRICE + 3 * tick, orderBook.getBestPrice(Side.BUY));
+        assertSame(mid, orderBook.peekBestOrder(Side.BUY));
+        assertTrue(orderBook.removeOrder(mid));
+        assertSame(low, orderBook.peekBestOrder(Side.BUY));
+        assertTrue(orderBook.removeOrder(low));
+        assertTrue(orderBook.isEmpty(Side.BUY));
+        assertEquals(NO_PRICE, orderBook.getBestPrice(Side.BUY));
+    }
+
+    @Test
+    @DisplayName("Should reuse the levels emptied in the overflow for new prices")
+    void testOverflowLevelReuse() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        orderBook.addOrder(newOrder(Side.BUY, BASE_PRICE + 20 * tick));
+        // Below the band
+        Order low = newOrder(Side.BUY, BASE_PRICE);
+        orderBook.addOrder(low);
+        PriceLevel lowLevel = orderBook.getPriceLevel(Side.BUY, BASE_PRICE);
+        assertNotNull(lowLevel);
+
+        assertTrue(orderBook.removeOrder(low));
+        assertNull(orderBook.getPriceLevel(Side.BUY, BASE_PRICE));
+        Order lower = newOrder(Side.BUY, BASE_PRICE - 5 * tick);
+        orderBook.addOrder(lower);
+        PriceLevel lowerLevel = orderBook.getPriceLevel(Side.BUY, BASE_PRICE - 5 * tick);
+        assertSame(lowLevel, lowerLevel);
+        assertEquals(BASE_PRICE - 5 * tick, lowerLevel.getPrice());
+        assertSame(lower, lowerLevel.peekFirst());
+        assertEquals(List.of(BASE_PRICE + 20 * tick, BASE_PRICE - 5 * tick), prices(orderBook, Side.BUY));
+    }
+
+    @Test
+    @DisplayName("Should rank asks from the lowest price and keep FIFO within a level")
+    void testAskSideOrdering() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        Order first = newOrder(Side.SELL, BASE_PRICE + 2 * tick);
+        Order second = newOrder(Side.SELL, BASE_PRICE + 2 * tick);
+        Order far = newOrder(Side.SELL, BASE_PRICE + 50 * tick);
+        orderBook.addOrder(first);
+        orderBook.addOrder(second);
+        orderBook.addOrder(far);
+
+        assertEquals(BASE_PRICE + 2 * tick, orderBook.getBestPrice(Side.SELL));
+        assertEquals(BASE_PRICE + 50 * tick, orderBook.getWorstPrice(Side.SELL));
+        assertSame(first, orderBook.peekBestOrder(Side.SELL));
+        assertTrue(orderBook.removeOrder(first));
+        assertSame(second, orderBook.peekBestOrder(Side.SELL));
+        assertTrue(orderBook.removeOrder(second));
+        assertEquals(BASE_PRICE + 50 * tick, orderBook.getBestPrice(Side.SELL));
+        assertSame(far, orderBook.peekBestOrder(Side.SELL));
+    }
+
+    @Test
+    @DisplayName("Should cancel from the middle of a level and keep the FIFO of the others")
+    void testCancelInsideLevel() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        Order first = newOrder(Side.BUY, BASE_PRICE);
+        Order second = newOrder(Side.BUY, BASE_PRICE);
+        Order third = newOrder(Side.BUY, BASE_PRICE);
+        orderBook.addOrder(first);
+        orderBook.addOrder(second);
+        orderBook.addOrder(third);
+        PriceLevel level = orderBook.getPriceLevel(Side.BUY, BASE_PRICE);
+        assertSame(level, second.getLevel());
+        assertEquals(300, level.getTotalQty());
+        assertEquals(3, level.getOrderCount());
+
+        assertTrue(orderBook.removeOrder(second));
+        assertNull(second.getLevel());
+        assertFalse(orderBook.removeOrder(second), "An order can only be removed once");
+        assertEquals(2, level.getOrderCount());
+        assertEquals(200, level.getTotalQty());
+        assertSame(third, first.getNext());
+        assertSame(first, third.getPrev());
+
+        assertTrue(orderBook.removeOrder(first));
+        assertSame(third, orderBook.peekBestOrder(Side.BUY));
+        assertTrue(orderBook.removeOrder(third));
+        assertNull(orderBook.getPriceLevel(Side.BUY, BASE_PRICE));
+        assertTrue(level.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should keep the cached top of book in step with the best levels")
+    void testTopOfBook() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        TopOfBook.Snapshot snapshot = new TopOfBook.Snapshot();
+        Order bid1 = newOrder(Side.BUY, BASE_PRICE);
+        Order bid2 = newOrder(Side.BUY, BASE_PRICE);
+        Order worseBid = newOrder(Side.BUY, BASE_PRICE - tick);
+        Order ask = newOrder(Side.SELL, BASE_PRICE + tick);
+        orderBook.addOrder(bid1);
+        orderBook.addOrder(bid2);
+        orderBook.addOrder(worseBid);
+        orderBook.addOrder(ask);
+
+        orderBook.getTopOfBook().read(snapshot);
+        assertEquals(BASE_PRICE, snapshot.getBidPrice());
+        assertEquals(200, snapshot.getBidQty());
+        assertEquals(2, snapshot.getBidOrderCount());
+        assertEquals(BASE_PRICE + tick, snapshot.getAskPrice());
+        assertEquals(100, snapshot.getAskQty());
+        assertFalse(snapshot.isCrossed());
+
+        // A partial fill is published once the writer refreshes the side
+        bid1.setRemainingQty(40);
+        orderBook.refreshTopOfBook(Side.BUY);
+        assertEquals(140, orderBook.getTopOfBook().read(snapshot).getBidQty());
+
+        orderBook.removeOrder(bid1);
+        orderBook.removeOrder(bid2);
+        orderBook.getTopOfBook().read(snapshot);
+        assertEquals(BASE_PRICE - tick, snapshot.getBidPrice());
+        assertEquals(1, snapshot.getBidOrderCount());
+        assertEquals(BASE_PRICE - tick, orderBook.getBestBid());
+
+        orderBook.clear(Side.SELL);
+        assertEquals(NO_PRICE, orderBook.getBestAsk());
+        assertNull(ask.getLevel());
+    }
+
+    @Test
+    @DisplayName("Should never let a reader see a half-written top of book")
+    void testTopOfBookConsistentReads() throws InterruptedException {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        Order bid1 = newOrder(Side.BUY, BASE_PRICE);
+        Order bid2 = newOrder(Side.BUY, BASE_PRICE);
+        orderBook.addOrder(bid1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean torn = new AtomicBoolean(false);
+        Thread reader = new Thread(() -> {
+            TopOfBook.Snapshot snapshot = new TopOfBook.Snapshot();
+            while (running.get()) {
+                orderBook.getTopOfBook().read(snapshot);
+                // Every order at the level has 100 shares
+                if (snapshot.getBidQty() != 100 * snapshot.getBidOrderCount()) {
+                    torn.set(true);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 100_000; i++) {
+            orderBook.addOrder(bid2);
+            orderBook.removeOrder(bid2);
+        }
+        running.set(false);
+        reader.join();
+        assertFalse(torn.get());
+    }
+
+    @Test
+    @DisplayName("Should keep the level aggregates on fills and report the L2 depth")
+    void testPriceLevelAggregates() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        Order ask1 = newOrder(Side.SELL, BASE_PRICE);
+        Order ask2 = newOrder(Side.SELL, BASE_PRICE);
+        Order ask3 = newOrder(Side.SELL, BASE_PRICE + tick);
+        orderBook.addOrder(ask1);
+        orderBook.addOrder(ask2);
+        orderBook.addOrder(ask3);
+
+        ask1.setRemainingQty(30);
+        PriceLevel best = orderBook.getPriceLevel(Side.SELL, BASE_PRICE);
+        assertEquals(130, best.getTotalQty());
+        assertEquals(2, best.getOrderCount());
+
+        PriceScale priceScale = orderBook.getPriceScale();
+        String expectedDepth = priceScale.format(BASE_PRICE) + " 130 2\n"
+                + priceScale.format(BASE_PRICE + tick) + " 100 1\n";
+        assertEquals(expectedDepth, orderBook.getTextFormatOfDepth(Side.SELL, 10));
+        assertEquals(priceScale.format(BASE_PRICE) + " 130 2\n", orderBook.getTextFormatOfDepth(Side.SELL, 1));
+
+        ask1.setRemainingQty(0);
+        orderBook.removeOrder(ask1);
+        assertEquals(100, best.getTotalQty());
+        assertEquals(1, best.getOrderCount());
+    }
+
+    @Test
+    @DisplayName("Should reject prices which are not on the tick grid")
+    void testRejectOffTickPrice() {
+        OrderBook orderBook = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        if (tick > 1) {
+            assertThrows(IllegalArgumentException.class, () -> orderBook.addOrder(newOrder(Side.BUY, BASE_PRICE + 1)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new PriceLadderOrderBook(STOCK_1, "Ladder", 1));
+    }
+
+    @Test
+    @DisplayName("Should agree with the tree order book on random inserts and cancels")
+    void testMatchesTreeOrderBook() {
+        OrderBook ladder = new PriceLadderOrderBook(STOCK_1, "Ladder", LADDER_TICKS);
+        OrderBook tree = new TreeOrderBook(STOCK_1, "Tree");
+        Random random = new Random(42);
+        List<Order> ladderOrders = new ArrayList<>();
+        List<Order> treeOrders = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            if (ladderOrders.isEmpty() || random.nextInt(3) > 0) {
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                // Drift the centre of the flow to cross the band in both directions
+                long centre = BASE_PRICE + (long) (40 * Math.sin(i / 300.0)) * tick;
+                long price = centre + (random.nextInt(41) - 20) * tick;
+                Order ladderOrder = newOrder(side, price);
+                Order treeOrder = newOrder(side, price);
+                ladder.addOrder(ladderOrder);
+                tree.addOrder(treeOrder);
+                ladderOrders.add(ladderOrder);
+                treeOrders.add(treeOrder);
+            } else {
+                int index = random.nextInt(ladderOrders.size());
+                assertTrue(ladder.removeOrder(ladderOrders.remove(index)));
+                assertTrue(tree.removeOrder(treeOrders.remove(index)));
+            }
+
+            for (Side side : Side.values()) {
+                assertEquals(tree.getBestPrice(side), ladder.getBestPrice(side));
+                assertEquals(tree.getWorstPrice(side), ladder.getWorstPrice(side));
+                assertEquals(tree.getLevelCount(side), ladder.getLevelCount(side));
+            }
+        }
+        for (Side side : Side.values()) {
+            assertEquals(prices(tree, side), prices(ladder, side));
+            assertEquals(tree.getTextFormatOfOrderBook(side).length(), ladder.getTextFormatOfOrderBook(side).length());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package equity.orderprocessing;
+
+import equity.client.RandomOrderRequestGenerator;
+import equity.objectpooling.*;
+import equity.objectpooling.Order.Side;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Single Writer Order Book Tests")
+public class TestSingleWriterBook {
+    private static final String STOCK_1 = "00001";
+    private static final String STOCK_2 = "00002";
+    private static final String BROKER_1 = "Broker 1";
+    private static final String BROKER_2 = "Broker 2";
+    private static final BigDecimal PRICE_8_1 = new BigDecimal("8.1000");
+    private static final BigDecimal PRICE_8_2 = new BigDecimal("8.2000");
+
+    private final LinkedBlockingQueue<MarketData> marketDataQueue = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Trade> tradeDataQueue = new LinkedBlockingQueue<>();
+    private OrderBook orderBook;
+    private SingleWriterBookJob writer;
+
+    @BeforeEach
+    void setUp() {
+        orderBook = OrderBook.create(STOCK_1, "Stock 1");
+        writer = new SingleWriterBookJob(orderBook, marketDataQueue::put, tradeDataQueue::put);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+        tradeDataQueue.forEach(OrderPoolManager::returnTradeObj);
+        OrderPoolManager.clearObjects(STOCK_1);
+        OrderPoolManager.clearObjects(STOCK_2);
+    }
+
+    private Order newOrder(String broker, String clientOrdId, Side side, BigDecimal price, int quantity) {
+        return newOrder(STOCK_1, broker, clientOrdId, side, price, quantity);
+    }
+
+    private Order newOrder(String stockNo, String broker, String clientOrdId, Side side, BigDecimal price, int quantity) {
+        return RandomOrderRequestGenerator.getNewLimitOrder(stockNo, broker, clientOrdId, side.value, price, quantity);
+    }
+
+    @Test
+    @DisplayName("Should match a crossing order in the same command without taking the side locks")
+    void testMatchOnCommand() throws InterruptedException {
+        Order bid = newOrder(BROKER_1, "B001", Side.BUY, PRICE_8_2, 300);
+        writer.apply(SingleWriterBookJob.Command.newOrder(bid));
+        assertTrue(tradeDataQueue.isEmpty());
+
+        // Hold the write lock of the ask side: the writer must not need it
+        orderBook.getAskLock().writeLock().lock();
+        Thread writerThread = new Thread(writer, "Writer-" + STOCK_1);
+        writerThread.start();
+        try {
+            writer.submit(newOrder(BROKER_2, "S001", Side.SELL, PRICE_8_1, 200));
+            Trade trade = tradeDataQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull(trade, "The crossing order should trade without the side lock");
+            assertEquals(200, trade.getExecutedQty());
+        } finally {
+            orderBook.getAskLock().writeLock().unlock();
+        }
+
+        assertNotNull(marketDataQueue.poll(5, TimeUnit.SECONDS));
+        assertEquals(100, bid.getRemainingQty());
+        assertTrue(orderBook.isEmpty(Side.SELL));
+
+        // Cancels go through the writer as well
+        writer.submitCancel(bid.getOrderId());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!(orderBook.isEmpty(Side.BUY) && orderBook.getOrderIndex().isEmpty()) && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertTrue(orderBook.isEmpty(Side.BUY));
+        assertTrue(orderBook.getOrderIndex().isEmpty());
+        writerThread.interrupt();
+        writerThread.join(5000);
+    }
+
+    @Test
+    @DisplayName("Should apply amends on the writer and match the amended order")
+    void testAmend() throws InterruptedException {
+        Order bid = newOrder(BROKER_1, "B001", Side.BUY, PRICE_8_1, 100);
+        Order ask = newOrder(BROKER_2, "S001", Side.SELL, PRICE_8_2, 100);
+        writer.apply(SingleWriterBookJob.Command.newOrder(bid));
+        writer.apply(SingleWriterBookJob.Command.newOrder(ask));
+        assertTrue(tradeDataQueue.isEmpty());
+
+        writer.apply(SingleWriterBookJob.Command.amend(bid.getOrderId(),
+                ask.getPrice(), null));
+
+        Trade trade = tradeDataQueue.poll();
+        assertNotNull(trade);
+        assertEquals(100, trade.getExecutedQty());
+        assertTrue(orderBook.isEmpty(Side.BUY));
+        assertTrue(orderBook.isEmpty(Side.SELL));
+    }
+
+    @Test
+    @DisplayName("Should not apply a command of another stock to any book")
+    void testForeignStock() throws InterruptedException {
+        SingleWriterBookJob writer2 = new SingleWriterBookJob(OrderBook.create(STOCK_2, "Stock 2"),
+                marketDataQueue::put, tradeDataQueue::put);
+        writer2.apply(SingleWriterBookJob.Command.newOrder(newOrder(BROKER_1, "B001", Side.BUY, PRICE_8_1, 100)));
+
+        assertTrue(orderBook.isEmpty(Side.BUY));
+        assertTrue(orderBook.getOrderIndex().isEmpty());
+        assertTrue(writer2.getOrderBook().isEmpty(Side.BUY));
+    }
+
+    @Test
+    @DisplayName("Should serve the books from a fixed worker pool keeping one writer per book")
+    void testScheduledBooks() throws InterruptedException {
+        int noOfOrders = 200;
+        OrderBook orderBook2 = OrderBook.create(STOCK_2, "Stock 2");
+        SingleWriterBookJob writer1 = new SingleWriterBookJob(orderBook, marketDataQueue::put, tradeDataQueue::put);
+        SingleWriterBookJob writer2 = new SingleWriterBookJob(orderBook2, marketDataQueue::put, tradeDataQueue::put);
+        BookScheduler bookScheduler = new BookScheduler(2, 16);
+        bookScheduler.register(writer1);
+        bookScheduler.register(writer2);
+        bookScheduler.start();
+        long tradedQty = 0;
+        try {
+            // Buyers and sellers of both books submit concurrently, every order crossing one of the other side
+            List<Thread> submitters = new ArrayList<>();
+            for (SingleWriterBookJob writer : List.of(writer1, writer2)) {
+                String stockNo = writer.getOrderBook().getStockNo();
+                for (Side side : Side.values()) {
+                    submitters.add(new Thread(() -> {
+                        try {
+                            for (int i = 0; i < noOfOrders; i++) {
+                                writer.submit(newOrder(stockNo, BROKER_1, side.value + i, side, PRICE_8_1, 100));
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }));
+                }
+            }
+            submitters.forEach(Thread::start);
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+
+            while (tradedQty < 2L * noOfOrders * 100) {
+                Trade trade = tradeDataQueue.poll(30, TimeUnit.SECONDS);
+                assertNotNull(trade, "Only " + tradedQty + " traded");
+                tradedQty += trade.getExecutedQty();
+                OrderPoolManager.returnTradeObj(trade);
+            }
+            // The filled orders are removed after their trade is published
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!(orderBook.getOrderIndex().isEmpty() && orderBook2.getOrderIndex().isEmpty())
+                    && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            assertEquals(0, writer1.getBacklog() + writer2.getBacklog());
+            assertEquals(0, bookScheduler.getReadyBooks());
+        } finally {
+            bookScheduler.shutdown();
+        }
+
+        assertEquals(2L * noOfOrders * 100, tradedQty);
+        for (OrderBook book : List.of(orderBook, orderBook2)) {
+            assertTrue(book.isEmpty(Side.BUY));
+            assertTrue(book.isEmpty(Side.SELL));
+            assertTrue(book.getOrderIndex().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package equity.orderprocessing;
+
+import equity.objectpooling.Order;
+import equity.objectpooling.OrderPoolManager;
+import equity.requesthandling.TcpOrderGateway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("TCP Order Gateway Tests")
+public class TestTcpOrderGateway {
+    private static final String STOCK_1 = "00001";
+    private static final int NO_OF_CLIENTS = 500;
+
+    private final LinkedBlockingQueue<Order> orderQueue = new LinkedBlockingQueue<>();
+    private TcpOrderGateway gateway;
+    private Thread gatewayThread;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        gateway = new TcpOrderGateway(0, orderQueue::put);
+        gatewayThread = new Thread(gateway, "Gateway");
+        gatewayThread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gateway.getLocalPort() < 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertTrue(gateway.getLocalPort() > 0);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        gateway.shutdown();
+        gatewayThread.join(5000);
+        Order order;
+        while ((order = orderQueue.poll()) != null) {
+            OrderPoolManager.returnOrderObj(order);
+        }
+        OrderPoolManager.clearObjects(STOCK_1);
+    }
+
+    private String send(Socket client, String message) throws IOException {
+        DataOutputStream out = new DataOutputStream(client.getOutputStream());
+        out.writeBytes(message + '\n');
+        out.flush();
+        return new DataInputStream(client.getInputStream()).readUTF();
+    }
+
+    @Test
+    @DisplayName("Should serve many concurrent connections while another client is idle")
+    void testConcurrentConnections() throws Exception {
+        // A client which connects but never sends must not block the others
+        try (Socket idleClient = new Socket("localhost", gateway.getLocalPort());
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> replies = new ArrayList<>();
+            for (int i = 0; i < NO_OF_CLIENTS; i++) {
+                String clientOrdID = String.format("%04d", i);
+                replies.add(clients.submit(() -> {
+                    try (Socket client = new Socket("localhost", gateway.getLocalPort())) {
+                        return send(client, STOCK_1 + ":Broker 1:" + clientOrdID + ":L:B:8.1:100");
+                    }
+                }));
+            }
+            for (Future<String> reply : replies) {
+                assertTrue(reply.get(30, TimeUnit.SECONDS).contains("is processing your order"));
+            }
+            assertTrue(idleClient.isConnected());
+        }
+        Set<String> clientOrdIDs = new HashSet<>();
+        for (Order order : orderQueue) {
+            clientOrdIDs.add(order.getClientOrdID());
+        }
+        assertEquals(NO_OF_CLIENTS, clientOrdIDs.size());
+    }
+
+    @Test
+    @DisplayName("Should reject invalid orders and keep serving the connection")
+    void testValidation() throws IOException {
+        try (Socket client = new Socket("localhost", gateway.getLocalPort())) {
+            assertTrue(send(client, "99999:Broker 1:001:L:B:8.1:100").startsWith("Order rejected: unknown stock"));
+            assertTrue(send(client, STOCK_1 + ":Broker 1:001:L:B:8.1").startsWith("Order rejected: expected 7 fields"));
+            assertTrue(send(client, STOCK_1 + ":Broker 1:001:X:B:8.1:100").startsWith("Order rejected: unknown order type"));
+            assertTrue(send(client, STOCK_1 + ":Broker 1:001:L:B:null:100").startsWith("Order rejected: limit order without price"));
+            assertTrue(send(client, STOCK_1 + ":Broker 1:001:L:B:-1:100").startsWith("Order rejected: price must be positive"));
+            assertTrue(send(client, STOCK_1 + ":Broker 1:001:L:B:8.1:0").startsWith("Order rejected: quantity must be positive"));
+            assertTrue(orderQueue.isEmpty());
+
+            // Several orders on one connection
+            assertTrue(send(client, STOCK_1 + ":Broker 1:001:L:B:8.1:100").contains("is processing your order"));
+            assertTrue(send(client, STOCK_1 + ":Broker 1:002:M:S:null:100").contains("is processing your order"));
+        }
+        assertEquals(2, orderQueue.size());
+        Order marketOrder = new ArrayList<>(orderQueue).get(1);
+        assertEquals("M", marketOrder.getOrderType());
+        assertEquals("S", marketOrder.getBuyOrSell());
+    }
+}